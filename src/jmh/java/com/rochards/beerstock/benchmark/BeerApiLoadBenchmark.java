@@ -0,0 +1,98 @@
+package com.rochards.beerstock.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of {@code GET /api/v1/beers/{id}} served by the servlet stack, on platform or on virtual threads, and by
+ * the reactive one, with as many concurrent clients as benchmark threads. The sample time mode reports the latency
+ * percentiles, p0.99 among them, and {@link ThreadCountProfiler} the threads each stack needed:
+ * {@code mvn -Pbenchmark verify -Djmh.args="BeerApiLoadBenchmark -prof com.rochards.beerstock.benchmark.ThreadCountProfiler"}.
+ * The cache is disabled so that every request reaches the database, through JDBC on the servlet stack and R2DBC on the
+ * reactive one. {@code pollUnchanged} is a poller of the beer list whose catalogue hasn't changed since its last read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(256)
+@Fork(value = 1, jvmArgsAppend = "-Dhttp.maxConnections=256") // a kept-alive connection per client
+public class BeerApiLoadBenchmark {
+
+    @Param({"servlet", "virtual", "reactive"})
+    private String stack;
+
+    private ConfigurableApplicationContext context;
+    private String beersUrl;
+    private String listUrl;
+    private long[] ids;
+    private String catalogETag;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] profiles = stack.equals("reactive") ? new String[]{"reactive"} : new String[0];
+        context = BenchmarkContext.startServer(profiles, "beerstock.cache.maximum-size=0",
+                "beerstock.admission.enabled=false",
+                "spring.threads.virtual.enabled=" + stack.equals("virtual"));
+        BenchmarkContext.insertBeers(context, 1000, 500, 250);
+        listUrl = BenchmarkContext.baseUrl(context) + "/api/v1/beers";
+        beersUrl = listUrl + "/";
+        ids = context.getBean(JdbcTemplate.class).queryForList("select id from beer order by id", Long.class)
+                .stream().mapToLong(Long::longValue).toArray();
+        catalogETag = open(listUrl).getHeaderField(HttpHeaders.ETAG);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public int findById() throws IOException {
+        long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        HttpURLConnection connection = open(beersUrl + id);
+        try (InputStream body = connection.getInputStream()) {
+            body.readAllBytes(); // a fully read body lets the connection be reused
+        }
+        return connection.getResponseCode();
+    }
+
+    // answered with a 304 before any beer is loaded
+    @Benchmark
+    public int pollUnchanged() throws IOException {
+        HttpURLConnection connection = open(listUrl);
+        connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, catalogETag);
+        int status = connection.getResponseCode();
+        connection.getInputStream().close();
+        return status;
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(10_000);
+        connection.setReadTimeout(30_000); // a lost response fails the run instead of hanging it
+        return connection;
+    }
+}
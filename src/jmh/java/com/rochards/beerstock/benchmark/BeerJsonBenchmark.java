@@ -0,0 +1,75 @@
+package com.rochards.beerstock.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.QuantityDTO;
+import com.rochards.beerstock.enums.BeerType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the request and response bodies with an ObjectMapper configured the way Spring MVC does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeerJsonBenchmark {
+
+    private final BeerDTO beerDTO = new BeerDTO(1L, "Brahma", "Ambev", 50, 10, BeerType.LAGER);
+    private final QuantityDTO quantityDTO = new QuantityDTO(10);
+
+    private ObjectWriter beerWriter;
+    private ObjectReader beerReader;
+    private ObjectWriter quantityWriter;
+    private ObjectReader quantityReader;
+    private byte[] beerJson;
+    private byte[] quantityJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        beerWriter = objectMapper.writerFor(BeerDTO.class);
+        beerReader = objectMapper.readerFor(BeerDTO.class);
+        quantityWriter = objectMapper.writerFor(QuantityDTO.class);
+        quantityReader = objectMapper.readerFor(QuantityDTO.class);
+        beerJson = beerWriter.writeValueAsBytes(beerDTO);
+        quantityJson = quantityWriter.writeValueAsBytes(quantityDTO);
+    }
+
+    @Benchmark
+    public byte[] encodeBeer() throws IOException {
+        return beerWriter.writeValueAsBytes(beerDTO);
+    }
+
+    @Benchmark
+    public BeerDTO decodeBeer() throws IOException {
+        return beerReader.readValue(beerJson);
+    }
+
+    @Benchmark
+    public byte[] encodeQuantity() throws IOException {
+        return quantityWriter.writeValueAsBytes(quantityDTO);
+    }
+
+    @Benchmark
+    public QuantityDTO decodeQuantity() throws IOException {
+        return quantityReader.readValue(quantityJson);
+    }
+}
@@ -0,0 +1,127 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.JpaStockStore;
+import com.rochards.beerstock.service.BeerSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Fuzzy queries against a {@link BeerSearchIndex} of generated names and brands, each query a real name with one
+ * typo. The heap the index takes is printed once it is built:
+ * {@code mvn -Pbenchmark verify -Djmh.args="BeerSearchIndexBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class BeerSearchIndexBenchmark {
+
+    // 25 onsets, 8 vowels and 6 codas make 1200 syllables, real names have a richer spread of trigrams than a few
+    private static final String[] ONSETS = {"b", "br", "c", "ch", "d", "f", "g", "gr", "h", "j", "k", "l", "m", "n",
+            "p", "pr", "qu", "r", "s", "st", "t", "tr", "v", "w", "z"};
+    private static final String[] VOWELS = {"a", "e", "i", "o", "u", "ai", "ei", "ou"};
+    private static final String[] CODAS = {"", "n", "r", "s", "l", "k"};
+
+    @Param({"1000000"})
+    private int entries;
+
+    private BeerSearchIndex beerSearchIndex;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] brands = new String[5_000];
+        for (int i = 0; i < brands.length; i++) {
+            brands[i] = words(random, 1 + random.nextInt(2));
+        }
+
+        // the index is loaded as on startup, from a repository that only streams the generated beers
+        queries = new String[1024];
+        int queryEvery = entries / queries.length;
+        BeerRepository beerRepository = (BeerRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BeerRepository.class}, (proxy, method, args) -> {
+                    @SuppressWarnings("unchecked")
+                    Consumer<Beer> action = (Consumer<Beer>) args[1];
+                    for (int id = 1; id <= entries; id++) {
+                        String name = words(random, 1 + random.nextInt(3)) + " " + id % 1000;
+                        action.accept(new Beer(id, name, brands[random.nextInt(brands.length)], 100, 10,
+                                BeerType.LAGER));
+                        if (id % queryEvery == 0 && id / queryEvery <= queries.length) {
+                            queries[id / queryEvery - 1] = withTypo(random, name);
+                        }
+                    }
+                    return null;
+                });
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeapAfterGc(memory);
+        beerSearchIndex = new BeerSearchIndex(new JpaStockStore(beerRepository), new BeerstockProperties());
+        beerSearchIndex.load();
+        long heapAfter = usedHeapAfterGc(memory);
+        System.out.printf("%nIndex of %d beers: %d MB of heap%n", entries, (heapAfter - heapBefore) >> 20);
+    }
+
+    @Setup(Level.Iteration)
+    public void rewind() {
+        next = 0;
+    }
+
+    @Benchmark
+    public List<Long> search() {
+        return beerSearchIndex.search(queries[next++ & (queries.length - 1)], 20);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int word = 0; word < count; word++) {
+            if (word > 0) {
+                words.append(' ');
+            }
+            int syllables = 2 + random.nextInt(2);
+            for (int i = 0; i < syllables; i++) {
+                words.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)])
+                        .append(CODAS[random.nextInt(CODAS.length)]);
+            }
+        }
+        return Character.toUpperCase(words.charAt(0)) + words.substring(1);
+    }
+
+    // one letter of the name dropped, as someone typing fast would
+    private static String withTypo(Random random, String name) {
+        int at = random.nextInt(name.indexOf(' ') > 1 ? name.indexOf(' ') : name.length());
+        return name.substring(0, at) + name.substring(at + 1);
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
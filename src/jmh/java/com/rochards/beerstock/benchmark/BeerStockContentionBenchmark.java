@@ -0,0 +1,82 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.enums.StockLocking;
+import com.rochards.beerstock.service.BeerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread increments and then decrements the stock of the same beers, so the quantity stays within its bounds
+ * however long the run is. With a single beer all threads contend for one row. ATOMIC is the conditional update the
+ * service uses by default, OPTIMISTIC retries on version conflicts and PESSIMISTIC locks the row before writing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class BeerStockContentionBenchmark {
+
+    @Param({"1", "64"})
+    private int beers;
+
+    @Param({"ATOMIC", "OPTIMISTIC", "PESSIMISTIC"})
+    private StockLocking locking;
+
+    private ConfigurableApplicationContext context;
+    private BeerService beerService;
+    private long[] ids;
+
+    @Setup
+    public void setUp() {
+        // conflicts must not fail the run, they only cost throughput
+        context = BenchmarkContext.start("beerstock.stock-update.locking=" + locking,
+                "beerstock.stock-update.max-attempts=" + Integer.MAX_VALUE, "logging.level.org.hibernate=off");
+        BenchmarkContext.insertBeers(context, beers, 500, 250);
+        beerService = context.getBean(BeerService.class);
+        ids = context.getBean(JdbcTemplate.class).queryForList("select id from beer order by id", Long.class)
+                .stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public BeerDTO incrementThenDecrement(ThreadState threadState) {
+        long id = ids[threadState.next++ % ids.length];
+        beerService.incrementStock(id, 1);
+        return beerService.decrementStock(id, 1);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int next;
+
+        @Setup
+        public void setUp() { // threads don't walk the beers in lockstep
+            next = ThreadLocalRandom.current().nextInt(1024);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.rochards.beerstock.benchmark;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.QuantityDTO;
+import com.rochards.beerstock.enums.BeerType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bodies of the stock endpoints in JSON and in CBOR, with ObjectMappers configured the way Spring MVC does it: a
+ * beer, a quantity and a page of beers as the list endpoint returns it. The payload sizes in bytes are reported as the
+ * bytes counter of the encode benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeerWireFormatBenchmark {
+
+    public enum Format {
+        JSON, CBOR
+    }
+
+    @Param({"JSON", "CBOR"})
+    private Format format;
+
+    @Param({"100"})
+    private int pageSize;
+
+    private final BeerDTO beerDTO = new BeerDTO(1L, "Brahma", "Ambev", 50, 10, BeerType.LAGER);
+    private final QuantityDTO quantityDTO = new QuantityDTO(10);
+    private final List<BeerDTO> page = new ArrayList<>();
+
+    private ObjectWriter beerWriter;
+    private ObjectReader beerReader;
+    private ObjectWriter quantityWriter;
+    private ObjectReader quantityReader;
+    private ObjectWriter pageWriter;
+    private ObjectReader pageReader;
+    private byte[] beerBytes;
+    private byte[] quantityBytes;
+    private byte[] pageBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = format == Format.JSON
+                ? Jackson2ObjectMapperBuilder.json().build()
+                : Jackson2ObjectMapperBuilder.cbor().build();
+        for (int i = 0; i < pageSize; i++) {
+            BeerType type = BeerType.values()[i % BeerType.values().length];
+            page.add(new BeerDTO(i + 1L, "Beer " + i, "Brand " + (i % 10), 500, i % 500, type));
+        }
+        beerWriter = objectMapper.writerFor(BeerDTO.class);
+        beerReader = objectMapper.readerFor(BeerDTO.class);
+        quantityWriter = objectMapper.writerFor(QuantityDTO.class);
+        quantityReader = objectMapper.readerFor(QuantityDTO.class);
+        JavaType pageType = objectMapper.getTypeFactory().constructCollectionType(List.class, BeerDTO.class);
+        pageWriter = objectMapper.writerFor(pageType);
+        pageReader = objectMapper.readerFor(pageType);
+        beerBytes = beerWriter.writeValueAsBytes(beerDTO);
+        quantityBytes = quantityWriter.writeValueAsBytes(quantityDTO);
+        pageBytes = pageWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] encodeBeer(Payload payload) throws IOException {
+        byte[] bytes = beerWriter.writeValueAsBytes(beerDTO);
+        payload.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public BeerDTO decodeBeer() throws IOException {
+        return beerReader.readValue(beerBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeQuantity(Payload payload) throws IOException {
+        byte[] bytes = quantityWriter.writeValueAsBytes(quantityDTO);
+        payload.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public QuantityDTO decodeQuantity() throws IOException {
+        return quantityReader.readValue(quantityBytes);
+    }
+
+    @Benchmark
+    public byte[] encodePage(Payload payload) throws IOException {
+        byte[] bytes = pageWriter.writeValueAsBytes(page);
+        payload.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public List<BeerDTO> decodePage() throws IOException {
+        return pageReader.readValue(pageBytes);
+    }
+}
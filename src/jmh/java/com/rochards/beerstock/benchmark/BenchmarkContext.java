@@ -0,0 +1,65 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.BeerstockApplication;
+import com.rochards.beerstock.enums.BeerType;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the application on the same embedded H2 database the tests use, without the web server unless a benchmark
+ * goes through the API.
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(BeerstockApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("logging.level.root=warn", "spring.main.banner-mode=off")
+                .run(asArguments(properties));
+    }
+
+    // on a random port, the profiles pick the stack that serves the API
+    static ConfigurableApplicationContext startServer(String[] profiles, String... properties) {
+        return new SpringApplicationBuilder(BeerstockApplication.class)
+                .profiles(profiles)
+                .properties("logging.level.root=warn", "spring.main.banner-mode=off", "server.port=0")
+                .run(asArguments(properties));
+    }
+
+    static String baseUrl(ConfigurableApplicationContext context) {
+        return "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    // the in-memory database outlives the context, which matters when benchmarks run without forking
+    static void stop(ConfigurableApplicationContext context) {
+        context.getBean(JdbcTemplate.class).update("delete from beer");
+        context.close();
+    }
+
+    // default properties rank below application.properties, command line arguments override it
+    private static String[] asArguments(String... properties) {
+        return Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new);
+    }
+
+    static void insertBeers(ConfigurableApplicationContext context, int count, int max, int quantity) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[]{"Beer " + i, "Brand " + (i % 100), max, quantity, BeerType.values()[i % 7].name()});
+            if (rows.size() == 10_000 || i == count - 1) {
+                jdbcTemplate.batchUpdate("insert into beer (id, name, brand, max, quantity, type) " +
+                        "values (next value for beer_seq, ?, ?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.service.BeerService;
+import com.rochards.beerstock.service.HotStockLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The workload of {@link BeerStockContentionBenchmark} on beers kept in the hot stock ledger, to compare with its
+ * ATOMIC row updates. With a single beer every change waits for the same counter, with 64 they only share the
+ * journal and its forces. Without fsync no change waits for the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class HotStockContentionBenchmark {
+
+    @Param({"1", "64"})
+    private int beers;
+
+    @Param({"true", "false"})
+    private boolean fsync;
+
+    private ConfigurableApplicationContext context;
+    private Path journalDirectory;
+    private BeerService beerService;
+    private HotStockLedger hotStockLedger;
+    private long[] ids;
+
+    @Setup
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("hot-stock");
+        context = BenchmarkContext.start("beerstock.hot-stock.enabled=true",
+                "beerstock.hot-stock.journal-directory=" + journalDirectory, "beerstock.hot-stock.fsync=" + fsync);
+        BenchmarkContext.insertBeers(context, beers, 500, 250);
+        ids = context.getBean(JdbcTemplate.class).queryForList("select id from beer order by id", Long.class)
+                .stream().mapToLong(Long::longValue).toArray();
+
+        // the ledger read its beers on startup, before these were inserted
+        context.getBean(BeerstockProperties.class).getHotStock()
+                .setBeerIds(Arrays.stream(ids).boxed().collect(Collectors.toSet()));
+        hotStockLedger = context.getBean(HotStockLedger.class);
+        hotStockLedger.reload();
+        beerService = context.getBean(BeerService.class);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkContext.stop(context);
+        try (Stream<Path> files = Files.walk(journalDirectory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public BeerDTO incrementThenDecrement(ThreadState threadState) {
+        long id = ids[threadState.next++ % ids.length];
+        beerService.incrementStock(id, 1);
+        return beerService.decrementStock(id, 1);
+    }
+
+    // the same changes without the service around them, the ledger's own contention
+    @Benchmark
+    public long ledgerIncrementThenDecrement(ThreadState threadState) {
+        long id = ids[threadState.next++ % ids.length];
+        hotStockLedger.add(id, 1);
+        return hotStockLedger.add(id, -1);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int next;
+
+        @Setup
+        public void setUp() { // threads don't walk the beers in lockstep
+            next = ThreadLocalRandom.current().nextInt(1024);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.service.BeerMetrics;
+import com.rochards.beerstock.service.IdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Idempotency-Key lookups against a memory tier already holding as many live keys as it is sized for, random UUIDs
+ * as clients send them. A replay finds its key, a first use misses, runs the change and evicts another key. The heap
+ * the keys take is printed once they are stored:
+ * {@code mvn -Pbenchmark verify -Djmh.args="IdempotencyStoreBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class IdempotencyStoreBenchmark {
+
+    private static final BeerDTO RESPONSE = new BeerDTO(1L, "Brahma", "Ambev", 50, 10, BeerType.LAGER, 1);
+
+    @Param({"100000", "1000000"})
+    private int keys;
+
+    private IdempotencyStore idempotencyStore;
+    private String[] storedKeys;
+    private final AtomicLong newKeys = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getIdempotency().setMaximumSize(keys);
+        idempotencyStore = new IdempotencyStore(null, new BeerMetrics(new SimpleMeterRegistry(), null),
+                beerstockProperties);
+
+        storedKeys = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            storedKeys[i] = UUID.randomUUID().toString();
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeapAfterGc(memory);
+        for (int i = 0; i < keys; i++) {
+            idempotencyStore.execute(storedKeys[i], fingerprint(i), IdempotencyStoreBenchmark::change);
+        }
+        long heapAfter = usedHeapAfterGc(memory);
+        System.out.printf("%n%d keys: %d bytes of heap per key besides the key itself%n", keys,
+                (heapAfter - heapBefore) / keys);
+    }
+
+    @Benchmark
+    public BeerDTO replay() {
+        int i = ThreadLocalRandom.current().nextInt(keys);
+        return idempotencyStore.execute(storedKeys[i], fingerprint(i), IdempotencyStoreBenchmark::change);
+    }
+
+    @Benchmark
+    public BeerDTO firstUse() {
+        String key = "new-" + newKeys.incrementAndGet();
+        return idempotencyStore.execute(key, fingerprint(0), IdempotencyStoreBenchmark::change);
+    }
+
+    private static BeerDTO change() {
+        return RESPONSE;
+    }
+
+    // the fingerprints of the controllers, built on every request there too
+    private static String fingerprint(int i) {
+        return IdempotencyStore.fingerprint("increment", (long) (i % 1000), 5, null);
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,80 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.dto.SnapshotDTO;
+import com.rochards.beerstock.enums.SnapshotCompression;
+import com.rochards.beerstock.service.StockSnapshots;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writing a snapshot of the whole beer table and restoring it, each run a single shot over a million beers. The
+ * restore replaces the table the snapshot was taken from, so it deletes as many rows as it inserts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StockSnapshotBenchmark {
+
+    @Param({"1000000"})
+    private int beers;
+
+    @Param({"NONE", "DEFLATE"})
+    private SnapshotCompression compression;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private StockSnapshots stockSnapshots;
+    private SnapshotDTO snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("beerstock-snapshots");
+        context = BenchmarkContext.start("beerstock.snapshot.directory=" + directory,
+                "beerstock.snapshot.compression=" + compression, "beerstock.snapshot.retained=1000",
+                "logging.level.org.hibernate=off");
+        BenchmarkContext.insertBeers(context, beers, 500, 250);
+        stockSnapshots = context.getBean(StockSnapshots.class);
+        snapshot = stockSnapshots.snapshot();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkContext.stop(context);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public SnapshotDTO snapshot() throws IOException {
+        return stockSnapshots.snapshot();
+    }
+
+    @Benchmark
+    public SnapshotDTO restore() throws IOException {
+        return stockSnapshots.restore(snapshot.getName());
+    }
+}
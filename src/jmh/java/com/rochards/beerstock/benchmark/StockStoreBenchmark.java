@@ -0,0 +1,102 @@
+package com.rochards.beerstock.benchmark;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.repository.StockStore;
+import com.rochards.beerstock.service.BeerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The beer table against the memory-mapped file, reading a beer and changing its stock through the store alone and
+ * through the service, which adds the cache, the transaction and the outbox the stock changes are recorded in. The
+ * mapped engine runs without fsync, as the in-memory H2 database doesn't sync either.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class StockStoreBenchmark {
+
+    private static final int BEERS = 10_000;
+
+    @Param({"JPA", "MAPPED"})
+    private StoreEngine engine;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private StockStore stockStore;
+    private BeerService beerService;
+    private long[] ids;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("beerstock");
+        context = BenchmarkContext.start("beerstock.store.engine=" + engine.name().toLowerCase(),
+                "beerstock.store.file=" + directory.resolve("beers.store"), "beerstock.store.fsync=false",
+                "logging.level.org.hibernate=off");
+        stockStore = context.getBean(StockStore.class);
+        beerService = context.getBean(BeerService.class);
+        ids = new long[BEERS];
+        for (int i = 0; i < BEERS; i++) {
+            ids[i] = stockStore.save(new Beer(0, "Beer " + i, "Brand " + (i % 100), 500, 250,
+                    BeerType.values()[i % 7])).getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkContext.stop(context);
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Beer storeFindById() {
+        return stockStore.findById(randomId()).orElseThrow();
+    }
+
+    @Benchmark
+    public int storeAddStock() {
+        long id = randomId();
+        return stockStore.addStock(id, 1, null) + stockStore.addStock(id, -1, null);
+    }
+
+    @Benchmark
+    public BeerDTO serviceIncrementThenDecrement() {
+        long id = randomId();
+        beerService.incrementStock(id, 1);
+        return beerService.decrementStock(id, 1);
+    }
+
+    private long randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(BEERS)];
+    }
+}
@@ -0,0 +1,41 @@
+package com.rochards.beerstock.benchmark;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Peak number of live threads of the benchmark JVM in each iteration, enabled with
+ * {@code -prof com.rochards.beerstock.benchmark.ThreadCountProfiler}. It includes the benchmark threads themselves,
+ * which are the same for every param of a benchmark.
+ */
+public class ThreadCountProfiler implements InternalProfiler {
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Override
+    public String getDescription() {
+        return "Peak number of live threads in each iteration";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        threadMXBean.resetPeakThreadCount();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams, IterationResult result) {
+        return List.of(new ScalarResult("threads.peak", threadMXBean.getPeakThreadCount(), "threads",
+                AggregationPolicy.MAX));
+    }
+}
@@ -0,0 +1,176 @@
+package com.rochards.beerstock.config;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.SnapshotCompression;
+import com.rochards.beerstock.enums.StockLocking;
+import com.rochards.beerstock.enums.StoreEngine;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+@Data
+@ConfigurationProperties(prefix = "beerstock")
+public class BeerstockProperties {
+
+    private Pagination pagination = new Pagination();
+    private Export export = new Export();
+    private BulkImport bulkImport = new BulkImport();
+    private Cache cache = new Cache();
+    private HotStock hotStock = new HotStock();
+    private StockUpdate stockUpdate = new StockUpdate();
+    private FuzzySearch fuzzySearch = new FuzzySearch();
+    private LowStock lowStock = new LowStock();
+    private Outbox outbox = new Outbox();
+    private Reservation reservation = new Reservation();
+    private Idempotency idempotency = new Idempotency();
+    private Admission admission = new Admission();
+    private History history = new History();
+    private Store store = new Store();
+    private Snapshot snapshot = new Snapshot();
+
+    @Data
+    public static class Pagination {
+
+        private int defaultSize = 20;
+        private int maxSize = 100; // requested sizes above it are capped
+    }
+
+    @Data
+    public static class Export {
+
+        private int fetchSize = 1000; // rows the driver brings per round-trip while streaming
+    }
+
+    @Data
+    public static class BulkImport {
+
+        private int batchSize = 500; // rows checked for duplicates and inserted per round-trip
+    }
+
+    @Data
+    public static class Cache {
+
+        private long maximumSize = 10_000; // entries per cache, least used ones are evicted first
+        private Duration timeToLive = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class HotStock {
+
+        private boolean enabled = false;
+        private Set<Long> beerIds = new HashSet<>(); // beers whose stock is kept in memory while enabled
+        private String journalDirectory = "data/hot-stock";
+        private boolean fsync = true; // forces each journal record to disk before the change is acknowledged
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int flushThreshold = 1_000; // net units pending on a single beer that trigger an early flush
+    }
+
+    @Data
+    public static class StockUpdate {
+
+        private StockLocking locking = StockLocking.ATOMIC;
+        private int maxAttempts = 5; // tries of an update that keeps losing a concurrency conflict, the first included
+        private Duration backoff = Duration.ofMillis(5); // doubles per attempt, the wait is a random part of it
+        private Duration maxBackoff = Duration.ofMillis(100);
+    }
+
+    @Data
+    public static class FuzzySearch {
+
+        private double minSimilarity = 0.3; // share of the query trigrams a beer needs to have to be a match
+    }
+
+    @Data
+    public static class LowStock {
+
+        private Map<BeerType, Integer> thresholdsByType = new EnumMap<>(BeerType.class); // reorder points in units
+        private Map<Long, Integer> thresholdsByBeer = new HashMap<>(); // take precedence over the type ones
+        private int hysteresis = 5; // units above the threshold a beer has to reach before it can alert again
+        private int queueCapacity = 10_000; // beers waiting to be checked, newer ones are dropped while it is full
+        private int subscriberBuffer = 256; // alerts kept for a slow subscriber, its oldest ones are dropped first
+    }
+
+    @Data
+    public static class Outbox {
+
+        private Duration relayInterval = Duration.ofSeconds(1); // wait between runs that find nothing left to publish
+        private int batchSize = 500; // changes published to the sink per transaction
+        private String file = "data/stock-changes.ndjson"; // appended to by the default sink
+    }
+
+    @Data
+    public static class Reservation {
+
+        private Duration defaultTtl = Duration.ofMinutes(15);
+        private Duration maxTtl = Duration.ofHours(2); // longer TTLs asked for are capped
+        private int expiryBatchSize = 500; // expired reservations released per transaction
+    }
+
+    @Data
+    public static class Idempotency {
+
+        private Duration ttl = Duration.ofHours(24); // how long a repeated key replays the first response
+        private long maximumSize = 100_000; // keys kept in memory, least used ones are evicted first
+        private boolean persistent = false; // also keeps the responses in the database, read once memory lost keys
+        private Duration purgeInterval = Duration.ofHours(1); // of the expired responses in the database
+    }
+
+    @Data
+    public static class Admission {
+
+        private boolean enabled = false;
+        private String clientHeader = "X-API-Key";
+        private Set<String> clientKeys = new HashSet<>(); // issued ones, clients sending others go by address
+        private int maxClients = 100_000; // buckets per kind, the clients beyond them share one until a sweep
+        private Limits reads = new Limits(200, 400, 256);
+        private Limits mutations = new Limits(50, 100, 64);
+        private Duration overloadRetryAfter = Duration.ofSeconds(1); // sent to the requests shed
+        private Duration sweepInterval = Duration.ofMinutes(1); // of the buckets of the clients gone idle
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Limits {
+
+        private double rate; // requests per second per client, on average
+        private int burst; // requests a client may send at once after being idle
+        private int maxConcurrent; // requests of every client in progress at once, the ones beyond it are shed
+    }
+
+    @Data
+    public static class History {
+
+        private int defaultBuckets = 24; // read back from the end of the range when it has no start
+        private int maxBuckets = 1_440; // a range read at once, a day of minutes
+    }
+
+    @Data
+    public static class Store {
+
+        private StoreEngine engine = StoreEngine.JPA;
+        private String file = "data/beers.store"; // of the mapped engine
+        private int capacity = 100_000; // beers the mapped file has room for, it grows to a larger one on start
+        private boolean fsync = true; // forces each stock change of the mapped engine to disk before acknowledging it
+    }
+
+    @Data
+    public static class Snapshot {
+
+        private String directory = "data/snapshots";
+        private SnapshotCompression compression = SnapshotCompression.DEFLATE;
+        private int blockSize = 65_536; // beers encoded and compressed together, and inserted in one JDBC batch
+        private int retained = 5; // snapshots kept, the oldest ones are deleted after a new one is written
+        private boolean restoreOnStartup = false; // the latest snapshot, if the beer table is empty
+        private boolean snapshotOnShutdown = false;
+        private Duration restoreRetryAfter = Duration.ofSeconds(5); // sent to the writes rejected during a restore
+    }
+}
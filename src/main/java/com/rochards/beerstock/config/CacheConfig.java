@@ -0,0 +1,29 @@
+package com.rochards.beerstock.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rochards.beerstock.service.BeerCache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public CacheManager cacheManager(BeerstockProperties beerstockProperties) {
+        BeerstockProperties.Cache cache = beerstockProperties.getCache();
+
+        CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager(BeerCache.BEERS_BY_ID,
+                BeerCache.BEER_IDS_BY_NAME);
+        caffeineCacheManager.setCaffeine(Caffeine.newBuilder()
+                .maximumSize(cache.getMaximumSize())
+                .expireAfterWrite(cache.getTimeToLive())
+                .recordStats()); // hit/miss/eviction counts published by actuator as cache.* metrics
+
+        // evictions made inside a transaction only happen after it commits, so a concurrent read can't put the
+        // value from before the commit back in the cache
+        return new TransactionAwareCacheManagerProxy(caffeineCacheManager);
+    }
+}
@@ -0,0 +1,78 @@
+package com.rochards.beerstock.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.rochards.beerstock.enums.StoreEngine;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+@Profile("reactive")
+public class ReactiveWebConfig {
+
+    // the reactive stack reads and writes the beer table through R2DBC
+    public ReactiveWebConfig(BeerstockProperties beerstockProperties) {
+        if (beerstockProperties.getStore().getEngine() == StoreEngine.MAPPED) {
+            throw new IllegalStateException("The reactive profile can't be used with the mapped store, set " +
+                    "beerstock.store.engine=jpa.");
+        }
+    }
+
+    // Spring Boot prefers Tomcat when both are on the classpath, the reactive stack is meant to run on Netty
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    // WebFlux has no Jackson CBOR codecs by default, and the custom ones come before the default ones. The JSON encoder
+    // of Spring Boot's mapper is registered again ahead of CBOR, so JSON stays the default for writing. The media type
+    // is given explicitly, the codecs would claim the JSON ones otherwise
+    @Bean
+    public CodecCustomizer cborCodecCustomizer(ObjectMapper objectMapper, Jackson2ObjectMapperBuilder builder) {
+        ObjectMapper cborMapper = builder.factory(new CBORFactory()).build();
+        return configurer -> {
+            configurer.customCodecs().registerWithDefaultConfig(new Jackson2JsonEncoder(objectMapper));
+            configurer.customCodecs().registerWithDefaultConfig(new CborEncoder(cborMapper));
+            configurer.customCodecs().registerWithDefaultConfig(new Jackson2CborDecoder(cborMapper,
+                    MediaType.APPLICATION_CBOR));
+        };
+    }
+
+    // Spring's encoder only encodes single values, for RSocket, and refuses the publisher a response body comes in. A
+    // Mono is encoded as its value, a Flux as the list of its elements
+    private static final class CborEncoder extends Jackson2CborEncoder {
+
+        private CborEncoder(ObjectMapper objectMapper) {
+            super(objectMapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                       ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono<?> mono) {
+                return mono.map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+            }
+            ResolvableType listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+            return Flux.from(inputStream).collectList()
+                    .map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints)).flux();
+        }
+    }
+}
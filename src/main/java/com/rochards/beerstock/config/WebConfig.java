@@ -0,0 +1,38 @@
+package com.rochards.beerstock.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.rochards.beerstock.controller.RequestAdmissionInterceptor;
+import com.rochards.beerstock.controller.VaryByAcceptInterceptor;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@Profile("!reactive")
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class WebConfig implements WebMvcConfigurer {
+
+    private final VaryByAcceptInterceptor varyByAcceptInterceptor;
+    private final RequestAdmissionInterceptor requestAdmissionInterceptor;
+
+    // the API only, the actuator endpoints stay reachable while the API is shedding load. Vary comes first, the
+    // rejections of the admission are negotiated too
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(varyByAcceptInterceptor).addPathPatterns("/api/v1/beers/**");
+        registry.addInterceptor(requestAdmissionInterceptor).addPathPatterns("/api/v1/beers/**");
+    }
+
+    // takes the place of the default CBOR converter, which comes after the JSON one, so JSON stays the default. Its
+    // mapper is configured like the JSON one, spring.jackson properties included
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
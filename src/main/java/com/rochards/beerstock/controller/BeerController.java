@@ -1,60 +1,282 @@
 package com.rochards.beerstock.controller;
 
 import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerImportResultDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.dto.LowStockAlertDTO;
 import com.rochards.beerstock.dto.QuantityDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.dto.StockChangeDTO;
+import com.rochards.beerstock.dto.StockHistoryDTO;
+import com.rochards.beerstock.dto.StockMovementResultDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.dto.TransferDTO;
 import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.service.BeerExportService;
+import com.rochards.beerstock.service.BeerImportService;
 import com.rochards.beerstock.service.BeerService;
+import com.rochards.beerstock.service.CatalogVersion;
+import com.rochards.beerstock.service.IdempotencyStore;
+import com.rochards.beerstock.service.LowStockAlerts;
+import com.rochards.beerstock.service.StockChangeOutbox;
+import com.rochards.beerstock.service.StockHistory;
+import com.rochards.beerstock.service.StockReservationService;
+import com.rochards.beerstock.service.WarehouseStockService;
+import com.rochards.beerstock.utils.ETagUtils;
 import lombok.AllArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import reactor.core.publisher.Flux;
 
-import javax.validation.Valid;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1/beers")
+@Profile("!reactive") // ReactiveBeerController serves the same contract otherwise
 @AllArgsConstructor(onConstructor = @__(@Autowired))
 public class BeerController {
 
     private final BeerService beerService;
+    private final BeerExportService beerExportService;
+    private final BeerImportService beerImportService;
+    private final LowStockAlerts lowStockAlerts;
+    private final StockChangeOutbox stockChangeOutbox;
+    private final StockReservationService stockReservationService;
+    private final StockHistory stockHistory;
+    private final WarehouseStockService warehouseStockService;
+    private final IdempotencyStore idempotencyStore;
+    private final CatalogVersion catalogVersion;
 
+    // the catalogue version is taken before the beers are loaded, an ETag never claims a change it may have missed
     @GetMapping
-    public ResponseEntity<List<BeerDTO>> listAll() {
-        List<BeerDTO> beers = beerService.listAll();
+    public ResponseEntity<List<BeerDTO>> listAll(@RequestParam(required = false) String cursor,
+                                                 @RequestParam(required = false) Integer size,
+                                                 @RequestParam(defaultValue = "false") boolean unpaged,
+                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                         String ifNoneMatch) {
+        long version = catalogVersion.current();
+        String variant = variant();
+        String current = ETagUtils.findCurrent(ifNoneMatch, version, variant);
+        if (current != null) {
+            return notModified(current);
+        }
+
+        if (unpaged) { // the whole catalogue in one response, only when explicitly asked for
+            List<BeerDTO> beers = beerService.listAll();
+            return tagged(HttpStatus.OK, ETagUtils.toCatalogETag(version, variant)).body(beers);
+        }
+
+        BeerPageDTO page = beerService.listPage(cursor, size);
+        return withNextLink(page, tagged(HttpStatus.OK, ETagUtils.toCatalogETag(version, variant)));
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<BeerDTO>> search(@Valid BeerSearchDTO criteria,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(required = false) Integer size) {
+        BeerPageDTO page = beerService.search(criteria, cursor, size);
+        return withNextLink(page, ResponseEntity.ok());
+    }
+
+    // ranked by similarity to q, a single page of the best matches
+    @GetMapping(value = "/search", params = "q")
+    public ResponseEntity<List<BeerDTO>> fuzzySearch(@RequestParam String q,
+                                                     @RequestParam(required = false) Integer size) {
+        List<BeerDTO> beers = beerService.fuzzySearch(q, size);
         return ResponseEntity.ok(beers);
     }
 
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+        StreamingResponseBody body = outputStream -> beerExportService.export(format, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .body(body);
+    }
+
+    // the stock change feed, read again from the offset of the last change seen to follow it
+    @GetMapping("/changes")
+    public ResponseEntity<List<StockChangeDTO>> changes(@RequestParam(defaultValue = "0") long since,
+                                                        @RequestParam(required = false) Integer size) {
+        List<StockChangeDTO> changes = stockChangeOutbox.changesSince(since, size);
+        return ResponseEntity.ok(changes);
+    }
+
+    // a Server-Sent Events stream of the alerts raised while connected, each event named after the alert status
+    @GetMapping(value = "/low-stock-alerts", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<LowStockAlertDTO>> lowStockAlerts() {
+        return lowStockAlerts.alerts()
+                .map(alert -> ServerSentEvent.builder(alert).event(alert.getStatus().name()).build());
+    }
+
     @GetMapping("/{id}")
-    public ResponseEntity<BeerDTO> findById(@PathVariable Long id) {
+    public ResponseEntity<BeerDTO> findById(@PathVariable Long id,
+                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                    String ifNoneMatch) {
+        long version = catalogVersion.current();
+        String variant = variant();
+        String current = ETagUtils.findCurrent(ifNoneMatch, version, variant);
+        if (current != null) {
+            return notModified(current);
+        }
+
         Optional<BeerDTO> beerDTO = beerService.findById(id);
-        return beerDTO.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+        return beerDTO.map(beer -> withETag(version, variant, beer))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @GetMapping("/name/{name}")
-    public ResponseEntity<BeerDTO> findByName(@PathVariable String name) {
+    public ResponseEntity<BeerDTO> findByName(@PathVariable String name,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                      String ifNoneMatch) {
+        long version = catalogVersion.current();
+        String variant = variant();
+        String current = ETagUtils.findCurrent(ifNoneMatch, version, variant);
+        if (current != null) {
+            return notModified(current);
+        }
+
         Optional<BeerDTO> beerDTO = beerService.findByName(name);
-        return beerDTO.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+        return beerDTO.map(beer -> withETag(version, variant, beer))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @PostMapping
     public ResponseEntity<BeerDTO> create(@Valid @RequestBody BeerDTO beerDTO) {
         BeerDTO createdBeer = beerService.create(beerDTO);
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdBeer);
+        return tagged(HttpStatus.CREATED, ETagUtils.toETag(createdBeer.getVersion(), variant()))
+                .body(createdBeer);
+    }
+
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<BeerImportResultDTO>> bulkImport(@RequestBody List<BeerDTO> beerDTOs) {
+        List<BeerImportResultDTO> results = beerImportService.importBeers(beerDTOs);
+        return ResponseEntity.ok(results);
+    }
+
+    @PostMapping(value = "/bulk", consumes = "text/csv")
+    public ResponseEntity<List<BeerImportResultDTO>> bulkImportCsv(Reader csv) throws IOException {
+        List<BeerImportResultDTO> results = beerImportService.importCsv(csv);
+        return ResponseEntity.ok(results);
+    }
+
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<BeerImportResultDTO>> bulkImportCsvFile(@RequestParam MultipartFile file)
+            throws IOException {
+        try (Reader csv = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
+            List<BeerImportResultDTO> results = beerImportService.importCsv(csv);
+            return ResponseEntity.ok(results);
+        }
     }
 
+    // a retry repeating the Idempotency-Key of a change gets its response again instead of changing the stock twice
     @PatchMapping("/{id}/increment")
-    public ResponseEntity<BeerDTO> incrementStock(@PathVariable Long id, @Valid @RequestBody QuantityDTO quantityDTO) {
-        BeerDTO incrementedBeerDTO = beerService.incrementStock(id, quantityDTO.getQuantity());
-        return ResponseEntity.ok(incrementedBeerDTO);
+    public ResponseEntity<BeerDTO> incrementStock(@PathVariable Long id, @Valid @RequestBody QuantityDTO quantityDTO,
+                                                  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                                          String ifMatch,
+                                                  @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY,
+                                                          required = false) String idempotencyKey) {
+        String fingerprint = IdempotencyStore.fingerprint("increment", id, quantityDTO.getQuantity(), ifMatch);
+        BeerDTO incrementedBeerDTO = idempotencyStore.execute(idempotencyKey, fingerprint,
+                () -> beerService.incrementStock(id, quantityDTO.getQuantity(), ETagUtils.toVersion(ifMatch)));
+        return withETag(incrementedBeerDTO);
     }
 
     @PatchMapping("/{id}/decrement")
-    public ResponseEntity<BeerDTO> decrementStock(@PathVariable Long id, @Valid @RequestBody QuantityDTO quantityDTO) {
-        BeerDTO decrementedBeer = beerService.decrementStock(id, quantityDTO.getQuantity());
-        return ResponseEntity.ok(decrementedBeer);
+    public ResponseEntity<BeerDTO> decrementStock(@PathVariable Long id, @Valid @RequestBody QuantityDTO quantityDTO,
+                                                  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                                          String ifMatch,
+                                                  @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY,
+                                                          required = false) String idempotencyKey) {
+        String fingerprint = IdempotencyStore.fingerprint("decrement", id, quantityDTO.getQuantity(), ifMatch);
+        BeerDTO decrementedBeer = idempotencyStore.execute(idempotencyKey, fingerprint,
+                () -> beerService.decrementStock(id, quantityDTO.getQuantity(), ETagUtils.toVersion(ifMatch)));
+        return withETag(decrementedBeer);
+    }
+
+    @PostMapping("/stock-movements")
+    public ResponseEntity<List<StockMovementResultDTO>> applyStockMovements(
+            @Valid @RequestBody StockMovementsDTO stockMovementsDTO) {
+        List<StockMovementResultDTO> results = beerService.applyStockMovements(stockMovementsDTO);
+        return ResponseEntity.ok(results);
+    }
+
+    // read from the rollups of the bucket, one row per bucket with changes
+    @GetMapping("/{id}/history")
+    public ResponseEntity<List<StockHistoryDTO>> history(@PathVariable Long id,
+                                                         @RequestParam(required = false)
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                 Instant from,
+                                                         @RequestParam(required = false)
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                 Instant to,
+                                                         @RequestParam(defaultValue = "HOUR") HistoryBucket bucket) {
+        return ResponseEntity.ok(stockHistory.history(id, from, to, bucket));
+    }
+
+    // units kept in a warehouse are part of the quantity, the plain increments and decrements only change the rest
+    @PatchMapping("/{id}/warehouses/{warehouse}/increment")
+    public ResponseEntity<BeerDTO> incrementWarehouseStock(@PathVariable Long id, @PathVariable String warehouse,
+                                                           @Valid @RequestBody QuantityDTO quantityDTO) {
+        BeerDTO beerDTO = warehouseStockService.incrementStock(id, warehouse, quantityDTO.getQuantity());
+        return withETag(beerDTO);
+    }
+
+    @PatchMapping("/{id}/warehouses/{warehouse}/decrement")
+    public ResponseEntity<BeerDTO> decrementWarehouseStock(@PathVariable Long id, @PathVariable String warehouse,
+                                                           @Valid @RequestBody QuantityDTO quantityDTO) {
+        BeerDTO beerDTO = warehouseStockService.decrementStock(id, warehouse, quantityDTO.getQuantity());
+        return withETag(beerDTO);
+    }
+
+    @PostMapping("/{id}/transfers")
+    public ResponseEntity<BeerDTO> transfer(@PathVariable Long id, @Valid @RequestBody TransferDTO transferDTO) {
+        BeerDTO beerDTO = warehouseStockService.transfer(id, transferDTO);
+        return withETag(beerDTO);
+    }
+
+    // holds units until the reservation is confirmed, released or expires, the quantity is only taken on confirm
+    @PostMapping("/{id}/reservations")
+    public ResponseEntity<ReservationDTO> reserve(@PathVariable Long id,
+                                                  @Valid @RequestBody ReservationDTO reservationDTO) {
+        ReservationDTO reservation = stockReservationService.reserve(id, reservationDTO);
+        return ResponseEntity.status(HttpStatus.CREATED).body(reservation);
+    }
+
+    @PostMapping("/reservations/{reservationId}/confirm")
+    public ResponseEntity<BeerDTO> confirmReservation(@PathVariable UUID reservationId) {
+        BeerDTO beerDTO = stockReservationService.confirm(reservationId);
+        return withETag(beerDTO);
+    }
+
+    @DeleteMapping("/reservations/{reservationId}")
+    public ResponseEntity<Void> releaseReservation(@PathVariable UUID reservationId) {
+        stockReservationService.release(reservationId);
+        return ResponseEntity.noContent().build();
     }
 
     @DeleteMapping("/{id}")
@@ -62,4 +284,44 @@ public class BeerController {
         beerService.delete(id);
         return ResponseEntity.noContent().build();
     }
+
+    // the next page is the same request with the cursor after the last beer of this one
+    private ResponseEntity<List<BeerDTO>> withNextLink(BeerPageDTO page, ResponseEntity.BodyBuilder response) {
+        if (page.getNextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.getNextCursor())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.getBeers());
+    }
+
+    // the ETag is what clients send back in If-Match to make a stock update conditional
+    private ResponseEntity<BeerDTO> withETag(BeerDTO beerDTO) {
+        return tagged(HttpStatus.OK, ETagUtils.toETag(beerDTO.getVersion(), variant())).body(beerDTO);
+    }
+
+    // a read's ETag answers If-None-Match too. A change's response only has the row version, it may be a replay or
+    // miss a concurrent change
+    private ResponseEntity<BeerDTO> withETag(long readAtVersion, String variant, BeerDTO beerDTO) {
+        return tagged(HttpStatus.OK, ETagUtils.toETag(readAtVersion, beerDTO.getVersion(), variant)).body(beerDTO);
+    }
+
+    // of the response to the current request, see ETagUtils
+    private static String variant() {
+        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes())
+                .getRequest();
+        return ETagUtils.variant(request.getRequestURI(), request.getQueryString(),
+                request.getHeader(HttpHeaders.ACCEPT), request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    // nothing changed since the read the client holds, its ETag is still the current one
+    private static <T> ResponseEntity<T> notModified(String eTag) {
+        return tagged(HttpStatus.NOT_MODIFIED, eTag).build();
+    }
+
+    // the ETags depend on the request headers of ETagUtils.VARY
+    private static ResponseEntity.BodyBuilder tagged(HttpStatus status, String eTag) {
+        return ResponseEntity.status(status).eTag(eTag).varyBy(ETagUtils.VARY);
+    }
 }
@@ -0,0 +1,342 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerImportResultDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.dto.LowStockAlertDTO;
+import com.rochards.beerstock.dto.QuantityDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.dto.StockChangeDTO;
+import com.rochards.beerstock.dto.StockHistoryDTO;
+import com.rochards.beerstock.dto.StockMovementResultDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.dto.TransferDTO;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.service.BeerImportService;
+import com.rochards.beerstock.service.BeerService;
+import com.rochards.beerstock.service.CatalogVersion;
+import com.rochards.beerstock.service.IdempotencyStore;
+import com.rochards.beerstock.service.LowStockAlerts;
+import com.rochards.beerstock.service.StockChangeOutbox;
+import com.rochards.beerstock.service.StockHistory;
+import com.rochards.beerstock.service.StockReservationService;
+import com.rochards.beerstock.service.WarehouseStockService;
+import com.rochards.beerstock.service.ReactiveBeerService;
+import com.rochards.beerstock.utils.ETagUtils;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import jakarta.validation.Valid;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The {@link BeerController} contract on WebFlux, active with the reactive profile. The bulk import and the stock
+ * movements are still served by the blocking services, on a scheduler meant for blocking calls.
+ */
+@RestController
+@RequestMapping("/api/v1/beers")
+@Profile("reactive")
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class ReactiveBeerController {
+
+    private final ReactiveBeerService reactiveBeerService;
+    private final BeerService beerService;
+    private final BeerImportService beerImportService;
+    private final LowStockAlerts lowStockAlerts;
+    private final StockChangeOutbox stockChangeOutbox;
+    private final StockReservationService stockReservationService;
+    private final StockHistory stockHistory;
+    private final WarehouseStockService warehouseStockService;
+    private final IdempotencyStore idempotencyStore;
+    private final CatalogVersion catalogVersion;
+
+    // the catalogue version is taken here, before the beers are loaded on subscription
+    @GetMapping
+    public Mono<ResponseEntity<List<BeerDTO>>> listAll(@RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer size,
+                                                       @RequestParam(defaultValue = "false") boolean unpaged,
+                                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                               required = false) String ifNoneMatch,
+                                                       ServerHttpRequest request) {
+        long version = catalogVersion.current();
+        String variant = variant(request);
+        String current = ETagUtils.findCurrent(ifNoneMatch, version, variant);
+        if (current != null) {
+            return Mono.just(notModified(current));
+        }
+
+        if (unpaged) { // the whole catalogue in one response, only when explicitly asked for
+            return reactiveBeerService.listAll().collectList()
+                    .map(beers -> tagged(HttpStatus.OK, ETagUtils.toCatalogETag(version, variant)).body(beers));
+        }
+
+        return reactiveBeerService.listPage(cursor, size).map(page -> withNextLink(page, request,
+                tagged(HttpStatus.OK, ETagUtils.toCatalogETag(version, variant))));
+    }
+
+    @GetMapping("/search")
+    public Mono<ResponseEntity<List<BeerDTO>>> search(@Valid BeerSearchDTO criteria,
+                                                      @RequestParam(required = false) String cursor,
+                                                      @RequestParam(required = false) Integer size,
+                                                      ServerHttpRequest request) {
+        return reactiveBeerService.search(criteria, cursor, size)
+                .map(page -> withNextLink(page, request, ResponseEntity.ok()));
+    }
+
+    @GetMapping(value = "/search", params = "q")
+    public Mono<ResponseEntity<List<BeerDTO>>> fuzzySearch(@RequestParam String q,
+                                                           @RequestParam(required = false) Integer size) {
+        return reactiveBeerService.fuzzySearch(q, size).collectList().map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<Flux<DataBuffer>> export(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+        Flux<DataBuffer> body = reactiveBeerService.export(format)
+                .map(line -> DefaultDataBufferFactory.sharedInstance.wrap(line.getBytes(StandardCharsets.UTF_8)));
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .body(body);
+    }
+
+    @GetMapping("/changes")
+    public Mono<ResponseEntity<List<StockChangeDTO>>> changes(@RequestParam(defaultValue = "0") long since,
+                                                              @RequestParam(required = false) Integer size) {
+        return reactiveBeerService.blocking(() -> stockChangeOutbox.changesSince(since, size))
+                .map(ResponseEntity::ok);
+    }
+
+    // a Server-Sent Events stream of the alerts raised while connected, each event named after the alert status
+    @GetMapping(value = "/low-stock-alerts", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<LowStockAlertDTO>> lowStockAlerts() {
+        return lowStockAlerts.alerts()
+                .map(alert -> ServerSentEvent.builder(alert).event(alert.getStatus().name()).build());
+    }
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<BeerDTO>> findById(@PathVariable Long id,
+                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                          String ifNoneMatch,
+                                                  ServerHttpRequest request) {
+        long version = catalogVersion.current();
+        String variant = variant(request);
+        String current = ETagUtils.findCurrent(ifNoneMatch, version, variant);
+        if (current != null) {
+            return Mono.just(notModified(current));
+        }
+
+        return reactiveBeerService.findById(id)
+                .map(beer -> withETag(version, variant, beer))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/name/{name}")
+    public Mono<ResponseEntity<BeerDTO>> findByName(@PathVariable String name,
+                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                            required = false) String ifNoneMatch,
+                                                    ServerHttpRequest request) {
+        long version = catalogVersion.current();
+        String variant = variant(request);
+        String current = ETagUtils.findCurrent(ifNoneMatch, version, variant);
+        if (current != null) {
+            return Mono.just(notModified(current));
+        }
+
+        return reactiveBeerService.findByName(name)
+                .map(beer -> withETag(version, variant, beer))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<BeerDTO>> create(@Valid @RequestBody BeerDTO beerDTO, ServerHttpRequest request) {
+        return reactiveBeerService.create(beerDTO)
+                .map(createdBeer -> tagged(HttpStatus.CREATED,
+                        ETagUtils.toETag(createdBeer.getVersion(), variant(request))).body(createdBeer));
+    }
+
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<List<BeerImportResultDTO>>> bulkImport(@RequestBody List<BeerDTO> beerDTOs) {
+        return reactiveBeerService.blocking(() -> beerImportService.importBeers(beerDTOs))
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping(value = "/bulk", consumes = "text/csv")
+    public Mono<ResponseEntity<List<BeerImportResultDTO>>> bulkImportCsv(@RequestBody String csv) {
+        return reactiveBeerService.blocking(() -> beerImportService.importCsv(new StringReader(csv)))
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<ResponseEntity<List<BeerImportResultDTO>>> bulkImportCsvFile(@RequestPart("file") FilePart file) {
+        return DataBufferUtils.join(file.content())
+                .map(content -> {
+                    String csv = content.toString(StandardCharsets.UTF_8);
+                    DataBufferUtils.release(content);
+                    return csv;
+                })
+                .flatMap(csv -> reactiveBeerService.blocking(() -> beerImportService.importCsv(new StringReader(csv))))
+                .map(ResponseEntity::ok);
+    }
+
+    @PatchMapping("/{id}/increment")
+    public Mono<ResponseEntity<BeerDTO>> incrementStock(@PathVariable Long id,
+                                                        @Valid @RequestBody QuantityDTO quantityDTO,
+                                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                                                String ifMatch,
+                                                        @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY,
+                                                                required = false) String idempotencyKey,
+                                                        ServerHttpRequest request) {
+        String fingerprint = IdempotencyStore.fingerprint("increment", id, quantityDTO.getQuantity(), ifMatch);
+        Long expectedVersion = ETagUtils.toVersion(ifMatch);
+        return idempotencyStore.executeReactive(idempotencyKey, fingerprint,
+                        () -> reactiveBeerService.incrementStock(id, quantityDTO.getQuantity(), expectedVersion))
+                .map(beer -> withETag(beer, request));
+    }
+
+    @PatchMapping("/{id}/decrement")
+    public Mono<ResponseEntity<BeerDTO>> decrementStock(@PathVariable Long id,
+                                                        @Valid @RequestBody QuantityDTO quantityDTO,
+                                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                                                String ifMatch,
+                                                        @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY,
+                                                                required = false) String idempotencyKey,
+                                                        ServerHttpRequest request) {
+        String fingerprint = IdempotencyStore.fingerprint("decrement", id, quantityDTO.getQuantity(), ifMatch);
+        Long expectedVersion = ETagUtils.toVersion(ifMatch);
+        return idempotencyStore.executeReactive(idempotencyKey, fingerprint,
+                        () -> reactiveBeerService.decrementStock(id, quantityDTO.getQuantity(), expectedVersion))
+                .map(beer -> withETag(beer, request));
+    }
+
+    @PostMapping("/stock-movements")
+    public Mono<ResponseEntity<List<StockMovementResultDTO>>> applyStockMovements(
+            @Valid @RequestBody StockMovementsDTO stockMovementsDTO) {
+        return reactiveBeerService.blocking(() -> beerService.applyStockMovements(stockMovementsDTO))
+                .map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/{id}/history")
+    public Mono<ResponseEntity<List<StockHistoryDTO>>> history(@PathVariable Long id,
+                                                               @RequestParam(required = false)
+                                                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                       Instant from,
+                                                               @RequestParam(required = false)
+                                                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                       Instant to,
+                                                               @RequestParam(defaultValue = "HOUR")
+                                                                       HistoryBucket bucket) {
+        return reactiveBeerService.blocking(() -> stockHistory.history(id, from, to, bucket))
+                .map(ResponseEntity::ok);
+    }
+
+    @PatchMapping("/{id}/warehouses/{warehouse}/increment")
+    public Mono<ResponseEntity<BeerDTO>> incrementWarehouseStock(@PathVariable Long id, @PathVariable String warehouse,
+                                                                 @Valid @RequestBody QuantityDTO quantityDTO,
+                                                                 ServerHttpRequest request) {
+        return reactiveBeerService.blocking(() -> warehouseStockService.incrementStock(id, warehouse,
+                        quantityDTO.getQuantity()))
+                .map(beer -> withETag(beer, request));
+    }
+
+    @PatchMapping("/{id}/warehouses/{warehouse}/decrement")
+    public Mono<ResponseEntity<BeerDTO>> decrementWarehouseStock(@PathVariable Long id, @PathVariable String warehouse,
+                                                                 @Valid @RequestBody QuantityDTO quantityDTO,
+                                                                 ServerHttpRequest request) {
+        return reactiveBeerService.blocking(() -> warehouseStockService.decrementStock(id, warehouse,
+                        quantityDTO.getQuantity()))
+                .map(beer -> withETag(beer, request));
+    }
+
+    @PostMapping("/{id}/transfers")
+    public Mono<ResponseEntity<BeerDTO>> transfer(@PathVariable Long id, @Valid @RequestBody TransferDTO transferDTO,
+                                                  ServerHttpRequest request) {
+        return reactiveBeerService.blocking(() -> warehouseStockService.transfer(id, transferDTO))
+                .map(beer -> withETag(beer, request));
+    }
+
+    @PostMapping("/{id}/reservations")
+    public Mono<ResponseEntity<ReservationDTO>> reserve(@PathVariable Long id,
+                                                        @Valid @RequestBody ReservationDTO reservationDTO) {
+        return reactiveBeerService.blocking(() -> stockReservationService.reserve(id, reservationDTO))
+                .map(reservation -> ResponseEntity.status(HttpStatus.CREATED).body(reservation));
+    }
+
+    @PostMapping("/reservations/{reservationId}/confirm")
+    public Mono<ResponseEntity<BeerDTO>> confirmReservation(@PathVariable UUID reservationId,
+                                                            ServerHttpRequest request) {
+        return reactiveBeerService.blocking(() -> stockReservationService.confirm(reservationId))
+                .map(beer -> withETag(beer, request));
+    }
+
+    @DeleteMapping("/reservations/{reservationId}")
+    public Mono<ResponseEntity<Void>> releaseReservation(@PathVariable UUID reservationId) {
+        return reactiveBeerService.blocking(() -> {
+            stockReservationService.release(reservationId);
+            return ResponseEntity.noContent().<Void>build();
+        });
+    }
+
+    @DeleteMapping("/{id}")
+    public Mono<ResponseEntity<Void>> delete(@PathVariable Long id) {
+        return reactiveBeerService.delete(id).thenReturn(ResponseEntity.noContent().build());
+    }
+
+    // the next page is the same request with the cursor after the last beer of this one
+    private ResponseEntity<List<BeerDTO>> withNextLink(BeerPageDTO page, ServerHttpRequest request,
+                                                       ResponseEntity.BodyBuilder response) {
+        if (page.getNextCursor() != null) {
+            String next = UriComponentsBuilder.fromUri(request.getURI())
+                    .replaceQueryParam("cursor", page.getNextCursor())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.getBeers());
+    }
+
+    // the ETag is what clients send back in If-Match to make a stock update conditional
+    private ResponseEntity<BeerDTO> withETag(BeerDTO beerDTO, ServerHttpRequest request) {
+        return tagged(HttpStatus.OK, ETagUtils.toETag(beerDTO.getVersion(), variant(request))).body(beerDTO);
+    }
+
+    // a read's ETag answers If-None-Match too, see BeerController
+    private ResponseEntity<BeerDTO> withETag(long readAtVersion, String variant, BeerDTO beerDTO) {
+        return tagged(HttpStatus.OK, ETagUtils.toETag(readAtVersion, beerDTO.getVersion(), variant)).body(beerDTO);
+    }
+
+    // of the response to the request, see ETagUtils
+    private static String variant(ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+        return ETagUtils.variant(request.getURI().getRawPath(), request.getURI().getRawQuery(),
+                headers.getFirst(HttpHeaders.ACCEPT), headers.getFirst(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    private static <T> ResponseEntity<T> notModified(String eTag) {
+        return tagged(HttpStatus.NOT_MODIFIED, eTag).build();
+    }
+
+    // the ETags depend on the request headers of ETagUtils.VARY
+    private static ResponseEntity.BodyBuilder tagged(HttpStatus status, String eTag) {
+        return ResponseEntity.status(status).eTag(eTag).varyBy(ETagUtils.VARY);
+    }
+}
@@ -0,0 +1,97 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.enums.RequestKind;
+import com.rochards.beerstock.exception.APIExceptionHandler;
+import com.rochards.beerstock.exception.type.RateLimitExceededException;
+import com.rochards.beerstock.exception.type.ServiceOverloadedException;
+import com.rochards.beerstock.service.RequestAdmission;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@link RequestAdmissionInterceptor} of the reactive profile. A filter runs outside the handler, so the rejections
+ * are answered with the responses of {@link APIExceptionHandler} written here. The concurrency slot is held until the
+ * response starts, as the interceptor holds it until the handler returns.
+ */
+@Component
+@Profile("reactive")
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class ReactiveRequestAdmissionFilter implements WebFilter {
+
+    private static final String API_PATH = "/api/v1/beers";
+
+    private final RequestAdmission requestAdmission;
+    private final APIExceptionHandler apiExceptionHandler;
+    private final ServerCodecConfigurer serverCodecConfigurer;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!request.getPath().value().startsWith(API_PATH)) {
+            return chain.filter(exchange);
+        }
+
+        RequestKind kind = RequestKind.of(request.getMethod().name());
+        InetSocketAddress address = request.getRemoteAddress();
+        String client = requestAdmission.client(request.getHeaders().getFirst(requestAdmission.clientHeader()),
+                address == null ? null : address.getHostString());
+        try {
+            requestAdmission.admit(client, kind);
+        } catch (RateLimitExceededException ex) {
+            return write(exchange, apiExceptionHandler.handleRateLimitExceededException(ex));
+        } catch (ServiceOverloadedException ex) {
+            return write(exchange, apiExceptionHandler.handleServiceOverloadedException(ex));
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                requestAdmission.release(kind);
+            }
+        };
+        exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(release));
+        return chain.filter(exchange).doFinally(signal -> release.run());
+    }
+
+    // in the format the client accepts first among those of the handlers' codecs, JSON when it accepts none of them
+    @SuppressWarnings("unchecked")
+    private Mono<Void> write(ServerWebExchange exchange, ResponseEntity<Object> entity) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(entity.getStatusCode());
+        response.getHeaders().addAll(entity.getHeaders());
+
+        ResolvableType type = ResolvableType.forInstance(entity.getBody());
+        List<MediaType> accepted = new ArrayList<>(exchange.getRequest().getHeaders().getAccept());
+        MimeTypeUtils.sortBySpecificity(accepted);
+        accepted.add(MediaType.APPLICATION_JSON);
+        for (MediaType mediaType : accepted) {
+            for (HttpMessageWriter<?> writer : serverCodecConfigurer.getWriters()) {
+                if (writer.canWrite(type, mediaType)) {
+                    return ((HttpMessageWriter<Object>) writer).write(Mono.just(entity.getBody()), type, mediaType,
+                            response, Map.of());
+                }
+            }
+        }
+        return Mono.error(new IllegalStateException("No writer for " + type));
+    }
+}
@@ -0,0 +1,45 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.dto.SnapshotDTO;
+import com.rochards.beerstock.service.ReactiveBeerService;
+import com.rochards.beerstock.service.StockSnapshots;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+// snapshots read and write the beer table through JDBC, off the event loop
+@RestController
+@RequestMapping("/api/v1/admin/snapshots")
+@Profile("reactive")
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class ReactiveSnapshotController {
+
+    private final ReactiveBeerService reactiveBeerService;
+    private final StockSnapshots stockSnapshots;
+
+    @GetMapping
+    public Mono<ResponseEntity<List<SnapshotDTO>>> list() {
+        return reactiveBeerService.blocking(stockSnapshots::list).map(ResponseEntity::ok);
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<SnapshotDTO>> snapshot() {
+        return reactiveBeerService.blocking(stockSnapshots::snapshot)
+                .map(snapshot -> ResponseEntity.status(HttpStatus.CREATED).body(snapshot));
+    }
+
+    @PostMapping("/{name}/restore")
+    public Mono<ResponseEntity<SnapshotDTO>> restore(@PathVariable String name) {
+        return reactiveBeerService.blocking(() -> stockSnapshots.restore(name)).map(ResponseEntity::ok);
+    }
+}
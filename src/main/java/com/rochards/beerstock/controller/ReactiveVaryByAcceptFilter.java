@@ -0,0 +1,31 @@
+package com.rochards.beerstock.controller;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * The {@link VaryByAcceptInterceptor} of the reactive profile. It runs first, so the rejections of
+ * {@link ReactiveRequestAdmissionFilter} are marked too.
+ */
+@Component
+@Profile("reactive")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReactiveVaryByAcceptFilter implements WebFilter {
+
+    private static final String API_PATH = "/api/v1/beers";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (exchange.getRequest().getPath().value().startsWith(API_PATH)) {
+            exchange.getResponse().getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return chain.filter(exchange);
+    }
+}
@@ -0,0 +1,62 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.enums.RequestKind;
+import com.rochards.beerstock.service.RequestAdmission;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Admits the requests to {@link BeerController} through {@link RequestAdmission}. Its exceptions are thrown before the
+ * handler runs and are answered by the exception handler as the handler's own would be. The concurrency slot is held
+ * until the handler returns, the streams it starts aren't counted.
+ */
+@Component
+@Profile("!reactive")
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class RequestAdmissionInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String ADMITTED = RequestAdmissionInterceptor.class.getName() + ".ADMITTED";
+
+    private final RequestAdmission requestAdmission;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // async and error dispatches belong to a request already admitted
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        RequestKind kind = RequestKind.of(request.getMethod());
+        String client = requestAdmission.client(request.getHeader(requestAdmission.clientHeader()),
+                request.getRemoteAddr());
+        requestAdmission.admit(client, kind);
+        request.setAttribute(ADMITTED, kind);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        release(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        release(request);
+    }
+
+    private void release(HttpServletRequest request) {
+        RequestKind kind = (RequestKind) request.getAttribute(ADMITTED);
+        if (kind != null) {
+            request.removeAttribute(ADMITTED);
+            requestAdmission.release(kind);
+        }
+    }
+}
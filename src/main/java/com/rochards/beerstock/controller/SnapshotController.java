@@ -0,0 +1,42 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.dto.SnapshotDTO;
+import com.rochards.beerstock.service.StockSnapshots;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+
+// outside /api/v1/beers, so the admission limits of the clients don't apply
+@RestController
+@RequestMapping("/api/v1/admin/snapshots")
+@Profile("!reactive") // ReactiveSnapshotController serves the same contract otherwise
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class SnapshotController {
+
+    private final StockSnapshots stockSnapshots;
+
+    @GetMapping
+    public ResponseEntity<List<SnapshotDTO>> list() throws IOException {
+        return ResponseEntity.ok(stockSnapshots.list());
+    }
+
+    @PostMapping
+    public ResponseEntity<SnapshotDTO> snapshot() throws IOException {
+        return ResponseEntity.status(HttpStatus.CREATED).body(stockSnapshots.snapshot());
+    }
+
+    @PostMapping("/{name}/restore")
+    public ResponseEntity<SnapshotDTO> restore(@PathVariable String name) throws IOException {
+        return ResponseEntity.ok(stockSnapshots.restore(name));
+    }
+}
@@ -0,0 +1,241 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.utils.ETagUtils;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips the responses of {@link BeerController} that carry a strong ETag. Tomcat leaves them uncompressed, a strong
+ * ETag has to differ between content codings and it can't change one. Ours do, see {@link ETagUtils}, so they are
+ * compressed here on the server.compression settings. These responses are whole values already held in memory, they
+ * are buffered and compressed once complete. Any other response is left to Tomcat.
+ */
+@Component
+@Profile("!reactive")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET) // server.* is only bound with a server
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class StrongETagCompressionFilter extends OncePerRequestFilter {
+
+    private static final String API_PATH = "/api/v1/beers";
+    private static final String GZIP = "gzip";
+
+    private final ServerProperties serverProperties;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        Compression compression = serverProperties.getCompression();
+        return !compression.getEnabled() || !request.getRequestURI().startsWith(API_PATH)
+                || !acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        CompressingResponse compressingResponse = new CompressingResponse(response, serverProperties.getCompression());
+        chain.doFilter(request, compressingResponse);
+        // async responses are the export streams, which have no ETag and are never buffered
+        if (!request.isAsyncStarted()) {
+            compressingResponse.finish();
+        }
+    }
+
+    // a gzip coding not refused with q=0
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase(GZIP)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim().replace(" ", "");
+                    if (parameter.startsWith("q=") && Double.parseDouble(parameter.substring(2)) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decides on the first write whether the body is buffered. Until then the Content-Length is held back, the
+     * compressed body has another one.
+     */
+    static final class CompressingResponse extends HttpServletResponseWrapper {
+
+        private final Compression compression;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private Long contentLength;
+        private Boolean buffered; // null until the first write
+        private ServletOutputStream outputStream;
+
+        CompressingResponse(HttpServletResponse response, Compression compression) {
+            super(response);
+            this.compression = compression;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new BufferingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        // the writer isn't buffered, the responses with ETags are written to the stream
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (buffered == null) {
+                buffered = false;
+                if (contentLength != null) {
+                    super.setContentLengthLong(contentLength);
+                }
+            }
+            return super.getWriter();
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            setContentLengthLong(length);
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+            if (buffered == null) {
+                contentLength = length;
+            } else if (!buffered) {
+                super.setContentLengthLong(length);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (!Boolean.TRUE.equals(buffered)) {
+                super.flushBuffer();
+            }
+        }
+
+        // writes the buffered body, gzipped when it reached the minimum size, or the held back Content-Length
+        void finish() throws IOException {
+            if (buffered == null) {
+                if (contentLength != null && !isCommitted()) {
+                    super.setContentLengthLong(contentLength);
+                }
+            } else if (buffered) {
+                ServletOutputStream target = super.getOutputStream();
+                if (buffer.size() >= compression.getMinResponseSize().toBytes()) {
+                    super.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(target)) {
+                        buffer.writeTo(gzip);
+                    }
+                } else {
+                    super.setContentLengthLong(buffer.size());
+                    buffer.writeTo(target);
+                }
+            }
+        }
+
+        private boolean decide() {
+            if (buffered == null) {
+                buffered = buffers();
+                if (!buffered && contentLength != null) {
+                    super.setContentLengthLong(contentLength);
+                }
+            }
+            return buffered;
+        }
+
+        // a strong ETag, weak ones start with W/, on a body of a compressed type
+        private boolean buffers() {
+            String eTag = getHeader(HttpHeaders.ETAG);
+            String contentType = getContentType();
+            return eTag != null && eTag.startsWith("\"") && getHeader(HttpHeaders.CONTENT_ENCODING) == null
+                    && contentType != null
+                    && Arrays.stream(compression.getMimeTypes()).anyMatch(contentType::startsWith);
+        }
+
+        private final class BufferingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream target;
+
+            private BufferingOutputStream(ServletOutputStream target) {
+                this.target = target;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                if (decide()) {
+                    buffer.write(b);
+                } else {
+                    target.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (decide()) {
+                    buffer.write(b, off, len);
+                } else {
+                    target.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (!Boolean.TRUE.equals(buffered)) {
+                    target.flush();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                return target.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                target.setWriteListener(writeListener);
+            }
+        }
+    }
+}
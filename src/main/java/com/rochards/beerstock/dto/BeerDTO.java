@@ -1,20 +1,24 @@
 package com.rochards.beerstock.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.rochards.beerstock.enums.BeerType;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import javax.persistence.EnumType;
-import javax.persistence.Enumerated;
-import javax.validation.constraints.Max;
-import javax.validation.constraints.NotBlank;
-import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Size;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import java.util.List;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 public class BeerDTO {
@@ -35,4 +39,26 @@ public class BeerDTO {
 
     @NotNull @Enumerated(EnumType.STRING)
     private BeerType type;
+
+    @JsonIgnore // sent as the ETag header instead
+    private long version;
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY) // held by reservations, the rest of quantity is available
+    private int reserved;
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY) // kept in warehouses, part of quantity as well
+    private int located;
+
+    // the units per warehouse, only loaded when a single beer is read
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private List<WarehouseStockDTO> warehouses;
+
+    public BeerDTO(Long id, String name, String brand, Integer max, Integer quantity, BeerType type) {
+        this(id, name, brand, max, quantity, type, 0);
+    }
+
+    public BeerDTO(Long id, String name, String brand, Integer max, Integer quantity, BeerType type, long version) {
+        this(id, name, brand, max, quantity, type, version, 0, 0, null);
+    }
 }
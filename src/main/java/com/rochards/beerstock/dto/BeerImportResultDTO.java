@@ -0,0 +1,22 @@
+package com.rochards.beerstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.rochards.beerstock.enums.ImportStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL) // id is only informed on created rows, message on the others
+public class BeerImportResultDTO {
+
+    private Integer row; // starts at 1, the CSV header is not counted
+    private String name;
+    private ImportStatus status;
+    private Long id;
+    private String message;
+}
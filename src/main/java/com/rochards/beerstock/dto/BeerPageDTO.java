@@ -0,0 +1,18 @@
+package com.rochards.beerstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BeerPageDTO {
+
+    private List<BeerDTO> beers;
+    private String nextCursor; // null on the last page
+}
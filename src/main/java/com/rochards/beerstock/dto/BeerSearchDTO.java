@@ -0,0 +1,30 @@
+package com.rochards.beerstock.dto;
+
+import com.rochards.beerstock.enums.BeerType;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Size;
+
+// every filter is optional, the ones informed must all match
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BeerSearchDTO {
+
+    @Size(min = 1, max = 200)
+    private String name; // prefix, ignoring case
+
+    @Size(min = 1, max = 200)
+    private String brand; // prefix
+
+    private BeerType type;
+
+    @DecimalMin("0.0") @DecimalMax("1.0")
+    private Double lowStock; // quantity/max at or below it
+}
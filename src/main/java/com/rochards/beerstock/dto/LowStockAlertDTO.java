@@ -0,0 +1,24 @@
+package com.rochards.beerstock.dto;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.LowStockAlertStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class LowStockAlertDTO {
+
+    private Long beerId;
+    private BeerType type;
+    private LowStockAlertStatus status;
+    private Integer quantity; // the one that raised the alert
+    private Integer threshold;
+    private Instant raisedAt;
+}
@@ -0,0 +1,38 @@
+package com.rochards.beerstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.UUID;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL) // ttlSeconds is only informed on requests
+public class ReservationDTO {
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private UUID id;
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long beerId;
+
+    @NotNull @Min(1) @Max(100)
+    private Integer quantity;
+
+    @Min(1)
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    private Integer ttlSeconds; // beerstock.reservation.default-ttl when not informed, capped at the max-ttl
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Instant expiresAt;
+}
@@ -0,0 +1,27 @@
+package com.rochards.beerstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SnapshotDTO {
+
+    private String name; // of the file, which restores it
+
+    private Instant createdAt; // the point in time of its beers
+
+    private long beers;
+
+    private long bytes;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long durationMillis; // of the snapshot or restore just done, not kept with the file
+}
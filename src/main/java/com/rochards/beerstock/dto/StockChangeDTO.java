@@ -0,0 +1,25 @@
+package com.rochards.beerstock.dto;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockChangeType;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockChangeDTO {
+
+    private Long offset; // position in the feed, the next read resumes after the last one seen
+    private Long beerId;
+    private BeerType type;
+    private StockChangeType changeType;
+    private Integer delta;
+    private Integer quantity; // after the change, 0 once the beer is deleted
+    private Instant occurredAt;
+}
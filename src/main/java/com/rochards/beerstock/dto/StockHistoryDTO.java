@@ -0,0 +1,24 @@
+package com.rochards.beerstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// the stock changes of a beer in a bucket, buckets without any are left out
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockHistoryDTO {
+
+    private Instant bucketStart;
+
+    private long unitsIn;
+
+    private long unitsOut; // sold, or taken out of the stock otherwise
+
+    private long movements;
+}
@@ -0,0 +1,29 @@
+package com.rochards.beerstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotNull;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockMovementDTO {
+
+    @NotNull
+    private Long id;
+
+    @NotNull
+    private Integer delta; // positive increments, negative decrements
+
+    @JsonIgnore
+    @AssertTrue(message = "delta must not be zero")
+    public boolean isNonZero() {
+        return delta == null || delta != 0;
+    }
+}
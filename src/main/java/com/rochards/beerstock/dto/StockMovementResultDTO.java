@@ -0,0 +1,22 @@
+package com.rochards.beerstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.rochards.beerstock.enums.StockMovementStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL) // message is only informed on rejected movements
+public class StockMovementResultDTO {
+
+    private Long id;
+    private Integer delta;
+    private StockMovementStatus status;
+    private Integer quantity;
+    private String message;
+}
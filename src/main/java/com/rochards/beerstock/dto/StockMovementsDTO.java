@@ -0,0 +1,27 @@
+package com.rochards.beerstock.dto;
+
+import com.rochards.beerstock.enums.StockMovementMode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockMovementsDTO {
+
+    @NotNull
+    @Builder.Default
+    private StockMovementMode mode = StockMovementMode.ALL_OR_NOTHING;
+
+    @NotEmpty @Size(max = 1000) @Valid // every movement locks its row until the batch commits
+    private List<StockMovementDTO> movements;
+}
@@ -0,0 +1,33 @@
+package com.rochards.beerstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.util.Objects;
+
+// units moved from one warehouse to another, a missing one stands for the units in no warehouse
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferDTO {
+
+    private String from;
+
+    private String to;
+
+    @NotNull @Min(1)
+    private Integer quantity;
+
+    @JsonIgnore
+    @AssertTrue(message = "from and to must be different warehouses")
+    public boolean isBetweenWarehouses() {
+        return !Objects.equals(from, to);
+    }
+}
@@ -0,0 +1,17 @@
+package com.rochards.beerstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class WarehouseStockDTO {
+
+    private String warehouse;
+
+    private int quantity;
+}
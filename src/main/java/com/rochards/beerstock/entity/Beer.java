@@ -4,17 +4,26 @@ import com.rochards.beerstock.enums.BeerType;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Check;
+import org.hibernate.annotations.ColumnDefault;
 
-import javax.persistence.*;
+import jakarta.persistence.*;
 
 @Entity
+@Table(indexes = { // the name is unique, hence indexed already, and matched ignoring case on name_lower (import.sql)
+        @Index(name = "idx_beer_brand", columnList = "brand"),
+        @Index(name = "idx_beer_type", columnList = "type")
+})
+// the last guard against selling reserved units or the ones kept in warehouses
+@Check(constraints = "reserved >= 0 and located >= 0 and reserved + located <= quantity")
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 public class Beer {
 
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id // a pooled sequence instead of IDENTITY, which keeps Hibernate from batching inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "beer_seq")
+    @SequenceGenerator(name = "beer_seq", sequenceName = "beer_seq", allocationSize = 50)
     private long id;
 
     @Column(nullable = false, unique = true)
@@ -32,4 +41,27 @@ public class Beer {
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private BeerType type;
+
+    @Version // bumped by every update, including the bulk ones in BeerRepository
+    @Column(columnDefinition = "bigint default 0 not null")
+    private long version;
+
+    // units held by active reservations, only written by the reservation statements in BeerRepository
+    @ColumnDefault("0")
+    @Column(nullable = false, insertable = false, updatable = false)
+    private int reserved;
+
+    // units kept in warehouses, the sum of its WarehouseStock rows maintained by the statements in BeerRepository.
+    // quantity stays the total, the units in no warehouse are the ones the plain increments and decrements change
+    @ColumnDefault("0")
+    @Column(nullable = false, insertable = false, updatable = false)
+    private int located;
+
+    public Beer(long id, String name, String brand, Integer max, Integer quantity, BeerType type) {
+        this(id, name, brand, max, quantity, type, 0);
+    }
+
+    public Beer(long id, String name, String brand, Integer max, Integer quantity, BeerType type, long version) {
+        this(id, name, brand, max, quantity, type, version, 0, 0);
+    }
 }
@@ -0,0 +1,23 @@
+package com.rochards.beerstock.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+// last hot stock journal sequence already applied to the beer table, written in the same transaction as the deltas
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HotStockCheckpoint {
+
+    @Id
+    private long id;
+
+    @Column(nullable = false)
+    private long lastSequence;
+}
@@ -0,0 +1,33 @@
+package com.rochards.beerstock.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import java.time.Instant;
+
+// the response of a stock change made with an Idempotency-Key, the database tier of the dedup store
+@Entity
+@Table(indexes = @Index(name = "idx_idempotent_response_created_at", columnList = "createdAt"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdempotentResponse {
+
+    @Id
+    private String idempotencyKey;
+
+    @Column(nullable = false)
+    private String fingerprint;
+
+    @Column(nullable = false, length = 2000)
+    private String response; // the BeerDTO as JSON
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,50 @@
+package com.rochards.beerstock.entity;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockChangeType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// outbox row written in the transaction of the change, the relay gives it its position in the feed once published
+@Entity
+@Table(indexes = @Index(name = "idx_stock_change_position", columnList = "position", unique = true))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_change_seq")
+    @SequenceGenerator(name = "stock_change_seq", sequenceName = "stock_change_seq", allocationSize = 50)
+    private long id;
+
+    private Long position; // null until published
+
+    @Column(nullable = false)
+    private long beerId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private BeerType type;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StockChangeType changeType;
+
+    @Column(nullable = false)
+    private int delta;
+
+    @Column(nullable = false)
+    private int quantity;
+
+    @Column(nullable = false)
+    private Instant occurredAt;
+
+    public StockChange(long beerId, BeerType type, StockChangeType changeType, int delta, int quantity) {
+        this(0, null, beerId, type, changeType, delta, quantity, Instant.now());
+    }
+}
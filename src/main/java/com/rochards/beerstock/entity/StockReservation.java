@@ -0,0 +1,31 @@
+package com.rochards.beerstock.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import java.time.Instant;
+import java.util.UUID;
+
+// units of a beer held until confirmed, released or expired, counted in the reserved column of the beer meanwhile
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockReservation {
+
+    @Id
+    private UUID id;
+
+    @Column(nullable = false)
+    private long beerId;
+
+    @Column(nullable = false)
+    private int quantity;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+}
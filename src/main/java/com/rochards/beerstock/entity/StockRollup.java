@@ -0,0 +1,55 @@
+package com.rochards.beerstock.entity;
+
+import com.rochards.beerstock.enums.HistoryBucket;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import java.io.Serializable;
+import java.time.Instant;
+
+// the stock changes of a beer within a bucket, added to by every change. The key is also the index a history range
+// is read from, beer, bucket and then its start
+@Entity
+@IdClass(StockRollup.Key.class)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockRollup {
+
+    @Id
+    private long beerId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private HistoryBucket bucket;
+
+    @Id
+    private Instant bucketStart;
+
+    @Column(nullable = false)
+    private long unitsIn;
+
+    @Column(nullable = false)
+    private long unitsOut;
+
+    @Column(nullable = false)
+    private long movements;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+
+        private long beerId;
+        private HistoryBucket bucket;
+        private Instant bucketStart;
+    }
+}
@@ -0,0 +1,42 @@
+package com.rochards.beerstock.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Check;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import java.io.Serializable;
+
+// the units of a beer kept in a warehouse, a row only exists while there are any. Their sum is the located column of
+// the beer, both are written under the row lock of the beer
+@Entity
+@IdClass(WarehouseStock.Key.class)
+@Check(constraints = "quantity > 0")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class WarehouseStock {
+
+    @Id
+    private long beerId;
+
+    @Id
+    @Column(length = 64)
+    private String warehouse;
+
+    @Column(nullable = false)
+    private int quantity;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+
+        private long beerId;
+        private String warehouse;
+    }
+}
@@ -0,0 +1,28 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+@Getter
+@AllArgsConstructor
+public enum HistoryBucket {
+
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS); // in UTC
+
+    private ChronoUnit unit;
+
+    // the start of the bucket the instant falls in
+    public Instant start(Instant instant) {
+        return instant.truncatedTo(unit);
+    }
+
+    public Duration getDuration() {
+        return unit.getDuration();
+    }
+}
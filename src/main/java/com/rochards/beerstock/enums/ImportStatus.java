@@ -0,0 +1,15 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum ImportStatus {
+
+    CREATED("Created"),
+    DUPLICATE("Duplicate"),
+    INVALID("Invalid");
+
+    private String description;
+}
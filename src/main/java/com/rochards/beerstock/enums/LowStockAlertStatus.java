@@ -0,0 +1,14 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum LowStockAlertStatus {
+
+    LOW("Low"),
+    RESTOCKED("Restocked");
+
+    private String description;
+}
@@ -0,0 +1,18 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum RequestKind {
+
+    READ("GET and HEAD, served from the cache mostly"),
+    MUTATION("Every other method, each one a write to the database");
+
+    private String description;
+
+    public static RequestKind of(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) ? READ : MUTATION;
+    }
+}
@@ -0,0 +1,14 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum SnapshotCompression {
+
+    NONE("Blocks are stored as encoded"),
+    DEFLATE("Blocks are deflated, at the fastest level");
+
+    private String description;
+}
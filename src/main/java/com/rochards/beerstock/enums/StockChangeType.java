@@ -0,0 +1,16 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum StockChangeType {
+
+    CREATED("Created"),
+    INCREMENT("Increment"),
+    DECREMENT("Decrement"),
+    DELETED("Deleted");
+
+    private String description;
+}
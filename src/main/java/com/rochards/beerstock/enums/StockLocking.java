@@ -0,0 +1,15 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum StockLocking {
+
+    ATOMIC("Conditional update in a single statement"),
+    OPTIMISTIC("Read, then write checking the version"),
+    PESSIMISTIC("Read locking the row, then write");
+
+    private String description;
+}
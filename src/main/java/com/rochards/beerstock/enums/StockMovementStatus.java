@@ -0,0 +1,15 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum StockMovementStatus {
+
+    APPLIED("Applied"),
+    REJECTED("Rejected"),
+    NOT_FOUND("Not found");
+
+    private String description;
+}
@@ -0,0 +1,14 @@
+package com.rochards.beerstock.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum StoreEngine {
+
+    JPA("The beer table, through JPA"),
+    MAPPED("Fixed-width records in a memory-mapped file, indexed in memory");
+
+    private String description;
+}
@@ -0,0 +1,23 @@
+package com.rochards.beerstock.event;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockChangeType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Published inside the transaction that changes the stock of a beer. Listeners that must not see rolled back changes
+ * use {@code @TransactionalEventListener}.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BeerStockChangedEvent {
+
+    private final Long beerId;
+    private final BeerType type;
+    private final StockChangeType changeType;
+    private final int delta;
+    private final int quantity; // after the change, 0 once the beer is deleted
+}
@@ -1,28 +1,54 @@
 package com.rochards.beerstock.exception;
 
+import com.rochards.beerstock.dto.StockMovementResultDTO;
 import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
 import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.BeerNotLocatableException;
+import com.rochards.beerstock.exception.type.BeerNotReservableException;
 import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.exception.type.IdempotencyKeyReusedException;
+import com.rochards.beerstock.exception.type.InvalidCursorException;
+import com.rochards.beerstock.exception.type.InvalidETagException;
+import com.rochards.beerstock.exception.type.InvalidHistoryRangeException;
+import com.rochards.beerstock.exception.type.InvalidIdempotencyKeyException;
+import com.rochards.beerstock.exception.type.InvalidImportFileException;
+import com.rochards.beerstock.exception.type.InvalidSnapshotException;
+import com.rochards.beerstock.exception.type.InvalidWarehouseException;
+import com.rochards.beerstock.exception.type.RateLimitExceededException;
+import com.rochards.beerstock.exception.type.ReservationNotFoundException;
+import com.rochards.beerstock.exception.type.ServiceOverloadedException;
+import com.rochards.beerstock.exception.type.SnapshotNotFoundException;
+import com.rochards.beerstock.exception.type.StockMovementsRejectedException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.validation.ObjectError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
-import org.springframework.web.context.request.WebRequest;
-import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Maps the API errors for both the servlet and the reactive stack, so none of the handlers may depend on either one.
+ * The framework's own exceptions are left to the default resolution of each stack.
+ */
 @ControllerAdvice
-public class APIExceptionHandler extends ResponseEntityExceptionHandler {
+public class APIExceptionHandler {
 
     @ExceptionHandler(BeerAlreadyExistException.class)
-    public ResponseEntity<Object> handleBeerAlreadyExistException(BeerAlreadyExistException ex, WebRequest request) {
+    public ResponseEntity<Object> handleBeerAlreadyExistException(BeerAlreadyExistException ex) {
 
         var status = HttpStatus.BAD_REQUEST;
         String error = ex.getMessage();
@@ -32,7 +58,7 @@ public class APIExceptionHandler extends ResponseEntityExceptionHandler {
     }
 
     @ExceptionHandler(BeerNotFoundException.class)
-    public ResponseEntity<Object> handleBeerNotFoundException(BeerNotFoundException ex, WebRequest request) {
+    public ResponseEntity<Object> handleBeerNotFoundException(BeerNotFoundException ex) {
 
         var status = HttpStatus.BAD_REQUEST;
         String error = ex.getMessage();
@@ -42,7 +68,7 @@ public class APIExceptionHandler extends ResponseEntityExceptionHandler {
     }
 
     @ExceptionHandler(BeerStockExceededException.class)
-    public ResponseEntity<Object> handleBeerStockExceededException(BeerStockExceededException ex, WebRequest request) {
+    public ResponseEntity<Object> handleBeerStockExceededException(BeerStockExceededException ex) {
 
         var status = HttpStatus.BAD_REQUEST;
         String error = ex.getMessage();
@@ -51,21 +77,232 @@ public class APIExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(apiError, new HttpHeaders(), status);
     }
 
-    @Override
-    protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex,
-        HttpHeaders headers, HttpStatus status, WebRequest request) {
+    @ExceptionHandler(ReservationNotFoundException.class)
+    public ResponseEntity<Object> handleReservationNotFoundException(ReservationNotFoundException ex) {
 
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(BeerNotReservableException.class)
+    public ResponseEntity<Object> handleBeerNotReservableException(BeerNotReservableException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(BeerNotLocatableException.class)
+    public ResponseEntity<Object> handleBeerNotLocatableException(BeerNotLocatableException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(InvalidWarehouseException.class)
+    public ResponseEntity<Object> handleInvalidWarehouseException(InvalidWarehouseException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(InvalidHistoryRangeException.class)
+    public ResponseEntity<Object> handleInvalidHistoryRangeException(InvalidHistoryRangeException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(SnapshotNotFoundException.class)
+    public ResponseEntity<Object> handleSnapshotNotFoundException(SnapshotNotFoundException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(UnsupportedByStoreEngineException.class)
+    public ResponseEntity<Object> handleUnsupportedByStoreEngineException(UnsupportedByStoreEngineException ex) {
+
+        var status = HttpStatus.NOT_IMPLEMENTED;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(InvalidSnapshotException.class)
+    public ResponseEntity<Object> handleInvalidSnapshotException(InvalidSnapshotException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<Object> handleInvalidCursorException(InvalidCursorException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(InvalidETagException.class)
+    public ResponseEntity<Object> handleInvalidETagException(InvalidETagException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(InvalidIdempotencyKeyException.class)
+    public ResponseEntity<Object> handleInvalidIdempotencyKeyException(InvalidIdempotencyKeyException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    // the key was sent before with another body or to another beer, replaying that response would be wrong
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<Object> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex) {
+
+        var status = HttpStatus.UNPROCESSABLE_ENTITY;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(BeerVersionMismatchException.class)
+    public ResponseEntity<Object> handleBeerVersionMismatchException(BeerVersionMismatchException ex) {
+
+        var status = HttpStatus.PRECONDITION_FAILED;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    // only reached once the retries of a conflicting stock update are exhausted
+    @ExceptionHandler(ConcurrencyFailureException.class)
+    public ResponseEntity<Object> handleConcurrencyFailureException(ConcurrencyFailureException ex) {
+
+        var status = HttpStatus.CONFLICT;
+        String error = "The beer was changed concurrently too many times, try again.";
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    // the connection pool is the backpressure point, mostly with virtual threads, where nothing else limits the
+    // requests waiting for it
+    @ExceptionHandler({CannotCreateTransactionException.class, CannotGetJdbcConnectionException.class})
+    public ResponseEntity<Object> handleConnectionUnavailable(Exception ex) {
+
+        var status = HttpStatus.SERVICE_UNAVAILABLE;
+        String error = "No database connection became available in time, try again.";
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    // rejected before reaching the services, Retry-After is when the client will have a token again
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<Object> handleRateLimitExceededException(RateLimitExceededException ex) {
+
+        var status = HttpStatus.TOO_MANY_REQUESTS;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, retryAfter(ex.getRetryAfter()), status);
+    }
+
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<Object> handleServiceOverloadedException(ServiceOverloadedException ex) {
+
+        var status = HttpStatus.SERVICE_UNAVAILABLE;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, retryAfter(ex.getRetryAfter()), status);
+    }
+
+    @ExceptionHandler(InvalidImportFileException.class)
+    public ResponseEntity<Object> handleInvalidImportFileException(InvalidImportFileException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        String error = ex.getMessage();
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), error);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(StockMovementsRejectedException.class)
+    public ResponseEntity<Object> handleStockMovementsRejectedException(StockMovementsRejectedException ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        List<String> errors = new ArrayList<>();
+        for (StockMovementResultDTO result : ex.getResults()) {
+            if (result.getMessage() != null) {
+                errors.add(result.getId() + ": " + result.getMessage());
+            }
+        }
+        APIError apiError = new APIError(OffsetDateTime.now(), status.value(), ex.getMessage(), errors);
+
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    // @Valid bodies fail with a MethodArgumentNotValidException on the servlet stack and with a
+    // WebExchangeBindException on the reactive one, both are binding results
+    @ExceptionHandler({MethodArgumentNotValidException.class, WebExchangeBindException.class})
+    public ResponseEntity<Object> handleInvalidArguments(Exception ex) {
+
+        var status = HttpStatus.BAD_REQUEST;
+        BindingResult bindingResult = (BindingResult) ex;
         List<String> errors = new ArrayList<>();
-        for (FieldError error : ex.getBindingResult().getFieldErrors()) {
+        for (FieldError error : bindingResult.getFieldErrors()) {
             errors.add(error.getField() + ": " + error.getDefaultMessage());
         }
-        for (ObjectError error : ex.getBindingResult().getGlobalErrors()) {
+        for (ObjectError error : bindingResult.getGlobalErrors()) {
             errors.add(error.getObjectName() + ": " + error.getDefaultMessage());
         }
 
         var message = "One or more fields are invalid!";
         APIError apiError = new APIError(OffsetDateTime.now(), status.value(), message, errors);
 
-        return super.handleExceptionInternal(ex, apiError, headers, status, request);
+        return new ResponseEntity<>(apiError, new HttpHeaders(), status);
+    }
+
+    // in whole seconds, rounded up so that a client retrying on time isn't rejected again
+    private HttpHeaders retryAfter(Duration retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        return headers;
     }
 }
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class BeerNotReservableException extends RuntimeException {
+    public BeerNotReservableException(Long id) {
+        super(String.format("Beer with id '%d' has its stock kept in memory and cannot be reserved.", id));
+    }
+}
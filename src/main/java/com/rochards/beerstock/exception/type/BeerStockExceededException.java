@@ -4,4 +4,49 @@ public class BeerStockExceededException extends RuntimeException {
     public BeerStockExceededException(String message) {
         super(message);
     }
+
+    public static BeerStockExceededException onIncrement(long id, int quantityToIncrement, long quantity, long max) {
+        return new BeerStockExceededException(String.format("Cannot increment '%d' on beer with id '%d' because it" +
+                " already has '%d' and '%d' is the maximum.", quantityToIncrement, id, quantity, max));
+    }
+
+    public static BeerStockExceededException onDecrement(long id, int quantityToDecrement, long quantity) {
+        return new BeerStockExceededException(String.format("Cannot decrement '%d' on beer with id '%d' because it" +
+                " only has '%d' and '0' is the minimum.", quantityToDecrement, id, quantity));
+    }
+
+    public static BeerStockExceededException onDecrement(long id, int quantityToDecrement, long quantity,
+                                                         long reserved) {
+        if (reserved == 0) {
+            return onDecrement(id, quantityToDecrement, quantity);
+        }
+        return new BeerStockExceededException(String.format("Cannot decrement '%d' on beer with id '%d' because it" +
+                " has '%d' and '%d' of them are reserved.", quantityToDecrement, id, quantity, reserved));
+    }
+
+    public static BeerStockExceededException onDecrement(long id, int quantityToDecrement, long quantity,
+                                                         long reserved, long located) {
+        if (located == 0) {
+            return onDecrement(id, quantityToDecrement, quantity, reserved);
+        }
+        return new BeerStockExceededException(String.format("Cannot decrement '%d' on beer with id '%d' because it" +
+                " has '%d', '%d' of them are reserved and '%d' are in warehouses.", quantityToDecrement, id, quantity,
+                reserved, located));
+    }
+
+    public static BeerStockExceededException onWarehouseDecrement(long id, String warehouse, int quantityToDecrement,
+                                                                  long quantity) {
+        return new BeerStockExceededException(String.format("Cannot take '%d' of beer with id '%d' from warehouse" +
+                " '%s' because it only has '%d' there.", quantityToDecrement, id, warehouse, quantity));
+    }
+
+    public static BeerStockExceededException onLocate(long id, int quantityToLocate, long available) {
+        return new BeerStockExceededException(String.format("Cannot move '%d' of beer with id '%d' into a warehouse" +
+                " because only '%d' of its units in no warehouse are available.", quantityToLocate, id, available));
+    }
+
+    public static BeerStockExceededException onReserve(long id, int quantityToReserve, long quantity, long reserved) {
+        return new BeerStockExceededException(String.format("Cannot reserve '%d' on beer with id '%d' because it" +
+                " has '%d' and '%d' of them are reserved already.", quantityToReserve, id, quantity, reserved));
+    }
 }
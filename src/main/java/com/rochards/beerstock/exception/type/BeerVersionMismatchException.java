@@ -0,0 +1,8 @@
+package com.rochards.beerstock.exception.type;
+
+public class BeerVersionMismatchException extends RuntimeException {
+    public BeerVersionMismatchException(Long id, long expectedVersion, long currentVersion) {
+        super(String.format("Beer with id '%d' is at version %d, not at the expected version %d.", id,
+                currentVersion, expectedVersion));
+    }
+}
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+    public IdempotencyKeyReusedException(String key) {
+        super(String.format("Idempotency-Key '%s' was already used for a different request.", key));
+    }
+}
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class InvalidETagException extends RuntimeException {
+    public InvalidETagException(String eTag) {
+        super(String.format("ETag '%s' is not valid.", eTag));
+    }
+}
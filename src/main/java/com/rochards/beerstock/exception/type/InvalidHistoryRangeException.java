@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class InvalidHistoryRangeException extends RuntimeException {
+    public InvalidHistoryRangeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class InvalidIdempotencyKeyException extends RuntimeException {
+    public InvalidIdempotencyKeyException(int maxLength) {
+        super(String.format("Idempotency-Key must have between 1 and %d characters.", maxLength));
+    }
+}
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class InvalidImportFileException extends RuntimeException {
+    public InvalidImportFileException(String reason) {
+        super(String.format("The import file could not be read: %s", reason));
+    }
+}
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class InvalidSnapshotException extends RuntimeException {
+    public InvalidSnapshotException(String name, String reason) {
+        super(String.format("Snapshot '%s' could not be read: %s", name, reason));
+    }
+}
@@ -0,0 +1,8 @@
+package com.rochards.beerstock.exception.type;
+
+public class InvalidWarehouseException extends RuntimeException {
+    public InvalidWarehouseException(String warehouse) {
+        super(String.format("Warehouse '%s' is not valid, it must have 1 to 64 letters, digits, '-' or '_'.",
+                warehouse));
+    }
+}
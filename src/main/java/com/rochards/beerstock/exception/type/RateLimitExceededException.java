@@ -0,0 +1,16 @@
+package com.rochards.beerstock.exception.type;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class RateLimitExceededException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public RateLimitExceededException(Duration retryAfter) {
+        super("Too many requests from this client, slow down.");
+        this.retryAfter = retryAfter;
+    }
+}
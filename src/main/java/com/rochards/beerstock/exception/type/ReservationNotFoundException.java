@@ -0,0 +1,9 @@
+package com.rochards.beerstock.exception.type;
+
+import java.util.UUID;
+
+public class ReservationNotFoundException extends RuntimeException {
+    public ReservationNotFoundException(UUID id) {
+        super(String.format("Reservation with id '%s' not found, it may have expired.", id));
+    }
+}
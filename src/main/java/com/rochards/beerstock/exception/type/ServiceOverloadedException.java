@@ -0,0 +1,20 @@
+package com.rochards.beerstock.exception.type;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class ServiceOverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public ServiceOverloadedException(Duration retryAfter) {
+        this("The service is handling too many requests at once, try again.", retryAfter);
+    }
+
+    protected ServiceOverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,7 @@
+package com.rochards.beerstock.exception.type;
+
+public class SnapshotNotFoundException extends RuntimeException {
+    public SnapshotNotFoundException(String name) {
+        super(String.format("Snapshot '%s' not found.", name));
+    }
+}
@@ -0,0 +1,17 @@
+package com.rochards.beerstock.exception.type;
+
+import com.rochards.beerstock.dto.StockMovementResultDTO;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+public class StockMovementsRejectedException extends RuntimeException {
+
+    private final List<StockMovementResultDTO> results;
+
+    public StockMovementsRejectedException(List<StockMovementResultDTO> results) {
+        super("One or more stock movements were rejected, none of them was applied.");
+        this.results = results;
+    }
+}
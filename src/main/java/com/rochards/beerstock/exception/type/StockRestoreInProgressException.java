@@ -0,0 +1,11 @@
+package com.rochards.beerstock.exception.type;
+
+import java.time.Duration;
+
+// answered as the requests shed, the beers are back once the restore is over
+public class StockRestoreInProgressException extends ServiceOverloadedException {
+
+    public StockRestoreInProgressException(Duration retryAfter) {
+        super("A snapshot is being restored, the beers can't be changed until it is done.", retryAfter);
+    }
+}
@@ -0,0 +1,9 @@
+package com.rochards.beerstock.exception.type;
+
+import com.rochards.beerstock.enums.StoreEngine;
+
+public class UnsupportedByStoreEngineException extends RuntimeException {
+    public UnsupportedByStoreEngineException(String operation, StoreEngine engine) {
+        super(String.format("%s is not supported by the '%s' store engine.", operation, engine.name().toLowerCase()));
+    }
+}
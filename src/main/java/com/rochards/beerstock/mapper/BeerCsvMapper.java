@@ -0,0 +1,131 @@
+package com.rochards.beerstock.mapper;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.enums.BeerType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BeerCsvMapper {
+
+    public static final BeerCsvMapper INSTANCE = new BeerCsvMapper();
+
+    public static final String HEADER = "id,name,brand,max,quantity,type";
+
+    private static final List<String> REQUIRED_COLUMNS = List.of("name", "brand", "max", "quantity", "type");
+
+    public String toCsvLine(BeerDTO beerDTO) {
+        return String.join(",", String.valueOf(beerDTO.getId()), escape(beerDTO.getName()),
+                escape(beerDTO.getBrand()), String.valueOf(beerDTO.getMax()), String.valueOf(beerDTO.getQuantity()),
+                beerDTO.getType().name());
+    }
+
+    /**
+     * Maps each column name of the header to its position, so imported files may omit the id or change the order
+     * of the columns.
+     */
+    public Map<String, Integer> toColumns(String header) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = split(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(), i);
+        }
+
+        for (String required : REQUIRED_COLUMNS) {
+            if (!columns.containsKey(required)) {
+                throw new IllegalArgumentException(String.format("CSV header must have the '%s' column.", required));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Reads the next record, or returns null at the end of the input. A record ends at a line break outside of quotes,
+     * the ones inside a quoted field are part of it, so a name or brand exported over several lines reads back whole.
+     */
+    public String readRecord(BufferedReader reader) throws IOException {
+        StringBuilder record = new StringBuilder();
+        boolean quoted = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (!quoted && (c == '\n' || c == '\r')) {
+                reader.mark(1);
+                if (c == '\r' && reader.read() != '\n') {
+                    reader.reset();
+                }
+                return record.toString();
+            }
+            if (c == '"') { // a doubled quote inside a quoted field flips it twice
+                quoted = !quoted;
+            }
+            record.append((char) c);
+        }
+        return record.length() == 0 ? null : record.toString();
+    }
+
+    // the id column is ignored, imported beers always get a new one
+    public BeerDTO fromCsvLine(String line, Map<String, Integer> columns) {
+        List<String> fields = split(line);
+        if (fields.size() < columns.size()) {
+            throw new IllegalArgumentException(String.format("Expected %d fields but found %d.", columns.size(),
+                    fields.size()));
+        }
+
+        try {
+            return BeerDTO.builder()
+                    .name(fields.get(columns.get("name")))
+                    .brand(fields.get(columns.get("brand")))
+                    .max(Integer.valueOf(fields.get(columns.get("max")).trim()))
+                    .quantity(Integer.valueOf(fields.get(columns.get("quantity")).trim()))
+                    .type(BeerType.valueOf(fields.get(columns.get("type")).trim()))
+                    .build();
+        } catch (IllegalArgumentException ex) { // also covers NumberFormatException
+            throw new IllegalArgumentException("Invalid field value: " + ex.getMessage(), ex);
+        }
+    }
+
+    // RFC 4180: fields holding separators, quotes or line breaks are quoted and their quotes doubled
+    private String escape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field.");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
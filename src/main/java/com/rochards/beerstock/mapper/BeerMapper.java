@@ -1,8 +1,11 @@
 package com.rochards.beerstock.mapper;
 
 import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.WarehouseStockDTO;
 import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.WarehouseStock;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 import org.mapstruct.factory.Mappers;
 
 @Mapper
@@ -11,5 +14,9 @@ public interface BeerMapper {
     BeerMapper INSTANCE = Mappers.getMapper(BeerMapper.class);
 
     Beer toModel(BeerDTO beerDTO);
+
+    @Mapping(target = "warehouses", ignore = true) // only single beer reads load them
     BeerDTO toDTO(Beer beer);
+
+    WarehouseStockDTO toDTO(WarehouseStock warehouseStock);
 }
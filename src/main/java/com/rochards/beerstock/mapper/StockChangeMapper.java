@@ -0,0 +1,16 @@
+package com.rochards.beerstock.mapper;
+
+import com.rochards.beerstock.dto.StockChangeDTO;
+import com.rochards.beerstock.entity.StockChange;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.factory.Mappers;
+
+@Mapper
+public interface StockChangeMapper {
+
+    StockChangeMapper INSTANCE = Mappers.getMapper(StockChangeMapper.class);
+
+    @Mapping(source = "position", target = "offset")
+    StockChangeDTO toDTO(StockChange stockChange);
+}
@@ -1,12 +1,103 @@
 package com.rochards.beerstock.repository;
 
 import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import jakarta.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Repository
-public interface BeerRepository extends JpaRepository<Beer, Long> {
+public interface BeerRepository extends JpaRepository<Beer, Long>, BeerRepositoryCustom {
     Optional<Beer> findByName(String name);
+
+    @Query("select b.id from Beer b where b.name = :name")
+    Optional<Long> findIdByName(@Param("name") String name);
+
+    List<Beer> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    @Query("select b.name from Beer b where b.name in :names")
+    Set<String> findExistingNames(@Param("names") Collection<String> names);
+
+    @Query("select b.type as type, sum(b.quantity) as units from Beer b group by b.type")
+    List<TypeUnits> sumQuantityByType();
+
+    // single conditional statement, returns 0 when the beer doesn't exist or the max would be exceeded
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = b.quantity + :quantity, b.version = b.version + 1 " +
+            "where b.id = :id and b.quantity + :quantity <= b.max")
+    int incrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // single conditional statement, returns 0 when the beer doesn't exist or the quantity would go below the units
+    // held by reservations or kept in warehouses
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = b.quantity - :quantity, b.version = b.version + 1 " +
+            "where b.id = :id and b.quantity - :quantity >= b.reserved + b.located")
+    int decrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // no bounds check, used to persist deltas that were already checked somewhere else
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = b.quantity + :quantity, b.version = b.version + 1 where b.id = :id")
+    int addQuantity(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // like incrementStock/decrementStock, also returning 0 when the row is no longer at the expected version
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = b.quantity + :delta, b.version = b.version + 1 " +
+            "where b.id = :id and b.version = :version and " +
+            "b.quantity + :delta between b.reserved + b.located and b.max")
+    int addStockIfVersion(@Param("id") Long id, @Param("delta") int delta, @Param("version") long version);
+
+    // the optimistic write, returns 0 when the row is no longer at the version the quantity was computed from
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = :quantity, b.version = b.version + 1 " +
+            "where b.id = :id and b.version = :version")
+    int setQuantityIfVersion(@Param("id") Long id, @Param("quantity") int quantity, @Param("version") long version);
+
+    // holds units for a reservation, returns 0 when the beer doesn't exist or has fewer available ones. The version
+    // is left alone, the quantity a conditional update was made against is still the same
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.reserved = b.reserved + :quantity where b.id = :id and " +
+            "b.quantity - b.reserved - b.located >= :quantity")
+    int reserve(@Param("id") Long id, @Param("quantity") int quantity);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.reserved = b.reserved - :quantity where b.id = :id")
+    int release(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // takes the units a reservation held out of the stock
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = b.quantity - :quantity, b.reserved = b.reserved - :quantity, " +
+            "b.version = b.version + 1 where b.id = :id")
+    int confirmReservation(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // units entering or leaving a warehouse from outside, checked by the caller holding the row lock
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.quantity = b.quantity + :quantity, b.located = b.located + :quantity, " +
+            "b.version = b.version + 1 where b.id = :id")
+    int addLocatedStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    // units moved between a warehouse and the unassigned ones, the version is left alone as in reserve
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Beer b set b.located = b.located + :quantity where b.id = :id")
+    int locate(@Param("id") Long id, @Param("quantity") int quantity);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Beer b where b.id = :id")
+    Optional<Beer> findForUpdateById(@Param("id") Long id);
+
+    interface TypeUnits {
+
+        BeerType getType();
+
+        Long getUnits();
+    }
 }
@@ -0,0 +1,38 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface BeerRepositoryCustom {
+
+    /**
+     * Adds each delta to the quantity of its beer using a single JDBC batch. A movement is only applied when the
+     * resulting quantity stays between the reserved units and the beer max, the returned array holds the updated row
+     * count (0 or 1) of each movement in the informed order.
+     */
+    int[] batchAddQuantity(List<Long> ids, List<Integer> deltas);
+
+    /**
+     * Reads every beer in id order through a forward-only cursor, handing each row to the action as soon as it is
+     * read. Rows are not attached to the persistence context, so memory use doesn't grow with the table size.
+     */
+    void forEachBeer(int fetchSize, Consumer<Beer> action);
+
+    // the beers as they are, ids and versions included, in a single JDBC batch
+    void insertAll(List<Beer> beers);
+
+    // empties the table without undo entries for its rows, which also means it can't be rolled back
+    void truncate();
+
+    // moves the id sequence past the informed id, when it isn't already
+    void restartIdsAfter(long id);
+
+    /**
+     * Up to limit beers matching every informed filter of the criteria, with ids after afterId, in id order. Each
+     * filter but the low stock ratio is answered from an index, see {@link BeerSearchQuery}.
+     */
+    List<Beer> search(BeerSearchDTO criteria, long afterId, int limit);
+}
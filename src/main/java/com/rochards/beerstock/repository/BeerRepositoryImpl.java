@@ -0,0 +1,114 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// picked up by Spring Data as the implementation of BeerRepositoryCustom because of the Impl suffix
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class BeerRepositoryImpl implements BeerRepositoryCustom {
+
+    // reserved units and the ones kept in warehouses are never taken
+    private static final String ADD_QUANTITY_SQL = "update beer set quantity = quantity + ?, version = version + 1 " +
+            "where id = ? and quantity + ? >= reserved + located and quantity + ? <= max";
+
+    private static final String FIND_ALL_SQL = "select id, name, brand, max, quantity, type, version, reserved, " +
+            "located from beer order by id";
+
+    // reserved and located are left to their default of 0
+    private static final String INSERT_SQL = "insert into beer (id, name, brand, max, quantity, type, version) " +
+            "values (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int ID_BLOCK = 50; // the allocation size of beer_seq, ids are handed out below each value
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Override
+    public int[] batchAddQuantity(List<Long> ids, List<Integer> deltas) {
+        return jdbcTemplate.batchUpdate(ADD_QUANTITY_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                int delta = deltas.get(i);
+                ps.setInt(1, delta);
+                ps.setLong(2, ids.get(i));
+                ps.setInt(3, delta);
+                ps.setInt(4, delta);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ids.size();
+            }
+        });
+    }
+
+    @Override
+    public void forEachBeer(int fetchSize, Consumer<Beer> action) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(FIND_ALL_SQL, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> action.accept(new Beer(rs.getLong("id"), rs.getString("name"),
+                rs.getString("brand"), rs.getInt("max"), rs.getInt("quantity"),
+                BeerType.valueOf(rs.getString("type")), rs.getLong("version"), rs.getInt("reserved"),
+                rs.getInt("located"))));
+    }
+
+    @Override
+    public void insertAll(List<Beer> beers) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Beer beer = beers.get(i);
+                ps.setLong(1, beer.getId());
+                ps.setString(2, beer.getName());
+                ps.setString(3, beer.getBrand());
+                ps.setInt(4, beer.getMax());
+                ps.setInt(5, beer.getQuantity());
+                ps.setString(6, beer.getType().name());
+                ps.setLong(7, beer.getVersion());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return beers.size();
+            }
+        });
+    }
+
+    @Override
+    public void truncate() {
+        jdbcTemplate.execute("truncate table beer");
+    }
+
+    @Override
+    public void restartIdsAfter(long id) {
+        long next = jdbcTemplate.queryForObject("select next value for beer_seq", Long.class);
+        if (next < id + ID_BLOCK) {
+            jdbcTemplate.execute("alter sequence beer_seq restart with " + (id + ID_BLOCK));
+        }
+    }
+
+    @Override
+    public List<Beer> search(BeerSearchDTO criteria, long afterId, int limit) {
+        BeerSearchQuery query = BeerSearchQuery.of(criteria, afterId, limit);
+        return namedParameterJdbcTemplate.query(query.getSql(), query.getParams(), (rs, rowNum) ->
+                new Beer(rs.getLong("id"), rs.getString("name"), rs.getString("brand"), rs.getInt("max"),
+                        rs.getInt("quantity"), BeerType.valueOf(rs.getString("type")), rs.getLong("version"),
+                        rs.getInt("reserved"), rs.getInt("located")));
+    }
+}
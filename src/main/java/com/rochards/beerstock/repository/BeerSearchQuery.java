@@ -0,0 +1,68 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The SQL of a beer search with named parameters, shared by the JDBC and the R2DBC repositories. The prefixes are
+ * index ranges, the name one on the name_lower column from import.sql, since H2 has no functional indexes. The low
+ * stock ratio is checked on the rows the other filters leave.
+ */
+@Getter
+public final class BeerSearchQuery {
+
+    private static final String SELECT_SQL = "select id, name, brand, max, quantity, type, version, reserved, " +
+            "located from beer";
+
+    private final String sql;
+    private final Map<String, Object> params;
+
+    private BeerSearchQuery(String sql, Map<String, Object> params) {
+        this.sql = sql;
+        this.params = params;
+    }
+
+    // ids after afterId in id order, a page is read after the last id of the previous one
+    public static BeerSearchQuery of(BeerSearchDTO criteria, long afterId, int limit) {
+        List<String> conditions = new ArrayList<>();
+        Map<String, Object> params = new LinkedHashMap<>();
+
+        if (criteria.getName() != null) {
+            addPrefix(conditions, params, "name_lower", "name", criteria.getName().toLowerCase(Locale.ROOT));
+        }
+        if (criteria.getBrand() != null) {
+            addPrefix(conditions, params, "brand", "brand", criteria.getBrand());
+        }
+        if (criteria.getType() != null) {
+            conditions.add("type = :type");
+            params.put("type", criteria.getType().name());
+        }
+        if (criteria.getLowStock() != null) {
+            conditions.add("quantity <= max * cast(:lowStock as double precision)");
+            params.put("lowStock", criteria.getLowStock());
+        }
+        conditions.add("id > :afterId");
+        params.put("afterId", afterId);
+        params.put("limit", limit);
+
+        // the page of ids comes from the filters' index alone, only its rows are then read by primary key. Read in one
+        // query, the rows after afterId in the primary key are cheaper to H2 than an index range plus a row lookup each
+        String sql = SELECT_SQL + " where id in (select id from beer where " + String.join(" and ", conditions) +
+                " order by id limit :limit) order by id";
+        return new BeerSearchQuery(sql, params);
+    }
+
+    // a range rather than LIKE, H2 only turns a LIKE into an index range when the pattern is a literal
+    private static void addPrefix(List<String> conditions, Map<String, Object> params, String column, String param,
+                                  String prefix) {
+        conditions.add(column + " >= :" + param + "From and " + column + " < :" + param + "To");
+        params.put(param + "From", prefix);
+        params.put(param + "To", prefix + Character.MAX_VALUE);
+    }
+}
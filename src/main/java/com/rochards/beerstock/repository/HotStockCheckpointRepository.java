@@ -0,0 +1,9 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.entity.HotStockCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface HotStockCheckpointRepository extends JpaRepository<HotStockCheckpoint, Long> {
+}
@@ -0,0 +1,22 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.entity.IdempotentResponse;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+@Repository
+public interface IdempotentResponseRepository extends JpaRepository<IdempotentResponse, String> {
+
+    boolean existsByCreatedAtAfter(Instant createdAt);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotentResponse r where r.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Instant before);
+}
@@ -0,0 +1,92 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// the beer table, the default engine
+@Repository
+@ConditionalOnProperty(prefix = "beerstock.store", name = "engine", havingValue = "jpa", matchIfMissing = true)
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class JpaStockStore implements StockStore {
+
+    private final BeerRepository beerRepository;
+
+    @Override
+    public List<Beer> findAll() {
+        return beerRepository.findAll();
+    }
+
+    @Override
+    public List<Beer> findPage(long afterId, int limit) {
+        return beerRepository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit));
+    }
+
+    @Override
+    public List<Beer> search(BeerSearchDTO criteria, long afterId, int limit) {
+        return beerRepository.search(criteria, afterId, limit);
+    }
+
+    @Override
+    public void forEachBeer(int fetchSize, Consumer<Beer> action) {
+        beerRepository.forEachBeer(fetchSize, action);
+    }
+
+    @Override
+    public Map<BeerType, Long> sumQuantityByType() {
+        Map<BeerType, Long> units = new EnumMap<>(BeerType.class);
+        beerRepository.sumQuantityByType().forEach(typeUnits -> units.put(typeUnits.getType(), typeUnits.getUnits()));
+        return units;
+    }
+
+    @Override
+    public Optional<Beer> findById(Long id) {
+        return beerRepository.findById(id);
+    }
+
+    @Override
+    public Optional<Beer> findByName(String name) {
+        return beerRepository.findByName(name);
+    }
+
+    @Override
+    public Optional<Long> findIdByName(String name) {
+        return beerRepository.findIdByName(name);
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return beerRepository.existsById(id);
+    }
+
+    @Override
+    public Beer save(Beer beer) {
+        return beerRepository.save(beer);
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        beerRepository.deleteById(id);
+    }
+
+    @Override
+    @Transactional // joins the one of the service, the bulk updates need one to flush in
+    public int addStock(Long id, int delta, Long expectedVersion) {
+        if (expectedVersion != null) {
+            return beerRepository.addStockIfVersion(id, delta, expectedVersion);
+        }
+        return delta > 0 ? beerRepository.incrementStock(id, delta) : beerRepository.decrementStock(id, -delta);
+    }
+}
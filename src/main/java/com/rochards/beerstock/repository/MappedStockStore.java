@@ -0,0 +1,520 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockLocking;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Beers as fixed-width records in a memory-mapped file, for deployments without a database server. The records live
+ * off the heap, in the page cache, and are found through an id index and a name hash index kept in memory and
+ * rebuilt from the file on startup.
+ * <p>
+ * The version and the quantity of a beer share a single long, so a stock change is one compare-and-set on the mapped
+ * record, with no lock between concurrent changes. The version has 32 bits of it then, a beer changed that many times
+ * fails to change again rather than wrap around to a version an old ETag was read at. Creating, updating and deleting
+ * a beer take a write lock, which reads only wait for when they overlap one, and forces the record to disk. A stock
+ * change is forced as well unless fsync is off, the OS writes it back later then, which survives the process crashing
+ * but not the machine.
+ * <p>
+ * Its writes are not part of the transactions of the services. Within one, a deletion waits for the commit, and a
+ * creation, an update or a stock change is undone when it rolls back. Until then the change can be read, a stock
+ * change checked against it included. An undo only takes back what is still there: when a change made meanwhile used
+ * the units it takes back, or the room it gives back, the quantity stops at its bounds. There is no reserved or
+ * located stock.
+ */
+@Repository
+@ConditionalOnProperty(prefix = "beerstock.store", name = "engine", havingValue = "mapped")
+public class MappedStockStore implements StockStore {
+
+    static final int RECORD_SIZE = 1280;
+    static final int MAX_TEXT_BYTES = 600; // the 200 characters a name or a brand may have, in UTF-8
+    static final int HEADER_SIZE = 64;
+    static final long MAX_VERSION = 0xFFFF_FFFFL; // the high half of the stock field, the last one is left to undos
+
+    private static final int MAGIC = 0x42454552;
+    private static final int FORMAT = 1;
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE; // a single mapping
+
+    // header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int NEXT_ID_OFFSET = 16;
+
+    // record fields, the stock one is 8-byte aligned for the compare-and-set
+    private static final int LIVE = 0; // 1 while the slot holds a beer
+    static final int STOCK = 8; // the version in the high half, the quantity in the low one
+    private static final int ID = 16;
+    private static final int MAX = 24;
+    private static final int TYPE = 28;
+    private static final int NAME = 32; // a short with the length, then the bytes
+    private static final int BRAND = NAME + 2 + MAX_TEXT_BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final BeerstockProperties.Store properties;
+    private final NavigableMap<Long, Integer> slotsById = new ConcurrentSkipListMap<>(); // in id order, for pages
+    private final Map<String, Integer> slotsByName = new ConcurrentHashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>(); // below the high water mark, under the write lock
+    private final StampedLock lock = new StampedLock();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int highWater; // slots above it were never used
+    private long nextId;
+
+    @Autowired
+    public MappedStockStore(BeerstockProperties beerstockProperties) {
+        this.properties = beerstockProperties.getStore();
+        if (beerstockProperties.getStockUpdate().getLocking() != StockLocking.ATOMIC) {
+            // the row locks and versions of the other lockings are the beer table's
+            throw new IllegalStateException("The mapped store only changes the stock atomically, set " +
+                    "beerstock.stock-update.locking=atomic.");
+        }
+        if (beerstockProperties.getHotStock().isEnabled()) {
+            // the ledger keeps its quantities in the beer table
+            throw new IllegalStateException("The mapped store can't be used with the hot stock ledger, set " +
+                    "beerstock.hot-stock.enabled=false.");
+        }
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path path = Paths.get(properties.getFile());
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        int fileCapacity = (int) Math.max(0, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        capacity = Math.max(fileCapacity, properties.getCapacity());
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException(String.format("The mapped store holds '%d' beers at most.",
+                    MAX_CAPACITY));
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (created) {
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.putInt(FORMAT_OFFSET, FORMAT);
+            buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+            buffer.putLong(NEXT_ID_OFFSET, 1);
+            buffer.force(0, HEADER_SIZE);
+        } else if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(FORMAT_OFFSET) != FORMAT
+                || buffer.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+            throw new IllegalStateException(String.format("'%s' is not a beer store of this version.", path));
+        }
+        nextId = buffer.getLong(NEXT_ID_OFFSET);
+
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.getInt(offset(slot) + LIVE) == 1) {
+                slotsById.put(buffer.getLong(offset(slot) + ID), slot);
+                slotsByName.put(readText(offset(slot) + NAME), slot);
+                for (int free = highWater; free < slot; free++) {
+                    if (buffer.getInt(offset(free) + LIVE) != 1) {
+                        freeSlots.add(free);
+                    }
+                }
+                highWater = slot + 1;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public List<Beer> findAll() {
+        return scan(0, Integer.MAX_VALUE, beer -> true);
+    }
+
+    @Override
+    public List<Beer> findPage(long afterId, int limit) {
+        return scan(afterId, limit, beer -> true);
+    }
+
+    // the filters of BeerSearchQuery, on every beer after afterId as there are no indexes but the id and name ones
+    @Override
+    public List<Beer> search(BeerSearchDTO criteria, long afterId, int limit) {
+        String name = criteria.getName() == null ? null : criteria.getName().toLowerCase(Locale.ROOT);
+        return scan(afterId, limit, beer -> (name == null || beer.getName().toLowerCase(Locale.ROOT).startsWith(name))
+                && (criteria.getBrand() == null || beer.getBrand().startsWith(criteria.getBrand()))
+                && (criteria.getType() == null || beer.getType() == criteria.getType())
+                && (criteria.getLowStock() == null || beer.getQuantity() <= beer.getMax() * criteria.getLowStock()));
+    }
+
+    // a page at a time, the read lock isn't held while the action runs
+    @Override
+    public void forEachBeer(int fetchSize, Consumer<Beer> action) {
+        long afterId = 0;
+        List<Beer> beers;
+        do {
+            beers = findPage(afterId, fetchSize);
+            beers.forEach(action);
+            afterId = beers.isEmpty() ? afterId : beers.get(beers.size() - 1).getId();
+        } while (beers.size() == fetchSize);
+    }
+
+    @Override
+    public Map<BeerType, Long> sumQuantityByType() {
+        Map<BeerType, Long> units = new EnumMap<>(BeerType.class);
+        forEachBeer(1_000, beer -> units.merge(beer.getType(), (long) beer.getQuantity(), Long::sum));
+        return units;
+    }
+
+    @Override
+    public Optional<Beer> findById(Long id) {
+        return read(() -> Optional.ofNullable(slotsById.get(id)).map(this::readBeer));
+    }
+
+    @Override
+    public Optional<Beer> findByName(String name) {
+        return read(() -> Optional.ofNullable(slotsByName.get(name)).map(this::readBeer));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return slotsById.containsKey(id);
+    }
+
+    @Override
+    public Beer save(Beer beer) {
+        byte[] name = toBytes(beer.getName());
+        byte[] brand = toBytes(beer.getBrand());
+        long stamp = lock.writeLock();
+        try {
+            Integer existing = slotsById.get(beer.getId());
+            Integer named = slotsByName.get(beer.getName());
+            if (named != null && !named.equals(existing)) {
+                throw new DataIntegrityViolationException(String.format("A beer named '%s' exists already.",
+                        beer.getName()));
+            }
+
+            int slot;
+            long version;
+            Beer previous = null;
+            if (existing != null) { // an update, of the version it was read at as with the beer table
+                slot = existing;
+                previous = readBeer(slot);
+                version = stockOf(slot) >>> 32;
+                if (beer.getVersion() != version) {
+                    throw new OptimisticLockingFailureException(String.format("Beer with ID '%d' changed since " +
+                            "it was read.", beer.getId()));
+                }
+                version = nextVersion(beer.getId(), version);
+                slotsByName.remove(readText(offset(slot) + NAME));
+            } else {
+                slot = takeSlot();
+                version = 0;
+                beer.setId(nextId++);
+                buffer.putLong(NEXT_ID_OFFSET, nextId);
+                buffer.force(0, HEADER_SIZE);
+            }
+            beer.setVersion(version);
+            write(slot, beer, name, brand);
+            buffer.putInt(offset(slot) + LIVE, 1); // only once the rest of it is on disk
+            buffer.force(offset(slot), 4);
+
+            slotsById.put(beer.getId(), slot);
+            slotsByName.put(beer.getName(), slot);
+            onRollback(previous == null ? () -> remove(beer.getId()) : undoUpdate(previous, beer.getQuantity()));
+            return beer;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // once the transaction commits, when there is one
+    @Override
+    public void deleteById(Long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            remove(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                remove(id);
+            }
+        });
+    }
+
+    private void remove(Long id) {
+        long stamp = lock.writeLock();
+        try {
+            Integer slot = slotsById.remove(id);
+            if (slot == null) {
+                return;
+            }
+            slotsByName.remove(readText(offset(slot) + NAME));
+            buffer.putInt(offset(slot) + LIVE, 0);
+            buffer.force(offset(slot), 4);
+            freeSlots.add(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // the read lock only keeps the slot from being reused by another beer, stock changes don't exclude each other
+    @Override
+    public int addStock(Long id, int delta, Long expectedVersion) {
+        long stamp = lock.readLock();
+        try {
+            Integer slot = slotsById.get(id);
+            if (slot == null) {
+                return 0;
+            }
+            int offset = offset(slot);
+            int max = buffer.getInt(offset + MAX);
+            while (true) {
+                long stock = (long) LONGS.getVolatile(buffer, offset + STOCK);
+                long version = stock >>> 32;
+                long quantity = (int) stock + (long) delta;
+                if (expectedVersion != null && version != expectedVersion || quantity < 0 || quantity > max) {
+                    return 0;
+                }
+                if (LONGS.compareAndSet(buffer, offset + STOCK, stock, stock(nextVersion(id, version),
+                        (int) quantity))) {
+                    if (properties.isFsync()) {
+                        buffer.force(offset + STOCK, 8);
+                    }
+                    onRollback(() -> undoStock(id, -delta));
+                    return 1;
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // undoes a change, whatever was changed on top of it meanwhile is kept, the quantity stops at its bounds
+    private void undoStock(Long id, int delta) {
+        long stamp = lock.readLock();
+        try {
+            Integer slot = slotsById.get(id);
+            if (slot == null) {
+                return;
+            }
+            int offset = offset(slot);
+            int max = buffer.getInt(offset + MAX);
+            long stock;
+            do {
+                stock = (long) LONGS.getVolatile(buffer, offset + STOCK);
+            } while (!LONGS.compareAndSet(buffer, offset + STOCK, stock,
+                    stock(undoVersion(stock >>> 32), bounded((int) stock + (long) delta, max))));
+            if (properties.isFsync()) {
+                buffer.force(offset + STOCK, 8);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // the fields the update replaced, and the quantity it changed by
+    private Runnable undoUpdate(Beer previous, int quantity) {
+        return () -> {
+            long stamp = lock.writeLock();
+            try {
+                Integer slot = slotsById.get(previous.getId());
+                if (slot == null) {
+                    return;
+                }
+                long stock = stockOf(slot);
+                previous.setVersion(undoVersion(stock >>> 32));
+                previous.setQuantity(bounded((int) stock + (long) previous.getQuantity() - quantity,
+                        previous.getMax()));
+                slotsByName.remove(readText(offset(slot) + NAME));
+                write(slot, previous, toBytes(previous.getName()), toBytes(previous.getBrand()));
+                slotsByName.put(previous.getName(), slot);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        };
+    }
+
+    private void onRollback(Runnable undo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    undo.run();
+                }
+            }
+        });
+    }
+
+    // in id order under the read lock, one consistent snapshot rather than retrying a long read
+    private List<Beer> scan(long afterId, int limit, Predicate<Beer> filter) {
+        long stamp = lock.readLock();
+        try {
+            List<Beer> beers = new ArrayList<>();
+            for (int slot : slotsById.tailMap(afterId, false).values()) {
+                Beer beer = readBeer(slot);
+                if (filter.test(beer)) {
+                    beers.add(beer);
+                    if (beers.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            return beers;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // optimistically without the lock, again under it when a write overlapped, which may have torn what was read
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            T result = reader.get();
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        } catch (RuntimeException ex) {
+            if (lock.validate(stamp)) {
+                throw ex;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int takeSlot() {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.poll();
+        }
+        if (highWater == capacity) {
+            throw new IllegalStateException(String.format("The mapped store is full, it holds '%d' beers. Raise " +
+                    "beerstock.store.capacity to grow it on the next start.", capacity));
+        }
+        return highWater++;
+    }
+
+    private void write(int slot, Beer beer, byte[] name, byte[] brand) {
+        int offset = offset(slot);
+        buffer.putLong(offset + ID, beer.getId());
+        buffer.putInt(offset + MAX, beer.getMax());
+        buffer.putInt(offset + TYPE, beer.getType().ordinal());
+        writeText(offset + NAME, name);
+        writeText(offset + BRAND, brand);
+        LONGS.setVolatile(buffer, offset + STOCK, stock(beer.getVersion(), beer.getQuantity()));
+        buffer.force(offset, RECORD_SIZE);
+    }
+
+    private Beer readBeer(int slot) {
+        int offset = offset(slot);
+        long stock = stockOf(slot);
+        return new Beer(buffer.getLong(offset + ID), readText(offset + NAME), readText(offset + BRAND),
+                buffer.getInt(offset + MAX), (int) stock, BeerType.values()[buffer.getInt(offset + TYPE)],
+                stock >>> 32);
+    }
+
+    private long stockOf(int slot) {
+        return (long) LONGS.getVolatile(buffer, offset(slot) + STOCK);
+    }
+
+    private String readText(int offset) {
+        byte[] bytes = new byte[buffer.getShort(offset)];
+        buffer.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeText(int offset, byte[] bytes) {
+        buffer.putShort(offset, (short) bytes.length);
+        buffer.put(offset + 2, bytes);
+    }
+
+    private static byte[] toBytes(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TEXT_BYTES) {
+            throw new IllegalArgumentException(String.format("'%s' doesn't fit in a record of the mapped store.",
+                    text));
+        }
+        return bytes;
+    }
+
+    private static long stock(long version, int quantity) {
+        return version << 32 | (quantity & 0xFFFFFFFFL);
+    }
+
+    // of a change, failing rather than wrapping around to a version read before
+    private static long nextVersion(Long id, long version) {
+        if (version + 1 >= MAX_VERSION) {
+            throw new IllegalStateException(String.format("Beer with ID '%d' reached the last version the mapped " +
+                    "store holds, recreate it to change it again.", id));
+        }
+        return version + 1;
+    }
+
+    // of an undo, which can't fail. It takes the version left to it, and keeps it when another undo took it already
+    private static long undoVersion(long version) {
+        return Math.min(version + 1, MAX_VERSION);
+    }
+
+    private static int bounded(long quantity, int max) {
+        return (int) Math.max(0, Math.min(quantity, max));
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,207 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.entity.WarehouseStock;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.HistoryBucket;
+import io.r2dbc.spi.Readable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * The beer table over R2DBC for the reactive profile. Plain SQL instead of a Spring Data R2DBC repository, since
+ * {@link Beer} is mapped by JPA, which still owns the schema and the sequence the ids come from.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveBeerRepository {
+
+    private static final String SELECT_SQL = "select id, name, brand, max, quantity, type, version, reserved, " +
+            "located from beer";
+
+    private static final String INSERT_SQL = "insert into beer (id, name, brand, max, quantity, type, version) " +
+            "values (:id, :name, :brand, :max, :quantity, :type, 0)";
+
+    // same conditions as BeerRepository.incrementStock/decrementStock, in a single statement
+    private static final String ADD_STOCK_SQL = "update beer set quantity = quantity + :delta, " +
+            "version = version + 1 where id = :id and quantity + :delta between reserved + located and max";
+
+    private static final String ADD_STOCK_IF_VERSION_SQL = "update beer set quantity = quantity + :delta, " +
+            "version = version + 1 where id = :id and version = :version and " +
+            "quantity + :delta between reserved + located and max";
+
+    // ids from the sequence Hibernate allocates from, like the beer ones
+    private static final String INSERT_STOCK_CHANGE_SQL = "insert into stock_change (id, beer_id, type, change_type, " +
+            "delta, quantity, occurred_at) values (next value for stock_change_seq, :beerId, :type, :changeType, " +
+            ":delta, :quantity, :occurredAt)";
+
+    // same statements as StockRollupRepositoryImpl, the beer row lock orders the changes of a beer here
+    private static final String ADD_TO_ROLLUP_SQL = "update stock_rollup set units_in = units_in + :unitsIn, " +
+            "units_out = units_out + :unitsOut, movements = movements + 1 where beer_id = :beerId and " +
+            "bucket = :bucket and bucket_start = :bucketStart";
+
+    private static final String INSERT_ROLLUP_SQL = "insert into stock_rollup (beer_id, bucket, bucket_start, " +
+            "units_in, units_out, movements) values (:beerId, :bucket, :bucketStart, :unitsIn, :unitsOut, 1)";
+
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+
+    // a transaction manager of its own, as a bean it would leave @Transactional without a default one
+    @Autowired
+    public ReactiveBeerRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = TransactionalOperator.create(
+                new R2dbcTransactionManager(databaseClient.getConnectionFactory()));
+    }
+
+    // the statements the mono runs commit or roll back together
+    public <T> Mono<T> inTransaction(Mono<T> statements) {
+        return transactionalOperator.transactional(statements);
+    }
+
+    public Flux<Beer> findAll() {
+        return databaseClient.sql(SELECT_SQL + " order by id")
+                .map(this::toBeer)
+                .all();
+    }
+
+    public Flux<Beer> findByIdGreaterThan(long id, int limit) {
+        return databaseClient.sql(SELECT_SQL + " where id > :id order by id limit :limit")
+                .bind("id", id)
+                .bind("limit", limit)
+                .map(this::toBeer)
+                .all();
+    }
+
+    // same SQL as BeerRepository.search
+    public Flux<Beer> search(BeerSearchDTO criteria, long afterId, int limit) {
+        BeerSearchQuery query = BeerSearchQuery.of(criteria, afterId, limit);
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(query.getSql());
+        for (Map.Entry<String, Object> param : query.getParams().entrySet()) {
+            spec = spec.bind(param.getKey(), param.getValue());
+        }
+        return spec.map(this::toBeer).all();
+    }
+
+    public Mono<Beer> findById(long id) {
+        return databaseClient.sql(SELECT_SQL + " where id = :id")
+                .bind("id", id)
+                .map(this::toBeer)
+                .one();
+    }
+
+    public Mono<Beer> findByName(String name) {
+        return databaseClient.sql(SELECT_SQL + " where name = :name")
+                .bind("name", name)
+                .map(this::toBeer)
+                .one();
+    }
+
+    // the id is taken from the sequence Hibernate allocates from, so both never hand out the same one
+    public Mono<Beer> insert(Beer beer) {
+        return databaseClient.sql("select next value for beer_seq")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .flatMap(id -> databaseClient.sql(INSERT_SQL)
+                        .bind("id", id)
+                        .bind("name", beer.getName())
+                        .bind("brand", beer.getBrand())
+                        .bind("max", beer.getMax())
+                        .bind("quantity", beer.getQuantity())
+                        .bind("type", beer.getType().name())
+                        .fetch()
+                        .rowsUpdated()
+                        .thenReturn(new Beer(id, beer.getName(), beer.getBrand(), beer.getMax(),
+                                beer.getQuantity(), beer.getType())));
+    }
+
+    // returns 0 when the beer doesn't exist or the quantity would leave the 0..max bounds
+    public Mono<Long> addStock(long id, int delta) {
+        return databaseClient.sql(ADD_STOCK_SQL)
+                .bind("id", id)
+                .bind("delta", delta)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    // like addStock, also returning 0 when the row is no longer at the expected version
+    public Mono<Long> addStockIfVersion(long id, int delta, long version) {
+        return databaseClient.sql(ADD_STOCK_IF_VERSION_SQL)
+                .bind("id", id)
+                .bind("delta", delta)
+                .bind("version", version)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    public Flux<WarehouseStock> findWarehouseStock(long beerId) {
+        return databaseClient.sql("select beer_id, warehouse, quantity from warehouse_stock where beer_id = :beerId " +
+                        "order by warehouse")
+                .bind("beerId", beerId)
+                .map(row -> new WarehouseStock(row.get("beer_id", Long.class), row.get("warehouse", String.class),
+                        row.get("quantity", Integer.class)))
+                .all();
+    }
+
+    // its warehouse rows go with it, run in a transaction with inTransaction
+    public Mono<Long> deleteById(long id) {
+        return databaseClient.sql("delete from warehouse_stock where beer_id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated()
+                .then(databaseClient.sql("delete from beer where id = :id")
+                        .bind("id", id)
+                        .fetch()
+                        .rowsUpdated());
+    }
+
+    // the outbox row of a change, see StockChangeOutbox
+    public Mono<Long> insertStockChange(StockChange stockChange) {
+        return databaseClient.sql(INSERT_STOCK_CHANGE_SQL)
+                .bind("beerId", stockChange.getBeerId())
+                .bind("type", stockChange.getType().name())
+                .bind("changeType", stockChange.getChangeType().name())
+                .bind("delta", stockChange.getDelta())
+                .bind("quantity", stockChange.getQuantity())
+                .bind("occurredAt", stockChange.getOccurredAt())
+                .fetch()
+                .rowsUpdated();
+    }
+
+    // adds a change to the rollup of its bucket, see StockHistory.record
+    public Mono<Long> addToRollup(long beerId, HistoryBucket bucket, Instant bucketStart, int unitsIn, int unitsOut) {
+        return rollupStatement(ADD_TO_ROLLUP_SQL, beerId, bucket, bucketStart, unitsIn, unitsOut)
+                .flatMap(updatedRows -> updatedRows > 0 ? Mono.just(updatedRows)
+                        : rollupStatement(INSERT_ROLLUP_SQL, beerId, bucket, bucketStart, unitsIn, unitsOut));
+    }
+
+    private Mono<Long> rollupStatement(String sql, long beerId, HistoryBucket bucket, Instant bucketStart, int unitsIn,
+                                       int unitsOut) {
+        return databaseClient.sql(sql)
+                .bind("beerId", beerId)
+                .bind("bucket", bucket.name())
+                .bind("bucketStart", bucketStart)
+                .bind("unitsIn", unitsIn)
+                .bind("unitsOut", unitsOut)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private Beer toBeer(Readable row) {
+        return new Beer(row.get("id", Long.class), row.get("name", String.class), row.get("brand", String.class),
+                row.get("max", Integer.class), row.get("quantity", Integer.class),
+                BeerType.valueOf(row.get("type", String.class)), row.get("version", Long.class),
+                row.get("reserved", Integer.class), row.get("located", Integer.class));
+    }
+}
@@ -0,0 +1,21 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.entity.StockChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface StockChangeRepository extends JpaRepository<StockChange, Long> {
+
+    @Query("select c from StockChange c where c.position is null order by c.id")
+    List<StockChange> findUnpublished(Pageable pageable);
+
+    @Query("select coalesce(max(c.position), 0) from StockChange c")
+    long findLastPosition();
+
+    List<StockChange> findByPositionGreaterThanOrderByPositionAsc(Long position, Pageable pageable);
+}
@@ -0,0 +1,19 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.entity.StockReservation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface StockReservationRepository extends JpaRepository<StockReservation, UUID> {
+
+    // returns 0 when it was confirmed, released or expired already, which makes only one of them take effect
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from StockReservation r where r.id = :id")
+    int deleteReservation(@Param("id") UUID id);
+}
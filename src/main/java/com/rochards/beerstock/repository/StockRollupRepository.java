@@ -0,0 +1,22 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.entity.StockRollup;
+import com.rochards.beerstock.enums.HistoryBucket;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface StockRollupRepository extends JpaRepository<StockRollup, StockRollup.Key>,
+        StockRollupRepositoryCustom {
+
+    @Query("select r from StockRollup r where r.beerId = :beerId and r.bucket = :bucket and " +
+            "r.bucketStart >= :from and r.bucketStart < :to order by r.bucketStart")
+    List<StockRollup> findRange(@Param("beerId") long beerId,
+                                @Param("bucket") HistoryBucket bucket,
+                                @Param("from") Instant from, @Param("to") Instant to);
+}
@@ -0,0 +1,14 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.enums.HistoryBucket;
+
+import java.time.Instant;
+
+public interface StockRollupRepositoryCustom {
+
+    /**
+     * Adds a change to the rollup of its bucket, inserting the rollup when the bucket has none yet. Concurrent first
+     * changes of a bucket don't fail, the one that loses the insert adds to the row the other one inserted.
+     */
+    void add(long beerId, HistoryBucket bucket, Instant bucketStart, int unitsIn, int unitsOut);
+}
@@ -0,0 +1,38 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.enums.HistoryBucket;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+// picked up by Spring Data as the implementation of StockRollupRepositoryCustom because of the Impl suffix
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class StockRollupRepositoryImpl implements StockRollupRepositoryCustom {
+
+    private static final String ADD_SQL = "update stock_rollup set units_in = units_in + ?, " +
+            "units_out = units_out + ?, movements = movements + 1 " +
+            "where beer_id = ? and bucket = ? and bucket_start = ?";
+
+    private static final String INSERT_SQL = "insert into stock_rollup (beer_id, bucket, bucket_start, units_in, " +
+            "units_out, movements) values (?, ?, ?, ?, ?, 1)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // a failed statement leaves the transaction usable in H2, only the statement itself is rolled back
+    @Override
+    public void add(long beerId, HistoryBucket bucket, Instant bucketStart, int unitsIn, int unitsOut) {
+        Timestamp start = Timestamp.from(bucketStart);
+        if (jdbcTemplate.update(ADD_SQL, unitsIn, unitsOut, beerId, bucket.name(), start) > 0) {
+            return;
+        }
+        try {
+            jdbcTemplate.update(INSERT_SQL, beerId, bucket.name(), start, unitsIn, unitsOut);
+        } catch (DuplicateKeyException ex) { // inserted by a concurrent change, which waited for it to commit
+            jdbcTemplate.update(ADD_SQL, unitsIn, unitsOut, beerId, bucket.name(), start);
+        }
+    }
+}
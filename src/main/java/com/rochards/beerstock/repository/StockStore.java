@@ -0,0 +1,64 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Where {@link com.rochards.beerstock.service.BeerService} keeps the beers it reads, creates, deletes and changes the
+ * stock of, picked by beerstock.store.engine: the beer table through {@link BeerRepository}, or a memory-mapped file
+ * for deployments without a database server. The mapped engine, {@link MappedStockStore}, falls short of the beer
+ * table in these:
+ * <ul>
+ *     <li>stock movement batches, imports, reservations, warehouses and snapshots fail with an
+ *     UnsupportedByStoreEngineException, answered with 501</li>
+ *     <li>the stock is only changed with the atomic locking, and neither the hot stock ledger nor the reactive profile
+ *     can be used with it</li>
+ *     <li>its writes aren't part of the transaction: they can be read before it commits and are undone by changes of
+ *     their own when it rolls back, which bump the version again and stop the quantity at its bounds</li>
+ *     <li>a beer has 2^32 versions, once at the last one its changes fail</li>
+ * </ul>
+ * BeerServiceStoreTest runs the service against both engines, the mapped one has these cases overridden.
+ */
+public interface StockStore {
+
+    List<Beer> findAll();
+
+    // up to limit beers with ids after afterId, in id order
+    List<Beer> findPage(long afterId, int limit);
+
+    // like findPage, only the beers matching every informed filter of the criteria
+    List<Beer> search(BeerSearchDTO criteria, long afterId, int limit);
+
+    // every beer in id order, at most fetchSize of them held at once
+    void forEachBeer(int fetchSize, Consumer<Beer> action);
+
+    Map<BeerType, Long> sumQuantityByType();
+
+    Optional<Beer> findById(Long id);
+
+    Optional<Beer> findByName(String name);
+
+    default Optional<Long> findIdByName(String name) {
+        return findByName(name).map(Beer::getId);
+    }
+
+    boolean existsById(Long id);
+
+    // assigns the id of a new beer, a name taken already fails with a DataIntegrityViolationException and a beer
+    // changed since it was read with an OptimisticLockingFailureException
+    Beer save(Beer beer);
+
+    void deleteById(Long id);
+
+    /**
+     * Adds the delta to the quantity in a single atomic step, bumping the version. Returns 0 when the beer doesn't
+     * exist, the quantity would leave its bounds or, with an expected version, the beer is at another one.
+     */
+    int addStock(Long id, int delta, Long expectedVersion);
+}
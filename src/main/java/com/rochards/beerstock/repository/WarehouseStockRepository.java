@@ -0,0 +1,20 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.entity.WarehouseStock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface WarehouseStockRepository extends JpaRepository<WarehouseStock, WarehouseStock.Key> {
+
+    List<WarehouseStock> findByBeerIdOrderByWarehouse(long beerId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from WarehouseStock w where w.beerId = :beerId")
+    int deleteByBeer(@Param("beerId") long beerId);
+}
@@ -0,0 +1,82 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Read-through cache for the beer lookups. Beers are cached by id only, the name cache just points to the id, so a
+ * stock change has a single entry to evict. Misses are cached too and evicted when a beer is created.
+ * <p>
+ * Inside a transaction an eviction happens once it commits, see CacheConfig, or once it rolls back, since a read made
+ * within it, or of the uncommitted changes of the mapped store, may have cached what was rolled back.
+ */
+@Component
+public class BeerCache {
+
+    public static final String BEERS_BY_ID = "beersById";
+    public static final String BEER_IDS_BY_NAME = "beerIdsByName";
+
+    private final Cache beersById;
+    private final Cache beerIdsByName;
+
+    @Autowired
+    public BeerCache(CacheManager cacheManager) {
+        this.beersById = Objects.requireNonNull(cacheManager.getCache(BEERS_BY_ID));
+        this.beerIdsByName = Objects.requireNonNull(cacheManager.getCache(BEER_IDS_BY_NAME));
+    }
+
+    // concurrent misses on the same id wait for a single load
+    public Optional<BeerDTO> findById(Long id, Function<Long, Optional<BeerDTO>> loader) {
+        return Optional.ofNullable(beersById.get(id, () -> loader.apply(id).orElse(null)));
+    }
+
+    public Optional<Long> findIdByName(String name, Function<String, Optional<Long>> loader) {
+        return Optional.ofNullable(beerIdsByName.get(name, () -> loader.apply(name).orElse(null)));
+    }
+
+    public void evict(Long id) {
+        evict(() -> beersById.evict(id));
+    }
+
+    public void evict(Long id, String name) {
+        evict(() -> {
+            beersById.evict(id);
+            beerIdsByName.evict(name);
+        });
+    }
+
+    public void evictAll(Collection<Long> ids) {
+        evict(() -> ids.forEach(beersById::evict));
+    }
+
+    // once the beer table was replaced as a whole
+    public void evictAll() {
+        beersById.clear();
+        beerIdsByName.clear();
+    }
+
+    private void evict(Runnable eviction) {
+        eviction.run();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    eviction.run(); // the synchronization is over, the cache evicts right away
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.rochards.beerstock.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.mapper.BeerCsvMapper;
+import com.rochards.beerstock.mapper.BeerMapper;
+import com.rochards.beerstock.repository.StockStore;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+@Service
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class BeerExportService {
+
+    private final StockStore stockStore;
+    private final ObjectMapper objectMapper;
+    private final BeerstockProperties beerstockProperties;
+    private final HotStockLedger hotStockLedger;
+    private final BeerMapper beerMapper = BeerMapper.INSTANCE;
+    private final BeerCsvMapper beerCsvMapper = BeerCsvMapper.INSTANCE;
+
+    // every row is written as soon as it is read, nothing but the current row is kept in memory. Hot beers are
+    // written with their in-memory quantity
+    @Transactional(readOnly = true)
+    public void export(ExportFormat format, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        if (format == ExportFormat.CSV) {
+            writer.write(BeerCsvMapper.HEADER);
+            writer.write('\n');
+        }
+
+        try {
+            stockStore.forEachBeer(beerstockProperties.getExport().getFetchSize(), beer -> {
+                BeerDTO beerDTO = hotStockLedger.withHotStock(beerMapper.toDTO(beer));
+                try {
+                    writer.write(format == ExportFormat.CSV ? beerCsvMapper.toCsvLine(beerDTO) :
+                            objectMapper.writeValueAsString(beerDTO));
+                    writer.write('\n');
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex); // client went away, stops reading the cursor
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        writer.flush();
+    }
+}
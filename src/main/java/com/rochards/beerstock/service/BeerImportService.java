@@ -0,0 +1,193 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerImportResultDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.ImportStatus;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
+import com.rochards.beerstock.exception.type.InvalidImportFileException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import com.rochards.beerstock.mapper.BeerCsvMapper;
+import com.rochards.beerstock.mapper.BeerMapper;
+import com.rochards.beerstock.repository.BeerRepository;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Service
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class BeerImportService {
+
+    private final BeerRepository beerRepository;
+    private final Validator validator;
+    private final BeerstockProperties beerstockProperties;
+    private final BeerCache beerCache;
+    private final BeerSearchIndex beerSearchIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final BeerMapper beerMapper = BeerMapper.INSTANCE;
+    private final BeerCsvMapper beerCsvMapper = BeerCsvMapper.INSTANCE;
+
+    public List<BeerImportResultDTO> importBeers(List<BeerDTO> beerDTOs) {
+        return importBeers(beerDTOs, Collections.emptyMap());
+    }
+
+    public List<BeerImportResultDTO> importCsv(Reader reader) throws IOException {
+        BufferedReader records = new BufferedReader(reader);
+        String header = beerCsvMapper.readRecord(records);
+        if (header == null) {
+            return Collections.emptyList();
+        }
+        Map<String, Integer> columns = toColumns(header);
+
+        List<BeerDTO> beerDTOs = new ArrayList<>();
+        Map<Integer, String> parseErrors = new HashMap<>(); // index of the row -> why it couldn't be read
+        for (String record = beerCsvMapper.readRecord(records); record != null;
+             record = beerCsvMapper.readRecord(records)) {
+            if (record.isBlank()) {
+                continue;
+            }
+            try {
+                beerDTOs.add(beerCsvMapper.fromCsvLine(record, columns));
+            } catch (IllegalArgumentException ex) {
+                parseErrors.put(beerDTOs.size(), ex.getMessage());
+                beerDTOs.add(null);
+            }
+        }
+
+        return importBeers(beerDTOs, parseErrors);
+    }
+
+    private List<BeerImportResultDTO> importBeers(List<BeerDTO> beerDTOs, Map<Integer, String> parseErrors) {
+        if (beerstockProperties.getStore().getEngine() == StoreEngine.MAPPED) { // JDBC batches into the beer table
+            throw new UnsupportedByStoreEngineException("Importing beers", StoreEngine.MAPPED);
+        }
+        int batchSize = beerstockProperties.getBulkImport().getBatchSize();
+        List<BeerImportResultDTO> results = new ArrayList<>(beerDTOs.size());
+        Set<String> importedNames = new HashSet<>(); // catches names repeated inside the same import
+
+        for (int from = 0; from < beerDTOs.size(); from += batchSize) {
+            List<BeerDTO> chunk = beerDTOs.subList(from, Math.min(from + batchSize, beerDTOs.size()));
+            Set<String> names = chunk.stream().filter(Objects::nonNull).map(BeerDTO::getName)
+                    .filter(Objects::nonNull).collect(Collectors.toSet());
+            Set<String> existingNames = names.isEmpty() ? names : beerRepository.findExistingNames(names);
+
+            List<BeerDTO> beersToCreate = new ArrayList<>();
+            List<BeerImportResultDTO> createdResults = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                int index = from + i;
+                BeerDTO beerDTO = chunk.get(i);
+                var result = BeerImportResultDTO.builder().row(index + 1);
+
+                if (beerDTO == null) {
+                    results.add(result.status(ImportStatus.INVALID).message(parseErrors.get(index)).build());
+                    continue;
+                }
+
+                result.name(beerDTO.getName());
+                Set<ConstraintViolation<BeerDTO>> violations = validator.validate(beerDTO);
+                if (!violations.isEmpty()) {
+                    results.add(result.status(ImportStatus.INVALID).message(toMessage(violations)).build());
+                } else if (existingNames.contains(beerDTO.getName()) || !importedNames.add(beerDTO.getName())) {
+                    results.add(result.status(ImportStatus.DUPLICATE).message(duplicateMessage(beerDTO)).build());
+                } else {
+                    beersToCreate.add(beerDTO);
+                    BeerImportResultDTO created = result.status(ImportStatus.CREATED).build();
+                    createdResults.add(created);
+                    results.add(created);
+                }
+            }
+            create(beersToCreate, createdResults);
+        }
+
+        return results;
+    }
+
+    /**
+     * Inserts the beers of a chunk in a transaction of its own, so a chunk failing doesn't take the ones before it.
+     * A name taken by a concurrent create or import since the chunk was checked fails it on the unique index: the
+     * names left are checked again, the rows whose name was taken turn into duplicates and the rest is retried.
+     */
+    private void create(List<BeerDTO> beerDTOs, List<BeerImportResultDTO> results) {
+        while (!beerDTOs.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insert(beerDTOs, results));
+                return;
+            } catch (DataIntegrityViolationException ex) {
+                Set<String> takenNames = beerRepository.findExistingNames(beerDTOs.stream().map(BeerDTO::getName)
+                        .collect(Collectors.toSet()));
+                if (takenNames.isEmpty()) { // not a name, retrying would fail the same way
+                    throw ex;
+                }
+                for (int i = beerDTOs.size() - 1; i >= 0; i--) {
+                    if (takenNames.contains(beerDTOs.get(i).getName())) {
+                        BeerImportResultDTO result = results.remove(i);
+                        result.setStatus(ImportStatus.DUPLICATE);
+                        result.setMessage(duplicateMessage(beerDTOs.remove(i)));
+                    }
+                }
+            }
+        }
+    }
+
+    // ids come from the pooled sequence on persist, the inserts themselves go as one JDBC batch on flush
+    private void insert(List<BeerDTO> beerDTOs, List<BeerImportResultDTO> results) {
+        List<Beer> beers = new ArrayList<>(beerDTOs.size());
+        for (BeerDTO beerDTO : beerDTOs) {
+            Beer beer = beerMapper.toModel(beerDTO);
+            beer.setId(0); // always a new row, even if the payload brings an id
+            beers.add(beer);
+        }
+        beerRepository.saveAll(beers);
+        beerRepository.flush();
+        for (int i = 0; i < beers.size(); i++) {
+            Beer beer = beers.get(i);
+            results.get(i).setId(beer.getId());
+            beerCache.evict(beer.getId(), beer.getName()); // drops cached misses once the chunk commits
+            beerSearchIndex.add(beer.getId(), beer.getName(), beer.getBrand());
+            eventPublisher.publishEvent(new BeerStockChangedEvent(beer.getId(), beer.getType(),
+                    StockChangeType.CREATED, beer.getQuantity(), beer.getQuantity()));
+        }
+    }
+
+    private String duplicateMessage(BeerDTO beerDTO) {
+        return new BeerAlreadyExistException(beerDTO.getName()).getMessage();
+    }
+
+    private Map<String, Integer> toColumns(String header) {
+        try {
+            return beerCsvMapper.toColumns(header);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidImportFileException(ex.getMessage());
+        }
+    }
+
+    private String toMessage(Set<ConstraintViolation<BeerDTO>> violations) {
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,96 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.RequestKind;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.repository.StockStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stock counters and the units in stock per beer type. The totals are read from the stock store once on startup and
+ * then kept by applying the delta of every committed {@link BeerStockChangedEvent}, so a scrape never queries it.
+ * Changes made without events read them again.
+ */
+@Component
+public class BeerMetrics implements SmartInitializingSingleton {
+
+    public static final String STOCK_CHANGES = "beerstock.stock.changes";
+    public static final String STOCK_REJECTIONS = "beerstock.stock.rejections";
+    public static final String STOCK_UNITS = "beerstock.stock.units";
+    public static final String NOT_FOUND_LOOKUPS = "beerstock.lookups.not.found";
+    public static final String LOW_STOCK_ALERTS_DROPPED = "beerstock.low.stock.alerts.dropped";
+    public static final String IDEMPOTENT_REPLAYS = "beerstock.idempotency.replays";
+    public static final String REQUESTS_REJECTED = "beerstock.requests.rejected";
+
+    private final MeterRegistry meterRegistry;
+    private final StockStore stockStore;
+    private final Map<BeerType, AtomicLong> unitsByType = new EnumMap<>(BeerType.class);
+    private final Counter idempotentReplays; // counted on every retry, not looked up by name each time
+
+    @Autowired
+    public BeerMetrics(MeterRegistry meterRegistry, StockStore stockStore) {
+        this.meterRegistry = meterRegistry;
+        this.stockStore = stockStore;
+        for (BeerType type : BeerType.values()) {
+            unitsByType.put(type, meterRegistry.gauge(STOCK_UNITS, Tags.of("type", type.name()), new AtomicLong()));
+        }
+        this.idempotentReplays = meterRegistry.counter(IDEMPOTENT_REPLAYS);
+    }
+
+    // runs after every singleton is initialized, so the hot stock ledger has already replayed its journal
+    @Override
+    public void afterSingletonsInstantiated() {
+        reload();
+    }
+
+    // after the stock changed without events, as on a snapshot restore. Types without beers are back to 0
+    public void reload() {
+        Map<BeerType, Long> units = stockStore.sumQuantityByType();
+        unitsByType.forEach((type, gauge) -> gauge.set(units.getOrDefault(type, 0L)));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(BeerStockChangedEvent event) {
+        unitsByType.get(event.getType()).addAndGet(event.getDelta());
+
+        StockChangeType changeType = event.getChangeType();
+        if (changeType == StockChangeType.INCREMENT || changeType == StockChangeType.DECREMENT) {
+            meterRegistry.counter(STOCK_CHANGES, "operation", operation(event.getDelta())).increment();
+        }
+    }
+
+    public void stockRejected(int delta) {
+        meterRegistry.counter(STOCK_REJECTIONS, "operation", operation(delta)).increment();
+    }
+
+    public void notFound(String lookup) {
+        meterRegistry.counter(NOT_FOUND_LOOKUPS, "lookup", lookup).increment();
+    }
+
+    public void lowStockAlertDropped() {
+        meterRegistry.counter(LOW_STOCK_ALERTS_DROPPED).increment();
+    }
+
+    public void idempotentReplay() {
+        idempotentReplays.increment();
+    }
+
+    public void requestRejected(String reason, RequestKind kind) {
+        meterRegistry.counter(REQUESTS_REJECTED, "reason", reason, "kind", kind.name()).increment();
+    }
+
+    private String operation(int delta) {
+        return delta > 0 ? "increment" : "decrement";
+    }
+}
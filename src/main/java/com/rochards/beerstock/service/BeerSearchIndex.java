@@ -0,0 +1,619 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.repository.StockStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory trigram index over the name and brand of every beer, for typo tolerant searches. Each beer is a document
+ * numbered in insertion order. Each trigram keeps the sorted numbers of the documents holding it, and each document
+ * the sorted ids of its trigrams, so the trigrams a candidate shares with a query are counted without going through
+ * every list. A query matches the documents sharing at least beerstock.fuzzy-search.min-similarity of its trigrams,
+ * the ones sharing more of them first. It is loaded from the database on startup and kept current by the services
+ * that create and delete beers, after their transaction commits, or loaded again after a snapshot is restored.
+ */
+@Slf4j
+@Component
+public class BeerSearchIndex {
+
+    public static final int MAX_QUERY_LENGTH = 200; // characters read from a query, the rest is ignored
+
+    private static final int CANDIDATE_BUDGET = 1_024; // documents the rarest lists of a query may bring together
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final StockStore stockStore;
+    private final BeerstockProperties beerstockProperties;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Postings> postingsByTrigram = new HashMap<>();
+    private int nextTrigramId;
+    private LongIntMap docsByBeerId = new LongIntMap();
+    private long[] beerIds = new long[1024]; // by document
+    private int[] trigramStarts = new int[1025]; // by document where its trigram ids start in the pool, then the end
+    private byte[] trigramPool = new byte[64 * 1024]; // by document, its trigram ids as written by writeTrigramIds
+    private int pooled;
+    private int docs;
+    private final BitSet deleted = new BitSet(); // documents left in the postings until the next compaction
+    private int deletedDocs;
+
+    @Autowired
+    public BeerSearchIndex(StockStore stockStore, BeerstockProperties beerstockProperties) {
+        this.stockStore = stockStore;
+        this.beerstockProperties = beerstockProperties;
+    }
+
+    @PostConstruct
+    public void load() {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            clear();
+            stockStore.forEachBeer(beerstockProperties.getExport().getFetchSize(),
+                    beer -> addDocument(beer.getId(), beer.getName(), beer.getBrand()));
+            trim();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Indexed {} beers for searching in {} ms", docs, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // inside a transaction the beer only becomes searchable once it commits
+    public void add(long beerId, String name, String brand) {
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                removeDocument(beerId);
+                addDocument(beerId, name, brand);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void remove(long beerId) {
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                removeDocument(beerId);
+                if (deletedDocs > 1024 && deletedDocs > docs / 4) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs - deletedDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of up to limit beers whose name or brand look like the query, best matches first. The rank is the share of
+     * the query trigrams a beer has, then how few other trigrams it has, then how long it has been indexed.
+     */
+    public List<Long> search(String query, int limit) {
+        long[] trigrams = trigrams(query.length() > MAX_QUERY_LENGTH ? query.substring(0, MAX_QUERY_LENGTH) : query);
+        if (trigrams.length == 0 || limit <= 0) {
+            return List.of();
+        }
+        double minSimilarity = beerstockProperties.getFuzzySearch().getMinSimilarity();
+        int minShared = (int) Math.ceil(minSimilarity * trigrams.length - 1e-9); // 0.3 * 10 is 3.0000000000000004
+        minShared = Math.min(trigrams.length, Math.max(1, minShared));
+
+        lock.readLock().lock();
+        try {
+            return search(trigrams, minShared, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Long> search(long[] trigrams, int minShared, int limit) {
+        List<Postings> found = new ArrayList<>(trigrams.length);
+        for (long trigram : trigrams) {
+            Postings postings = postingsByTrigram.get(trigram);
+            if (postings != null) {
+                found.add(postings);
+            }
+        }
+        Postings[] lists = found.toArray(new Postings[0]);
+        Arrays.sort(lists, Comparator.comparingInt(postings -> postings.size));
+        int[] queryIds = found.stream().mapToInt(postings -> postings.id).sorted().toArray();
+
+        // a document sharing s trigrams is missing from n - s lists at most, the ones of trigrams no beer has among
+        // them, so it is in one of the m rarest lists if n - s < m. Merging the n - minShared + 1 rarest lists finds
+        // every match, but common trigrams have lists of a good part of the catalogue, so no more of them are merged
+        // than the candidate budget allows: the ones sharing n - m + 1 trigrams or more, the closest matches, are
+        // still all found
+        int missing = trigrams.length - lists.length;
+        int merged = 0;
+        int candidates = 0;
+        while (merged < trigrams.length - minShared + 1 - missing
+                && (candidates == 0 || candidates + lists[merged].size <= CANDIDATE_BUDGET)) {
+            candidates += lists[merged++].size;
+        }
+
+        TopMatches best = new TopMatches(limit);
+        int required = minShared;
+        Cursor[] cursors = new Cursor[merged];
+        for (int i = 0; i < merged; i++) {
+            cursors[i] = new Cursor(lists[i]);
+        }
+        while (true) {
+            int doc = Cursor.END;
+            for (int i = 0; i < merged; i++) {
+                doc = Math.min(doc, cursors[i].doc);
+            }
+            if (doc == Cursor.END) {
+                break;
+            }
+            for (int i = 0; i < merged; i++) {
+                if (cursors[i].doc == doc) {
+                    cursors[i].next();
+                }
+            }
+            if (deleted.get(doc)) {
+                continue;
+            }
+
+            int position = trigramStarts[doc];
+            int trigramCount = readVarint(trigramPool, position);
+            int shared = shared(queryIds, position + varintLength(trigramPool, position), trigramStarts[doc + 1]);
+            int unshared = trigramCount - shared;
+            if (shared >= required && best.offer(doc, shared, unshared) && best.worstShared() > required) {
+                // ties may still rank higher on their other trigrams, fewer lists are enough to find them
+                required = best.worstShared();
+                merged = Math.min(merged, trigrams.length - required + 1 - missing);
+            }
+        }
+
+        int[] ranked = best.docs();
+        List<Long> ids = new ArrayList<>(ranked.length);
+        for (int doc : ranked) {
+            ids.add(beerIds[doc]);
+        }
+        return ids;
+    }
+
+    // the ids are merged with the ones of the query, both are sorted
+    private int shared(int[] queryIds, int position, int end) {
+        int shared = 0;
+        int id = 0;
+        int i = 0;
+        while (position < end && i < queryIds.length) {
+            int gap = 0;
+            int shift = 0;
+            byte next;
+            do {
+                next = trigramPool[position++];
+                gap |= (next & 0x7F) << shift;
+                shift += 7;
+            } while (next < 0);
+            id += gap;
+
+            while (i < queryIds.length && queryIds[i] < id) {
+                i++;
+            }
+            if (i < queryIds.length && queryIds[i] == id) {
+                shared++;
+                i++;
+            }
+        }
+        return shared;
+    }
+
+    private void addDocument(long beerId, String name, String brand) {
+        long[] trigrams = trigrams(name + ' ' + (brand == null ? "" : brand));
+        if (docs == beerIds.length) {
+            beerIds = Arrays.copyOf(beerIds, docs * 2);
+            trigramStarts = Arrays.copyOf(trigramStarts, docs * 2 + 1);
+        }
+
+        int doc = docs++;
+        beerIds[doc] = beerId;
+        docsByBeerId.put(beerId, doc);
+        int[] ids = new int[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            Postings postings = postingsByTrigram.computeIfAbsent(trigrams[i], key -> new Postings(nextTrigramId++));
+            postings.add(doc);
+            ids[i] = postings.id;
+        }
+        writeTrigramIds(ids);
+        trigramStarts[docs] = pooled;
+    }
+
+    /**
+     * Appends the trigram ids of a document to the pool: their count and then the gap from each one to the next,
+     * sorted, as varints. A catalogue has a few thousand distinct trigrams, so most gaps take one or two bytes and the
+     * ids of a document tend to fit in a cache line.
+     */
+    private void writeTrigramIds(int[] ids) {
+        Arrays.sort(ids);
+        int maxLength = (ids.length + 1) * 5;
+        if (pooled + maxLength > trigramPool.length) {
+            int grown = trigramPool.length + (trigramPool.length >> 1);
+            trigramPool = Arrays.copyOf(trigramPool, Math.max(pooled + maxLength, grown));
+        }
+
+        pooled = writeVarint(trigramPool, pooled, ids.length);
+        int previous = 0;
+        for (int id : ids) {
+            pooled = writeVarint(trigramPool, pooled, id - previous);
+            previous = id;
+        }
+    }
+
+    // gives back the room the arrays grew by while loading
+    private void trim() {
+        int capacity = Math.max(docs, 1024);
+        beerIds = Arrays.copyOf(beerIds, capacity);
+        trigramStarts = Arrays.copyOf(trigramStarts, capacity + 1);
+        trigramPool = Arrays.copyOf(trigramPool, pooled);
+        postingsByTrigram.values().forEach(Postings::trim);
+    }
+
+    // a load starts over, the beer table may have been replaced under the documents indexed so far
+    private void clear() {
+        postingsByTrigram.clear();
+        nextTrigramId = 0;
+        docsByBeerId = new LongIntMap();
+        beerIds = new long[1024];
+        trigramStarts = new int[1025];
+        trigramPool = new byte[64 * 1024];
+        pooled = 0;
+        docs = 0;
+        deleted.clear();
+        deletedDocs = 0;
+    }
+
+    private void removeDocument(long beerId) {
+        int doc = docsByBeerId.remove(beerId);
+        if (doc >= 0) {
+            deleted.set(doc);
+            deletedDocs++;
+        }
+    }
+
+    // drops the deleted documents from the postings and the pool and numbers the rest again, keeping their order
+    private void compact() {
+        int[] renumbered = new int[docs];
+        int live = 0;
+        int kept = 0;
+        for (int doc = 0; doc < docs; doc++) {
+            if (deleted.get(doc)) {
+                renumbered[doc] = -1;
+                continue;
+            }
+            renumbered[doc] = live;
+            int start = trigramStarts[doc];
+            int count = trigramStarts[doc + 1] - start;
+            System.arraycopy(trigramPool, start, trigramPool, kept, count);
+            beerIds[live] = beerIds[doc];
+            trigramStarts[live] = kept;
+            docsByBeerId.put(beerIds[live], live);
+            kept += count;
+            live++;
+        }
+        trigramStarts[live] = kept;
+        postingsByTrigram.values().removeIf(postings -> postings.renumber(renumbered) == 0);
+        docs = live;
+        pooled = kept;
+        deleted.clear();
+        deletedDocs = 0;
+    }
+
+    /**
+     * Distinct trigrams of the text, sorted. Case and accents are ignored and every run of other characters than
+     * letters and digits separates words. Like pg_trgm each word is padded with two spaces before and one after it,
+     * so short words and the start of words count too. A trigram is its three chars packed in a long.
+     */
+    static long[] trigrams(String text) {
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        String[] words = SEPARATORS.split(normalized.toLowerCase(Locale.ROOT));
+
+        long[] trigrams = new long[normalized.length() * 2 + 2];
+        int count = 0;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                long packed = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+                trigrams[count++] = packed * 0x9E3779B97F4A7C15L; // still one to one, but hashes apart as a Long
+            }
+        }
+        return Arrays.stream(trigrams, 0, count).sorted().distinct().toArray();
+    }
+
+    // seven bits a byte, the lowest first, the high bit set on all of them but the last one
+    private static int writeVarint(byte[] bytes, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] bytes, int position) {
+        int value = 0;
+        int shift = 0;
+        byte next;
+        do {
+            next = bytes[position++];
+            value |= (next & 0x7F) << shift;
+            shift += 7;
+        } while (next < 0);
+        return value;
+    }
+
+    private static int varintLength(byte[] bytes, int position) {
+        int length = 1;
+        while (bytes[position++] < 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+
+    /**
+     * The best matches so far in a min-heap of their ranks, each packed in a long that sorts like it: the trigrams
+     * shared, then the ones not shared, fewer first, then the document, the one indexed first first.
+     */
+    private static final class TopMatches {
+
+        private final long[] heap;
+        private int size;
+
+        TopMatches(int limit) {
+            this.heap = new long[limit];
+        }
+
+        // whether the match is now among the best and there are as many as the limit
+        boolean offer(int doc, int shared, int unshared) {
+            long rank = (long) shared << 48 | (long) (0xFFFF - Math.min(unshared, 0xFFFF)) << 32
+                    | (0xFFFFFFFFL - doc);
+            if (size < heap.length) {
+                int child = size++;
+                heap[child] = rank;
+                while (child > 0 && heap[(child - 1) / 2] > heap[child]) {
+                    swap((child - 1) / 2, child);
+                    child = (child - 1) / 2;
+                }
+            } else if (rank > heap[0]) {
+                heap[0] = rank;
+                int parent = 0;
+                while (2 * parent + 1 < size) {
+                    int child = 2 * parent + 1;
+                    if (child + 1 < size && heap[child + 1] < heap[child]) {
+                        child++;
+                    }
+                    if (heap[parent] <= heap[child]) {
+                        break;
+                    }
+                    swap(parent, child);
+                    parent = child;
+                }
+            } else {
+                return false;
+            }
+            return size == heap.length;
+        }
+
+        int worstShared() {
+            return (int) (heap[0] >>> 48);
+        }
+
+        // best first
+        int[] docs() {
+            long[] ranks = Arrays.copyOf(heap, size);
+            Arrays.sort(ranks);
+            int[] docs = new int[size];
+            for (int i = 0; i < size; i++) {
+                docs[i] = (int) (0xFFFFFFFFL - (ranks[size - 1 - i] & 0xFFFFFFFFL));
+            }
+            return docs;
+        }
+
+        private void swap(int i, int j) {
+            long rank = heap[i];
+            heap[i] = heap[j];
+            heap[j] = rank;
+        }
+    }
+
+    // documents are always added with a higher number than the ones before, so each one is kept as the gap from the
+    // one before it, as a varint. Lists are only ever read in order, and take a byte for most documents this way
+    private static final class Postings {
+
+        final int id;
+        byte[] bytes = new byte[8];
+        int length;
+        int size; // documents
+        int last;
+
+        Postings(int id) {
+            this.id = id;
+        }
+
+        void add(int doc) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + 5, bytes.length + (bytes.length >> 1)));
+            }
+            length = writeVarint(bytes, length, doc - last);
+            last = doc;
+            size++;
+        }
+
+        void trim() {
+            bytes = Arrays.copyOf(bytes, length);
+        }
+
+        // the remaining documents in their new numbers, which keep their order
+        int renumber(int[] renumbered) {
+            byte[] old = bytes;
+            int oldLength = length;
+            bytes = new byte[Math.max(8, oldLength)];
+            length = 0;
+            size = 0;
+            last = 0;
+            for (int position = 0, doc = 0; position < oldLength; position += varintLength(old, position)) {
+                doc += readVarint(old, position);
+                if (renumbered[doc] >= 0) {
+                    add(renumbered[doc]);
+                }
+            }
+            return size;
+        }
+    }
+
+    private static final class Cursor {
+
+        static final int END = Integer.MAX_VALUE;
+
+        private final byte[] bytes;
+        private final int length;
+        private int position;
+        int doc; // the one the cursor is at, END past the last one
+
+        Cursor(Postings postings) {
+            this.bytes = postings.bytes;
+            this.length = postings.length;
+            next();
+        }
+
+        void next() {
+            if (position == length) {
+                doc = END;
+                return;
+            }
+            int gap = 0;
+            int shift = 0;
+            byte next;
+            do {
+                next = bytes[position++];
+                gap |= (next & 0x7F) << shift;
+                shift += 7;
+            } while (next < 0);
+            doc += gap;
+        }
+    }
+
+    // open addressing from beer id to document, a HashMap would box two objects per beer
+    private static final class LongIntMap {
+
+        private static final long FREE = Long.MIN_VALUE;
+
+        private long[] keys = newKeys(1024);
+        private int[] values = new int[1024];
+        private int size;
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int slot = slot(key, keys);
+            if (keys[slot] == FREE) {
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+        }
+
+        // the document the key pointed to, or -1
+        int remove(long key) {
+            int slot = slot(key, keys);
+            if (keys[slot] == FREE) {
+                return -1;
+            }
+            int value = values[slot];
+            keys[slot] = FREE;
+            size--;
+
+            // the entries after it in the same run move back if their own slot is at or before the freed one
+            int mask = keys.length - 1;
+            for (int next = (slot + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    keys[slot] = keys[next];
+                    values[slot] = values[next];
+                    keys[next] = FREE;
+                    slot = next;
+                }
+            }
+            return value;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = slot(oldKeys[i], keys);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slot(long key, long[] keys) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static int hash(long key) {
+            long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32));
+        }
+
+        private static long[] newKeys(int length) {
+            long[] keys = new long[length];
+            Arrays.fill(keys, FREE);
+            return keys;
+        }
+    }
+}
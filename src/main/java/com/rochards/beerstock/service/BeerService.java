@@ -1,105 +1,435 @@
 package com.rochards.beerstock.service;
 
+import com.rochards.beerstock.config.BeerstockProperties;
 import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementResultDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
 import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StockLocking;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.enums.StockMovementStatus;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
 import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
 import com.rochards.beerstock.exception.type.BeerNotFoundException;
 import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.exception.type.StockMovementsRejectedException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
 import com.rochards.beerstock.mapper.BeerMapper;
 import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockStore;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import com.rochards.beerstock.utils.CursorUtils;
 import lombok.AllArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 @AllArgsConstructor(onConstructor = @__(@Autowired))
 public class BeerService {
 
     private final BeerRepository beerRepository;
+    private final StockStore stockStore; // the beers read, paged, created, deleted and restocked one at a time
+    private final WarehouseStockRepository warehouseStockRepository;
+    private final BeerstockProperties beerstockProperties;
+    private final BeerCache beerCache;
+    private final BeerSearchIndex beerSearchIndex;
+    private final HotStockLedger hotStockLedger;
+    private final BeerMetrics beerMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
     private final BeerMapper beerMapper = BeerMapper.INSTANCE;
 
     public List<BeerDTO> listAll() {
-        return beerRepository.findAll()
-                .stream().map(beerMapper::toDTO)
+        return stockStore.findAll()
+                .stream().map(beerMapper::toDTO).map(this::withHotStock)
+                .collect(Collectors.toList());
+    }
+
+    public BeerPageDTO listPage(String cursor, Integer size) {
+        int pageSize = pageSize(size);
+        long lastId = cursor == null ? 0 : CursorUtils.decode(cursor);
+
+        // one extra row tells whether there is a next page without a count query
+        List<Beer> beers = stockStore.findPage(lastId, pageSize + 1);
+        return toPage(beers, pageSize);
+    }
+
+    // paginated like listPage, the low stock ratio is checked against the stored quantity of hot beers
+    public BeerPageDTO search(BeerSearchDTO criteria, String cursor, Integer size) {
+        int pageSize = pageSize(size);
+        long lastId = cursor == null ? 0 : CursorUtils.decode(cursor);
+
+        List<Beer> beers = stockStore.search(criteria, lastId, pageSize + 1);
+        return toPage(beers, pageSize);
+    }
+
+    // ranked by the search index, beers deleted since it matched them are left out
+    public List<BeerDTO> fuzzySearch(String query, Integer size) {
+        return beerSearchIndex.search(query, pageSize(size)).stream()
+                .map(this::lookUp).flatMap(Optional::stream)
                 .collect(Collectors.toList());
     }
 
     public Optional<BeerDTO> findById(Long id) {
-        Optional<Beer> beer = beerRepository.findById(id);
-        return beer.map(beerMapper::toDTO);
+        Optional<BeerDTO> beerDTO = lookUp(id);
+        if (beerDTO.isEmpty()) {
+            beerMetrics.notFound("id");
+        }
+        return beerDTO;
     }
 
     public Optional<BeerDTO> findByName(String beerName) {
-        Optional<Beer> beer = beerRepository.findByName(beerName);
-        return beer.map(beerMapper::toDTO);
+        Optional<Long> id = beerCache.findIdByName(beerName, stockStore::findIdByName);
+        Optional<BeerDTO> beerDTO = id.flatMap(this::lookUp);
+        if (beerDTO.isEmpty()) {
+            beerMetrics.notFound("name");
+        }
+        return beerDTO;
     }
 
+    @Transactional
     public BeerDTO create(BeerDTO beerDTO) {
         checkIfAlreadyExist(beerDTO.getName());
 
         Beer beer = beerMapper.toModel(beerDTO);
-        Beer createdBeer = beerRepository.save(beer);
+        Beer createdBeer = stockStore.save(beer);
+        beerCache.evict(createdBeer.getId(), createdBeer.getName()); // both may hold a cached miss
+        beerSearchIndex.add(createdBeer.getId(), createdBeer.getName(), createdBeer.getBrand());
+        eventPublisher.publishEvent(new BeerStockChangedEvent(createdBeer.getId(), createdBeer.getType(),
+                StockChangeType.CREATED, createdBeer.getQuantity(), createdBeer.getQuantity()));
 
         return beerMapper.toDTO(createdBeer);
     }
 
+    @Transactional
     public void delete(Long id) {
-        checkIfAlreadyExist(id);
-        beerRepository.deleteById(id);
+        BeerDTO beerDTO = lookUp(id).orElseThrow(() -> new BeerNotFoundException(id));
+        warehouseStockRepository.deleteByBeer(id);
+        stockStore.deleteById(id);
+        hotStockLedger.remove(id);
+        beerCache.evict(id); // the name entry now points to a missing id, which is looked up as not found
+        beerSearchIndex.remove(id);
+        eventPublisher.publishEvent(new BeerStockChangedEvent(id, beerDTO.getType(), StockChangeType.DELETED,
+                -beerDTO.getQuantity(), 0));
     }
 
     public BeerDTO incrementStock(Long id, int quantityToIncrement) {
-        Optional<Beer> optBeer = beerRepository.findById(id);
-        if (optBeer.isPresent()) {
-            Beer beerToIncrement = optBeer.get();
-
-            int finalQuantity = beerToIncrement.getQuantity() + quantityToIncrement;
-            if (finalQuantity <= beerToIncrement.getMax()) {
-                beerToIncrement.setQuantity(finalQuantity);
-                return beerMapper.toDTO(beerRepository.save(beerToIncrement));
+        return incrementStock(id, quantityToIncrement, null);
+    }
+
+    // a null expected version accepts any, otherwise a beer at another version fails with a version mismatch
+    public BeerDTO incrementStock(Long id, int quantityToIncrement, Long expectedVersion) {
+        return addStock(id, quantityToIncrement, expectedVersion);
+    }
+
+    public BeerDTO decrementStock(Long id, int quantityToDecrement) {
+        return decrementStock(id, quantityToDecrement, null);
+    }
+
+    public BeerDTO decrementStock(Long id, int quantityToDecrement, Long expectedVersion) {
+        return addStock(id, -quantityToDecrement, expectedVersion);
+    }
+
+    private BeerDTO addStock(Long id, int delta, Long expectedVersion) {
+        if (hotStockLedger.isHot(id)) {
+            return addHotStock(id, delta, expectedVersion);
+        }
+
+        // each attempt runs in its own transaction, a conflict leaves the one it happened in rollback-only
+        return retryOnConflict(() -> {
+            Optional<Beer> updated = transactionTemplate.execute(status -> {
+                StockLocking locking = beerstockProperties.getStockUpdate().getLocking();
+                Optional<Beer> beer = locking == StockLocking.ATOMIC
+                        ? Optional.of(addStockAtomically(id, delta, expectedVersion))
+                        : addStockWithLock(id, delta, expectedVersion, locking);
+                beer.ifPresent(changed -> {
+                    beerCache.evict(id);
+                    publishStockChange(id, changed.getType(), delta, changed.getQuantity());
+                });
+                return beer;
+            });
+            // an optimistic write that lost to a concurrent one changed nothing, its transaction committed
+            return updated.map(beerMapper::toDTO)
+                    .orElseThrow(() -> new ObjectOptimisticLockingFailureException(Beer.class, id));
+        });
+    }
+
+    private Beer addStockAtomically(Long id, int delta, Long expectedVersion) {
+        int updatedRows = stockStore.addStock(id, delta, expectedVersion);
+        Beer beer = stockStore.findById(id).orElseThrow(() -> new BeerNotFoundException(id));
+
+        if (updatedRows == 0) {
+            checkVersion(beer, expectedVersion);
+            throw stockExceeded(beer, delta);
+        }
+        return beer;
+    }
+
+    // the row lock makes a pessimistic write wait. An optimistic one is a versioned update that returns empty when
+    // the row moved on, and its transaction commits having changed nothing. Conflicts are the common case under
+    // contention, this keeps each of them from costing a failed flush, an exception and a rollback
+    private Optional<Beer> addStockWithLock(Long id, int delta, Long expectedVersion, StockLocking locking) {
+        Optional<Beer> found = locking == StockLocking.PESSIMISTIC
+                ? beerRepository.findForUpdateById(id)
+                : beerRepository.findById(id);
+        Beer beer = found.orElseThrow(() -> new BeerNotFoundException(id));
+        checkVersion(beer, expectedVersion);
+
+        int quantity = beer.getQuantity() + delta;
+        if (quantity < beer.getReserved() + beer.getLocated() || quantity > beer.getMax()) {
+            throw stockExceeded(beer, delta);
+        }
+        try {
+            if (locking == StockLocking.PESSIMISTIC) {
+                beer.setQuantity(quantity);
+                return Optional.of(beerRepository.saveAndFlush(beer));
+            }
+            if (beerRepository.setQuantityIfVersion(id, quantity, beer.getVersion()) == 0) {
+                return Optional.empty();
+            }
+        } catch (DataIntegrityViolationException ex) { // reserved concurrently, which leaves the version as it was
+            throw stockExceeded(beer, delta);
+        }
+        return beerRepository.findById(id);
+    }
+
+    // hot beers are versioned by their flushes only, the ledger checks If-Match against the last flushed version
+    // together with the change, so no flush can slip in between
+    private BeerDTO addHotStock(Long id, int delta, Long expectedVersion) {
+        try {
+            hotStockLedger.add(id, delta, expectedVersion);
+        } catch (BeerStockExceededException ex) {
+            beerMetrics.stockRejected(delta);
+            throw ex;
+        }
+        BeerDTO beerDTO = lookUp(id).orElseThrow(() -> new BeerNotFoundException(id));
+        publishStockChange(id, beerDTO.getType(), delta, beerDTO.getQuantity());
+        return beerDTO;
+    }
+
+    // bounded retries with full jitter, so the conflicting callers don't all come back at the same time
+    private <T> T retryOnConflict(Supplier<T> update) {
+        BeerstockProperties.StockUpdate settings = beerstockProperties.getStockUpdate();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return update.get();
+            } catch (ConcurrencyFailureException ex) {
+                if (attempt >= settings.getMaxAttempts()) {
+                    throw ex;
+                }
+                long backoff = settings.getBackoff().toMillis() << Math.min(attempt - 1, 20);
+                long cap = Math.min(backoff, settings.getMaxBackoff().toMillis());
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
             }
+        }
+    }
 
-            throw new BeerStockExceededException(String.format("Cannot increment '%d' on beer with id '%d' because it" +
-                    " already has '%d' and '%d' is the maximum.", quantityToIncrement, id,
-                    beerToIncrement.getQuantity(), beerToIncrement.getMax()));
+    private void checkVersion(Beer beer, Long expectedVersion) {
+        if (expectedVersion != null && beer.getVersion() != expectedVersion) {
+            throw new BeerVersionMismatchException(beer.getId(), expectedVersion, beer.getVersion());
         }
+    }
 
-        throw new BeerNotFoundException(id);
+    private BeerStockExceededException stockExceeded(Beer beer, int delta) {
+        beerMetrics.stockRejected(delta);
+        return delta > 0
+                ? BeerStockExceededException.onIncrement(beer.getId(), delta, beer.getQuantity(), beer.getMax())
+                : BeerStockExceededException.onDecrement(beer.getId(), -delta, beer.getQuantity(),
+                        beer.getReserved(), beer.getLocated());
     }
 
-    public BeerDTO decrementStock(Long id, int quantityToDecrement) {
-        Optional<Beer> optBeer = beerRepository.findById(id);
-        if (optBeer.isPresent()) {
-            Beer beerToDecrement = optBeer.get();
-
-            int finalQuantity = beerToDecrement.getQuantity() - quantityToDecrement;
-            if (finalQuantity >= 0) {
-                beerToDecrement.setQuantity(finalQuantity);
-                return beerMapper.toDTO(beerRepository.save(beerToDecrement));
+    @Transactional
+    public List<StockMovementResultDTO> applyStockMovements(StockMovementsDTO stockMovementsDTO) {
+        if (beerstockProperties.getStore().getEngine() == StoreEngine.MAPPED) { // a JDBC batch on the beer table
+            throw new UnsupportedByStoreEngineException("Applying stock movements", StoreEngine.MAPPED);
+        }
+        List<StockMovementDTO> movements = stockMovementsDTO.getMovements();
+
+        // rows are updated in id order so two concurrent batches always lock them in the same sequence
+        Map<Boolean, List<Integer>> byHotness = IntStream.range(0, movements.size()).boxed()
+                .collect(Collectors.partitioningBy(index -> hotStockLedger.isHot(movements.get(index).getId())));
+        List<Integer> order = byHotness.get(false).stream()
+                .sorted(Comparator.comparing(index -> movements.get(index).getId()))
+                .collect(Collectors.toList());
+        List<Long> ids = order.stream().map(index -> movements.get(index).getId()).collect(Collectors.toList());
+        List<Integer> deltas = order.stream().map(index -> movements.get(index).getDelta()).collect(Collectors.toList());
+
+        int[] updatedRows = beerRepository.batchAddQuantity(ids, deltas);
+        Map<Long, Beer> beers = beerRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Beer::getId, Function.identity()));
+
+        // a beer moved more than once is read back at its final quantity, so each of its movements is reported at
+        // the quantity it left, walking up from the one before the first of them in the order they were applied
+        Map<Long, Integer> quantities = new HashMap<>();
+        beers.forEach((id, beer) -> quantities.put(id, beer.getQuantity()));
+        for (int position = 0; position < order.size(); position++) {
+            if (updatedRows[position] > 0) {
+                int delta = deltas.get(position);
+                quantities.computeIfPresent(ids.get(position), (id, quantity) -> quantity - delta);
+            }
+        }
+
+        StockMovementResultDTO[] results = new StockMovementResultDTO[movements.size()];
+        for (int position = 0; position < order.size(); position++) {
+            int index = order.get(position);
+            StockMovementDTO movement = movements.get(index);
+            Beer beer = beers.get(movement.getId());
+            boolean applied = updatedRows[position] > 0;
+            if (beer != null && applied) {
+                quantities.merge(beer.getId(), movement.getDelta(), Integer::sum);
             }
+            results[index] = toStockMovementResult(movement, beer, quantities.get(movement.getId()), applied);
+        }
+        List<StockMovementDTO> appliedHotMovements = applyHotStockMovements(movements, byHotness.get(true), results);
+
+        boolean anyRejected = false;
+        for (int index = 0; index < results.length; index++) {
+            StockMovementStatus status = results[index].getStatus();
+            if (status == StockMovementStatus.REJECTED) {
+                beerMetrics.stockRejected(movements.get(index).getDelta());
+            }
+            anyRejected |= status != StockMovementStatus.APPLIED;
+        }
+
+        if (anyRejected && stockMovementsDTO.getMode() == StockMovementMode.ALL_OR_NOTHING) {
+            // hot beers aren't part of the database transaction, their applied deltas are reverted by hand
+            appliedHotMovements.forEach(movement -> hotStockLedger.revert(movement.getId(), movement.getDelta()));
+            throw new StockMovementsRejectedException(Arrays.asList(results)); // rolls back the whole batch
+        }
+        beerCache.evictAll(beers.keySet());
 
-            throw new BeerStockExceededException(String.format("Cannot decrement '%d' on beer with id '%d' because it" +
-                    " only has '%d' and '0' is the minimum.", quantityToDecrement, id, beerToDecrement.getQuantity()));
+        for (StockMovementResultDTO result : results) {
+            if (result.getStatus() == StockMovementStatus.APPLIED) {
+                Beer beer = beers.get(result.getId());
+                BeerType type = beer != null ? beer.getType()
+                        : lookUp(result.getId()).map(BeerDTO::getType).orElse(null);
+                publishStockChange(result.getId(), type, result.getDelta(), result.getQuantity());
+            }
         }
+        return Arrays.asList(results);
+    }
 
-        throw new BeerNotFoundException(id);
+    private List<StockMovementDTO> applyHotStockMovements(List<StockMovementDTO> movements, List<Integer> indexes,
+                                                          StockMovementResultDTO[] results) {
+        List<StockMovementDTO> applied = new ArrayList<>();
+        for (int index : indexes) {
+            StockMovementDTO movement = movements.get(index);
+            var result = StockMovementResultDTO.builder().id(movement.getId()).delta(movement.getDelta());
+            try {
+                long quantity = hotStockLedger.add(movement.getId(), movement.getDelta());
+                applied.add(movement);
+                results[index] = result.status(StockMovementStatus.APPLIED).quantity((int) quantity).build();
+            } catch (BeerStockExceededException ex) {
+                results[index] = result.status(StockMovementStatus.REJECTED).message(ex.getMessage()).build();
+            }
+        }
+        return applied;
     }
 
-    private void checkIfAlreadyExist(String beerName) {
-        Optional<Beer> beer = beerRepository.findByName(beerName);
-        if (beer.isPresent()) {
-            throw new BeerAlreadyExistException(beerName);
+    private void publishStockChange(Long id, BeerType type, int delta, int quantity) {
+        if (type == null) { // deleted meanwhile, its deletion accounts for the stock it had
+            return;
         }
+        StockChangeType changeType = delta > 0 ? StockChangeType.INCREMENT : StockChangeType.DECREMENT;
+        eventPublisher.publishEvent(new BeerStockChangedEvent(id, type, changeType, delta, quantity));
     }
 
-    private void checkIfAlreadyExist(Long id) {
-        boolean exists = beerRepository.existsById(id);
-        if (!exists) {
-            throw new BeerNotFoundException(id);
+    private Optional<BeerDTO> lookUp(Long id) {
+        return beerCache.findById(id, key -> {
+            Optional<Beer> beer = stockStore.findById(key);
+            return beer.map(beerMapper::toDTO).map(this::withWarehouses);
+        }).map(this::withHotStock);
+    }
+
+    // single beer reads only, a beer in no warehouse has no rows to read
+    private BeerDTO withWarehouses(BeerDTO beerDTO) {
+        if (beerDTO.getLocated() > 0) {
+            beerDTO.setWarehouses(warehouseStockRepository.findByBeerIdOrderByWarehouse(beerDTO.getId()).stream()
+                    .map(beerMapper::toDTO).collect(Collectors.toList()));
+        }
+        return beerDTO;
+    }
+
+    private BeerDTO withHotStock(BeerDTO beerDTO) {
+        return hotStockLedger.isHot(beerDTO.getId()) ? hotStockLedger.withHotStock(beerDTO) : beerDTO;
+    }
+
+    private StockMovementResultDTO toStockMovementResult(StockMovementDTO movement, Beer beer, Integer quantity,
+                                                         boolean applied) {
+        var result = StockMovementResultDTO.builder().id(movement.getId()).delta(movement.getDelta());
+        if (beer == null) {
+            return result.status(StockMovementStatus.NOT_FOUND)
+                    .message(new BeerNotFoundException(movement.getId()).getMessage()).build();
+        }
+
+        result.quantity(quantity);
+        if (applied) {
+            return result.status(StockMovementStatus.APPLIED).build();
+        }
+
+        String message = movement.getDelta() > 0
+                ? BeerStockExceededException.onIncrement(beer.getId(), movement.getDelta(), quantity,
+                        beer.getMax()).getMessage()
+                : BeerStockExceededException.onDecrement(beer.getId(), -movement.getDelta(), quantity,
+                        beer.getReserved(), beer.getLocated()).getMessage();
+        return result.status(StockMovementStatus.REJECTED).message(message).build();
+    }
+
+    private BeerPageDTO toPage(List<Beer> beers, int pageSize) {
+        boolean hasNext = beers.size() > pageSize;
+        if (hasNext) {
+            beers = beers.subList(0, pageSize);
+        }
+
+        String nextCursor = hasNext ? CursorUtils.encode(beers.get(pageSize - 1).getId()) : null;
+        List<BeerDTO> beerDTOs = beers.stream().map(beerMapper::toDTO).map(this::withHotStock)
+                .collect(Collectors.toList());
+        return new BeerPageDTO(beerDTOs, nextCursor);
+    }
+
+    private int pageSize(Integer size) {
+        BeerstockProperties.Pagination pagination = beerstockProperties.getPagination();
+        if (size == null) {
+            return pagination.getDefaultSize();
+        }
+        return Math.max(1, Math.min(size, pagination.getMaxSize()));
+    }
+
+    private void checkIfAlreadyExist(String beerName) {
+        Optional<Beer> beer = stockStore.findByName(beerName);
+        if (beer.isPresent()) {
+            throw new BeerAlreadyExistException(beerName);
         }
     }
 
@@ -0,0 +1,49 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A version of the whole catalogue, bumped after every committed change of a beer. A read that takes it before
+ * loading its beers can be answered with a 304 later on as long as it hasn't moved, without loading them again.
+ * <p>
+ * It is kept in memory per instance and starts at a random value, so an ETag handed out before a restart or by another
+ * instance doesn't match by chance. A change is only counted once it is visible, a read taking the version after the
+ * bump always sees the change.
+ */
+@Component
+public class CatalogVersion {
+
+    private final AtomicLong version = new AtomicLong(Long.MAX_VALUE / 4 + ThreadLocalRandom.current()
+            .nextLong(Long.MAX_VALUE / 4));
+
+    public long current() {
+        return version.get();
+    }
+
+    // after the transaction completes when there is one, a rolled back change only costs the pollers a full read
+    public void changed() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            version.incrementAndGet();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                version.incrementAndGet();
+            }
+        });
+    }
+
+    // runs after the commit, every stock change of the services is published as an event
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(BeerStockChangedEvent event) {
+        version.incrementAndGet();
+    }
+}
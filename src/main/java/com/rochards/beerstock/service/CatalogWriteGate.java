@@ -0,0 +1,50 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.exception.type.StockRestoreInProgressException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps the writes to the beers out of the tables while a snapshot is restored. Every mutation of the beer API holds
+ * a permit through {@link RequestAdmission} until it is handled. A restore closes the gate, which rejects the writes
+ * arriving from then on rather than queueing them for as long as it takes, waits for the ones in progress to give
+ * their permits back, and opens it again once it is done.
+ */
+@Component
+public class CatalogWriteGate {
+
+    private static final int PERMITS = Integer.MAX_VALUE; // one per write in progress, a restore takes them all
+
+    private final Semaphore writes = new Semaphore(PERMITS);
+    private final Duration retryAfter;
+    private volatile boolean closed; // a restore waiting for the permits doesn't keep new writes from taking one
+
+    @Autowired
+    public CatalogWriteGate(BeerstockProperties beerstockProperties) {
+        this.retryAfter = beerstockProperties.getSnapshot().getRestoreRetryAfter();
+    }
+
+    public void enter() {
+        if (closed || !writes.tryAcquire()) {
+            throw new StockRestoreInProgressException(retryAfter);
+        }
+    }
+
+    public void leave() {
+        writes.release();
+    }
+
+    public void close() {
+        closed = true;
+        writes.acquireUninterruptibly(PERMITS);
+    }
+
+    public void open() {
+        writes.release(PERMITS);
+        closed = false;
+    }
+}
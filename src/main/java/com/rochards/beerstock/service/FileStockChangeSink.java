@@ -0,0 +1,49 @@
+package com.rochards.beerstock.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.StockChangeDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// appends each change as a line of JSON to beerstock.outbox.file
+@Component
+public class FileStockChangeSink implements StockChangeSink {
+
+    private final ObjectMapper objectMapper;
+    private final Path file;
+
+    @Autowired
+    public FileStockChangeSink(ObjectMapper objectMapper, BeerstockProperties beerstockProperties) {
+        this.objectMapper = objectMapper;
+        this.file = Paths.get(beerstockProperties.getOutbox().getFile());
+    }
+
+    @Override
+    public void publish(List<StockChangeDTO> changes) {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND)) {
+                for (StockChangeDTO change : changes) {
+                    writer.write(objectMapper.writeValueAsString(change));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
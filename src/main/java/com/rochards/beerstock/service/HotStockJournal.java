@@ -0,0 +1,203 @@
+package com.rochards.beerstock.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the hot stock changes. Records are fixed-width (sequence, beer id, delta and a CRC32 of the
+ * three) and go to segment files named after their first sequence. A flush rotates to a new segment, and segments
+ * are deleted once the database holds everything in them. A record torn by a crash, or one missing because a later
+ * record was written before it, fails its checksum or comes up short, ends the replay of its segment and is cut off
+ * the file on recovery, so nothing is ever written after it.
+ *
+ * <p>{@link #append(long, int)} may run concurrently: it reserves the next sequence and writes the record at the
+ * position the sequence has in the segment. The other methods must not overlap with appends or with each other, and
+ * a sync point covers what was appended before it only once those appends returned. {@link SyncPoint#force()} runs
+ * alongside the appends, so a single force makes every record written until then durable while new ones keep being
+ * appended.</p>
+ */
+public class HotStockJournal implements Closeable {
+
+    private static final int RECORD_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final boolean fsync;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Path segmentPath;
+    private FileChannel segment;
+    private long segmentStart; // the sequence of the first record of the current segment
+
+    public HotStockJournal(Path directory, boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads the records left by previous runs with a sequence above the checkpoint, in order. New records continue
+     * the sequence from the highest one found. Each segment is truncated after its last good record, and one that
+     * has none is deleted, so the segment new records go to never holds a torn one before them.
+     */
+    public List<Record> recover(long checkpoint) throws IOException {
+        long last = checkpoint;
+        List<Record> records = new ArrayList<>();
+        for (Path path : segments()) {
+            long good = 0;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer read = ByteBuffer.allocate(RECORD_SIZE);
+                while (channel.read(read.clear()) == RECORD_SIZE) {
+                    Record record = decode(read.flip());
+                    if (record == null || record.getSequence() != firstSequence(path) + good / RECORD_SIZE) {
+                        break;
+                    }
+                    good += RECORD_SIZE;
+                    last = Math.max(last, record.getSequence());
+                    if (record.getSequence() > checkpoint) {
+                        records.add(record);
+                    }
+                }
+                if (good < channel.size()) {
+                    channel.truncate(good);
+                    channel.force(true);
+                }
+            }
+            if (good == 0) {
+                Files.delete(path);
+            }
+        }
+        sequence.set(last);
+        return records;
+    }
+
+    public void start() throws IOException {
+        openSegment();
+    }
+
+    // the record is written where its sequence goes, whichever concurrent append gets to the file first
+    public long append(long beerId, int delta) throws IOException {
+        long next = sequence.incrementAndGet();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).putLong(next).putLong(beerId).putInt(delta);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue()).flip();
+
+        long position = (next - segmentStart) * RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            position += segment.write(buffer, position);
+        }
+        return next;
+    }
+
+    // the records appended so far, they are durable once it is forced
+    public SyncPoint syncPoint() {
+        return new SyncPoint(segment, sequence.get());
+    }
+
+    /**
+     * Closes the current segment and starts a new one, returning the last sequence written so far. Nothing is
+     * rotated when the current segment is still empty.
+     */
+    public long rotate() throws IOException {
+        if (sequence.get() >= segmentStart) {
+            if (fsync) { // a sync point taken before may still be forced, and it can't once the segment is closed
+                segment.force(false);
+            }
+            segment.close();
+            openSegment();
+        }
+        return sequence.get();
+    }
+
+    // segments other than the current one only hold sequences up to the last rotation
+    public void deleteSegmentsUpTo(long checkpoint) throws IOException {
+        for (Path path : segments()) {
+            if (firstSequence(path) <= checkpoint && !path.equals(segmentPath)) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            if (fsync) {
+                segment.force(false);
+            }
+            segment.close();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentStart = sequence.get() + 1;
+        segmentPath = directory.resolve(String.format("%020d%s", segmentStart, SEGMENT_SUFFIX));
+        // recovery leaves no file of that name, failing beats writing over bytes nobody checked
+        segment = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private static Record decode(ByteBuffer read) {
+        long recordSequence = read.getLong();
+        long beerId = read.getLong();
+        int delta = read.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(read.array(), 0, read.position());
+        return (int) crc.getValue() == read.getInt() ? new Record(recordSequence, beerId, delta) : null;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private long firstSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @AllArgsConstructor
+    public static class SyncPoint {
+
+        private final FileChannel segment;
+        @Getter
+        private final long sequence;
+
+        public void force() throws IOException {
+            try {
+                segment.force(false);
+            } catch (ClosedChannelException ex) {
+                // rotated meanwhile, which forced the segment before closing it
+            }
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Record {
+
+        private final long sequence;
+        private final long beerId;
+        private final int delta;
+    }
+}
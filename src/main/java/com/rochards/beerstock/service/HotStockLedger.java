@@ -0,0 +1,413 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.HotStockCheckpoint;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.HotStockCheckpointRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the stock of the beers listed in beerstock.hot-stock.beer-ids in memory. Each beer has a counter of its own,
+ * and a change is checked against the beer bounds, given the next journal sequence and written to the
+ * {@link HotStockJournal} holding that counter only, so changes to different beers don't wait for each other. It is
+ * acknowledged once a force covers its record. Forces are shared: the caller that forces the journal makes every
+ * record written until then durable, so the hot beers wait for the disk together instead of one after the other.
+ * The net delta per beer is flushed to the database periodically or once it reaches the configured threshold. On
+ * startup every journal record newer than the {@link HotStockCheckpoint} is replayed into the database.
+ *
+ * <p>The quantity isn't a bare compare-and-set. A change is acknowledged once the journal is durable up to its
+ * sequence, and taking the sequence under the counter, with the quantity, puts every change it was checked against
+ * before it. After a CAS, a decrement that only fit because of an increment could take the earlier sequence and be
+ * acknowledged while the increment isn't durable yet.</p>
+ *
+ * <p>The counters and the forces are guarded by {@link ReentrantLock}s rather than monitors. A virtual thread waiting
+ * for one of them unmounts from its carrier, where it would pin it waiting for a monitor, so requests queued behind a
+ * force don't hold the few carriers the other requests need.</p>
+ */
+@Slf4j
+@Component
+public class HotStockLedger {
+
+    private static final long CHECKPOINT_ID = 1L;
+
+    private final BeerRepository beerRepository;
+    private final HotStockCheckpointRepository hotStockCheckpointRepository;
+    private final StockHistory stockHistory;
+    private final CatalogVersion catalogVersion;
+    private final BeerCache beerCache;
+    private final TransactionTemplate transactionTemplate;
+    private final BeerstockProperties.HotStock properties;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+    // appends share it, rotations and sync points take it alone, so they only see records that were fully written
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private final Lock syncLock = new ReentrantLock(); // held while forcing the journal, appends go on meanwhile
+    private long syncedSequence; // guarded by syncLock
+    private volatile IOException journalFailure; // the journal is left alone after it, its state is unknown
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private HotStockJournal journal;
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public HotStockLedger(BeerRepository beerRepository, HotStockCheckpointRepository hotStockCheckpointRepository,
+                          StockHistory stockHistory, CatalogVersion catalogVersion, BeerCache beerCache,
+                          PlatformTransactionManager transactionManager, BeerstockProperties beerstockProperties) {
+        this.beerRepository = beerRepository;
+        this.hotStockCheckpointRepository = hotStockCheckpointRepository;
+        this.stockHistory = stockHistory;
+        this.catalogVersion = catalogVersion;
+        this.beerCache = beerCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = beerstockProperties.getHotStock();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        journal = new HotStockJournal(Paths.get(properties.getJournalDirectory()), properties.isFsync());
+        recover();
+        journal.start();
+        reload();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-stock-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (journal == null) {
+            return;
+        }
+
+        flusher.shutdown();
+        flusher.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+        journal.close();
+    }
+
+    public boolean isHot(Long id) {
+        return counters.containsKey(id);
+    }
+
+    // the quantity and version of hot beers replace the ones read from the database, which lag until the next
+    // flush, the rest of the beer is kept as read
+    public BeerDTO withHotStock(BeerDTO beerDTO) {
+        Counter counter = counters.get(beerDTO.getId());
+        if (counter == null) {
+            return beerDTO;
+        }
+        return beerDTO.toBuilder().quantity((int) counter.quantity).version(counter.version).build();
+    }
+
+    /**
+     * Adds the delta to the in-memory quantity of a hot beer, returning the new quantity once the change is durable
+     * in the journal. Throws {@link BeerStockExceededException} when the result would leave the [0, max] range.
+     */
+    public long add(Long id, int delta) {
+        return add(id, delta, null);
+    }
+
+    /**
+     * Like {@link #add(Long, int)}, but only when the beer is still at the expected version, the one of its last
+     * flush. It is checked holding the counter, so no flush can move it before the delta is applied, and a
+     * {@link BeerVersionMismatchException} is thrown otherwise. A null version isn't checked.
+     */
+    public long add(Long id, int delta, Long expectedVersion) {
+        Counter counter = counters.get(id);
+        if (counter == null) { // deleted since it was found hot
+            throw new BeerNotFoundException(id);
+        }
+        long updated;
+        long sequence;
+        boolean thresholdReached;
+        journalLock.readLock().lock();
+        try {
+            counter.lock.lock();
+            try {
+                if (expectedVersion != null && counter.version != expectedVersion) {
+                    throw new BeerVersionMismatchException(id, expectedVersion, counter.version);
+                }
+                long quantity = counter.quantity;
+                updated = quantity + delta;
+                if (updated < 0) {
+                    throw BeerStockExceededException.onDecrement(id, -delta, quantity);
+                }
+                if (updated > counter.max) {
+                    throw BeerStockExceededException.onIncrement(id, delta, quantity, counter.max);
+                }
+                sequence = journal(id, counter, delta);
+                thresholdReached = Math.abs(counter.pending) >= properties.getFlushThreshold();
+            } finally {
+                counter.lock.unlock();
+            }
+        } finally {
+            journalLock.readLock().unlock();
+        }
+
+        awaitSync(sequence);
+        if (thresholdReached) {
+            requestFlush();
+        }
+        return updated;
+    }
+
+    /**
+     * Undoes a delta applied by {@link #add(Long, int)}. It isn't checked against the bounds, since concurrent
+     * changes may have been accepted only because of the delta being undone.
+     */
+    public void revert(Long id, int delta) {
+        Counter counter = counters.get(id);
+        if (counter == null) { // deleted meanwhile, there is no stock left to take it from
+            return;
+        }
+        long sequence;
+        journalLock.readLock().lock();
+        try {
+            counter.lock.lock();
+            try {
+                sequence = journal(id, counter, -delta);
+            } finally {
+                counter.lock.unlock();
+            }
+        } finally {
+            journalLock.readLock().unlock();
+        }
+        awaitSync(sequence);
+    }
+
+    // once the deletion commits, when there is a transaction: rolled back, the beer stays hot with its pending delta
+    public void remove(Long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            counters.remove(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                counters.remove(id);
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * Reads the hot beers from the beer table, on startup and again once it was replaced under them, which flushes
+     * their changes beforehand and keeps new ones out until this is done. A beer with reserved units or units in
+     * warehouses stays in the table, only its statements keep the quantity from going below them.
+     */
+    public void reload() {
+        if (journal == null) {
+            return;
+        }
+        counters.clear();
+        for (Long id : properties.getBeerIds()) {
+            beerRepository.findById(id).ifPresent(beer -> {
+                if (beer.getReserved() + beer.getLocated() > 0) {
+                    log.warn("Beer {} has reserved or located units, its stock is kept in the database.", id);
+                } else {
+                    counters.put(id, new Counter(beer));
+                }
+            });
+        }
+    }
+
+    /**
+     * Persists the net delta of every hot beer since the last flush, together with the last journal sequence it
+     * covers, in one transaction. The journal segments covered by it are deleted afterwards.
+     */
+    public void flush() throws IOException {
+        Map<Long, Integer> deltas = new HashMap<>();
+        long sequence;
+        journalLock.writeLock().lock();
+        try { // no change is halfway, so the deltas are exactly the ones of the records up to the sequence
+            sequence = journal.rotate();
+            counters.forEach((id, counter) -> {
+                if (counter.pending != 0) { // each of their rows is updated once, one version up
+                    deltas.put(id, counter.pending);
+                    counter.pending = 0;
+                    counter.version++;
+                }
+            });
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+        flushRequested.set(false);
+
+        try {
+            persist(deltas, sequence);
+        } catch (RuntimeException ex) {
+            journalLock.writeLock().lock();
+            try { // still in the journal, so they are retried on the next flush
+                deltas.forEach((id, delta) -> {
+                    Counter counter = counters.get(id);
+                    if (counter != null) {
+                        counter.pending += delta;
+                        counter.version--;
+                    }
+                });
+            } finally {
+                journalLock.writeLock().unlock();
+            }
+            throw ex;
+        }
+        beerCache.evictAll(deltas.keySet()); // their row versions moved along with the counters'
+        journal.deleteSegmentsUpTo(sequence);
+    }
+
+    // the quantity changes with the record written, in the journal order of the beer, so a change other callers saw
+    // is always durable before theirs. Called holding the read side of journalLock and the counter
+    private long journal(Long id, Counter counter, int delta) {
+        if (journalFailure != null) {
+            throw new UncheckedIOException(journalFailure);
+        }
+        long sequence;
+        try {
+            sequence = journal.append(id, delta);
+        } catch (IOException ex) {
+            journalFailure = ex; // a torn record would end the replay of the ones written after it
+            throw new UncheckedIOException(ex);
+        }
+        counter.quantity += delta;
+        counter.pending += delta;
+        return sequence;
+    }
+
+    // group commit, a caller finding its record covered by the force of another one returns without forcing
+    private void awaitSync(long sequence) {
+        if (!properties.isFsync()) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            HotStockJournal.SyncPoint syncPoint;
+            journalLock.writeLock().lock();
+            try {
+                syncPoint = journal.syncPoint();
+            } finally {
+                journalLock.writeLock().unlock();
+            }
+            try {
+                if (journalFailure != null) {
+                    throw journalFailure;
+                }
+                syncPoint.force();
+            } catch (IOException ex) {
+                // the change stays applied, it may be in the journal already and is flushed as any other
+                journalFailure = ex;
+                throw new UncheckedIOException(ex);
+            }
+            syncedSequence = syncPoint.getSequence();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    private void recover() throws IOException {
+        long checkpoint = hotStockCheckpointRepository.findById(CHECKPOINT_ID)
+                .map(HotStockCheckpoint::getLastSequence).orElse(0L);
+        List<HotStockJournal.Record> records = journal.recover(checkpoint);
+
+        if (!records.isEmpty()) {
+            Map<Long, Integer> deltas = new HashMap<>();
+            records.forEach(record -> deltas.merge(record.getBeerId(), record.getDelta(), Integer::sum));
+            persist(deltas, journal.getSequence());
+            log.info("Replayed {} hot stock journal records after checkpoint {}.", records.size(), checkpoint);
+        }
+        journal.deleteSegmentsUpTo(journal.getSequence());
+    }
+
+    // the net change of each beer is recorded in the stock history with the quantity it leaves in the beer table
+    private void persist(Map<Long, Integer> deltas, long sequence) {
+        transactionTemplate.executeWithoutResult(status -> {
+            deltas.forEach(beerRepository::addQuantity);
+            for (Beer beer : beerRepository.findAllById(deltas.keySet())) { // deleted beers recorded their deletion
+                int delta = deltas.get(beer.getId());
+                if (delta != 0) {
+                    StockChangeType changeType = delta > 0 ? StockChangeType.INCREMENT : StockChangeType.DECREMENT;
+                    stockHistory.record(new StockChange(beer.getId(), beer.getType(), changeType, delta,
+                            beer.getQuantity()));
+                }
+            }
+            hotStockCheckpointRepository.save(new HotStockCheckpoint(CHECKPOINT_ID, sequence));
+            if (!deltas.isEmpty()) {
+                catalogVersion.changed(); // the quantities were current already, the row versions weren't
+            }
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException ex) {
+            log.error("Hot stock flush failed, it will be retried.", ex);
+        }
+    }
+
+    // its lock guards the changes, flushes read the pending delta holding the write side of journalLock instead
+    private static class Counter {
+
+        private final Lock lock = new ReentrantLock();
+        private volatile long quantity; // changed holding the lock, read without it
+        private final long max;
+        private int pending; // net delta not flushed yet
+        private volatile long version; // of the row as of the last flush, read without any lock
+
+        Counter(Beer beer) {
+            this.quantity = beer.getQuantity();
+            this.max = beer.getMax();
+            this.version = beer.getVersion();
+        }
+    }
+}
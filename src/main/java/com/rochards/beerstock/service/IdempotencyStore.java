@@ -0,0 +1,300 @@
+package com.rochards.beerstock.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.entity.IdempotentResponse;
+import com.rochards.beerstock.exception.type.IdempotencyKeyReusedException;
+import com.rochards.beerstock.exception.type.InvalidIdempotencyKeyException;
+import com.rochards.beerstock.repository.IdempotentResponseRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs a stock change once per Idempotency-Key and replays its response to the requests repeating the key within the
+ * TTL. Keys live in a bounded, expiring in-memory map, so a lookup never reaches the database while it holds every
+ * live key. A request repeating a key still in progress waits for it instead of running again. Failed changes aren't
+ * kept, the key can be retried.
+ * <p>
+ * The map is bounded in the order keys were stored, not in the order they were used: retries come soon after the
+ * first request, so the oldest key is the one least likely to be repeated, and it would be the first to expire anyway.
+ * A lookup is then a plain {@link ConcurrentHashMap} read, with none of the bookkeeping an LRU cache does per read,
+ * which costs most at a high number of keys.
+ * <p>
+ * With the database tier enabled every response is saved as well, and memory misses are looked up in the database for
+ * a TTL after the map last evicted a live key or after a restart, the only times a miss may be a key seen before.
+ */
+@Slf4j
+@Component
+public class IdempotencyStore {
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotentResponseRepository idempotentResponseRepository;
+    // every field of the response is kept, the version too, which the API sends as the ETag instead of in the body
+    private final ObjectMapper objectMapper = JsonMapper.builder().disable(MapperFeature.USE_ANNOTATIONS).build();
+    private final BeerMetrics beerMetrics;
+    private final BeerstockProperties.Idempotency properties;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry> responses = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> storeOrder = new ConcurrentLinkedQueue<>(); // removed ones included
+    private final AtomicInteger queued = new AtomicInteger(); // entries in storeOrder
+
+    private volatile Instant databaseLookupsUntil = Instant.MIN;
+    private ScheduledExecutorService purger;
+
+    @Autowired
+    public IdempotencyStore(IdempotentResponseRepository idempotentResponseRepository, BeerMetrics beerMetrics,
+                            BeerstockProperties beerstockProperties) {
+        this.idempotentResponseRepository = idempotentResponseRepository;
+        this.beerMetrics = beerMetrics;
+        this.properties = beerstockProperties.getIdempotency();
+        this.ttlNanos = properties.getTtl().toNanos();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isPersistent()) {
+            return;
+        }
+        if (idempotentResponseRepository.existsByCreatedAtAfter(Instant.now().minus(properties.getTtl()))) {
+            lookUpDatabaseForATtl();
+        }
+
+        purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getPurgeInterval().toMillis();
+        purger.scheduleWithFixedDelay(this::purgeQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (purger != null) {
+            purger.shutdownNow();
+            purger.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Runs the change, or replays the response of the request that used the key first. The fingerprint identifies the
+     * request, a key repeated with another one is rejected. Without a key the change simply runs.
+     */
+    public BeerDTO execute(String key, String fingerprint, Supplier<BeerDTO> change) {
+        if (key == null) {
+            return change.get();
+        }
+        Entry first = find(key); // a retry allocates nothing to find its response
+        if (first != null) {
+            return await(replay(key, fingerprint, first));
+        }
+        Entry entry = new Entry(key, fingerprint, System.nanoTime(), new CompletableFuture<>());
+        first = claim(entry);
+        if (first != null) {
+            return await(replay(key, fingerprint, first));
+        }
+
+        try {
+            BeerDTO response = stored(key, fingerprint).orElseGet(() -> {
+                BeerDTO changed = change.get();
+                save(key, fingerprint, changed);
+                return changed;
+            });
+            entry.response().complete(response);
+            return response;
+        } catch (RuntimeException ex) {
+            forget(key, entry, ex);
+            throw ex;
+        }
+    }
+
+    // the same as execute, for a change that runs when subscribed, the database tier is reached on a blocking scheduler
+    public Mono<BeerDTO> executeReactive(String key, String fingerprint, Supplier<Mono<BeerDTO>> change) {
+        if (key == null) {
+            return change.get();
+        }
+        return Mono.defer(() -> {
+            Entry entry = new Entry(key, fingerprint, System.nanoTime(), new CompletableFuture<>());
+            Entry first = find(key);
+            if (first == null) {
+                first = claim(entry);
+            }
+            if (first != null) {
+                return Mono.fromFuture(replay(key, fingerprint, first));
+            }
+
+            Mono<BeerDTO> response = !properties.isPersistent() ? change.get()
+                    : Mono.fromCallable(() -> stored(key, fingerprint))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(stored -> stored.map(Mono::just).orElseGet(() -> change.get()
+                                    .publishOn(Schedulers.boundedElastic())
+                                    .doOnNext(changed -> save(key, fingerprint, changed))));
+            return response
+                    .doOnNext(entry.response()::complete)
+                    .doOnError(ex -> forget(key, entry, ex))
+                    .doOnCancel(() -> forget(key, entry, new CancellationException()));
+        });
+    }
+
+    // what a request repeating a key has to match, the endpoint and its arguments
+    public static String fingerprint(Object... parts) {
+        StringBuilder fingerprint = new StringBuilder(32);
+        for (Object part : parts) {
+            if (fingerprint.length() > 0) {
+                fingerprint.append(' ');
+            }
+            fingerprint.append(part);
+        }
+        return fingerprint.toString();
+    }
+
+    private Entry find(String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new InvalidIdempotencyKeyException(MAX_KEY_LENGTH);
+        }
+        Entry entry = responses.get(key);
+        if (entry != null && isExpired(entry, System.nanoTime())) {
+            responses.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    // stores the entry unless another request stored one for its key first, which is returned then
+    private Entry claim(Entry entry) {
+        Entry first = responses.putIfAbsent(entry.key(), entry);
+        if (first != null) {
+            return first;
+        }
+        storeOrder.add(entry);
+        queued.incrementAndGet();
+        removeOldest(entry.storedAt());
+        return null;
+    }
+
+    // the expired entries, and the oldest ones while over the maximum size
+    private void removeOldest(long now) {
+        Entry oldest;
+        while ((oldest = storeOrder.peek()) != null
+                && (queued.get() > properties.getMaximumSize() || isExpired(oldest, now))) {
+            if (!storeOrder.remove(oldest)) {
+                continue; // removed by a concurrent request
+            }
+            queued.decrementAndGet();
+            if (responses.remove(oldest.key(), oldest) && !isExpired(oldest, now)) {
+                lookUpDatabaseForATtl(); // a live key is no longer in memory
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.storedAt() >= ttlNanos;
+    }
+
+    private CompletableFuture<BeerDTO> replay(String key, String fingerprint, Entry first) {
+        if (!first.fingerprint().equals(fingerprint)) {
+            throw new IdempotencyKeyReusedException(key);
+        }
+        beerMetrics.idempotentReplay();
+        return first.response();
+    }
+
+    // the waiting requests fail too, the next one with the key runs the change again. A change already answered is
+    // kept, a subscriber cancelling after the response doesn't undo it
+    private void forget(String key, Entry entry, Throwable ex) {
+        if (entry.response().completeExceptionally(ex)) {
+            responses.remove(key, entry);
+        }
+    }
+
+    private Optional<BeerDTO> stored(String key, String fingerprint) {
+        if (!properties.isPersistent() || Instant.now().isAfter(databaseLookupsUntil)) {
+            return Optional.empty();
+        }
+        Instant expiredBefore = Instant.now().minus(properties.getTtl());
+        Optional<IdempotentResponse> stored = idempotentResponseRepository.findById(key)
+                .filter(response -> response.getCreatedAt().isAfter(expiredBefore));
+        if (stored.isEmpty()) {
+            return Optional.empty();
+        }
+        if (!stored.get().getFingerprint().equals(fingerprint)) {
+            throw new IdempotencyKeyReusedException(key);
+        }
+        beerMetrics.idempotentReplay();
+        return Optional.of(fromJson(stored.get().getResponse()));
+    }
+
+    // the change is already committed, a response that can't be saved is only kept in memory
+    private void save(String key, String fingerprint, BeerDTO response) {
+        if (!properties.isPersistent()) {
+            return;
+        }
+        try {
+            idempotentResponseRepository.save(new IdempotentResponse(key, fingerprint,
+                    objectMapper.writeValueAsString(response), Instant.now()));
+        } catch (JsonProcessingException | RuntimeException ex) {
+            log.warn("Could not save the response of Idempotency-Key '{}'", key, ex);
+        }
+    }
+
+    private void lookUpDatabaseForATtl() {
+        if (properties.isPersistent()) {
+            databaseLookupsUntil = Instant.now().plus(properties.getTtl());
+        }
+    }
+
+    private void purgeQuietly() {
+        try {
+            int purged = idempotentResponseRepository.deleteCreatedBefore(Instant.now().minus(properties.getTtl()));
+            log.debug("Purged {} expired idempotent responses", purged);
+        } catch (RuntimeException ex) {
+            log.warn("Purging the expired idempotent responses failed, it will be retried.", ex);
+        }
+    }
+
+    private BeerDTO fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, BeerDTO.class);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Stored idempotent response is not a beer", ex);
+        }
+    }
+
+    private static BeerDTO await(CompletableFuture<BeerDTO> response) {
+        try {
+            return response.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    private record Entry(String key, String fingerprint, long storedAt, CompletableFuture<BeerDTO> response) {
+    }
+}
@@ -0,0 +1,168 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.LowStockAlertDTO;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.LowStockAlertStatus;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.mapper.BeerMapper;
+import com.rochards.beerstock.repository.StockStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks every committed {@link BeerStockChangedEvent} against the reorder point of its beer, the one set for the beer
+ * itself or else the one for its type. A beer alerts once when it reaches its threshold and can only alert again after
+ * it is restocked to the threshold plus the hysteresis, so one hovering around it doesn't alert on every change.
+ * The thread that changed the stock only queues the beer, a dispatcher thread then checks the quantity the beer has
+ * at that moment and sends the alerts to the subscribers. The events of one beer are published after their commits on
+ * different threads, so their order and quantities can't be trusted, while the current quantity is the one every
+ * later check starts from. A beer already queued isn't queued again, its check reads what the new change left.
+ */
+@Slf4j
+@Component
+public class LowStockAlerts {
+
+    private final BeerstockProperties.LowStock properties;
+    private final StockStore stockStore;
+    private final HotStockLedger hotStockLedger;
+    private final BeerMetrics beerMetrics;
+    private final BeerMapper beerMapper = BeerMapper.INSTANCE;
+    private final Map<BeerType, Integer> thresholdsByType;
+    private final Map<Long, Integer> thresholdsByBeer;
+
+    private final Set<Long> lowBeers = new HashSet<>(); // alerted and not restocked since, only the dispatcher uses it
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet(); // queued and not checked yet
+    private final BlockingQueue<Long> queue;
+    private final Sinks.Many<LowStockAlertDTO> sink = Sinks.many().multicast().directBestEffort();
+
+    private ExecutorService dispatcher;
+
+    @Autowired
+    public LowStockAlerts(BeerstockProperties beerstockProperties, StockStore stockStore, HotStockLedger hotStockLedger,
+                          BeerMetrics beerMetrics) {
+        this.properties = beerstockProperties.getLowStock();
+        this.stockStore = stockStore;
+        this.hotStockLedger = hotStockLedger;
+        this.beerMetrics = beerMetrics;
+        this.thresholdsByType = new EnumMap<>(BeerType.class);
+        this.thresholdsByType.putAll(properties.getThresholdsByType());
+        this.thresholdsByBeer = new HashMap<>(properties.getThresholdsByBeer());
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+    }
+
+    @PostConstruct
+    public void start() {
+        dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "low-stock-alerts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.execute(this::dispatch);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        dispatcher.shutdownNow();
+        dispatcher.awaitTermination(1, TimeUnit.MINUTES);
+        sink.tryEmitComplete();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(BeerStockChangedEvent event) {
+        changed(event.getBeerId(), event.getType());
+    }
+
+    // a committed change made without an event, as on a snapshot restore
+    public void changed(Long beerId, BeerType type) {
+        if (threshold(beerId, type) == null) {
+            return;
+        }
+
+        if (pending.add(beerId) && !queue.offer(beerId)) { // the stock change never waits on the checks
+            pending.remove(beerId);
+            beerMetrics.lowStockAlertDropped();
+        }
+    }
+
+    /**
+     * The alerts raised from the moment of the subscription on, the ones raised before aren't replayed. A subscriber
+     * that doesn't keep up loses its oldest alerts once more than beerstock.low-stock.subscriber-buffer are pending.
+     */
+    public Flux<LowStockAlertDTO> alerts() {
+        return sink.asFlux().onBackpressureBuffer(properties.getSubscriberBuffer(),
+                dropped -> beerMetrics.lowStockAlertDropped(), BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                Long beerId = queue.take();
+                pending.remove(beerId); // before reading, so a change committed from now on queues the beer again
+                try {
+                    check(beerId);
+                } catch (RuntimeException ex) {
+                    log.warn("Could not check the low stock of beer {}", beerId, ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void check(Long beerId) {
+        Optional<BeerDTO> found = stockStore.findById(beerId).map(beerMapper::toDTO);
+        if (found.isEmpty()) { // deleted, a beer created later with the id starts over
+            lowBeers.remove(beerId);
+            return;
+        }
+
+        BeerDTO beerDTO = hotStockLedger.isHot(beerId) ? hotStockLedger.withHotStock(found.get()) : found.get();
+        Integer threshold = threshold(beerId, beerDTO.getType());
+        if (threshold == null) {
+            return;
+        }
+
+        int quantity = beerDTO.getQuantity();
+        if (quantity <= threshold) {
+            if (lowBeers.add(beerId)) {
+                send(beerDTO, LowStockAlertStatus.LOW, threshold);
+            }
+        } else if (quantity >= threshold + properties.getHysteresis() && lowBeers.remove(beerId)) {
+            send(beerDTO, LowStockAlertStatus.RESTOCKED, threshold);
+        }
+    }
+
+    private Integer threshold(Long beerId, BeerType type) {
+        Integer threshold = thresholdsByBeer.get(beerId);
+        return threshold != null ? threshold : thresholdsByType.get(type);
+    }
+
+    private void send(BeerDTO beerDTO, LowStockAlertStatus status, int threshold) {
+        // fails without subscribers, the alert is then just not sent to anyone
+        sink.tryEmitNext(new LowStockAlertDTO(beerDTO.getId(), beerDTO.getType(), status, beerDTO.getQuantity(),
+                threshold, Instant.now()));
+    }
+}
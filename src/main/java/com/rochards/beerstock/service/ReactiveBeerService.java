@@ -0,0 +1,266 @@
+package com.rochards.beerstock.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.mapper.BeerCsvMapper;
+import com.rochards.beerstock.mapper.BeerMapper;
+import com.rochards.beerstock.repository.ReactiveBeerRepository;
+import com.rochards.beerstock.utils.CursorUtils;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Non-blocking counterpart of {@link BeerService} for the reactive profile, with the same rules, errors and events.
+ * Stock updates are always the single conditional statement of the atomic locking, and hot beers are handed to
+ * {@link BeerService}, since their ledger journals every change synchronously. A change and its stock change outbox
+ * row are written in one R2DBC transaction.
+ */
+@Service
+@Profile("reactive")
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class ReactiveBeerService {
+
+    private final ReactiveBeerRepository reactiveBeerRepository;
+    private final BeerService beerService;
+    private final BeerstockProperties beerstockProperties;
+    private final BeerCache beerCache;
+    private final BeerSearchIndex beerSearchIndex;
+    private final HotStockLedger hotStockLedger;
+    private final BeerMetrics beerMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final BeerMapper beerMapper = BeerMapper.INSTANCE;
+    private final BeerCsvMapper beerCsvMapper = BeerCsvMapper.INSTANCE;
+
+    public Flux<BeerDTO> listAll() {
+        return reactiveBeerRepository.findAll().map(beerMapper::toDTO).map(this::withHotStock);
+    }
+
+    public Mono<BeerPageDTO> listPage(String cursor, Integer size) {
+        int pageSize = pageSize(size);
+        return Mono.fromCallable(() -> cursor == null ? 0 : CursorUtils.decode(cursor))
+                .flatMap(lastId -> toPage(reactiveBeerRepository.findByIdGreaterThan(lastId, pageSize + 1), pageSize));
+    }
+
+    public Mono<BeerPageDTO> search(BeerSearchDTO criteria, String cursor, Integer size) {
+        int pageSize = pageSize(size);
+        return Mono.fromCallable(() -> cursor == null ? 0 : CursorUtils.decode(cursor))
+                .flatMap(lastId -> toPage(reactiveBeerRepository.search(criteria, lastId, pageSize + 1), pageSize));
+    }
+
+    // the index is in memory, only the beers it ranks are read, in its order
+    public Flux<BeerDTO> fuzzySearch(String query, Integer size) {
+        return Flux.defer(() -> Flux.fromIterable(beerSearchIndex.search(query, pageSize(size))))
+                .concatMap(reactiveBeerRepository::findById)
+                .map(beerMapper::toDTO).map(this::withHotStock);
+    }
+
+    // the cache is left to the servlet stack, its loads block the caller
+    public Mono<BeerDTO> findById(Long id) {
+        return reactiveBeerRepository.findById(id)
+                .map(beerMapper::toDTO).flatMap(this::withWarehouses).map(this::withHotStock)
+                .switchIfEmpty(Mono.fromRunnable(() -> beerMetrics.notFound("id")));
+    }
+
+    public Mono<BeerDTO> findByName(String beerName) {
+        return reactiveBeerRepository.findByName(beerName)
+                .map(beerMapper::toDTO).flatMap(this::withWarehouses).map(this::withHotStock)
+                .switchIfEmpty(Mono.fromRunnable(() -> beerMetrics.notFound("name")));
+    }
+
+    public Mono<BeerDTO> create(BeerDTO beerDTO) {
+        Mono<BeerDTO> insert = reactiveBeerRepository.insert(beerMapper.toModel(beerDTO))
+                .flatMap(createdBeer -> recordStockChange(createdBeer.getId(), createdBeer.getType(),
+                        StockChangeType.CREATED, createdBeer.getQuantity(), createdBeer.getQuantity())
+                        .thenReturn(createdBeer))
+                .as(reactiveBeerRepository::inTransaction)
+                .onErrorMap(DataIntegrityViolationException.class, // created concurrently with the same name
+                        ex -> new BeerAlreadyExistException(beerDTO.getName()))
+                .map(createdBeer -> {
+                    beerCache.evict(createdBeer.getId(), createdBeer.getName()); // both may hold a cached miss
+                    beerSearchIndex.add(createdBeer.getId(), createdBeer.getName(), createdBeer.getBrand());
+                    eventPublisher.publishEvent(new BeerStockChangedEvent(createdBeer.getId(), createdBeer.getType(),
+                            StockChangeType.CREATED, createdBeer.getQuantity(), createdBeer.getQuantity()));
+                    return beerMapper.toDTO(createdBeer);
+                });
+
+        return reactiveBeerRepository.findByName(beerDTO.getName())
+                .flatMap(beer -> Mono.<BeerDTO>error(new BeerAlreadyExistException(beerDTO.getName())))
+                .switchIfEmpty(insert);
+    }
+
+    public Mono<Void> delete(Long id) {
+        return reactiveBeerRepository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new BeerNotFoundException(id)))
+                .map(beerMapper::toDTO).map(this::withHotStock)
+                .flatMap(beerDTO -> reactiveBeerRepository.deleteById(id)
+                        .flatMap(deletedRows -> recordStockChange(id, beerDTO.getType(), StockChangeType.DELETED,
+                                -beerDTO.getQuantity(), 0).thenReturn(deletedRows))
+                        .as(reactiveBeerRepository::inTransaction)
+                        .doOnNext(deletedRows -> {
+                            hotStockLedger.remove(id);
+                            beerCache.evict(id);
+                            beerSearchIndex.remove(id);
+                            eventPublisher.publishEvent(new BeerStockChangedEvent(id, beerDTO.getType(),
+                                    StockChangeType.DELETED, -beerDTO.getQuantity(), 0));
+                        }))
+                .then();
+    }
+
+    // a null expected version accepts any, otherwise a beer at another version fails with a version mismatch
+    public Mono<BeerDTO> incrementStock(Long id, int quantityToIncrement, Long expectedVersion) {
+        if (hotStockLedger.isHot(id)) {
+            return blocking(() -> beerService.incrementStock(id, quantityToIncrement, expectedVersion));
+        }
+        return addStock(id, quantityToIncrement, expectedVersion);
+    }
+
+    public Mono<BeerDTO> decrementStock(Long id, int quantityToDecrement, Long expectedVersion) {
+        if (hotStockLedger.isHot(id)) {
+            return blocking(() -> beerService.decrementStock(id, quantityToDecrement, expectedVersion));
+        }
+        return addStock(id, -quantityToDecrement, expectedVersion);
+    }
+
+    // one line per beer, the rows are read as the client consumes them
+    public Flux<String> export(ExportFormat format) {
+        Flux<String> lines = reactiveBeerRepository.findAll()
+                .map(beer -> toExportLine(format, withHotStock(beerMapper.toDTO(beer))));
+        return format == ExportFormat.CSV ? Flux.just(BeerCsvMapper.HEADER + '\n').concatWith(lines) : lines;
+    }
+
+    // for what only exists on the blocking stack, so it never runs on an event loop thread
+    public <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<BeerDTO> addStock(Long id, int delta, Long expectedVersion) {
+        Mono<Long> updatedRows = expectedVersion != null
+                ? reactiveBeerRepository.addStockIfVersion(id, delta, expectedVersion)
+                : reactiveBeerRepository.addStock(id, delta);
+
+        return updatedRows.flatMap(rows -> reactiveBeerRepository.findById(id)
+                        .switchIfEmpty(Mono.error(() -> new BeerNotFoundException(id)))
+                        .map(beer -> {
+                            if (rows == 0) {
+                                checkVersion(beer, expectedVersion);
+                                throw stockExceeded(beer, delta);
+                            }
+                            return beer;
+                        }))
+                .flatMap(beer -> recordStockChange(id, beer.getType(), changeType(delta), delta, beer.getQuantity())
+                        .thenReturn(beer))
+                .as(reactiveBeerRepository::inTransaction)
+                .map(beer -> {
+                    beerCache.evict(id);
+                    publishStockChange(id, beer.getType(), delta, beer.getQuantity());
+                    return beerMapper.toDTO(beer);
+                });
+    }
+
+    // the outbox row of the change and its rollups, in the transaction of the change itself as in StockHistory
+    private Mono<Long> recordStockChange(Long id, BeerType type, StockChangeType changeType, int delta, int quantity) {
+        StockChange stockChange = new StockChange(id, type, changeType, delta, quantity);
+        return reactiveBeerRepository.insertStockChange(stockChange)
+                .flatMap(insertedRows -> Flux.fromArray(HistoryBucket.values())
+                        .concatMap(bucket -> reactiveBeerRepository.addToRollup(id, bucket,
+                                bucket.start(stockChange.getOccurredAt()), StockHistory.unitsIn(delta),
+                                StockHistory.unitsOut(delta)))
+                        .then(Mono.just(insertedRows)));
+    }
+
+    private void checkVersion(Beer beer, Long expectedVersion) {
+        if (expectedVersion != null && beer.getVersion() != expectedVersion) {
+            throw new BeerVersionMismatchException(beer.getId(), expectedVersion, beer.getVersion());
+        }
+    }
+
+    private BeerStockExceededException stockExceeded(Beer beer, int delta) {
+        beerMetrics.stockRejected(delta);
+        return delta > 0
+                ? BeerStockExceededException.onIncrement(beer.getId(), delta, beer.getQuantity(), beer.getMax())
+                : BeerStockExceededException.onDecrement(beer.getId(), -delta, beer.getQuantity(),
+                        beer.getReserved(), beer.getLocated());
+    }
+
+    private void publishStockChange(Long id, BeerType type, int delta, int quantity) {
+        eventPublisher.publishEvent(new BeerStockChangedEvent(id, type, changeType(delta), delta, quantity));
+    }
+
+    private StockChangeType changeType(int delta) {
+        return delta > 0 ? StockChangeType.INCREMENT : StockChangeType.DECREMENT;
+    }
+
+    private String toExportLine(ExportFormat format, BeerDTO beerDTO) {
+        try {
+            return (format == ExportFormat.CSV ? beerCsvMapper.toCsvLine(beerDTO) :
+                    objectMapper.writeValueAsString(beerDTO)) + '\n';
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private Mono<BeerPageDTO> toPage(Flux<Beer> beers, int pageSize) {
+        return beers.map(beerMapper::toDTO).map(this::withHotStock)
+                .collectList()
+                .map(beerDTOs -> {
+                    // one extra row tells whether there is a next page without a count query
+                    if (beerDTOs.size() <= pageSize) {
+                        return new BeerPageDTO(beerDTOs, null);
+                    }
+                    List<BeerDTO> page = beerDTOs.subList(0, pageSize);
+                    return new BeerPageDTO(page, CursorUtils.encode(page.get(pageSize - 1).getId()));
+                });
+    }
+
+    // like BeerService, only for single beer reads of beers in some warehouse
+    private Mono<BeerDTO> withWarehouses(BeerDTO beerDTO) {
+        if (beerDTO.getLocated() == 0) {
+            return Mono.just(beerDTO);
+        }
+        return reactiveBeerRepository.findWarehouseStock(beerDTO.getId())
+                .map(beerMapper::toDTO)
+                .collectList()
+                .map(warehouses -> {
+                    beerDTO.setWarehouses(warehouses);
+                    return beerDTO;
+                });
+    }
+
+    private BeerDTO withHotStock(BeerDTO beerDTO) {
+        return hotStockLedger.isHot(beerDTO.getId()) ? hotStockLedger.withHotStock(beerDTO) : beerDTO;
+    }
+
+    private int pageSize(Integer size) {
+        BeerstockProperties.Pagination pagination = beerstockProperties.getPagination();
+        if (size == null) {
+            return pagination.getDefaultSize();
+        }
+        return Math.max(1, Math.min(size, pagination.getMaxSize()));
+    }
+}
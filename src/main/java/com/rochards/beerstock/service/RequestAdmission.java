@@ -0,0 +1,167 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.enums.RequestKind;
+import com.rochards.beerstock.exception.type.RateLimitExceededException;
+import com.rochards.beerstock.exception.type.ServiceOverloadedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a request may reach the services, before any of its work is done. Each client has a token bucket
+ * for reads and another for mutations, a request beyond its rate is rejected with the time until its next token. A
+ * request beyond the concurrency limit of its kind is shed whoever sent it, so a burst of many clients at once can't
+ * pile up waiting for database connections.
+ * <p>
+ * A bucket is a single {@link AtomicLong} holding the time it will be full again, the generic cell rate algorithm,
+ * which is a token bucket kept as one timestamp: taking a token is one compare-and-set, with no lock and no refill. A
+ * bucket whose time has passed is full, the same as one never created, so the idle ones are swept away periodically.
+ * Only the keys in beerstock.admission.client-keys are trusted to tell clients apart, any other request is told apart
+ * by its address, and the clients beyond beerstock.admission.max-clients share one bucket until the next sweep.
+ * <p>
+ * Mutations also pass the {@link CatalogWriteGate}, with the limits enabled or not, so none runs during a restore.
+ */
+@Component
+public class RequestAdmission {
+
+    private final BeerstockProperties.Admission properties;
+    private final BeerMetrics beerMetrics;
+    private final CatalogWriteGate catalogWriteGate;
+    private final Map<RequestKind, Limiter> limiters = new EnumMap<>(RequestKind.class);
+
+    private ScheduledExecutorService sweeper;
+
+    @Autowired
+    public RequestAdmission(BeerstockProperties beerstockProperties, BeerMetrics beerMetrics,
+                            CatalogWriteGate catalogWriteGate) {
+        this.properties = beerstockProperties.getAdmission();
+        this.beerMetrics = beerMetrics;
+        this.catalogWriteGate = catalogWriteGate;
+        limiters.put(RequestKind.READ, new Limiter(properties.getReads(), properties.getMaxClients()));
+        limiters.put(RequestKind.MUTATION, new Limiter(properties.getMutations(), properties.getMaxClients()));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "admission-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getSweepInterval().toMillis();
+        sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    public String clientHeader() {
+        return properties.getClientHeader();
+    }
+
+    // the key sent by the client when it is one issued, or else its address, each in a namespace of its own
+    public String client(String key, String address) {
+        return key != null && properties.getClientKeys().contains(key) ? "key:" + key : "address:" + address;
+    }
+
+    /**
+     * Takes a token of the client and a slot of the concurrency limit of the kind, which has to be released once the
+     * request is handled.
+     */
+    public void admit(String client, RequestKind kind) {
+        if (kind == RequestKind.MUTATION) {
+            catalogWriteGate.enter();
+        }
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        Limiter limiter = limiters.get(kind);
+        long waitNanos = limiter.takeToken(client, System.nanoTime());
+        if (waitNanos > 0) {
+            beerMetrics.requestRejected("rate_limit", kind);
+            leaveGate(kind);
+            throw new RateLimitExceededException(Duration.ofNanos(waitNanos));
+        }
+        if (!limiter.inProgress.tryAcquire()) {
+            beerMetrics.requestRejected("overload", kind);
+            leaveGate(kind);
+            throw new ServiceOverloadedException(properties.getOverloadRetryAfter());
+        }
+    }
+
+    public void release(RequestKind kind) {
+        if (properties.isEnabled()) {
+            limiters.get(kind).inProgress.release();
+        }
+        leaveGate(kind);
+    }
+
+    private void leaveGate(RequestKind kind) {
+        if (kind == RequestKind.MUTATION) {
+            catalogWriteGate.leave();
+        }
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        limiters.values().forEach(limiter -> limiter.buckets.values().removeIf(bucket -> bucket.get() - now <= 0));
+    }
+
+    private static class Limiter {
+
+        private final long intervalNanos; // between two tokens
+        private final long burstNanos; // how far ahead of now a bucket may be, burst tokens
+        private final int maxClients;
+        private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong overflow = new AtomicLong(); // shared by the clients beyond maxClients
+        private final Semaphore inProgress;
+
+        private Limiter(BeerstockProperties.Limits limits, int maxClients) {
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / limits.getRate()));
+            this.burstNanos = intervalNanos * limits.getBurst();
+            this.maxClients = maxClients;
+            this.inProgress = new Semaphore(limits.getMaxConcurrent());
+            this.overflow.set(System.nanoTime());
+        }
+
+        // 0 when a token was taken, the nanos until the next one otherwise
+        private long takeToken(String client, long now) {
+            AtomicLong bucket = buckets.get(client);
+            if (bucket == null) { // clients racing for the last buckets may go a few over maxClients
+                bucket = buckets.size() < maxClients ? buckets.computeIfAbsent(client, key -> new AtomicLong(now))
+                        : overflow;
+            }
+            while (true) {
+                long fullAt = bucket.get();
+                long next = Math.max(fullAt, now) + intervalNanos;
+                if (next - now > burstNanos) {
+                    return next - now - burstNanos;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.SnapshotCompression;
+import com.rochards.beerstock.exception.type.InvalidSnapshotException;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The binary format of a snapshot of the beer table. A header with the format version, the compression and the point
+ * in time of the snapshot is followed by the beers in blocks, each one stored column by column: the gaps between the
+ * ids, the versions, maxes, quantities and types, the lengths of the names and then their bytes, and the brands as a
+ * dictionary of the block and an index per beer. Numbers are varints, so the columns of alike values are a byte or two
+ * per beer and deflate well. A block is preceded by its row count, its encoded and stored lengths and a CRC32 of the
+ * encoded bytes, and a trailer with the total row count closes the file, so a damaged or truncated file is rejected
+ * rather than read in part.
+ *
+ * <p>Not thread-safe.</p>
+ */
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x42534E50; // BSNP
+    private static final short FORMAT = 1;
+    private static final int HEADER_SIZE = 16; // magic, format, compression, a padding byte and the creation time
+    private static final int BLOCK_HEADER_SIZE = 16; // rows, encoded length, stored length and CRC32
+    private static final int TRAILER_SIZE = 16; // END, a padding int and the total rows
+    private static final int END = -1;
+    private static final int MAX_DEFLATE_RATIO = 1032; // what deflate can shrink data by at most
+
+    private SnapshotFile() {
+    }
+
+    public static Writer writer(Path path, SnapshotCompression compression, int blockSize, Instant createdAt)
+            throws IOException {
+        return new Writer(path, compression, blockSize, createdAt);
+    }
+
+    public static Reader reader(Path path) throws IOException {
+        return new Reader(path);
+    }
+
+    // beers are appended in id order, a block is encoded and written once it is full
+    public static class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final SnapshotCompression compression;
+        private final int blockSize;
+        private final List<Beer> block;
+        private final Bytes encoded = new Bytes();
+        private final Bytes deflated = new Bytes();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final CRC32 crc = new CRC32();
+        private long lastId;
+        private long lastWrittenId; // the gaps of a block start from the last id of the one before
+        private long rows;
+
+        private Writer(Path path, SnapshotCompression compression, int blockSize, Instant createdAt)
+                throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.compression = compression;
+            this.blockSize = blockSize;
+            this.block = new ArrayList<>(blockSize);
+            write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(FORMAT).put((byte) compression.ordinal())
+                    .put((byte) 0).putLong(createdAt.toEpochMilli()).flip());
+        }
+
+        public void append(Beer beer) throws IOException {
+            if (beer.getId() <= lastId) {
+                throw new IllegalArgumentException(String.format("Beer with ID '%d' is out of order, the last one " +
+                        "had ID '%d'.", beer.getId(), lastId));
+            }
+            lastId = beer.getId();
+            block.add(beer);
+            if (block.size() == blockSize) {
+                writeBlock();
+            }
+        }
+
+        // writes what is left and the trailer, and forces the file to disk, returning the beers written
+        public long finish() throws IOException {
+            if (!block.isEmpty()) {
+                writeBlock();
+            }
+            write(ByteBuffer.allocate(TRAILER_SIZE).putInt(END).putInt(0).putLong(rows).flip());
+            channel.force(true);
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            channel.close();
+        }
+
+        private void writeBlock() throws IOException {
+            encode(block, lastWrittenId, encoded.clear());
+            crc.reset();
+            crc.update(encoded.array, 0, encoded.length);
+
+            Bytes stored = encoded;
+            if (compression == SnapshotCompression.DEFLATE) {
+                deflater.reset();
+                deflater.setInput(encoded.array, 0, encoded.length);
+                deflater.finish();
+                deflated.clear();
+                while (!deflater.finished()) {
+                    deflated.ensure(Math.max(4096, encoded.length / 4));
+                    deflated.length += deflater.deflate(deflated.array, deflated.length,
+                            deflated.array.length - deflated.length);
+                }
+                stored = deflated;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).putInt(block.size()).putInt(encoded.length)
+                    .putInt(stored.length).putInt((int) crc.getValue()).flip();
+            write(header, ByteBuffer.wrap(stored.array, 0, stored.length));
+            rows += block.size();
+            lastWrittenId = lastId;
+            block.clear();
+        }
+
+        private void write(ByteBuffer... buffers) throws IOException {
+            long remaining = Arrays.stream(buffers).mapToLong(ByteBuffer::remaining).sum();
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        }
+
+        private static void encode(List<Beer> beers, long previousId, Bytes out) {
+            for (Beer beer : beers) {
+                out.putVarLong(beer.getId() - previousId);
+                previousId = beer.getId();
+            }
+            beers.forEach(beer -> out.putVarLong(beer.getVersion()));
+            beers.forEach(beer -> out.putVarLong(beer.getMax()));
+            beers.forEach(beer -> out.putVarLong(beer.getQuantity()));
+            beers.forEach(beer -> out.put((byte) beer.getType().ordinal()));
+
+            byte[][] names = new byte[beers.size()][];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = beers.get(i).getName().getBytes(StandardCharsets.UTF_8);
+                out.putVarLong(names[i].length);
+            }
+            for (byte[] name : names) {
+                out.put(name);
+            }
+
+            Map<String, Integer> brands = new LinkedHashMap<>();
+            beers.forEach(beer -> brands.putIfAbsent(beer.getBrand(), brands.size()));
+            out.putVarLong(brands.size());
+            for (String brand : brands.keySet()) {
+                byte[] bytes = brand.getBytes(StandardCharsets.UTF_8);
+                out.putVarLong(bytes.length);
+                out.put(bytes);
+            }
+            beers.forEach(beer -> out.putVarLong(brands.get(beer.getBrand())));
+        }
+    }
+
+    public static class Reader implements Closeable {
+
+        private final String name;
+        private final FileChannel channel;
+        private final SnapshotCompression compression;
+        @Getter
+        private final Instant createdAt;
+        private final Bytes encoded = new Bytes();
+        private final Inflater inflater = new Inflater();
+        private final CRC32 crc = new CRC32();
+        private long rows; // read so far
+        private long lastId; // the gaps of the next block start from it
+
+        private Reader(Path path) throws IOException {
+            this.name = path.getFileName().toString();
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = read(HEADER_SIZE);
+                if (header.getInt() != MAGIC) {
+                    throw invalid("it is not a snapshot");
+                }
+                short format = header.getShort();
+                if (format != FORMAT) {
+                    throw invalid(String.format("format '%d' is not supported", format));
+                }
+                int compressionOrdinal = header.get();
+                if (compressionOrdinal < 0 || compressionOrdinal >= SnapshotCompression.values().length) {
+                    throw invalid(String.format("compression '%d' is not supported", compressionOrdinal));
+                }
+                this.compression = SnapshotCompression.values()[compressionOrdinal];
+                header.get();
+                this.createdAt = Instant.ofEpochMilli(header.getLong());
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        // read from the trailer, without going through the blocks
+        public long countBeers() throws IOException {
+            if (channel.size() < HEADER_SIZE + TRAILER_SIZE) {
+                throw invalid("it is truncated");
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            long position = channel.size() - TRAILER_SIZE;
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, position + trailer.position()) < 0) {
+                    throw invalid("it is truncated");
+                }
+            }
+            trailer.flip();
+            if (trailer.getInt() != END) {
+                throw invalid("it is truncated");
+            }
+            trailer.getInt();
+            return trailer.getLong();
+        }
+
+        /**
+         * Hands each block of beers to the action in id order, returning how many there were. A block is only handed
+         * over once its checksum matched, but a later one may still fail with an {@link InvalidSnapshotException}, so a
+         * caller that can't undo what it did with the previous ones goes through the file once beforehand.
+         */
+        public long forEachBlock(Consumer<List<Beer>> action) throws IOException {
+            channel.position(HEADER_SIZE);
+            rows = 0;
+            lastId = 0;
+            List<Beer> beers;
+            while ((beers = nextBlock()) != null) {
+                action.accept(beers);
+            }
+            return rows;
+        }
+
+        /**
+         * The block after the last one read, checked as the ones {@link #forEachBlock(Consumer)} hands over, or null
+         * once the trailer was read. Lets a caller go through two files side by side.
+         */
+        public List<Beer> nextBlock() throws IOException {
+            try {
+                ByteBuffer header = read(BLOCK_HEADER_SIZE);
+                int blockRows = header.getInt();
+                if (blockRows == END) {
+                    header.getInt();
+                    if (header.getLong() != rows) {
+                        throw invalid("its trailer doesn't match its blocks");
+                    }
+                    return null;
+                }
+                int encodedLength = header.getInt();
+                int storedLength = header.getInt();
+                int checksum = header.getInt();
+                checkLengths(blockRows, encodedLength, storedLength);
+
+                ByteBuffer stored = read(storedLength);
+                encoded.clear().ensure(encodedLength);
+                if (compression == SnapshotCompression.DEFLATE) {
+                    inflater.reset();
+                    inflater.setInput(stored.array(), 0, storedLength);
+                    encoded.length = inflater.inflate(encoded.array, 0, encodedLength);
+                    if (encoded.length != encodedLength || !inflater.finished()) {
+                        throw invalid(String.format("block at beer '%d' doesn't inflate to its length", rows));
+                    }
+                } else {
+                    System.arraycopy(stored.array(), 0, encoded.array, 0, encodedLength);
+                    encoded.length = encodedLength;
+                }
+                crc.reset();
+                crc.update(encoded.array, 0, encoded.length);
+                if ((int) crc.getValue() != checksum) {
+                    throw invalid(String.format("block at beer '%d' fails its checksum", rows));
+                }
+
+                List<Beer> beers = decode(encoded, blockRows, lastId);
+                lastId = beers.get(blockRows - 1).getId();
+                rows += blockRows;
+                return beers;
+            } catch (DataFormatException ex) {
+                throw invalid(String.format("block at beer '%d' doesn't inflate: %s", rows, ex.getMessage()));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+
+        private void checkLengths(int blockRows, int encodedLength, int storedLength) throws IOException {
+            long left = channel.size() - channel.position();
+            boolean valid = blockRows > 0 && encodedLength >= 0 && storedLength >= 0 && storedLength <= left
+                    && (compression == SnapshotCompression.DEFLATE
+                    ? encodedLength <= (long) storedLength * MAX_DEFLATE_RATIO + 64 : encodedLength == storedLength);
+            if (!valid) {
+                throw invalid("a block header is damaged");
+            }
+        }
+
+        private List<Beer> decode(Bytes in, int rows, long lastId) {
+            try {
+                Beer[] beers = new Beer[rows];
+                long id = lastId;
+                for (int i = 0; i < rows; i++) {
+                    id += in.getVarLong();
+                    beers[i] = new Beer();
+                    beers[i].setId(id);
+                }
+                for (Beer beer : beers) {
+                    beer.setVersion(in.getVarLong());
+                }
+                for (Beer beer : beers) {
+                    beer.setMax((int) in.getVarLong());
+                }
+                for (Beer beer : beers) {
+                    beer.setQuantity((int) in.getVarLong());
+                }
+                BeerType[] types = BeerType.values();
+                for (Beer beer : beers) {
+                    beer.setType(types[in.get()]);
+                }
+
+                int[] nameLengths = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    nameLengths[i] = (int) in.getVarLong();
+                }
+                for (int i = 0; i < rows; i++) {
+                    beers[i].setName(in.getString(nameLengths[i]));
+                }
+
+                String[] brands = new String[(int) in.getVarLong()];
+                for (int i = 0; i < brands.length; i++) {
+                    brands[i] = in.getString((int) in.getVarLong());
+                }
+                for (Beer beer : beers) {
+                    beer.setBrand(brands[(int) in.getVarLong()]);
+                }
+                if (in.position != in.length) {
+                    throw new IllegalStateException("bytes left over");
+                }
+                return Arrays.asList(beers);
+            } catch (RuntimeException ex) { // a block that matches its checksum but was not written by this format
+                throw invalid(String.format("block after beer '%d' doesn't decode: %s", lastId, ex.getMessage()));
+            }
+        }
+
+        private ByteBuffer read(int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw invalid("it is truncated");
+                }
+            }
+            return buffer.flip();
+        }
+
+        private InvalidSnapshotException invalid(String reason) {
+            return new InvalidSnapshotException(name, reason);
+        }
+    }
+
+    // a growable byte array with unsigned LEB128 varints, written at the end and read from the position
+    private static final class Bytes {
+
+        private byte[] array = new byte[64 * 1024];
+        private int length;
+        private int position;
+
+        Bytes clear() {
+            length = 0;
+            position = 0;
+            return this;
+        }
+
+        void ensure(int more) {
+            if (array.length - length < more) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, length + more));
+            }
+        }
+
+        void put(byte value) {
+            ensure(1);
+            array[length++] = value;
+        }
+
+        void put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, array, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                array[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            array[length++] = (byte) value;
+        }
+
+        byte get() {
+            checkAvailable(1);
+            return array[position++];
+        }
+
+        long getVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte next = get();
+                value |= (long) (next & 0x7F) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("a varint is too long");
+        }
+
+        String getString(int bytes) {
+            checkAvailable(bytes);
+            String value = new String(array, position, bytes, StandardCharsets.UTF_8);
+            position += bytes;
+            return value;
+        }
+
+        private void checkAvailable(int bytes) {
+            if (bytes < 0 || length - position < bytes) {
+                throw new IllegalStateException("the block ends early");
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.StockChangeDTO;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.mapper.StockChangeMapper;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Records every {@link BeerStockChangedEvent} of a transaction in the {@link StockHistory} before it commits, so a
+ * change is in the outbox if and only if it is in the beer table. Hot beers change the beer table when the
+ * {@link HotStockLedger} flushes, which records their net change itself, and the reactive stack records its changes
+ * in its own R2DBC transactions. The {@link StockChangeRelay} publishes them.
+ */
+@Component
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class StockChangeOutbox {
+
+    private final StockChangeRepository stockChangeRepository;
+    private final StockHistory stockHistory;
+    private final HotStockLedger hotStockLedger;
+    private final BeerstockProperties beerstockProperties;
+    private final StockChangeMapper stockChangeMapper = StockChangeMapper.INSTANCE;
+
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    public void onStockChanged(BeerStockChangedEvent event) {
+        if (event.getChangeType() != StockChangeType.DELETED && hotStockLedger.isHot(event.getBeerId())) {
+            return;
+        }
+        stockHistory.record(new StockChange(event.getBeerId(), event.getType(), event.getChangeType(),
+                event.getDelta(), event.getQuantity()));
+    }
+
+    // the published changes after the offset, in the order they were published
+    public List<StockChangeDTO> changesSince(long offset, Integer size) {
+        PageRequest page = PageRequest.of(0, pageSize(size));
+        return stockChangeRepository.findByPositionGreaterThanOrderByPositionAsc(offset, page).stream().map(stockChangeMapper::toDTO)
+                .collect(Collectors.toList());
+    }
+
+    private int pageSize(Integer size) {
+        BeerstockProperties.Pagination pagination = beerstockProperties.getPagination();
+        if (size == null) {
+            return pagination.getDefaultSize();
+        }
+        return Math.max(1, Math.min(size, pagination.getMaxSize()));
+    }
+}
@@ -0,0 +1,105 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.mapper.StockChangeMapper;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes the unpublished outbox changes to the {@link StockChangeSink} in batches, numbering them with the next
+ * positions of the feed in the same transaction. Only this thread assigns positions, so the feed has no gaps and a
+ * consumer resuming after an offset never skips a change. Changes of the same beer are committed in order, since the
+ * beer row stays locked until then, and are published in that order.
+ */
+@Slf4j
+@Component
+public class StockChangeRelay {
+
+    private final StockChangeRepository stockChangeRepository;
+    private final StockChangeSink stockChangeSink;
+    private final TransactionTemplate transactionTemplate;
+    private final BeerstockProperties.Outbox properties;
+    private final StockChangeMapper stockChangeMapper = StockChangeMapper.INSTANCE;
+
+    private ScheduledExecutorService relay;
+
+    @Autowired
+    public StockChangeRelay(StockChangeRepository stockChangeRepository, StockChangeSink stockChangeSink,
+                            PlatformTransactionManager transactionManager, BeerstockProperties beerstockProperties) {
+        this.stockChangeRepository = stockChangeRepository;
+        this.stockChangeSink = stockChangeSink;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = beerstockProperties.getOutbox();
+    }
+
+    @PostConstruct
+    public void start() {
+        relay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stock-change-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getRelayInterval().toMillis();
+        relay.scheduleWithFixedDelay(this::relayQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        relay.shutdown();
+        relay.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Publishes batches until none is left, returning how many changes were published. Runs on the relay thread only,
+     * callers elsewhere go through it.
+     */
+    public int relay() throws Exception {
+        return relay.submit(this::publishAll).get();
+    }
+
+    private int publishAll() {
+        int published = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> publishBatch());
+            published += batch;
+        } while (batch == properties.getBatchSize());
+        return published;
+    }
+
+    private int publishBatch() {
+        List<StockChange> changes = stockChangeRepository.findUnpublished(PageRequest.of(0, properties.getBatchSize()));
+        if (changes.isEmpty()) {
+            return 0;
+        }
+
+        long position = stockChangeRepository.findLastPosition();
+        for (StockChange change : changes) {
+            change.setPosition(++position); // written on commit, after the sink took the batch
+        }
+        stockChangeSink.publish(changes.stream().map(stockChangeMapper::toDTO).collect(Collectors.toList()));
+        return changes.size();
+    }
+
+    private void relayQuietly() {
+        try {
+            publishAll();
+        } catch (RuntimeException ex) {
+            log.error("Stock change relay failed, it will be retried.", ex);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.StockChangeDTO;
+
+import java.util.List;
+
+/**
+ * Where the {@link StockChangeRelay} publishes the changes recorded in the outbox, in feed order. A sink declared as
+ * {@code @Primary} replaces the {@link FileStockChangeSink}. Changes may be published again after a failure, a
+ * consumer drops the ones at an offset it has already seen.
+ */
+public interface StockChangeSink {
+
+    // an exception leaves the whole batch unpublished, to be retried on the next run
+    void publish(List<StockChangeDTO> changes);
+}
@@ -0,0 +1,85 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.StockHistoryDTO;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.entity.StockRollup;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.InvalidHistoryRangeException;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.StockRollupRepository;
+import com.rochards.beerstock.repository.StockStore;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The stock changes of every beer over time. Each change is appended to the stock_change table and added to a
+ * {@link StockRollup} per minute, hour and day in the transaction of the change, so a history is read from one row
+ * per bucket however many changes there were, and the range read is bounded. A rollup is inserted by the first
+ * change of its bucket, concurrent ones don't need a lock of the beer to add up, which the mapped store has none of.
+ * <p>
+ * Hot beers are recorded as their net change when the ledger flushes, their movements in between aren't kept.
+ */
+@Component
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class StockHistory {
+
+    private final StockChangeRepository stockChangeRepository;
+    private final StockRollupRepository stockRollupRepository;
+    private final StockStore stockStore;
+    private final BeerstockProperties beerstockProperties;
+
+    // in the transaction of the change
+    public void record(StockChange stockChange) {
+        stockChangeRepository.save(stockChange);
+        int unitsIn = unitsIn(stockChange.getDelta());
+        int unitsOut = unitsOut(stockChange.getDelta());
+        for (HistoryBucket bucket : HistoryBucket.values()) {
+            stockRollupRepository.add(stockChange.getBeerId(), bucket, bucket.start(stockChange.getOccurredAt()),
+                    unitsIn, unitsOut);
+        }
+    }
+
+    // the buckets from the one the start falls in until the end, defaultBuckets of them ending now when not informed
+    public List<StockHistoryDTO> history(Long beerId, Instant from, Instant to, HistoryBucket bucket) {
+        BeerstockProperties.History properties = beerstockProperties.getHistory();
+        Instant end = to != null ? to : Instant.now();
+        Instant start = bucket.start(from != null ? from
+                : end.minus(bucket.getDuration().multipliedBy(properties.getDefaultBuckets())));
+        if (!start.isBefore(end)) {
+            throw new InvalidHistoryRangeException(String.format("The history range from '%s' to '%s' is empty.",
+                    start, end));
+        }
+        if (start.plus(bucket.getDuration().multipliedBy(properties.getMaxBuckets())).isBefore(end)) {
+            throw new InvalidHistoryRangeException(String.format("The history range from '%s' to '%s' has more than" +
+                    " '%d' buckets of a %s, a larger bucket has fewer.", start, end, properties.getMaxBuckets(),
+                    bucket.name().toLowerCase()));
+        }
+        if (!stockStore.existsById(beerId)) {
+            throw new BeerNotFoundException(beerId);
+        }
+
+        return stockRollupRepository.findRange(beerId, bucket, start, end).stream()
+                .map(this::toDTO)
+                .collect(Collectors.toList());
+    }
+
+    public static int unitsIn(int delta) {
+        return Math.max(delta, 0);
+    }
+
+    public static int unitsOut(int delta) {
+        return Math.max(-delta, 0);
+    }
+
+    private StockHistoryDTO toDTO(StockRollup rollup) {
+        return StockHistoryDTO.builder().bucketStart(rollup.getBucketStart()).unitsIn(rollup.getUnitsIn())
+                .unitsOut(rollup.getUnitsOut()).movements(rollup.getMovements()).build();
+    }
+}
@@ -0,0 +1,221 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockReservation;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.BeerNotReservableException;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.ReservationNotFoundException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import com.rochards.beerstock.mapper.BeerMapper;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockReservationRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds units of a beer for a while without taking them out of the stock. The units reserved are kept in the beer
+ * row, so every decrement leaves them alone in the same statement that checks the stock, and a reservation is
+ * confirmed, released or expired by whichever deletes its row first. Expirations wait in a {@link DelayQueue}, a heap
+ * ordered by expiry, so reserving and expiring take O(log n) and the table is only read on startup. A confirmed or
+ * released reservation stays in the queue until it is due and is skipped then.
+ */
+@Slf4j
+@Service
+public class StockReservationService {
+
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final BeerRepository beerRepository;
+    private final StockReservationRepository stockReservationRepository;
+    private final BeerCache beerCache;
+    private final CatalogVersion catalogVersion;
+    private final HotStockLedger hotStockLedger;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final BeerstockProperties.Reservation properties;
+    private final StoreEngine engine;
+    private final BeerMapper beerMapper = BeerMapper.INSTANCE;
+
+    private final DelayQueue<Expiry> expiries = new DelayQueue<>();
+    private ExecutorService reaper;
+
+    @Autowired
+    public StockReservationService(BeerRepository beerRepository,
+                                   StockReservationRepository stockReservationRepository, BeerCache beerCache,
+                                   CatalogVersion catalogVersion, HotStockLedger hotStockLedger,
+                                   ApplicationEventPublisher eventPublisher,
+                                   PlatformTransactionManager transactionManager,
+                                   BeerstockProperties beerstockProperties) {
+        this.beerRepository = beerRepository;
+        this.stockReservationRepository = stockReservationRepository;
+        this.beerCache = beerCache;
+        this.catalogVersion = catalogVersion;
+        this.hotStockLedger = hotStockLedger;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = beerstockProperties.getReservation();
+        this.engine = beerstockProperties.getStore().getEngine();
+    }
+
+    @PostConstruct
+    public void start() {
+        stockReservationRepository.findAll()
+                .forEach(reservation -> expiries.add(new Expiry(reservation.getId(), reservation.getExpiresAt())));
+
+        reaper = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stock-reservation-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.execute(this::expireWhenDue);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        reaper.shutdownNow();
+        reaper.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Transactional
+    public ReservationDTO reserve(Long beerId, ReservationDTO reservationDTO) {
+        if (engine == StoreEngine.MAPPED) { // reserved is a column of the table, there are no reservations to release
+            throw new UnsupportedByStoreEngineException("Reserving stock", StoreEngine.MAPPED);
+        }
+        if (hotStockLedger.isHot(beerId)) { // its stock is in memory, the reserved column couldn't guard it
+            throw new BeerNotReservableException(beerId);
+        }
+
+        int quantity = reservationDTO.getQuantity();
+        if (beerRepository.reserve(beerId, quantity) == 0) {
+            Beer beer = beerRepository.findById(beerId).orElseThrow(() -> new BeerNotFoundException(beerId));
+            // the units in warehouses can't be reserved, they are left out of the ones it has
+            throw BeerStockExceededException.onReserve(beerId, quantity, beer.getQuantity() - beer.getLocated(),
+                    beer.getReserved());
+        }
+
+        Instant expiresAt = Instant.now().plus(ttl(reservationDTO.getTtlSeconds()));
+        StockReservation reservation = stockReservationRepository.save(
+                new StockReservation(UUID.randomUUID(), beerId, quantity, expiresAt));
+        beerCache.evict(beerId);
+        catalogVersion.changed(); // the reserved units are part of the beer
+        expiries.add(new Expiry(reservation.getId(), expiresAt)); // skipped when due if this rolls back
+        return toDTO(reservation);
+    }
+
+    // the reserved units leave the stock as a decrement would, the reservation is gone afterwards
+    @Transactional
+    public BeerDTO confirm(UUID id) {
+        StockReservation reservation = stockReservationRepository.findById(id)
+                .filter(found -> found.getExpiresAt().isAfter(Instant.now())) // released by the reaper soon
+                .orElseThrow(() -> new ReservationNotFoundException(id));
+        if (stockReservationRepository.deleteReservation(id) == 0) {
+            throw new ReservationNotFoundException(id);
+        }
+
+        Long beerId = reservation.getBeerId();
+        int quantity = reservation.getQuantity();
+        if (beerRepository.confirmReservation(beerId, quantity) == 0) {
+            throw new BeerNotFoundException(beerId);
+        }
+        Beer beer = beerRepository.findById(beerId).orElseThrow(() -> new BeerNotFoundException(beerId));
+        beerCache.evict(beerId);
+        eventPublisher.publishEvent(new BeerStockChangedEvent(beerId, beer.getType(), StockChangeType.DECREMENT,
+                -quantity, beer.getQuantity()));
+        return beerMapper.toDTO(beer);
+    }
+
+    @Transactional
+    public void release(UUID id) {
+        StockReservation reservation = stockReservationRepository.findById(id)
+                .orElseThrow(() -> new ReservationNotFoundException(id));
+        if (stockReservationRepository.deleteReservation(id) == 0) {
+            throw new ReservationNotFoundException(id);
+        }
+        releaseUnits(reservation);
+    }
+
+    // the expired reservations are released in batches, each one in a transaction
+    private void expireWhenDue() {
+        try {
+            while (true) {
+                List<Expiry> due = new ArrayList<>();
+                due.add(expiries.take());
+                expiries.drainTo(due, properties.getExpiryBatchSize() - 1);
+                try {
+                    transactionTemplate.executeWithoutResult(status -> due.forEach(this::expire));
+                } catch (RuntimeException ex) {
+                    log.error("Releasing {} expired reservations failed, it will be retried.", due.size(), ex);
+                    Instant retryAt = Instant.now().plus(RETRY_DELAY);
+                    due.forEach(expiry -> expiries.add(new Expiry(expiry.id(), retryAt)));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void expire(Expiry expiry) {
+        stockReservationRepository.findById(expiry.id()).ifPresent(reservation -> {
+            if (stockReservationRepository.deleteReservation(reservation.getId()) > 0) {
+                releaseUnits(reservation);
+            }
+        });
+    }
+
+    private void releaseUnits(StockReservation reservation) {
+        beerRepository.release(reservation.getBeerId(), reservation.getQuantity()); // 0 rows once the beer is deleted
+        beerCache.evict(reservation.getBeerId());
+        catalogVersion.changed();
+    }
+
+    private Duration ttl(Integer ttlSeconds) {
+        if (ttlSeconds == null) {
+            return properties.getDefaultTtl();
+        }
+        Duration ttl = Duration.ofSeconds(ttlSeconds);
+        return ttl.compareTo(properties.getMaxTtl()) > 0 ? properties.getMaxTtl() : ttl;
+    }
+
+    private ReservationDTO toDTO(StockReservation reservation) {
+        return ReservationDTO.builder().id(reservation.getId()).beerId(reservation.getBeerId())
+                .quantity(reservation.getQuantity()).expiresAt(reservation.getExpiresAt()).build();
+    }
+
+    private record Expiry(UUID id, Instant expiresAt) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Duration.between(Instant.now(), expiresAt));
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return expiresAt.compareTo(((Expiry) other).expiresAt);
+        }
+    }
+}
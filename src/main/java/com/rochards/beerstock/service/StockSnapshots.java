@@ -0,0 +1,394 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.SnapshotDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.exception.type.InvalidSnapshotException;
+import com.rochards.beerstock.exception.type.SnapshotNotFoundException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockReservationRepository;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time images of the beer table in {@link SnapshotFile}s, for warm restarts and disaster recovery drills
+ * when the database doesn't outlive the process. A snapshot streams the rows in a read-only repeatable read
+ * transaction, which H2 serves from its MVCC snapshot, so the image is consistent without locking the writers out. It
+ * goes to a partial file moved in place once complete. A restore reads the whole file before touching the table, so a
+ * damaged one leaves it as it was. It then takes a snapshot of the table as it is, truncates it and inserts a JDBC
+ * batch per block, each in its own transaction: a single one spends most of its time keeping undo entries for millions
+ * of rows. The beers are missing from reads until it is done. An error from the database halfway truncates the table
+ * again and puts back the beers of the image taken beforehand, which is deleted once it isn't needed anymore. It is
+ * named apart from the snapshots, so it is neither listed, counted against the retained ones nor restored on startup
+ * when a crash leaves it behind, but it can still be restored by its name.
+ * Writes are kept out by the {@link CatalogWriteGate} meanwhile, and hot beers are flushed once the last one is done.
+ * <p>
+ * Only the beers are kept. Reservations and the warehouse breakdown are dropped on restore, their units are
+ * unassigned again, and they stay dropped when the beers are put back. The quantities the restore changes are
+ * recorded as stock changes once the table holds the snapshot, going through it and the one taken beforehand side by
+ * side. They publish no {@link com.rochards.beerstock.event.BeerStockChangedEvent}s, one per row would flood their
+ * listeners: the stock gauges are read again once it is done and the changed beers are checked for low stock.
+ * The mapped engine keeps the beers in its own file, which is already durable, so it has no snapshots.
+ */
+@Slf4j
+@Service
+public class StockSnapshots {
+
+    private static final String PREFIX = "beers-";
+    private static final String PRE_RESTORE_PREFIX = "pre-restore-";
+    private static final String SUFFIX = ".snapshot";
+    private static final Pattern NAME = Pattern.compile(PREFIX + "\\d{8}T\\d{9}Z\\" + SUFFIX);
+    private static final Pattern PRE_RESTORE_NAME = Pattern.compile(PRE_RESTORE_PREFIX + "\\d{8}T\\d{9}Z\\" + SUFFIX);
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final BeerRepository beerRepository;
+    private final WarehouseStockRepository warehouseStockRepository;
+    private final StockReservationRepository stockReservationRepository;
+    private final BeerCache beerCache;
+    private final BeerSearchIndex beerSearchIndex;
+    private final HotStockLedger hotStockLedger;
+    private final StockHistory stockHistory;
+    private final CatalogWriteGate catalogWriteGate;
+    private final CatalogVersion catalogVersion;
+    private final BeerMetrics beerMetrics;
+    private final LowStockAlerts lowStockAlerts;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate snapshotTemplate;
+    private final BeerstockProperties beerstockProperties;
+
+    @Autowired
+    public StockSnapshots(BeerRepository beerRepository, WarehouseStockRepository warehouseStockRepository,
+                          StockReservationRepository stockReservationRepository, BeerCache beerCache,
+                          BeerSearchIndex beerSearchIndex, HotStockLedger hotStockLedger, StockHistory stockHistory,
+                          CatalogWriteGate catalogWriteGate, CatalogVersion catalogVersion, BeerMetrics beerMetrics,
+                          LowStockAlerts lowStockAlerts, PlatformTransactionManager transactionManager,
+                          BeerstockProperties beerstockProperties) {
+        this.beerRepository = beerRepository;
+        this.warehouseStockRepository = warehouseStockRepository;
+        this.stockReservationRepository = stockReservationRepository;
+        this.beerCache = beerCache;
+        this.beerSearchIndex = beerSearchIndex;
+        this.hotStockLedger = hotStockLedger;
+        this.stockHistory = stockHistory;
+        this.catalogWriteGate = catalogWriteGate;
+        this.catalogVersion = catalogVersion;
+        this.beerMetrics = beerMetrics;
+        this.lowStockAlerts = lowStockAlerts;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setReadOnly(true);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.beerstockProperties = beerstockProperties;
+    }
+
+    public synchronized SnapshotDTO snapshot() throws IOException {
+        checkEngine("Taking a snapshot");
+        long start = System.nanoTime();
+        if (hotStockLedger.isEnabled()) {
+            hotStockLedger.flush(); // the table holds their quantities then
+        }
+        Path directory = Files.createDirectories(Paths.get(beerstockProperties.getSnapshot().getDirectory()));
+        SnapshotDTO snapshot = write(directory, PREFIX, start);
+        deleteOldest(directory);
+        return snapshot;
+    }
+
+    // the newest first
+    public List<SnapshotDTO> list() throws IOException {
+        List<SnapshotDTO> snapshots = new ArrayList<>();
+        for (Path path : snapshotFiles()) {
+            try (SnapshotFile.Reader reader = SnapshotFile.reader(path)) {
+                snapshots.add(toDTO(path, reader.getCreatedAt(), reader.countBeers(), null));
+            } catch (InvalidSnapshotException ex) {
+                log.warn("Left {} out of the snapshots: {}", path.getFileName(), ex.getMessage());
+            }
+        }
+        return snapshots;
+    }
+
+    public synchronized SnapshotDTO restore(String name) throws IOException {
+        checkEngine("Restoring a snapshot");
+        Path path = resolve(name);
+        long start = System.nanoTime();
+
+        Instant createdAt;
+        long beers;
+        catalogWriteGate.close();
+        try (SnapshotFile.Reader reader = SnapshotFile.reader(path)) {
+            if (hotStockLedger.isEnabled()) {
+                hotStockLedger.flush(); // otherwise their pending changes would be applied on top of the snapshot
+            }
+            createdAt = reader.getCreatedAt();
+            reader.forEachBlock(block -> { }); // the whole file is checked before the table is touched
+            String previousName = write(path.getParent(), PRE_RESTORE_PREFIX, System.nanoTime()).getName();
+            Path previous = path.resolveSibling(previousName);
+            transactionTemplate.executeWithoutResult(status -> {
+                warehouseStockRepository.deleteAllInBatch();
+                stockReservationRepository.deleteAllInBatch();
+            });
+
+            try {
+                beers = replaceBeers(reader);
+            } catch (IOException | RuntimeException ex) {
+                putBack(previous, ex);
+                throw ex;
+            }
+            try {
+                recordChanges(previous, path);
+            } finally {
+                Files.delete(previous);
+            }
+        } finally { // whatever is in the table by now
+            try {
+                beerCache.evictAll();
+                beerSearchIndex.load();
+                hotStockLedger.reload();
+                beerMetrics.reload();
+                catalogVersion.changed();
+            } finally {
+                catalogWriteGate.open();
+            }
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Restored {} beers from snapshot {} in {} ms", beers, name, millis);
+        return toDTO(path, createdAt, beers, millis);
+    }
+
+    // a warm restart, a database that outlived the process is left alone
+    @EventListener(ApplicationStartedEvent.class)
+    public void restoreOnStartup() throws IOException {
+        if (!beerstockProperties.getSnapshot().isRestoreOnStartup() || isMapped() || beerRepository.count() > 0) {
+            return;
+        }
+        List<Path> files = snapshotFiles();
+        if (files.isEmpty()) {
+            log.info("No snapshot to restore in {}", beerstockProperties.getSnapshot().getDirectory());
+            return;
+        }
+        restore(files.get(0).getFileName().toString());
+    }
+
+    @PreDestroy
+    public void snapshotOnShutdown() throws IOException {
+        if (beerstockProperties.getSnapshot().isSnapshotOnShutdown() && !isMapped()) {
+            snapshot();
+        }
+    }
+
+    private void checkEngine(String operation) {
+        if (isMapped()) {
+            throw new UnsupportedByStoreEngineException(operation, StoreEngine.MAPPED);
+        }
+    }
+
+    private boolean isMapped() {
+        return beerstockProperties.getStore().getEngine() == StoreEngine.MAPPED;
+    }
+
+    // the beer table as it is, read in id order as the snapshot rows follow, to a new file of the directory
+    private SnapshotDTO write(Path directory, String prefix, long start) throws IOException {
+        BeerstockProperties.Snapshot properties = beerstockProperties.getSnapshot();
+        Instant createdAt = Instant.now();
+        while (Files.exists(directory.resolve(fileName(prefix, createdAt)))) { // taken within the same millisecond
+            createdAt = createdAt.plusMillis(1);
+        }
+        Path path = directory.resolve(fileName(prefix, createdAt));
+        Path partial = directory.resolve(fileName(prefix, createdAt) + ".partial");
+
+        long beers;
+        try (SnapshotFile.Writer writer = SnapshotFile.writer(partial, properties.getCompression(),
+                properties.getBlockSize(), createdAt)) {
+            snapshotTemplate.executeWithoutResult(status -> beerRepository.forEachBeer(
+                    beerstockProperties.getExport().getFetchSize(), beer -> {
+                        try {
+                            writer.append(beer);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }));
+            beers = writer.finish();
+        } catch (UncheckedIOException ex) {
+            Files.deleteIfExists(partial);
+            throw ex.getCause();
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+        Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Wrote {} beers to snapshot {} in {} ms", beers, path.getFileName(), millis);
+        return toDTO(path, createdAt, beers, millis);
+    }
+
+    // truncates the table and inserts the beers of the file, a transaction per block, returning how many there were
+    private long replaceBeers(SnapshotFile.Reader reader) throws IOException {
+        beerRepository.truncate();
+        long[] lastId = {0};
+        long beers = reader.forEachBlock(block -> {
+            transactionTemplate.executeWithoutResult(status -> beerRepository.insertAll(block));
+            lastId[0] = block.get(block.size() - 1).getId();
+        });
+        beerRepository.restartIdsAfter(lastId[0]);
+        return beers;
+    }
+
+    // after a restore failed halfway, the image of the table taken before it started replaces what it left behind.
+    // The image is kept, to be restored by hand, when that fails as well
+    private void putBack(Path previous, Exception cause) {
+        try (SnapshotFile.Reader reader = SnapshotFile.reader(previous)) {
+            replaceBeers(reader);
+            Files.delete(previous);
+            log.warn("Restoring a snapshot failed, the beers were put back as they were before it started.");
+        } catch (IOException | RuntimeException ex) {
+            cause.addSuppressed(ex);
+            log.error("Restoring a snapshot failed and so did putting back the beers as they were, snapshot {} " +
+                    "holds them.", previous.getFileName());
+        }
+    }
+
+    /**
+     * Records the quantities a restore changed as stock changes, going through the image of the table before it and
+     * the restored snapshot side by side, in id order, so only a block of each is in memory. They are written a
+     * transaction per block of changes, and the beers of each are checked for low stock once it commits.
+     */
+    private void recordChanges(Path previous, Path restored) throws IOException {
+        int blockSize = beerstockProperties.getSnapshot().getBlockSize();
+        List<StockChange> changes = new ArrayList<>();
+        try (Cursor before = new Cursor(previous); Cursor after = new Cursor(restored)) {
+            Beer was = before.next();
+            Beer is = after.next();
+            while (was != null || is != null) {
+                if (is == null || was != null && was.getId() < is.getId()) { // not in the snapshot
+                    changes.add(new StockChange(was.getId(), was.getType(), StockChangeType.DELETED,
+                            -was.getQuantity(), 0));
+                    was = before.next();
+                } else if (was == null || is.getId() < was.getId()) { // deleted after the snapshot was taken
+                    changes.add(new StockChange(is.getId(), is.getType(), StockChangeType.CREATED, is.getQuantity(),
+                            is.getQuantity()));
+                    is = after.next();
+                } else {
+                    int delta = is.getQuantity() - was.getQuantity();
+                    if (delta != 0) {
+                        StockChangeType changeType = delta > 0 ? StockChangeType.INCREMENT : StockChangeType.DECREMENT;
+                        changes.add(new StockChange(is.getId(), is.getType(), changeType, delta, is.getQuantity()));
+                    }
+                    was = before.next();
+                    is = after.next();
+                }
+                if (changes.size() == blockSize) {
+                    record(changes);
+                    changes.clear();
+                }
+            }
+            record(changes);
+        }
+    }
+
+    private void record(List<StockChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> changes.forEach(stockHistory::record));
+        changes.forEach(change -> lowStockAlerts.changed(change.getBeerId(), change.getType())); // once committed
+    }
+
+    // only names of snapshots and of images kept by failed restores are accepted, which keeps the path inside the
+    // directory
+    private Path resolve(String name) {
+        Path path = Paths.get(beerstockProperties.getSnapshot().getDirectory()).resolve(name);
+        boolean named = NAME.matcher(name).matches() || PRE_RESTORE_NAME.matcher(name).matches();
+        if (!named || !Files.isRegularFile(path)) {
+            throw new SnapshotNotFoundException(name);
+        }
+        return path;
+    }
+
+    private void deleteOldest(Path directory) throws IOException {
+        List<Path> files = snapshotFiles();
+        int retained = Math.max(1, beerstockProperties.getSnapshot().getRetained());
+        for (Path path : files.subList(Math.min(retained, files.size()), files.size())) {
+            Files.deleteIfExists(path);
+            log.info("Deleted snapshot {} from {}, {} newer ones are kept", path.getFileName(), directory, retained);
+        }
+    }
+
+    private List<Path> snapshotFiles() throws IOException {
+        Path directory = Paths.get(beerstockProperties.getSnapshot().getDirectory());
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted(Comparator.comparing(Path::getFileName).reversed()) // the timestamp sorts as text
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String fileName(String prefix, Instant createdAt) {
+        return prefix + TIMESTAMP.format(createdAt) + SUFFIX;
+    }
+
+    // the beers of a snapshot one at a time, in id order
+    private static class Cursor implements Closeable {
+
+        private final SnapshotFile.Reader reader;
+        private List<Beer> block = List.of();
+        private int index;
+
+        Cursor(Path path) throws IOException {
+            this.reader = SnapshotFile.reader(path);
+        }
+
+        // null once the last one was read
+        Beer next() throws IOException {
+            while (block != null && index == block.size()) {
+                block = reader.nextBlock();
+                index = 0;
+            }
+            return block == null ? null : block.get(index++);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static SnapshotDTO toDTO(Path path, Instant createdAt, long beers, Long durationMillis)
+            throws IOException {
+        return SnapshotDTO.builder().name(path.getFileName().toString()).createdAt(createdAt).beers(beers)
+                .bytes(Files.size(path)).durationMillis(durationMillis).build();
+    }
+}
@@ -0,0 +1,175 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.TransferDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.WarehouseStock;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.BeerNotLocatableException;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.InvalidWarehouseException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * The stock of a beer per warehouse. The beer row keeps the total in quantity and the units in warehouses in located,
+ * both changed here along with the {@link WarehouseStock} rows, so a beer is read with its total without summing
+ * them. Every change takes the row lock of the beer first, which orders the changes of its warehouses, so checking a
+ * row and then writing it is safe. Hot beers are left out, their stock is in memory.
+ */
+@Service
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class WarehouseStockService {
+
+    private static final Pattern WAREHOUSE = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final BeerRepository beerRepository;
+    private final WarehouseStockRepository warehouseStockRepository;
+    private final BeerService beerService;
+    private final BeerCache beerCache;
+    private final CatalogVersion catalogVersion;
+    private final HotStockLedger hotStockLedger;
+    private final BeerMetrics beerMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final BeerstockProperties beerstockProperties;
+
+    // new units, stored straight into the warehouse
+    public BeerDTO incrementStock(Long id, String warehouse, int quantity) {
+        checkWarehouse(warehouse);
+        checkQuantity(quantity);
+        transactionTemplate.executeWithoutResult(status -> {
+            Beer beer = lock(id);
+            if (beer.getQuantity() + quantity > beer.getMax()) {
+                beerMetrics.stockRejected(quantity);
+                throw BeerStockExceededException.onIncrement(id, quantity, beer.getQuantity(), beer.getMax());
+            }
+            beerRepository.addLocatedStock(id, quantity);
+            addToWarehouse(id, warehouse, quantity);
+            stockChanged(beer, quantity);
+        });
+        return find(id);
+    }
+
+    public BeerDTO decrementStock(Long id, String warehouse, int quantity) {
+        checkWarehouse(warehouse);
+        checkQuantity(quantity);
+        transactionTemplate.executeWithoutResult(status -> {
+            Beer beer = lock(id);
+            takeFromWarehouse(id, warehouse, quantity);
+            beerRepository.addLocatedStock(id, -quantity);
+            stockChanged(beer, -quantity);
+        });
+        return find(id);
+    }
+
+    // the total stays the same, only how much of it is in each warehouse changes
+    public BeerDTO transfer(Long id, TransferDTO transferDTO) {
+        String from = transferDTO.getFrom();
+        String to = transferDTO.getTo();
+        int quantity = transferDTO.getQuantity();
+        if (from != null) {
+            checkWarehouse(from);
+        }
+        if (to != null) {
+            checkWarehouse(to);
+        }
+        checkQuantity(quantity);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Beer beer = lock(id);
+            if (from == null) {
+                int available = beer.getQuantity() - beer.getReserved() - beer.getLocated();
+                if (available < quantity) {
+                    throw BeerStockExceededException.onLocate(id, quantity, available);
+                }
+            } else {
+                takeFromWarehouse(id, from, quantity);
+            }
+
+            int located = (from == null ? quantity : 0) - (to == null ? quantity : 0);
+            if (located != 0) {
+                beerRepository.locate(id, located);
+            }
+            if (to != null) {
+                addToWarehouse(id, to, quantity);
+            }
+            beerCache.evict(id);
+            catalogVersion.changed();
+        });
+        return find(id);
+    }
+
+    private Beer lock(Long id) {
+        if (beerstockProperties.getStore().getEngine() == StoreEngine.MAPPED) { // located is a column of the table
+            throw new UnsupportedByStoreEngineException("Keeping stock in warehouses", StoreEngine.MAPPED);
+        }
+        if (hotStockLedger.isHot(id)) { // its quantity is in memory, located couldn't be kept within it
+            throw new BeerNotLocatableException(id);
+        }
+        return beerRepository.findForUpdateById(id).orElseThrow(() -> new BeerNotFoundException(id));
+    }
+
+    private void addToWarehouse(Long id, String warehouse, int quantity) {
+        WarehouseStock stock = warehouseStockRepository.findById(new WarehouseStock.Key(id, warehouse))
+                .orElseGet(() -> new WarehouseStock(id, warehouse, 0));
+        stock.setQuantity(stock.getQuantity() + quantity);
+        warehouseStockRepository.save(stock);
+    }
+
+    // an emptied warehouse loses its row, a beer in no warehouse has none
+    private void takeFromWarehouse(Long id, String warehouse, int quantity) {
+        Optional<WarehouseStock> found = warehouseStockRepository.findById(new WarehouseStock.Key(id, warehouse));
+        int stored = found.map(WarehouseStock::getQuantity).orElse(0);
+        if (stored < quantity) {
+            beerMetrics.stockRejected(-quantity);
+            throw BeerStockExceededException.onWarehouseDecrement(id, warehouse, quantity, stored);
+        }
+
+        WarehouseStock stock = found.get();
+        if (stored == quantity) {
+            warehouseStockRepository.delete(stock);
+        } else {
+            stock.setQuantity(stored - quantity);
+            warehouseStockRepository.save(stock);
+        }
+    }
+
+    private void stockChanged(Beer beer, int delta) {
+        beerCache.evict(beer.getId());
+        StockChangeType changeType = delta > 0 ? StockChangeType.INCREMENT : StockChangeType.DECREMENT;
+        eventPublisher.publishEvent(new BeerStockChangedEvent(beer.getId(), beer.getType(), changeType, delta,
+                beer.getQuantity() + delta));
+    }
+
+    // read after the commit, so the cache is filled with the committed beer and its warehouses
+    private BeerDTO find(Long id) {
+        return beerService.findById(id).orElseThrow(() -> new BeerNotFoundException(id));
+    }
+
+    private static void checkWarehouse(String warehouse) {
+        if (warehouse == null || !WAREHOUSE.matcher(warehouse).matches()) {
+            throw new InvalidWarehouseException(warehouse);
+        }
+    }
+
+    private static void checkQuantity(int quantity) {
+        if (quantity < 1) {
+            throw new BeerStockExceededException(String.format("Quantity '%d' is not valid, at least '1' unit" +
+                    " has to be moved.", quantity));
+        }
+    }
+}
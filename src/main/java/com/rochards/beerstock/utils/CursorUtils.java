@@ -0,0 +1,29 @@
+package com.rochards.beerstock.utils;
+
+import com.rochards.beerstock.exception.type.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// cursors are opaque to clients, they only carry the last id of the previous page
+public class CursorUtils {
+
+    private static final String PREFIX = "id:";
+
+    public static String encode(long lastId) {
+        byte[] cursor = (PREFIX + lastId).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor);
+    }
+
+    public static long decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith(PREFIX)) {
+                throw new InvalidCursorException(cursor);
+            }
+            return Long.parseLong(decoded.substring(PREFIX.length()));
+        } catch (IllegalArgumentException ex) { // also covers NumberFormatException
+            throw new InvalidCursorException(cursor);
+        }
+    }
+}
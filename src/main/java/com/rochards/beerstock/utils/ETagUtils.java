@@ -0,0 +1,96 @@
+package com.rochards.beerstock.utils;
+
+import com.rochards.beerstock.exception.type.InvalidETagException;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * A beer's ETag is its row version, so an If-Match header becomes the version a conditional update expects. Reads
+ * prefix it with the catalogue version they were loaded at, which answers If-None-Match without loading the beer.
+ * Lists of beers are tagged with the catalogue version alone. Every ETag ends with the variant of the response, a hash
+ * of the request path and query, of the media types it accepts and of the content codings it accepts. So an ETag is
+ * only current for the resource it was read from, and a CBOR or gzipped response never shares one with a JSON or an
+ * identity response, which keeps all of them strong.
+ */
+public class ETagUtils {
+
+    // the request headers the variant depends on, for the Vary header of the responses tagged
+    public static final String VARY = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+
+    private static final String ANY = "*";
+    private static final String WEAK_PREFIX = "W/";
+    private static final String LIST = "list"; // in place of the row version, which If-Match then rejects
+    private static final int VARIANT_BYTES = 8;
+
+    // of the resource asked for in the media types and content codings accepted, all but the path may be null
+    public static String variant(String path, String query, String accept, String acceptEncoding) {
+        String representation = path + '?' + Objects.toString(query, "") + '\n' + Objects.toString(accept, "") + '\n'
+                + Objects.toString(acceptEncoding, "");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(representation.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, VARIANT_BYTES);
+        } catch (NoSuchAlgorithmException ex) { // every Java platform has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static String toETag(long version, String variant) {
+        return "\"" + version + "-" + variant + "\"";
+    }
+
+    public static String toETag(long catalogVersion, long version, String variant) {
+        return "\"" + catalogVersion + "." + version + "-" + variant + "\"";
+    }
+
+    // of a list of beers, which changes with any of them
+    public static String toCatalogETag(long catalogVersion, String variant) {
+        return "\"" + catalogVersion + "." + LIST + "-" + variant + "\"";
+    }
+
+    // the ETag of If-None-Match read at the catalogue version in the same variant, the one still current, or null
+    // when there is none
+    public static String findCurrent(String ifNoneMatch, long catalogVersion, String variant) {
+        if (ifNoneMatch == null) {
+            return null;
+        }
+        String readAtPrefix = "\"" + catalogVersion + ".";
+        String variantSuffix = "-" + variant + "\"";
+        for (String eTag : ifNoneMatch.split(",")) {
+            eTag = eTag.trim();
+            // If-None-Match compares weakly
+            String opaqueTag = eTag.startsWith(WEAK_PREFIX) ? eTag.substring(WEAK_PREFIX.length()) : eTag;
+            if (opaqueTag.length() > readAtPrefix.length() + variantSuffix.length()
+                    && opaqueTag.startsWith(readAtPrefix) && opaqueTag.endsWith(variantSuffix)) {
+                return eTag;
+            }
+        }
+        return null;
+    }
+
+    // null when any version is accepted, weak ETags are rejected since If-Match needs a strong comparison. The
+    // catalogue version of the ETag of a read and the variant are left out, the row version is what is compared
+    public static Long toVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals(ANY)) {
+            return null;
+        }
+
+        String eTag = ifMatch.trim();
+        if (eTag.length() < 3 || !eTag.startsWith("\"") || !eTag.endsWith("\"")) {
+            throw new InvalidETagException(ifMatch);
+        }
+        try {
+            String opaqueTag = eTag.substring(1, eTag.length() - 1);
+            int variantStart = opaqueTag.lastIndexOf('-');
+            String versions = variantStart < 0 ? opaqueTag : opaqueTag.substring(0, variantStart);
+            return Long.parseLong(versions.substring(versions.indexOf('.') + 1));
+        } catch (NumberFormatException ex) {
+            throw new InvalidETagException(ifMatch);
+        }
+    }
+}
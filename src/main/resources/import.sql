@@ -0,0 +1,4 @@
+-- run by Hibernate once it has created the schema
+-- H2 can't index lower(name) directly, so it indexes a column generated from it
+alter table beer add column name_lower varchar(255) generated always as (lower(name));
+create index idx_beer_name_lower on beer (name_lower);
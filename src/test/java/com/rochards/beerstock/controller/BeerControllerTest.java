@@ -1,29 +1,87 @@
 package com.rochards.beerstock.controller;
 
 import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.config.BeerstockProperties;
 import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerImportResultDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.dto.LowStockAlertDTO;
 import com.rochards.beerstock.dto.QuantityDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.dto.StockChangeDTO;
+import com.rochards.beerstock.dto.StockHistoryDTO;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementResultDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.dto.WarehouseStockDTO;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.enums.ImportStatus;
+import com.rochards.beerstock.enums.LowStockAlertStatus;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.enums.StockMovementStatus;
 import com.rochards.beerstock.exception.APIExceptionHandler;
 import com.rochards.beerstock.exception.type.BeerNotFoundException;
 import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.exception.type.InvalidCursorException;
+import com.rochards.beerstock.exception.type.InvalidImportFileException;
+import com.rochards.beerstock.exception.type.ReservationNotFoundException;
+import com.rochards.beerstock.exception.type.StockMovementsRejectedException;
+import com.rochards.beerstock.service.BeerExportService;
+import com.rochards.beerstock.service.BeerImportService;
+import com.rochards.beerstock.service.BeerMetrics;
 import com.rochards.beerstock.service.BeerService;
+import com.rochards.beerstock.service.CatalogVersion;
+import com.rochards.beerstock.service.CatalogWriteGate;
+import com.rochards.beerstock.service.IdempotencyStore;
+import com.rochards.beerstock.service.LowStockAlerts;
+import com.rochards.beerstock.service.RequestAdmission;
+import com.rochards.beerstock.service.StockChangeOutbox;
+import com.rochards.beerstock.service.StockHistory;
+import com.rochards.beerstock.service.StockReservationService;
+import com.rochards.beerstock.service.WarehouseStockService;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.servlet.view.json.MappingJackson2JsonView;
+import reactor.core.publisher.Flux;
 
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
+import static com.rochards.beerstock.utils.CBORConversionUtils.asCBOR;
+import static com.rochards.beerstock.utils.CBORConversionUtils.fromCBOR;
+import static com.rochards.beerstock.utils.CBORConversionUtils.listOf;
 import static com.rochards.beerstock.utils.JSONConversionUtils.asJSONString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -40,12 +98,41 @@ public class BeerControllerTest {
     @Mock
     private BeerService beerService;
 
+    @Mock
+    private BeerExportService beerExportService;
+
+    @Mock
+    private BeerImportService beerImportService;
+
+    @Mock
+    private LowStockAlerts lowStockAlerts;
+
+    @Mock
+    private StockChangeOutbox stockChangeOutbox;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private StockHistory stockHistory;
+
+    @Mock
+    private WarehouseStockService warehouseStockService;
+
+    @Spy
+    private IdempotencyStore idempotencyStore = new IdempotencyStore(null, mock(BeerMetrics.class),
+            new BeerstockProperties());
+
+    @Spy
+    private CatalogVersion catalogVersion = new CatalogVersion();
+
     @InjectMocks
     private BeerController beerController;
 
     @BeforeEach
     public void setUp() {
         mockMvc = MockMvcBuilders.standaloneSetup(beerController)
+                .addInterceptors(new VaryByAcceptInterceptor())
                 .setCustomArgumentResolvers(new PageableHandlerMethodArgumentResolver())
                 .setViewResolvers((s, locale) -> new MappingJackson2JsonView())
                 .setControllerAdvice(APIExceptionHandler.class) // importante informar as classes das excecoes, se
@@ -84,6 +171,49 @@ public class BeerControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void whenPOSTBulkIsCalledWithJSONThenEachRowOutcomeIsReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        BeerImportResultDTO result = BeerImportResultDTO.builder().row(1).name(beerDTO.getName())
+                .status(ImportStatus.CREATED).id(VALID_BEER_ID).build();
+
+        when(beerImportService.importBeers(Collections.singletonList(beerDTO)))
+                .thenReturn(Collections.singletonList(result));
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(Collections.singletonList(beerDTO))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status", is(ImportStatus.CREATED.toString())))
+                .andExpect(jsonPath("$[0].id", is((int) VALID_BEER_ID)));
+    }
+
+    @Test
+    public void whenPOSTBulkIsCalledWithCSVThenEachRowOutcomeIsReturned() throws Exception {
+        BeerImportResultDTO result = BeerImportResultDTO.builder().row(1).name("Brahma")
+                .status(ImportStatus.DUPLICATE).message("already exist").build();
+
+        when(beerImportService.importCsv(any(Reader.class))).thenReturn(Collections.singletonList(result));
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/bulk")
+                .contentType("text/csv")
+                .content("name,brand,max,quantity,type\nBrahma,Ambev,50,10,LAGER\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status", is(ImportStatus.DUPLICATE.toString())));
+    }
+
+    @Test
+    public void whenPOSTBulkIsCalledWithAnInvalidCSVThenBadRequestStatusIsReturned() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "beers.csv", "text/csv",
+                "name,brand\nBrahma,Ambev\n".getBytes(StandardCharsets.UTF_8));
+
+        doThrow(new InvalidImportFileException("missing columns")).when(beerImportService)
+                .importCsv(any(Reader.class));
+
+        mockMvc.perform(multipart(BEER_API_URL_PATH + "/bulk").file(file))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void whenGETIsCalledWithRegisteredNameThenOkStatusIsReturned() throws Exception {
         // given
@@ -137,20 +267,319 @@ public class BeerControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void whenNoDatabaseConnectionIsAvailableThenServiceUnavailableStatusIsReturned() throws Exception {
+        when(beerService.findById(VALID_BEER_ID))
+                .thenThrow(new CannotCreateTransactionException("Connection is not available"));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.status", is(503)));
+    }
+
+    @Test
+    public void whenGETIsCalledWithACurrentETagThenNotModifiedStatusIsReturnedWithoutLoadingTheBeer()
+            throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        beerDTO.setVersion(3);
+        when(beerService.findById(VALID_BEER_ID)).thenReturn(Optional.of(beerDTO));
+
+        String eTag = mockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, containsString(".3-")))
+                .andExpect(header().stringValues(HttpHeaders.VARY, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag));
+
+        verify(beerService, times(1)).findById(VALID_BEER_ID);
+    }
+
+    @Test
+    public void whenGETIsCalledWithTheETagOfAnotherBeerThenTheBeerIsReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        when(beerService.findById(anyLong())).thenReturn(Optional.of(beerDTO));
+
+        String eTag = mockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get(BEER_API_URL_PATH + "/" + (VALID_BEER_ID + 1)).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk());
+        mockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID).header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk());
+
+        verify(beerService, times(3)).findById(anyLong());
+    }
+
+    @Test
+    public void whenTheCatalogueChangedSinceTheETagThenGETReturnsTheBeerAgain() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        when(beerService.findByName(beerDTO.getName())).thenReturn(Optional.of(beerDTO));
+
+        String eTag = mockMvc.perform(get(BEER_API_URL_PATH + "/name/" + beerDTO.getName()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        catalogVersion.changed();
+        mockMvc.perform(get(BEER_API_URL_PATH + "/name/" + beerDTO.getName()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is(beerDTO.getName())));
+
+        verify(beerService, times(2)).findByName(beerDTO.getName());
+    }
+
+    @Test
+    public void whenGETListOfBeersIsCalledWithACurrentETagThenNotModifiedStatusIsReturned() throws Exception {
+        List<BeerDTO> beers = Collections.singletonList(BeerDTOBuilder.builder().build().toBeerDTO());
+        when(beerService.listAll()).thenReturn(beers);
+        when(beerService.listPage(null, null)).thenReturn(new BeerPageDTO(beers, null));
+
+        String eTag = mockMvc.perform(get(BEER_API_URL_PATH + "?unpaged=true"))
+                .andExpect(header().string(HttpHeaders.ETAG, startsWith("\"")))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get(BEER_API_URL_PATH + "?unpaged=true")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"stale\", " + eTag))
+                .andExpect(status().isNotModified());
+        // a page of the list is another resource
+        mockMvc.perform(get(BEER_API_URL_PATH).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk());
+
+        verify(beerService, times(1)).listAll();
+    }
+
     @Test
     public void whenGETListOfBeersIsCalledThenOkStatusIsReturned() throws Exception {
         BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
 
-        when(beerService.listAll()).thenReturn(Collections.singletonList(beerDTO));
+        when(beerService.listPage(null, null)).thenReturn(new BeerPageDTO(Collections.singletonList(beerDTO), null));
 
         mockMvc.perform(get(BEER_API_URL_PATH)
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LINK))
                 .andExpect(jsonPath("$[0].name", is(beerDTO.getName())))
                 .andExpect(jsonPath("$[0].brand", is(beerDTO.getBrand())))
                 .andExpect(jsonPath("$[0].type", is(beerDTO.getType().toString())));
     }
 
+    @Test
+    public void whenGETListOfBeersHasANextPageThenANextLinkIsReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        String nextCursor = "next-cursor";
+
+        when(beerService.listPage(null, 1)).thenReturn(new BeerPageDTO(Collections.singletonList(beerDTO), nextCursor));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "?size=1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.LINK, containsString("cursor=" + nextCursor)))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("size=1")))
+                .andExpect(header().string(HttpHeaders.LINK, endsWith("rel=\"next\"")));
+    }
+
+    @Test
+    public void whenGETSearchIsCalledThenTheFiltersArePassedOn() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        BeerSearchDTO criteria = BeerSearchDTO.builder().name("bra").brand("Amb").type(BeerType.LAGER).lowStock(0.2)
+                .build();
+
+        when(beerService.search(criteria, null, 1)).thenReturn(new BeerPageDTO(Collections.singletonList(beerDTO),
+                "next-cursor"));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "/search?name=bra&brand=Amb&type=LAGER&lowStock=0.2&size=1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name", is(beerDTO.getName())))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("cursor=next-cursor")))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("brand=Amb")));
+    }
+
+    @Test
+    public void whenGETSearchIsCalledWithAQueryThenTheRankedBeersAreReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        when(beerService.fuzzySearch("brama", 5)).thenReturn(Collections.singletonList(beerDTO));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "/search?q=brama&size=5")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name", is(beerDTO.getName())))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void whenGETChangesIsCalledWithAnOffsetThenTheChangesAfterItAreReturned() throws Exception {
+        StockChangeDTO change = StockChangeDTO.builder().offset(8L).beerId(VALID_BEER_ID).type(BeerType.LAGER)
+                .changeType(StockChangeType.DECREMENT).delta(-2).quantity(8).build();
+
+        when(stockChangeOutbox.changesSince(7, 50)).thenReturn(Collections.singletonList(change));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "/changes?since=7&size=50")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].offset", is(8)))
+                .andExpect(jsonPath("$[0].changeType", is("DECREMENT")))
+                .andExpect(jsonPath("$[0].quantity", is(8)));
+    }
+
+    @Test
+    public void whenGETHistoryIsCalledThenTheRollupsOfTheBucketAreReturned() throws Exception {
+        Instant from = Instant.parse("2024-05-01T10:00:00Z");
+        Instant to = Instant.parse("2024-05-01T12:00:00Z");
+        StockHistoryDTO hour = StockHistoryDTO.builder().bucketStart(from).unitsIn(10).unitsOut(4).movements(3).build();
+
+        when(stockHistory.history(VALID_BEER_ID, from, to, HistoryBucket.HOUR)).thenReturn(List.of(hour));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/history?from=" + from + "&to=" + to +
+                "&bucket=HOUR"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].unitsIn", is(10)))
+                .andExpect(jsonPath("$[0].unitsOut", is(4)))
+                .andExpect(jsonPath("$[0].movements", is(3)));
+    }
+
+    @Test
+    public void whenPOSTReservationIsCalledThenCreatedStatusIsReturned() throws Exception {
+        ReservationDTO reservationDTO = ReservationDTO.builder().quantity(3).ttlSeconds(60).build();
+        ReservationDTO reservation = ReservationDTO.builder().id(UUID.randomUUID()).beerId(VALID_BEER_ID)
+                .quantity(3).build();
+
+        when(stockReservationService.reserve(VALID_BEER_ID, reservationDTO)).thenReturn(reservation);
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/reservations")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"quantity\":3,\"ttlSeconds\":60}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id", is(reservation.getId().toString())))
+                .andExpect(jsonPath("$.quantity", is(3)));
+    }
+
+    @Test
+    public void whenPOSTReservationIsCalledWithoutQuantityThenBadRequestStatusIsReturned() throws Exception {
+        mockMvc.perform(post(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/reservations")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ttlSeconds\":60}"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(stockReservationService);
+    }
+
+    @Test
+    public void whenPOSTConfirmIsCalledWithAnUnknownReservationThenBadRequestStatusIsReturned() throws Exception {
+        UUID id = UUID.randomUUID();
+
+        doThrow(ReservationNotFoundException.class).when(stockReservationService).confirm(id);
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/reservations/" + id + "/confirm")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void whenPATCHWarehouseIncrementIsCalledThenTheBeerWithItsWarehousesIsReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        beerDTO.setQuantity(20);
+        beerDTO.setLocated(15);
+        beerDTO.setWarehouses(List.of(new WarehouseStockDTO("recife", 15)));
+
+        when(warehouseStockService.incrementStock(VALID_BEER_ID, "recife", 5)).thenReturn(beerDTO);
+
+        mockMvc.perform(patch(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/warehouses/recife/increment")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(new QuantityDTO(5))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantity", is(20)))
+                .andExpect(jsonPath("$.located", is(15)))
+                .andExpect(jsonPath("$.warehouses[0].warehouse", is("recife")))
+                .andExpect(jsonPath("$.warehouses[0].quantity", is(15)));
+    }
+
+    @Test
+    public void whenPOSTTransferIsCalledToTheSameWarehouseThenBadRequestStatusIsReturned() throws Exception {
+        mockMvc.perform(post(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/transfers")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"from\":\"recife\",\"to\":\"recife\",\"quantity\":3}"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(warehouseStockService);
+    }
+
+    @Test
+    public void whenGETLowStockAlertsIsCalledThenTheAlertsAreStreamedAsServerSentEvents() throws Exception {
+        LowStockAlertDTO alert = LowStockAlertDTO.builder().beerId(VALID_BEER_ID).type(BeerType.LAGER)
+                .status(LowStockAlertStatus.LOW).quantity(2).threshold(5).build();
+
+        when(lowStockAlerts.alerts()).thenReturn(Flux.just(alert));
+
+        MvcResult result = mockMvc.perform(get(BEER_API_URL_PATH + "/low-stock-alerts")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(startsWith("event:LOW\ndata:{\"beerId\":1,")));
+    }
+
+    @Test
+    public void whenGETSearchIsCalledWithALowStockRatioAboveOneThenBadRequestStatusIsReturned() throws Exception {
+        mockMvc.perform(get(BEER_API_URL_PATH + "/search?lowStock=1.5")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0]", startsWith("lowStock")));
+    }
+
+    @Test
+    public void whenGETListOfBeersIsCalledUnpagedThenTheWholeListIsReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        when(beerService.listAll()).thenReturn(Collections.singletonList(beerDTO));
+
+        mockMvc.perform(get(BEER_API_URL_PATH).param("unpaged", "true")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name", is(beerDTO.getName())));
+        verify(beerService, never()).listPage(any(), any());
+    }
+
+    @Test
+    public void whenGETListOfBeersIsCalledWithAnInvalidCursorThenBadRequestStatusIsReturned() throws Exception {
+        doThrow(new InvalidCursorException("invalid")).when(beerService).listPage("invalid", null);
+
+        mockMvc.perform(get(BEER_API_URL_PATH).param("cursor", "invalid")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void whenGETExportIsCalledThenTheCatalogueIsStreamed() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(1);
+            outputStream.write("{\"name\":\"Brahma\"}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(beerExportService).export(eq(ExportFormat.NDJSON), any(OutputStream.class));
+
+        MvcResult mvcResult = mockMvc.perform(get(BEER_API_URL_PATH + "/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, ExportFormat.NDJSON.getContentType()))
+                .andExpect(content().string("{\"name\":\"Brahma\"}\n"));
+    }
+
+    @Test
+    public void whenGETExportIsCalledAsCSVThenCSVContentTypeIsReturned() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get(BEER_API_URL_PATH + "/export").param("format", "CSV"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, ExportFormat.CSV.getContentType()));
+        verify(beerExportService).export(eq(ExportFormat.CSV), any(OutputStream.class));
+    }
+
     @Test
     public void whenDELETEIsCalledWithRegisteredIdThenNoContentStatusIsReturned() throws Exception {
         doNothing().when(beerService).delete(VALID_BEER_ID);
@@ -176,7 +605,7 @@ public class BeerControllerTest {
         BeerDTO incrementedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         incrementedBeerDTO.setQuantity(incrementedBeerDTO.getQuantity() + quantityToIncrement);
 
-        when(beerService.incrementStock(incrementedBeerDTO.getId(), quantityToIncrement)).thenReturn(incrementedBeerDTO);
+        when(beerService.incrementStock(incrementedBeerDTO.getId(), quantityToIncrement, null)).thenReturn(incrementedBeerDTO);
 
         mockMvc.perform(patch(BEER_API_URL_PATH + "/" + incrementedBeerDTO.getId() + "/increment")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -193,11 +622,93 @@ public class BeerControllerTest {
         beerDTO.setQuantity(beerDTO.getQuantity() + quantityToIncrement);
 
         doThrow(BeerStockExceededException.class).when(beerService).incrementStock(beerDTO.getId(),
-                quantityToIncrement);
+                quantityToIncrement, null);
+
+        mockMvc.perform(patch(BEER_API_URL_PATH + "/" + beerDTO.getId() + "/increment")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(quantityDTO)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void whenPATCHIsRetriedWithTheSameIdempotencyKeyThenTheStockIsChangedOnce() throws Exception {
+        QuantityDTO quantityDTO = QuantityDTO.builder().quantity(10).build();
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        beerDTO.setQuantity(beerDTO.getQuantity() + quantityDTO.getQuantity());
+        beerDTO.setVersion(4);
+
+        when(beerService.incrementStock(VALID_BEER_ID, quantityDTO.getQuantity(), null)).thenReturn(beerDTO);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            mockMvc.perform(patch(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/increment")
+                    .header(IdempotencyStore.IDEMPOTENCY_KEY, "c0ffee")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(asJSONString(quantityDTO)))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.ETAG, startsWith("\"4-")))
+                    .andExpect(jsonPath("$.quantity", is(beerDTO.getQuantity())));
+        }
+        verify(beerService, times(1)).incrementStock(VALID_BEER_ID, quantityDTO.getQuantity(), null);
+    }
+
+    @Test
+    public void whenAnIdempotencyKeyIsReusedForAnotherChangeThenUnprocessableEntityStatusIsReturned()
+            throws Exception {
+        QuantityDTO quantityDTO = QuantityDTO.builder().quantity(10).build();
+
+        when(beerService.incrementStock(VALID_BEER_ID, quantityDTO.getQuantity(), null))
+                .thenReturn(BeerDTOBuilder.builder().build().toBeerDTO());
+
+        mockMvc.perform(patch(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/increment")
+                .header(IdempotencyStore.IDEMPOTENCY_KEY, "c0ffee")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(quantityDTO)))
+                .andExpect(status().isOk());
+        mockMvc.perform(patch(BEER_API_URL_PATH + "/" + VALID_BEER_ID + "/decrement")
+                .header(IdempotencyStore.IDEMPOTENCY_KEY, "c0ffee")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(quantityDTO)))
+                .andExpect(status().isUnprocessableEntity());
+        verify(beerService, never()).decrementStock(anyLong(), anyInt(), any());
+    }
+
+    @Test
+    public void whenPATCHIsCalledWithIfMatchThenTheVersionIsExpectedAndTheNewETagIsReturned() throws Exception {
+        QuantityDTO quantityDTO = new QuantityDTO(10);
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        beerDTO.setVersion(6);
+
+        when(beerService.incrementStock(beerDTO.getId(), 10, 5L)).thenReturn(beerDTO);
 
         mockMvc.perform(patch(BEER_API_URL_PATH + "/" + beerDTO.getId() + "/increment")
+                .header(HttpHeaders.IF_MATCH, "\"5\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(quantityDTO)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, startsWith("\"6-")));
+    }
+
+    @Test
+    public void whenPATCHIsCalledWithAStaleIfMatchThenPreconditionFailedStatusIsReturned() throws Exception {
+        QuantityDTO quantityDTO = new QuantityDTO(10);
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        doThrow(new BeerVersionMismatchException(beerDTO.getId(), 5, 6)).when(beerService)
+                .decrementStock(beerDTO.getId(), 10, 5L);
+
+        mockMvc.perform(patch(BEER_API_URL_PATH + "/" + beerDTO.getId() + "/decrement")
+                .header(HttpHeaders.IF_MATCH, "\"5\"")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(asJSONString(quantityDTO)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    public void whenPATCHIsCalledWithAMalformedIfMatchThenBadRequestStatusIsReturned() throws Exception {
+        mockMvc.perform(patch(BEER_API_URL_PATH + "/1/increment")
+                .header(HttpHeaders.IF_MATCH, "W/\"5\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(new QuantityDTO(10))))
                 .andExpect(status().isBadRequest());
     }
 
@@ -208,7 +719,7 @@ public class BeerControllerTest {
         BeerDTO decrementedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         decrementedBeerDTO.setQuantity(decrementedBeerDTO.getQuantity() - quantityToDecrement);
 
-        when(beerService.decrementStock(decrementedBeerDTO.getId(), quantityToDecrement)).thenReturn(decrementedBeerDTO);
+        when(beerService.decrementStock(decrementedBeerDTO.getId(), quantityToDecrement, null)).thenReturn(decrementedBeerDTO);
 
         mockMvc.perform(patch(BEER_API_URL_PATH + "/" + decrementedBeerDTO.getId() + "/decrement")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -225,11 +736,200 @@ public class BeerControllerTest {
         beerDTO.setQuantity(beerDTO.getQuantity() - quantityDoDecrement);
 
         doThrow(BeerStockExceededException.class).when(beerService).decrementStock(beerDTO.getId(),
-                quantityDoDecrement);
+                quantityDoDecrement, null);
 
         mockMvc.perform(patch(BEER_API_URL_PATH + "/" + beerDTO.getId() + "/decrement")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(asJSONString(quantityDTO)))
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    public void whenPOSTIsCalledWithStockMovementsThenOkStatusIsReturned() throws Exception {
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.BEST_EFFORT,
+                Collections.singletonList(new StockMovementDTO(VALID_BEER_ID, 5)));
+        StockMovementResultDTO result = StockMovementResultDTO.builder().id(VALID_BEER_ID).delta(5)
+                .status(StockMovementStatus.APPLIED).quantity(15).build();
+
+        when(beerService.applyStockMovements(stockMovementsDTO)).thenReturn(Collections.singletonList(result));
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/stock-movements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(stockMovementsDTO)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status", is(StockMovementStatus.APPLIED.toString())))
+                .andExpect(jsonPath("$[0].quantity", is(15)));
+    }
+
+    @Test
+    public void whenPOSTIsCalledWithRejectedStockMovementsThenBadRequestStatusIsReturned() throws Exception {
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING,
+                Collections.singletonList(new StockMovementDTO(VALID_BEER_ID, 100)));
+        StockMovementResultDTO result = StockMovementResultDTO.builder().id(VALID_BEER_ID).delta(100)
+                .status(StockMovementStatus.REJECTED).quantity(10).message("Cannot increment").build();
+
+        doThrow(new StockMovementsRejectedException(Collections.singletonList(result)))
+                .when(beerService).applyStockMovements(stockMovementsDTO);
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/stock-movements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(stockMovementsDTO)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0]", is(VALID_BEER_ID + ": Cannot increment")));
+    }
+
+    @Test
+    public void whenPOSTIsCalledWithoutStockMovementsThenBadRequestStatusIsReturned() throws Exception {
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.BEST_EFFORT,
+                Collections.emptyList());
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/stock-movements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(stockMovementsDTO)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void whenPOSTIsCalledWithAZeroDeltaOrTooManyStockMovementsThenBadRequestStatusIsReturned()
+            throws Exception {
+        StockMovementsDTO zeroDelta = new StockMovementsDTO(StockMovementMode.BEST_EFFORT,
+                Collections.singletonList(new StockMovementDTO(VALID_BEER_ID, 0)));
+        StockMovementsDTO tooMany = new StockMovementsDTO(StockMovementMode.BEST_EFFORT,
+                Collections.nCopies(1001, new StockMovementDTO(VALID_BEER_ID, 1)));
+
+        mockMvc.perform(post(BEER_API_URL_PATH + "/stock-movements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(zeroDelta)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0]", is("movements[0].nonZero: delta must not be zero")));
+        mockMvc.perform(post(BEER_API_URL_PATH + "/stock-movements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJSONString(tooMany)))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(beerService);
+    }
+
+    @Test
+    public void whenAClientExceedsItsRateThenTooManyRequestsStatusIsReturnedWithRetryAfter() throws Exception {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getAdmission().setEnabled(true);
+        beerstockProperties.getAdmission().getClientKeys().add("client-1");
+        beerstockProperties.getAdmission().setReads(new BeerstockProperties.Limits(1, 1, 10));
+        RequestAdmission admission = new RequestAdmission(beerstockProperties, mock(BeerMetrics.class),
+                new CatalogWriteGate(beerstockProperties));
+        MockMvc admittingMockMvc = MockMvcBuilders.standaloneSetup(beerController)
+                .addInterceptors(new VaryByAcceptInterceptor(), new RequestAdmissionInterceptor(admission))
+                .setControllerAdvice(APIExceptionHandler.class)
+                .build();
+        when(beerService.findById(VALID_BEER_ID))
+                .thenReturn(Optional.of(BeerDTOBuilder.builder().build().toBeerDTO()));
+
+        admittingMockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID).header("X-API-Key", "client-1"))
+                .andExpect(status().isOk());
+        admittingMockMvc.perform(get(BEER_API_URL_PATH + "/" + VALID_BEER_ID).header("X-API-Key", "client-1"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andExpect(jsonPath("$.message", is("Too many requests from this client, slow down.")));
+
+        verify(beerService, times(1)).findById(VALID_BEER_ID);
+    }
+
+    @Test
+    public void whenGETAcceptsCBORThenTheBeerIsReturnedInCBOR() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        when(beerService.findById(beerDTO.getId())).thenReturn(Optional.of(beerDTO));
+
+        MvcResult result = mockMvc.perform(get(BEER_API_URL_PATH + "/" + beerDTO.getId())
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn();
+
+        assertThat(fromCBOR(result.getResponse().getContentAsByteArray(), BeerDTO.class), is(beerDTO));
+    }
+
+    @Test
+    public void whenGETAcceptsCBORWithTheETagOfTheJSONBeerThenTheBeerIsReturnedInCBOR() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        when(beerService.findById(beerDTO.getId())).thenReturn(Optional.of(beerDTO));
+
+        String jsonETag = mockMvc.perform(get(BEER_API_URL_PATH + "/" + beerDTO.getId())
+                .accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String cborETag = mockMvc.perform(get(BEER_API_URL_PATH + "/" + beerDTO.getId())
+                .accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.IF_NONE_MATCH, jsonETag))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertThat(cborETag, not(jsonETag));
+    }
+
+    @Test
+    public void whenGETListOfBeersAcceptsCBORThenTheListIsReturnedInCBOR() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        when(beerService.listPage(null, null)).thenReturn(new BeerPageDTO(Collections.singletonList(beerDTO), null));
+
+        MvcResult result = mockMvc.perform(get(BEER_API_URL_PATH)
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn();
+
+        List<BeerDTO> beers = fromCBOR(result.getResponse().getContentAsByteArray(), listOf(BeerDTO.class));
+        assertThat(beers, is(List.of(beerDTO)));
+    }
+
+    @Test
+    public void whenPATCHIsSentInCBORThenTheStockIsIncremented() throws Exception {
+        int quantityToIncrement = 10;
+        BeerDTO incrementedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        incrementedBeerDTO.setQuantity(incrementedBeerDTO.getQuantity() + quantityToIncrement);
+
+        when(beerService.incrementStock(incrementedBeerDTO.getId(), quantityToIncrement, null))
+                .thenReturn(incrementedBeerDTO);
+
+        MvcResult result = mockMvc.perform(patch(BEER_API_URL_PATH + "/" + incrementedBeerDTO.getId() + "/increment")
+                .contentType(MediaType.APPLICATION_CBOR)
+                .accept(MediaType.APPLICATION_CBOR)
+                .content(asCBOR(new QuantityDTO(quantityToIncrement))))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertThat(fromCBOR(result.getResponse().getContentAsByteArray(), BeerDTO.class), is(incrementedBeerDTO));
+    }
+
+    @Test
+    public void whenAnErrorIsAcceptedInCBORThenItIsReturnedInCBOR() throws Exception {
+        doThrow(new BeerNotFoundException(INVALID_BEER_ID)).when(beerService).delete(INVALID_BEER_ID);
+
+        MvcResult result = mockMvc.perform(delete(BEER_API_URL_PATH + "/" + INVALID_BEER_ID)
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn();
+
+        JsonNode apiError = fromCBOR(result.getResponse().getContentAsByteArray(), JsonNode.class);
+        assertThat(apiError.get("status").asInt(), is(400));
+        assertThat(apiError.get("message").asText(), is(new BeerNotFoundException(INVALID_BEER_ID).getMessage()));
+    }
+
+    @Test
+    public void whenAnyContentTypeIsAcceptedThenJSONIsReturned() throws Exception {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+
+        when(beerService.findById(beerDTO.getId())).thenReturn(Optional.of(beerDTO));
+
+        mockMvc.perform(get(BEER_API_URL_PATH + "/" + beerDTO.getId())
+                .accept(MediaType.ALL))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json(asJSONString(beerDTO)));
+    }
 }
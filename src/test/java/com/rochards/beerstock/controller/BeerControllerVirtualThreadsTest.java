@@ -0,0 +1,210 @@
+package com.rochards.beerstock.controller;
+
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.repository.BeerRepository;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+
+// the cache is off, so every GET has to wait for one of the few pooled connections, and they are waited for as long
+// as it takes a request holding one to be done, not the 30 seconds of the application
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.threads.virtual.enabled=true",
+        "beerstock.cache.maximum-size=0",
+        "spring.datasource.hikari.maximum-pool-size=" + BeerControllerVirtualThreadsTest.POOL_SIZE,
+        "spring.datasource.hikari.connection-timeout=" + BeerControllerVirtualThreadsTest.CONNECTION_TIMEOUT_MILLIS})
+public class BeerControllerVirtualThreadsTest {
+
+    static final int POOL_SIZE = 10;
+    static final long CONNECTION_TIMEOUT_MILLIS = 2_000;
+
+    private static final String BEER_API_URL_PATH = "/api/v1/beers";
+    private static final int REQUESTS = 10_000;
+    private static final int IN_FLIGHT = 256; // each one a connection of the client and one of the server
+    // the carriers of the virtual threads, one per core, and far below one thread per request in flight
+    private static final int MAX_NEW_PLATFORM_THREADS = Runtime.getRuntime().availableProcessors() + 32;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private HandlingThreads handlingThreads;
+
+    @Autowired
+    private ServletWebServerApplicationContext context;
+
+    private ExecutorService executor;
+    private HttpClient httpClient;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        httpClient = HttpClient.newBuilder().executor(executor).build();
+        handlingThreads.reset();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        httpClient.close();
+        executor.close();
+        beerRepository.deleteAll();
+    }
+
+    @Test
+    public void whenVirtualThreadsAreEnabledThenTomcatHandlesRequestsOnThem() throws Exception {
+        TomcatWebServer webServer = (TomcatWebServer) context.getWebServer();
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 100, 10, BeerType.LAGER));
+
+        assertThat(webServer.getTomcat().getConnector().getProtocolHandler().getExecutor(),
+                instanceOf(VirtualThreadExecutor.class));
+        assertThat(get(beer.getId()).statusCode(), equalTo(200));
+        assertThat(handlingThreads.getVirtual(), equalTo(1));
+        assertThat(handlingThreads.getPlatform(), equalTo(0));
+    }
+
+    @Test
+    public void whenTenThousandGETsRunConcurrentlyThenFewPlatformThreadsAreUsed() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 100, 10, BeerType.LAGER));
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean(); // counts platform threads only
+        int platformThreadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        CountDownLatch start = new CountDownLatch(1);
+        Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        List<Future<Integer>> statuses = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            statuses.add(executor.submit(() -> {
+                start.await();
+                inFlight.acquire();
+                try {
+                    return get(beer.getId()).statusCode();
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<Integer> status : statuses) {
+            assertThat(status.get(), equalTo(200));
+        }
+        assertThat(handlingThreads.getVirtual(), equalTo(REQUESTS));
+        assertThat(handlingThreads.getPlatform(), equalTo(0));
+        assertThat(threads.getPeakThreadCount() - platformThreadsBefore, lessThan(MAX_NEW_PLATFORM_THREADS));
+    }
+
+    @Test
+    public void whenEveryPooledConnectionIsTakenThenRequestsWaitForTheTimeoutAndGetServiceUnavailable()
+            throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 100, 10, BeerType.LAGER));
+        List<Connection> taken = new ArrayList<>();
+        try {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                taken.add(dataSource.getConnection());
+            }
+
+            long start = System.nanoTime();
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < POOL_SIZE * 2; i++) { // none of them is turned away before the timeout
+                statuses.add(executor.submit(() -> get(beer.getId()).statusCode()));
+            }
+            for (Future<Integer> status : statuses) {
+                assertThat(status.get(), equalTo(503));
+            }
+            assertThat((System.nanoTime() - start) / 1_000_000, greaterThanOrEqualTo(CONNECTION_TIMEOUT_MILLIS));
+        } finally {
+            for (Connection connection : taken) {
+                connection.close();
+            }
+        }
+        assertThat(get(beer.getId()).statusCode(), equalTo(200)); // once they are back
+    }
+
+    private HttpResponse<String> get(Long id) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + port + BEER_API_URL_PATH + "/" + id)).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // counts the requests of the beer API by the kind of thread that handled them
+    @TestConfiguration
+    static class HandlingThreadsConfig {
+
+        @Bean
+        public HandlingThreads handlingThreads() {
+            return new HandlingThreads();
+        }
+    }
+
+    static class HandlingThreads extends OncePerRequestFilter {
+
+        private final AtomicInteger virtual = new AtomicInteger();
+        private final AtomicInteger platform = new AtomicInteger();
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            if (request.getRequestURI().startsWith(BEER_API_URL_PATH)) {
+                (Thread.currentThread().isVirtual() ? virtual : platform).incrementAndGet();
+            }
+            chain.doFilter(request, response);
+        }
+
+        int getVirtual() {
+            return virtual.get();
+        }
+
+        int getPlatform() {
+            return platform.get();
+        }
+
+        void reset() {
+            virtual.set(0);
+            platform.set(0);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.rochards.beerstock.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.QuantityDTO;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
+import com.rochards.beerstock.exception.type.RateLimitExceededException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import com.rochards.beerstock.service.IdempotencyStore;
+import com.rochards.beerstock.utils.ETagUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.rochards.beerstock.utils.CBORConversionUtils.asCBOR;
+import static com.rochards.beerstock.utils.CBORConversionUtils.fromCBOR;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+
+// the whole reactive stack down to the H2 R2DBC driver, errors have to look the same as on the servlet stack
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "beerstock.admission.enabled=true",
+        "beerstock.admission.client-keys=deleting-too-fast,deleting-too-fast-in-cbor"})
+@ActiveProfiles("reactive")
+public class ReactiveBeerControllerTest {
+
+    private static final String BEER_API_URL_PATH = "/api/v1/beers";
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private WarehouseStockRepository warehouseStockRepository;
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+    }
+
+    @Test
+    public void whenPOSTIsCalledThenABeerIsCreatedWithItsETag() {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().id(null).build().toBeerDTO();
+
+        webTestClient.post().uri(BEER_API_URL_PATH).bodyValue(beerDTO)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().value(HttpHeaders.ETAG, startsWith("\"0-"))
+                .expectBody()
+                .jsonPath("$.name").isEqualTo(beerDTO.getName())
+                .jsonPath("$.quantity").isEqualTo(beerDTO.getQuantity());
+
+        assertThat(beerRepository.findByName(beerDTO.getName()).isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void whenPOSTIsCalledWithAnExistingNameThenBadRequestIsReturned() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+
+        webTestClient.post().uri(BEER_API_URL_PATH).bodyValue(beerDTO)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo(400)
+                .jsonPath("$.message").isEqualTo(new BeerAlreadyExistException(beerDTO.getName()).getMessage());
+    }
+
+    @Test
+    public void whenPOSTIsCalledWithoutRequiredFieldsThenTheInvalidFieldsAreReturned() {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().id(null).build().toBeerDTO();
+        beerDTO.setBrand(null);
+
+        webTestClient.post().uri(BEER_API_URL_PATH).bodyValue(beerDTO)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("One or more fields are invalid!")
+                .jsonPath("$.errors[0]").isEqualTo("brand: must not be blank");
+    }
+
+    @Test
+    public void whenGETIsCalledWithAnUnknownIdThenNotFoundIsReturned() {
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", Long.MAX_VALUE)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void whenGETListIsCalledThenTheNextPageIsLinked() {
+        for (int i = 0; i < 3; i++) {
+            create(BeerDTOBuilder.builder().id(null).name("Brahma " + i).build().toBeerDTO());
+        }
+
+        webTestClient.get().uri(BEER_API_URL_PATH + "?size=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.LINK, link -> assertThat(link.endsWith("rel=\"next\""), equalTo(true)))
+                .expectBodyList(BeerDTO.class).hasSize(2);
+    }
+
+    @Test
+    public void whenSearchIsCalledThenOnlyTheMatchingBeersAreReturned() {
+        create(BeerDTOBuilder.builder().id(null).name("Brahma").brand("Ambev").build().toBeerDTO());
+        create(BeerDTOBuilder.builder().id(null).name("Brahma Extra").brand("Ambev").build().toBeerDTO());
+        create(BeerDTOBuilder.builder().id(null).name("Skol").brand("Ambev").build().toBeerDTO());
+
+        webTestClient.get().uri(BEER_API_URL_PATH + "/search?name=BRAHMA&brand=Amb")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[1].name").isEqualTo("Brahma Extra");
+    }
+
+    @Test
+    public void whenSearchIsCalledWithAQueryThenTheSimilarBeersAreRanked() {
+        create(BeerDTOBuilder.builder().id(null).name("Brahma Duplo Malte").brand("Ambev").build().toBeerDTO());
+        create(BeerDTOBuilder.builder().id(null).name("Brahma").brand("Ambev").build().toBeerDTO());
+        create(BeerDTOBuilder.builder().id(null).name("Skol").brand("Ambev").build().toBeerDTO());
+
+        webTestClient.get().uri(BEER_API_URL_PATH + "/search?q=brama")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].name").isEqualTo("Brahma")
+                .jsonPath("$[1].name").isEqualTo("Brahma Duplo Malte");
+    }
+
+    @Test
+    public void whenPATCHIncrementIsCalledThenTheStockAndTheETagAreUpdated() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/increment", beerDTO.getId())
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .bodyValue(QuantityDTO.builder().quantity(10).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, startsWith("\"1-"))
+                .expectBody()
+                .jsonPath("$.quantity").isEqualTo(beerDTO.getQuantity() + 10);
+    }
+
+    @Test
+    public void whenPATCHDecrementIsRetriedWithTheSameIdempotencyKeyThenTheStockIsChangedOnce() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/decrement", beerDTO.getId())
+                    .header(IdempotencyStore.IDEMPOTENCY_KEY, "reactive-" + beerDTO.getId())
+                    .bodyValue(QuantityDTO.builder().quantity(3).build())
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().value(HttpHeaders.ETAG, startsWith("\"1-"))
+                    .expectBody()
+                    .jsonPath("$.quantity").isEqualTo(beerDTO.getQuantity() - 3);
+        }
+
+        assertThat(beerRepository.findById(beerDTO.getId()).get().getQuantity(), equalTo(beerDTO.getQuantity() - 3));
+    }
+
+    @Test
+    public void whenPATCHIncrementExceedsTheMaxThenBadRequestIsReturned() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/increment", beerDTO.getId())
+                .bodyValue(QuantityDTO.builder().quantity(beerDTO.getMax()).build())
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo(400);
+    }
+
+    @Test
+    public void whenPATCHDecrementIsCalledWithAStaleETagThenPreconditionFailedIsReturned() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/decrement", beerDTO.getId())
+                .header(HttpHeaders.IF_MATCH, "\"7\"")
+                .bodyValue(QuantityDTO.builder().quantity(1).build())
+                .exchange()
+                .expectStatus().isEqualTo(412)
+                .expectBody()
+                .jsonPath("$.status").isEqualTo(412);
+    }
+
+    @Test
+    public void whenStockMovementsArePostedThenTheyAreApplied() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        StockMovementsDTO stockMovementsDTO = StockMovementsDTO.builder()
+                .movements(List.of(new StockMovementDTO(beerDTO.getId(), -4))).build();
+
+        webTestClient.post().uri(BEER_API_URL_PATH + "/stock-movements").bodyValue(stockMovementsDTO)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo("APPLIED")
+                .jsonPath("$[0].quantity").isEqualTo(beerDTO.getQuantity() - 4);
+    }
+
+    @Test
+    public void whenExportIsCalledThenEveryBeerIsALine() {
+        create(BeerDTOBuilder.builder().id(null).name("Brahma").build().toBeerDTO());
+        create(BeerDTOBuilder.builder().id(null).name("Skol").build().toBeerDTO());
+
+        String csv = webTestClient.get().uri(BEER_API_URL_PATH + "/export?format=CSV")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.parseMediaType("text/csv"))
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        assertThat(List.of(csv.split("\n")), hasSize(3));
+    }
+
+    @Test
+    public void whenDELETEIsCalledThenTheBeerIsRemoved() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+
+        webTestClient.delete().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient.delete().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        assertThat(beerRepository.findById(beerDTO.getId()).isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void whenStockChangesThenEveryAppliedOneIsRecordedInTheOutbox() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/increment", beerDTO.getId())
+                .bodyValue(QuantityDTO.builder().quantity(10).build())
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/increment", beerDTO.getId())
+                .bodyValue(QuantityDTO.builder().quantity(beerDTO.getMax()).build())
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.delete().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .exchange()
+                .expectStatus().isNoContent();
+
+        List<StockChange> changes = stockChangeRepository.findAll(Sort.by("id"));
+        assertThat(changes.stream().map(StockChange::getChangeType).toList(),
+                contains(StockChangeType.CREATED, StockChangeType.INCREMENT, StockChangeType.DELETED));
+        assertThat(changes.get(1).getQuantity(), equalTo(beerDTO.getQuantity() + 10));
+    }
+
+    @Test
+    public void whenGETIsRepeatedWithItsETagThenNotModifiedIsReturnedUntilTheStockChanges() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        String eTag = webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BeerDTO.class).getResponseHeaders().getETag();
+
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/increment", beerDTO.getId())
+                .header(HttpHeaders.IF_MATCH, eTag) // the row version of the read's ETag is expected
+                .bodyValue(QuantityDTO.builder().quantity(10).build())
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.quantity").isEqualTo(beerDTO.getQuantity() + 10);
+    }
+
+    @Test
+    public void whenALargeListIsRequestedWithGzipThenItIsCompressed() {
+        for (int i = 0; i < 40; i++) {
+            create(BeerDTOBuilder.builder().id(null).name("Skol Pilsen " + i).build().toBeerDTO());
+        }
+        // the default connector decompresses, and drops Content-Encoding
+        WebTestClient undecodedClient = webTestClient.mutate()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create()))
+                .build();
+
+        undecodedClient.get().uri(BEER_API_URL_PATH + "?unpaged=true")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectHeader().value(HttpHeaders.ETAG, startsWith("\""))
+                .expectHeader().valueEquals(HttpHeaders.VARY, ETagUtils.VARY);
+    }
+
+    @Test
+    public void whenTheStockOfABeerChangesThenItsHistoryHasTheUnitsOfTheChange() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).name("Brahma History").quantity(10).build()
+                .toBeerDTO());
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/decrement", beerDTO.getId())
+                .bodyValue(new QuantityDTO(4))
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}/history?bucket=DAY", beerDTO.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].unitsIn").isEqualTo(10) // the stock it was created with
+                .jsonPath("$[0].unitsOut").isEqualTo(4)
+                .jsonPath("$[0].movements").isEqualTo(2);
+    }
+
+    @Test
+    public void whenABeerIsStockedInAWarehouseThenItsGETShowsTheBreakdownUntilItIsDeleted() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).name("Brahma Recife").quantity(10).build()
+                .toBeerDTO());
+
+        webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/warehouses/recife/increment", beerDTO.getId())
+                .bodyValue(new QuantityDTO(5))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.quantity").isEqualTo(15)
+                .jsonPath("$.located").isEqualTo(5);
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.warehouses[0].warehouse").isEqualTo("recife")
+                .jsonPath("$.warehouses[0].quantity").isEqualTo(5);
+
+        webTestClient.delete().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .exchange()
+                .expectStatus().isNoContent();
+        assertThat(warehouseStockRepository.count(), equalTo(0L));
+    }
+
+    @Test
+    public void whenAClientExceedsItsMutationRateThenTooManyRequestsIsReturnedWithRetryAfter() {
+        EntityExchangeResult<String> result = null;
+        for (int i = 0; i < 1000 && (result == null || result.getStatus() != HttpStatus.TOO_MANY_REQUESTS); i++) {
+            result = webTestClient.delete().uri(BEER_API_URL_PATH + "/{id}", Long.MAX_VALUE)
+                    .header("X-API-Key", "deleting-too-fast")
+                    .exchange()
+                    .expectBody(String.class).returnResult();
+        }
+
+        assertThat(result.getStatus(), equalTo(HttpStatus.TOO_MANY_REQUESTS));
+        assertThat(result.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER), equalTo("1"));
+        assertThat(result.getResponseBody(),
+                containsString(new RateLimitExceededException(Duration.ZERO).getMessage()));
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", Long.MAX_VALUE)
+                .header("X-API-Key", "deleting-too-fast")
+                .exchange()
+                .expectStatus().isNotFound(); // reads have a bucket of their own
+    }
+
+    @Test
+    public void whenTheStockIsChangedInCBORThenTheBeerIsReturnedInCBOR() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).name("Brahma CBOR").quantity(10).build()
+                .toBeerDTO());
+
+        byte[] body = webTestClient.patch().uri(BEER_API_URL_PATH + "/{id}/increment", beerDTO.getId())
+                .contentType(MediaType.APPLICATION_CBOR)
+                .accept(MediaType.APPLICATION_CBOR)
+                .bodyValue(asCBOR(new QuantityDTO(5)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody(byte[].class).returnResult().getResponseBody();
+
+        BeerDTO incremented = fromCBOR(body, BeerDTO.class);
+        assertThat(incremented.getQuantity(), equalTo(15));
+        assertThat(incremented.getName(), equalTo(beerDTO.getName()));
+    }
+
+    @Test
+    public void whenGETAcceptsCBORWithTheETagOfTheJSONBeerThenTheBeerIsReturnedInCBOR() {
+        BeerDTO beerDTO = create(BeerDTOBuilder.builder().id(null).name("Brahma ETag").build().toBeerDTO());
+        String eTag = webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .returnResult(BeerDTO.class).getResponseHeaders().getETag();
+
+        webTestClient.get().uri(BEER_API_URL_PATH + "/{id}", beerDTO.getId())
+                .accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectHeader().value(HttpHeaders.ETAG, not(eTag))
+                .expectHeader().value(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT));
+    }
+
+    @Test
+    public void whenARejectedClientAcceptsCBORThenTheErrorIsReturnedInCBOR() {
+        EntityExchangeResult<byte[]> result = null;
+        for (int i = 0; i < 1000 && (result == null || result.getStatus() != HttpStatus.TOO_MANY_REQUESTS); i++) {
+            result = webTestClient.delete().uri(BEER_API_URL_PATH + "/{id}", Long.MAX_VALUE)
+                    .header("X-API-Key", "deleting-too-fast-in-cbor")
+                    .accept(MediaType.APPLICATION_CBOR)
+                    .exchange()
+                    .expectBody(byte[].class).returnResult();
+        }
+
+        assertThat(result.getStatus(), equalTo(HttpStatus.TOO_MANY_REQUESTS));
+        assertThat(result.getResponseHeaders().getContentType(), equalTo(MediaType.APPLICATION_CBOR));
+        assertThat(result.getResponseHeaders().getVary(), contains(HttpHeaders.ACCEPT));
+        JsonNode apiError = fromCBOR(result.getResponseBody(), JsonNode.class);
+        assertThat(apiError.get("status").asInt(), equalTo(429));
+        assertThat(apiError.get("message").asText(),
+                equalTo(new RateLimitExceededException(Duration.ZERO).getMessage()));
+    }
+
+    private BeerDTO create(BeerDTO beerDTO) {
+        return webTestClient.post().uri(BEER_API_URL_PATH).bodyValue(beerDTO)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(BeerDTO.class).returnResult().getResponseBody();
+    }
+}
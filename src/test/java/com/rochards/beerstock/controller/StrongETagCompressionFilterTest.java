@@ -0,0 +1,105 @@
+package com.rochards.beerstock.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class StrongETagCompressionFilterTest {
+
+    private static final String BEER_API_URL_PATH = "/api/v1/beers";
+    private static final String LARGE_BODY = "[" + "{\"name\":\"Brahma\"},".repeat(200) + "{}]";
+    private static final String SMALL_BODY = "{\"name\":\"Brahma\"}";
+
+    private StrongETagCompressionFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        ServerProperties serverProperties = new ServerProperties();
+        serverProperties.getCompression().setEnabled(true);
+        serverProperties.getCompression().setMimeTypes(new String[]{MediaType.APPLICATION_JSON_VALUE});
+        filter = new StrongETagCompressionFilter(serverProperties);
+    }
+
+    @Test
+    public void whenALargeResponseHasAStrongETagThenItIsGzipped() throws Exception {
+        MockHttpServletResponse response = filter(request("gzip, deflate"), "\"1.2-abc\"", LARGE_BODY);
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING), equalTo("gzip"));
+        assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH), nullValue());
+        assertThat(gunzip(response.getContentAsByteArray()), equalTo(LARGE_BODY));
+    }
+
+    @Test
+    public void whenASmallResponseHasAStrongETagThenItIsLeftUncompressedWithItsLength() throws Exception {
+        MockHttpServletResponse response = filter(request("gzip"), "\"1.2-abc\"", SMALL_BODY);
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(response.getContentLength(), equalTo(SMALL_BODY.length()));
+        assertThat(response.getContentAsString(), equalTo(SMALL_BODY));
+    }
+
+    @Test
+    public void whenAResponseHasAWeakETagThenItIsLeftToTheContainer() throws Exception {
+        MockHttpServletResponse response = filter(request("gzip"), "W/\"1\"", LARGE_BODY);
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(response.getContentLength(), equalTo(LARGE_BODY.length()));
+        assertThat(response.getContentAsString(), equalTo(LARGE_BODY));
+    }
+
+    @Test
+    public void whenTheClientRefusesGzipThenTheResponseIsNotCompressed() throws Exception {
+        MockHttpServletResponse response = filter(request("gzip;q=0, identity"), "\"1.2-abc\"", LARGE_BODY);
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(response.getContentAsString(), equalTo(LARGE_BODY));
+    }
+
+    private static MockHttpServletRequest request(String acceptEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", BEER_API_URL_PATH);
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        return request;
+    }
+
+    // writes the body as a message converter does, its Content-Length first
+    private MockHttpServletResponse filter(MockHttpServletRequest request, String eTag, String body)
+            throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpServlet servlet = new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                resp.setHeader(HttpHeaders.ETAG, eTag);
+                resp.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                resp.setContentLength(bytes.length);
+                resp.getOutputStream().write(bytes);
+                resp.flushBuffer();
+            }
+        };
+        filter.doFilter(request, response, new MockFilterChain(servlet));
+        return response;
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
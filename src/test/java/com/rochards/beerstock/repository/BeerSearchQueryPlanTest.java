@@ -0,0 +1,102 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
+
+// H2 names the index it scans in the plan EXPLAIN prints, the search has to be answered from one for each filter
+@SpringBootTest
+public class BeerSearchQueryPlanTest {
+
+    private static final int BEERS = 1000;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        List<Beer> beers = new ArrayList<>();
+        for (int i = 0; i < BEERS; i++) {
+            beers.add(new Beer(0, "Beer " + i, "Brand " + (i % 100), 100, i % 100, BeerType.values()[i % 7]));
+        }
+        beerRepository.saveAll(beers);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAll();
+    }
+
+    @Test
+    public void whenSearchingByNamePrefixThenTheLowerNameIndexIsUsed() {
+        BeerSearchDTO criteria = BeerSearchDTO.builder().name("beer 1").build();
+
+        assertThat(plan(criteria), containsString("IDX_BEER_NAME_LOWER"));
+    }
+
+    @Test
+    public void whenSearchingByBrandPrefixThenTheBrandIndexIsUsed() {
+        BeerSearchDTO criteria = BeerSearchDTO.builder().brand("Brand 4").build();
+
+        assertThat(plan(criteria), containsString("IDX_BEER_BRAND"));
+    }
+
+    @Test
+    public void whenSearchingByTypeThenTheTypeIndexIsUsed() {
+        BeerSearchDTO criteria = BeerSearchDTO.builder().type(BeerType.IPA).build();
+
+        assertThat(plan(criteria), containsString("IDX_BEER_TYPE"));
+    }
+
+    @Test
+    public void whenSearchingByNamePrefixThenCaseIsIgnored() {
+        BeerSearchDTO criteria = BeerSearchDTO.builder().name("BEER 99").build();
+
+        List<Beer> beers = beerRepository.search(criteria, 0, BEERS);
+
+        assertThat(beers, hasSize(11)); // Beer 99 and Beer 990 to Beer 999
+        assertThat(beers.stream().map(Beer::getName).toList(), everyItem(startsWith("Beer 99")));
+    }
+
+    @Test
+    public void whenSearchingByPrefixThenWildcardsAreMatchedLiterally() {
+        BeerSearchDTO criteria = BeerSearchDTO.builder().brand("Brand_").build();
+
+        assertThat(beerRepository.search(criteria, 0, BEERS), hasSize(0));
+    }
+
+    @Test
+    public void whenSearchingWithAllFiltersThenOnlyTheBeersMatchingEveryOneAreReturned() {
+        BeerSearchDTO criteria = BeerSearchDTO.builder().name("beer 1").brand("Brand 1").type(BeerType.values()[1])
+                .lowStock(0.05).build();
+
+        List<Beer> beers = beerRepository.search(criteria, 0, BEERS);
+
+        assertThat(beers.stream().map(Beer::getName).toList(), contains("Beer 1"));
+    }
+
+    private String plan(BeerSearchDTO criteria) {
+        BeerSearchQuery query = BeerSearchQuery.of(criteria, 0, 20);
+        return namedParameterJdbcTemplate.queryForObject("explain " + query.getSql(), query.getParams(),
+                String.class);
+    }
+}
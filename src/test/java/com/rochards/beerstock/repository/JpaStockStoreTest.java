@@ -0,0 +1,25 @@
+package com.rochards.beerstock.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class JpaStockStoreTest extends StockStoreTest {
+
+    @Autowired
+    private StockStore stockStore;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Override
+    protected StockStore stockStore() {
+        return stockStore;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAll();
+    }
+}
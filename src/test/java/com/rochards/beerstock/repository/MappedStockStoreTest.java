@@ -0,0 +1,142 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockLocking;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class MappedStockStoreTest extends StockStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    private BeerstockProperties beerstockProperties;
+    private MappedStockStore stockStore;
+
+    @Override
+    protected StockStore stockStore() {
+        return stockStore;
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getStore().setFile(directory.resolve("beers.store").toString());
+        beerstockProperties.getStore().setCapacity(16);
+        beerstockProperties.getStore().setFsync(false); // a crash of the process is what these tests go through
+        stockStore = open();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        stockStore.close();
+    }
+
+    @Test
+    public void whenTheStoreIsReopenedThenItHasTheBeersItHadWhenClosed() throws Exception {
+        Beer brahma = stockStore.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Beer skol = stockStore.save(new Beer(0, "Skol", "Ambev", 50, 10, BeerType.LAGER));
+        stockStore.addStock(brahma.getId(), 7, null);
+        stockStore.deleteById(skol.getId());
+
+        stockStore.close();
+        stockStore = open();
+
+        Beer found = stockStore.findByName("Brahma").get();
+        assertThat(found.getId(), equalTo(brahma.getId()));
+        assertThat(found.getQuantity(), equalTo(17));
+        assertThat(found.getVersion(), equalTo(1L));
+        assertThat(stockStore.existsById(skol.getId()), equalTo(false));
+        // the slot of the deleted beer is taken again, its id is not
+        Beer heineken = stockStore.save(new Beer(0, "Heineken", "Heineken", 50, 0, BeerType.LAGER));
+        assertThat(heineken.getId(), equalTo(skol.getId() + 1));
+        assertThat(stockStore.findAll().size(), equalTo(2));
+    }
+
+    @Test
+    public void whenAnUndoneIncrementWasSoldMeanwhileThenTheQuantityStopsAtZero() {
+        Beer beer = stockStore.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        TransactionSynchronizationManager.initSynchronization();
+        List<TransactionSynchronization> synchronizations;
+        try {
+            stockStore.addStock(beer.getId(), 10, null);
+            synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        stockStore.addStock(beer.getId(), -20, null); // committed before the increment rolls back
+        synchronizations.forEach(synchronization ->
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        Beer found = stockStore.findById(beer.getId()).get();
+        assertThat(found.getQuantity(), equalTo(0));
+        assertThat(found.getVersion(), equalTo(3L));
+    }
+
+    @Test
+    public void whenABeerReachedTheLastVersionThenItsStockIsNotChangedAgain() throws Exception {
+        Beer beer = stockStore.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        stockStore.close();
+        try (FileChannel channel = FileChannel.open(Paths.get(beerstockProperties.getStore().getFile()),
+                StandardOpenOption.WRITE)) { // the first slot, at the version before the last one
+            ByteBuffer stock = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                    .putLong((MappedStockStore.MAX_VERSION - 1) << 32 | 10).flip();
+            channel.write(stock, MappedStockStore.HEADER_SIZE + MappedStockStore.STOCK);
+        }
+        stockStore = open();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> stockStore.addStock(beer.getId(), 1, null));
+        Beer found = stockStore.findById(beer.getId()).get();
+        assertThat(found.getQuantity(), equalTo(10));
+        assertThat(found.getVersion(), equalTo(MappedStockStore.MAX_VERSION - 1));
+    }
+
+    @Test
+    public void whenTheStoreIsFullThenNoOtherBeerIsSaved() {
+        for (int i = 0; i < 16; i++) {
+            stockStore.save(new Beer(0, "Beer " + i, "Brand", 50, 0, BeerType.ALE));
+        }
+
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> stockStore.save(new Beer(0, "Beer 16", "Brand", 50, 0, BeerType.ALE)));
+    }
+
+    @Test
+    public void whenTheStockIsNotChangedAtomicallyThenTheStoreDoesNotStart() {
+        beerstockProperties.getStockUpdate().setLocking(StockLocking.PESSIMISTIC);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> new MappedStockStore(beerstockProperties));
+    }
+
+    @Test
+    public void whenTheHotStockLedgerIsEnabledThenTheStoreDoesNotStart() {
+        beerstockProperties.getHotStock().setEnabled(true);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> new MappedStockStore(beerstockProperties));
+    }
+
+    private MappedStockStore open() throws Exception {
+        MappedStockStore opened = new MappedStockStore(beerstockProperties);
+        opened.open();
+        return opened;
+    }
+}
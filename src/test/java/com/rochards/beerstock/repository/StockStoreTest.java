@@ -0,0 +1,155 @@
+package com.rochards.beerstock.repository;
+
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+
+// what every engine has to do the same, run against each of them by its subclass
+public abstract class StockStoreTest {
+
+    private static final int THREADS = 16;
+    private static final int OPERATIONS = 4000;
+
+    protected abstract StockStore stockStore();
+
+    @Test
+    public void whenABeerIsSavedThenItIsFoundByItsIdAndName() {
+        Beer beer = stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        stockStore().save(new Beer(0, "Colorado Appia", "Colorado", 30, 0, BeerType.WITBIER));
+
+        Beer found = stockStore().findById(beer.getId()).get();
+        assertThat(found.getName(), equalTo("Brahma"));
+        assertThat(found.getBrand(), equalTo("Ambev"));
+        assertThat(found.getMax(), equalTo(50));
+        assertThat(found.getQuantity(), equalTo(10));
+        assertThat(found.getType(), equalTo(BeerType.LAGER));
+        assertThat(stockStore().findIdByName("Brahma").get(), equalTo(beer.getId()));
+        assertThat(stockStore().existsById(beer.getId()), equalTo(true));
+        assertThat(stockStore().findAll().stream().map(Beer::getName).toList(),
+                containsInAnyOrder("Brahma", "Colorado Appia"));
+    }
+
+    @Test
+    public void whenPagesAreReadThenTheBeersAfterTheInformedIdComeInIdOrder() {
+        Beer brahma = stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Beer skol = stockStore().save(new Beer(0, "Skol", "Ambev", 50, 10, BeerType.LAGER));
+        Beer appia = stockStore().save(new Beer(0, "Colorado Appia", "Colorado", 30, 0, BeerType.WITBIER));
+
+        assertThat(ids(stockStore().findPage(0, 2)), contains(brahma.getId(), skol.getId()));
+        assertThat(ids(stockStore().findPage(skol.getId(), 2)), contains(appia.getId()));
+        List<Beer> read = new ArrayList<>();
+        stockStore().forEachBeer(2, read::add);
+        assertThat(ids(read), contains(brahma.getId(), skol.getId(), appia.getId()));
+    }
+
+    @Test
+    public void whenBeersAreSearchedThenEveryInformedFilterIsMatched() {
+        Beer brahma = stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Beer duplo = stockStore().save(new Beer(0, "Brahma Duplo Malte", "Ambev", 50, 40, BeerType.LAGER));
+        Beer appia = stockStore().save(new Beer(0, "Colorado Appia", "Colorado", 30, 0, BeerType.WITBIER));
+
+        assertThat(ids(stockStore().search(BeerSearchDTO.builder().name("brahma").build(), 0, 10)),
+                contains(brahma.getId(), duplo.getId()));
+        assertThat(ids(stockStore().search(BeerSearchDTO.builder().name("BRAHMA").build(), brahma.getId(), 10)),
+                contains(duplo.getId()));
+        assertThat(ids(stockStore().search(BeerSearchDTO.builder().name("Brahma D").build(), 0, 10)),
+                contains(duplo.getId()));
+        assertThat(ids(stockStore().search(BeerSearchDTO.builder().brand("Amb").lowStock(0.5).build(), 0, 10)),
+                contains(brahma.getId()));
+        assertThat(ids(stockStore().search(BeerSearchDTO.builder().type(BeerType.WITBIER).build(), 0, 10)),
+                contains(appia.getId()));
+        assertThat(ids(stockStore().search(BeerSearchDTO.builder().build(), 0, 1)), contains(brahma.getId()));
+        assertThat(stockStore().sumQuantityByType(), equalTo(Map.of(BeerType.LAGER, 50L, BeerType.WITBIER, 0L)));
+    }
+
+    @Test
+    public void whenANameIsTakenThenAnotherBeerCannotHaveIt() {
+        stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        Assertions.assertThrows(DataIntegrityViolationException.class,
+                () -> stockStore().save(new Beer(0, "Brahma", "Other", 20, 0, BeerType.ALE)));
+        assertThat(stockStore().findAll().size(), equalTo(1));
+    }
+
+    @Test
+    public void whenStockIsAddedThenTheVersionIsBumpedWithinTheBounds() {
+        Beer beer = stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        long version = stockStore().findById(beer.getId()).get().getVersion();
+
+        assertThat(stockStore().addStock(beer.getId(), 40, null), equalTo(1));
+        assertThat(stockStore().addStock(beer.getId(), 1, null), equalTo(0));
+        assertThat(stockStore().addStock(beer.getId(), -51, null), equalTo(0));
+        assertThat(stockStore().addStock(beer.getId(), -50, null), equalTo(1));
+
+        Beer found = stockStore().findById(beer.getId()).get();
+        assertThat(found.getQuantity(), equalTo(0));
+        assertThat(found.getVersion(), equalTo(version + 2));
+    }
+
+    @Test
+    public void whenTheVersionIsNotTheExpectedOneThenTheStockIsLeftAlone() {
+        Beer beer = stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        long version = stockStore().findById(beer.getId()).get().getVersion();
+
+        assertThat(stockStore().addStock(beer.getId(), 5, version + 1), equalTo(0));
+        assertThat(stockStore().addStock(beer.getId(), 5, version), equalTo(1));
+        assertThat(stockStore().addStock(beer.getId(), 5, version), equalTo(0));
+        assertThat(stockStore().findById(beer.getId()).get().getQuantity(), equalTo(15));
+    }
+
+    @Test
+    public void whenABeerIsDeletedThenItIsGone() {
+        Beer beer = stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        stockStore().deleteById(beer.getId());
+
+        assertThat(stockStore().existsById(beer.getId()), equalTo(false));
+        assertThat(stockStore().findByName("Brahma").isPresent(), equalTo(false));
+        assertThat(stockStore().addStock(beer.getId(), 1, null), equalTo(0));
+        // the name is free again
+        assertThat(stockStore().save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER)).getId() > 0,
+                equalTo(true));
+    }
+
+    @Test
+    public void whenStockChangesRunInParallelThenNoneIsLost() throws Exception {
+        Beer beer = stockStore().save(new Beer(0, "Brahma", "Ambev", OPERATIONS / 2, 0, BeerType.LAGER));
+        AtomicInteger applied = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < OPERATIONS; i++) {
+                futures.add(executor.submit(() -> applied.addAndGet(stockStore().addStock(beer.getId(), 1, null))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(applied.get(), equalTo(OPERATIONS / 2)); // the rest would have gone past the max
+        assertThat(stockStore().findById(beer.getId()).get().getQuantity(), equalTo(OPERATIONS / 2));
+    }
+
+    private static List<Long> ids(List<Beer> beers) {
+        return beers.stream().map(Beer::getId).toList();
+    }
+}
@@ -0,0 +1,102 @@
+package com.rochards.beerstock.service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.repository.BeerRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@SpringBootTest
+public class BeerCacheTest {
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAllInBatch();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    public void whenABeerIsReadTwiceThenTheSecondReadIsAHit() {
+        BeerDTO beerDTO = beerService.create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        long hitsBefore = stats(BeerCache.BEERS_BY_ID).hitCount();
+
+        beerService.findById(beerDTO.getId());
+        beerService.findById(beerDTO.getId());
+
+        assertThat(stats(BeerCache.BEERS_BY_ID).hitCount() - hitsBefore, is(equalTo(1L)));
+    }
+
+    @Test
+    public void whenStockChangesThenTheNextReadsReturnTheNewQuantity() {
+        BeerDTO beerDTO = beerService.create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        beerService.findById(beerDTO.getId());
+        beerService.findByName(beerDTO.getName());
+
+        beerService.incrementStock(beerDTO.getId(), 5);
+        assertThat(beerService.findById(beerDTO.getId()).get().getQuantity(), is(equalTo(beerDTO.getQuantity() + 5)));
+
+        beerService.decrementStock(beerDTO.getId(), 8);
+        assertThat(beerService.findByName(beerDTO.getName()).get().getQuantity(),
+                is(equalTo(beerDTO.getQuantity() - 3)));
+    }
+
+    @Test
+    public void whenABeerIsCreatedAfterACachedMissThenItIsFound() {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().id(null).build().toBeerDTO();
+        assertThat(beerService.findByName(beerDTO.getName()), is(equalTo(Optional.empty())));
+
+        beerService.create(beerDTO);
+
+        assertThat(beerService.findByName(beerDTO.getName()).isPresent(), is(true));
+    }
+
+    @Test
+    public void whenABeerIsDeletedThenItIsNoLongerFound() {
+        BeerDTO beerDTO = beerService.create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        beerService.findById(beerDTO.getId());
+        beerService.findByName(beerDTO.getName());
+
+        beerService.delete(beerDTO.getId());
+
+        assertThat(beerService.findById(beerDTO.getId()), is(equalTo(Optional.empty())));
+        assertThat(beerService.findByName(beerDTO.getName()), is(equalTo(Optional.empty())));
+    }
+
+    @Test
+    public void whenCachesAreUsedThenTheirStatisticsArePublishedAsMetrics() {
+        beerService.findById(1L);
+
+        assertThat(meterRegistry.find("cache.gets").tag("cache", BeerCache.BEERS_BY_ID).meters(), is(not(empty())));
+        assertThat(meterRegistry.find("cache.evictions").tag("cache", BeerCache.BEERS_BY_ID).meters(),
+                is(not(empty())));
+    }
+
+    private CacheStats stats(String cacheName) {
+        TransactionAwareCacheDecorator cache = (TransactionAwareCacheDecorator) cacheManager.getCache(cacheName);
+        return ((CaffeineCache) cache.getTargetCache()).getNativeCache().stats();
+    }
+}
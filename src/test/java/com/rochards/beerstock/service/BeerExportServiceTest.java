@@ -0,0 +1,152 @@
+package com.rochards.beerstock.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.mapper.BeerCsvMapper;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.JpaStockStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+@SpringBootTest
+public class BeerExportServiceTest {
+
+    private static final int LARGE_CATALOGUE_SIZE = 300_000;
+    private static final long MAX_HEAP_GROWTH = 16 * 1024 * 1024;
+
+    @Autowired
+    private BeerExportService beerExportService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private BeerstockProperties beerstockProperties;
+
+    @AfterEach
+    public void tearDown() {
+        jdbcTemplate.update("delete from beer");
+    }
+
+    @Test
+    public void whenExportIsCalledAsNDJSONThenEveryBeerIsWrittenInItsOwnLine() throws Exception {
+        beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        beerRepository.save(new Beer(0, "Skol", "Ambev", 50, 20, BeerType.LAGER));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        beerExportService.export(ExportFormat.NDJSON, outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length, equalTo(2));
+        assertThat(lines[0].contains("\"name\":\"Brahma\""), equalTo(true));
+        assertThat(lines[1].contains("\"name\":\"Skol\""), equalTo(true));
+    }
+
+    @Test
+    public void whenExportIsCalledAsCSVThenAHeaderAndEscapedFieldsAreWritten() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma \"Duplo\" Malte", "Ambev, SA", 50, 10, BeerType.LAGER));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        beerExportService.export(ExportFormat.CSV, outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines[0], equalTo(BeerCsvMapper.HEADER));
+        assertThat(lines[1], equalTo(beer.getId() + ",\"Brahma \"\"Duplo\"\" Malte\",\"Ambev, SA\",50,10,LAGER"));
+    }
+
+    @Test
+    public void whenAHotBeerIsExportedThenItsInMemoryQuantityIsWritten() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger hotStockLedger = Mockito.mock(HotStockLedger.class);
+        Mockito.when(hotStockLedger.withHotStock(Mockito.any())).thenAnswer(invocation ->
+                invocation.<BeerDTO>getArgument(0).toBuilder().quantity(35).build());
+        BeerExportService exportService = new BeerExportService(new JpaStockStore(beerRepository), objectMapper,
+                beerstockProperties, hotStockLedger);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        exportService.export(ExportFormat.CSV, outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines[1], equalTo(beer.getId() + ",Brahma,Ambev,50,35,LAGER"));
+    }
+
+    @Test
+    public void whenALargeCatalogueIsExportedThenHeapUseStaysBounded() throws Exception {
+        insertBeers(LARGE_CATALOGUE_SIZE);
+        HeapSamplingOutputStream outputStream = new HeapSamplingOutputStream();
+
+        beerExportService.export(ExportFormat.NDJSON, outputStream);
+
+        assertThat(outputStream.lines, equalTo((long) LARGE_CATALOGUE_SIZE));
+        assertThat(outputStream.maxHeapGrowth(), lessThan(MAX_HEAP_GROWTH));
+    }
+
+    private void insertBeers(int count) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[]{"Beer " + i, "Brand " + (i % 100), 500, i % 500, BeerType.values()[i % 7].name()});
+            if (rows.size() == 10_000 || i == count - 1) {
+                jdbcTemplate.batchUpdate("insert into beer (id, name, brand, max, quantity, type) " +
+                        "values (next value for beer_seq, ?, ?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+    }
+
+    // discards what is written, sampling the heap after a full gc every few megabytes
+    private static class HeapSamplingOutputStream extends OutputStream {
+
+        private static final long SAMPLE_EVERY_BYTES = 4 * 1024 * 1024;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final long baseline = usedHeapAfterGc();
+        private long maxUsed = baseline;
+        private long written;
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+            if (++written % SAMPLE_EVERY_BYTES == 0) {
+                maxUsed = Math.max(maxUsed, usedHeapAfterGc());
+            }
+        }
+
+        long maxHeapGrowth() {
+            return maxUsed - baseline;
+        }
+
+        private long usedHeapAfterGc() {
+            System.gc();
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerImportResultDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.enums.ImportStatus;
+import com.rochards.beerstock.exception.type.InvalidImportFileException;
+import com.rochards.beerstock.repository.BeerRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.validation.Validator;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@SpringBootTest
+public class BeerImportServiceTest {
+
+    @Autowired
+    private BeerImportService beerImportService;
+
+    @Autowired
+    private BeerExportService beerExportService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private BeerstockProperties beerstockProperties;
+
+    @Autowired
+    private BeerCache beerCache;
+
+    @Autowired
+    private BeerSearchIndex beerSearchIndex;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    public void whenBeersAreImportedThenEachRowReportsItsOutcome() {
+        beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        BeerDTO existing = BeerDTOBuilder.builder().name("Brahma").build().toBeerDTO();
+        BeerDTO created = BeerDTOBuilder.builder().name("Skol").build().toBeerDTO();
+        BeerDTO repeated = BeerDTOBuilder.builder().name("Skol").build().toBeerDTO();
+        BeerDTO invalid = BeerDTOBuilder.builder().name("Antarctica").brand("").build().toBeerDTO();
+
+        List<BeerImportResultDTO> results = beerImportService.importBeers(List.of(existing, created, repeated, invalid));
+
+        assertThat(results.get(0).getStatus(), is(equalTo(ImportStatus.DUPLICATE)));
+        assertThat(results.get(1).getStatus(), is(equalTo(ImportStatus.CREATED)));
+        assertThat(results.get(1).getId(), is(notNullValue()));
+        assertThat(results.get(2).getStatus(), is(equalTo(ImportStatus.DUPLICATE)));
+        assertThat(results.get(3).getStatus(), is(equalTo(ImportStatus.INVALID)));
+        assertThat(results.get(3).getMessage(), startsWith("brand: "));
+        assertThat(beerRepository.count(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void whenManyBeersAreImportedThenAllOfThemAreCreatedAcrossBatches() {
+        List<BeerDTO> beerDTOs = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            beerDTOs.add(BeerDTOBuilder.builder().id(null).name("Beer " + i).build().toBeerDTO());
+        }
+
+        List<BeerImportResultDTO> results = beerImportService.importBeers(beerDTOs);
+
+        assertThat(results, everyItem(hasProperty("status", equalTo(ImportStatus.CREATED))));
+        assertThat(beerRepository.count(), is(equalTo(5_000L)));
+        assertThat(beerRepository.findById(results.get(4_999).getId()).get().getName(), is(equalTo("Beer 4999")));
+    }
+
+    @Test
+    public void whenANameIsCreatedBetweenTheCheckAndTheInsertThenOnlyItsRowIsADuplicate() {
+        beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        // the check of the chunk misses a beer created right after it, as by a concurrent POST /api/v1/beers
+        BeerRepository racingRepository = Mockito.mock(BeerRepository.class,
+                AdditionalAnswers.delegatesTo(beerRepository));
+        AtomicBoolean raced = new AtomicBoolean();
+        Mockito.doAnswer(invocation -> {
+            Set<String> existing = beerRepository.findExistingNames(invocation.getArgument(0));
+            if (raced.compareAndSet(false, true)) {
+                beerRepository.save(new Beer(0, "Skol", "Ambev", 50, 10, BeerType.LAGER));
+            }
+            return existing;
+        }).when(racingRepository).findExistingNames(Mockito.anyCollection());
+        BeerImportService racingImportService = new BeerImportService(racingRepository, validator,
+                beerstockProperties, beerCache, beerSearchIndex, eventPublisher, transactionTemplate);
+        BeerDTO existing = BeerDTOBuilder.builder().name("Brahma").build().toBeerDTO();
+        BeerDTO taken = BeerDTOBuilder.builder().name("Skol").build().toBeerDTO();
+        BeerDTO created = BeerDTOBuilder.builder().name("Bohemia").build().toBeerDTO();
+
+        List<BeerImportResultDTO> results = racingImportService.importBeers(List.of(existing, taken, created));
+
+        assertThat(results.get(0).getStatus(), is(equalTo(ImportStatus.DUPLICATE)));
+        assertThat(results.get(1).getStatus(), is(equalTo(ImportStatus.DUPLICATE)));
+        assertThat(results.get(1).getId(), is(nullValue()));
+        assertThat(results.get(2).getStatus(), is(equalTo(ImportStatus.CREATED)));
+        assertThat(beerRepository.findByName("Bohemia").get().getId(), is(equalTo(results.get(2).getId())));
+        assertThat(beerRepository.count(), is(equalTo(3L)));
+    }
+
+    @Test
+    public void whenACSVIsImportedThenUnreadableRowsAreReportedAsInvalid() throws Exception {
+        String csv = "name,brand,max,quantity,type\n" +
+                "\"Brahma \"\"Duplo\"\" Malte\",\"Ambev, SA\",50,10,LAGER\n" +
+                "Skol,Ambev,fifty,10,LAGER\n" +
+                "Bohemia,Ambev,50,10,PILSEN\n";
+
+        List<BeerImportResultDTO> results = beerImportService.importCsv(new StringReader(csv));
+
+        assertThat(results, hasSize(3));
+        assertThat(results.get(0).getStatus(), is(equalTo(ImportStatus.CREATED)));
+        assertThat(results.get(1).getStatus(), is(equalTo(ImportStatus.INVALID)));
+        assertThat(results.get(1).getRow(), is(equalTo(2)));
+        assertThat(results.get(2).getStatus(), is(equalTo(ImportStatus.INVALID)));
+        assertThat(beerRepository.findByName("Brahma \"Duplo\" Malte").get().getBrand(), is(equalTo("Ambev, SA")));
+    }
+
+    @Test
+    public void whenAnExportedCSVIsImportedThenFieldsSpanningLinesReadBackWhole() throws Exception {
+        beerRepository.save(new Beer(0, "Brahma\nDuplo Malte", "Ambev,\r\nSA", 50, 10, BeerType.LAGER));
+        beerRepository.save(new Beer(0, "Skol \"Beats\"\n", "Ambev", 50, 20, BeerType.LAGER));
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        beerExportService.export(ExportFormat.CSV, exported);
+        beerRepository.deleteAllInBatch();
+
+        List<BeerImportResultDTO> results = beerImportService.importCsv(
+                new StringReader(exported.toString(StandardCharsets.UTF_8)));
+
+        assertThat(results, everyItem(hasProperty("status", equalTo(ImportStatus.CREATED))));
+        assertThat(results, hasSize(2));
+        assertThat(beerRepository.findByName("Brahma\nDuplo Malte").get().getBrand(), is(equalTo("Ambev,\r\nSA")));
+        assertThat(beerRepository.findByName("Skol \"Beats\"\n").get().getQuantity(), is(equalTo(20)));
+    }
+
+    @Test
+    public void whenACSVWithoutRequiredColumnsIsImportedThenAnExceptionShouldBeThrown() {
+        String csv = "name,brand\nSkol,Ambev\n";
+
+        Assertions.assertThrows(InvalidImportFileException.class,
+                () -> beerImportService.importCsv(new StringReader(csv)));
+    }
+}
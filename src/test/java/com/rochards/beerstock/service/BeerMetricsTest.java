@@ -0,0 +1,95 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.JpaStockStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@ExtendWith(MockitoExtension.class)
+public class BeerMetricsTest {
+
+    @Mock
+    private BeerRepository beerRepository;
+
+    private MeterRegistry meterRegistry;
+    private BeerMetrics beerMetrics;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        beerMetrics = new BeerMetrics(meterRegistry, new JpaStockStore(beerRepository));
+    }
+
+    @Test
+    public void whenStartedThenUnitsPerTypeAreLoadedFromTheDatabase() {
+        Mockito.when(beerRepository.sumQuantityByType()).thenReturn(List.of(typeUnits(BeerType.LAGER, 30L)));
+
+        beerMetrics.afterSingletonsInstantiated();
+
+        assertThat(units(BeerType.LAGER), equalTo(30.0));
+        assertThat(units(BeerType.IPA), equalTo(0.0));
+    }
+
+    @Test
+    public void whenStockChangesThenUnitsAndCountersAreUpdatedWithoutQueryingTheDatabase() {
+        beerMetrics.onStockChanged(new BeerStockChangedEvent(1L, BeerType.IPA, StockChangeType.CREATED, 10, 10));
+        beerMetrics.onStockChanged(new BeerStockChangedEvent(1L, BeerType.IPA, StockChangeType.INCREMENT, 5, 15));
+        beerMetrics.onStockChanged(new BeerStockChangedEvent(1L, BeerType.IPA, StockChangeType.DECREMENT, -3, 12));
+
+        assertThat(units(BeerType.IPA), equalTo(12.0));
+        assertThat(meterRegistry.get(BeerMetrics.STOCK_CHANGES).tag("operation", "increment").counter().count(),
+                equalTo(1.0));
+        assertThat(meterRegistry.get(BeerMetrics.STOCK_CHANGES).tag("operation", "decrement").counter().count(),
+                equalTo(1.0));
+        Mockito.verifyNoInteractions(beerRepository);
+    }
+
+    @Test
+    public void whenABeerIsDeletedThenItsUnitsLeaveTheTotal() {
+        beerMetrics.onStockChanged(new BeerStockChangedEvent(1L, BeerType.ALE, StockChangeType.CREATED, 10, 10));
+        beerMetrics.onStockChanged(new BeerStockChangedEvent(1L, BeerType.ALE, StockChangeType.DELETED, -10, 0));
+
+        assertThat(units(BeerType.ALE), equalTo(0.0));
+    }
+
+    @Test
+    public void whenAChangeIsRejectedThenItIsCountedByOperation() {
+        beerMetrics.stockRejected(-5);
+
+        assertThat(meterRegistry.get(BeerMetrics.STOCK_REJECTIONS).tag("operation", "decrement").counter().count(),
+                equalTo(1.0));
+    }
+
+    private double units(BeerType type) {
+        return meterRegistry.get(BeerMetrics.STOCK_UNITS).tag("type", type.name()).gauge().value();
+    }
+
+    private BeerRepository.TypeUnits typeUnits(BeerType type, Long units) {
+        return new BeerRepository.TypeUnits() {
+
+            @Override
+            public BeerType getType() {
+                return type;
+            }
+
+            @Override
+            public Long getUnits() {
+                return units;
+            }
+        };
+    }
+}
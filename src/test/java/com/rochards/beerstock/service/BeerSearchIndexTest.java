@@ -0,0 +1,115 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.JpaStockStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BeerSearchIndexTest {
+
+    @Mock
+    private BeerRepository beerRepository;
+
+    private BeerSearchIndex beerSearchIndex;
+
+    @BeforeEach
+    public void setUp() {
+        List<Beer> beers = List.of(
+                new Beer(1L, "Heineken", "Heineken", 100, 10, BeerType.LAGER),
+                new Beer(2L, "Heineken 0.0", "Heineken", 100, 10, BeerType.LAGER),
+                new Beer(3L, "Brahma", "Ambev", 100, 10, BeerType.LAGER),
+                new Beer(4L, "Brahma Duplo Malte", "Ambev", 100, 10, BeerType.LAGER),
+                new Beer(5L, "Colorado Appia", "Cervejaria Colorado", 100, 10, BeerType.WITBIER),
+                new Beer(6L, "Bohemia Pilsen", "Cervejaria São Paulo", 100, 10, BeerType.LAGER));
+        Mockito.doAnswer(invocation -> {
+            Consumer<Beer> action = invocation.getArgument(1);
+            beers.forEach(action);
+            return null;
+        }).when(beerRepository).forEachBeer(ArgumentMatchers.anyInt(), ArgumentMatchers.any());
+
+        beerSearchIndex = new BeerSearchIndex(new JpaStockStore(beerRepository), new BeerstockProperties());
+        beerSearchIndex.load();
+    }
+
+    @Test
+    public void whenTheQueryIsMisspelledThenTheClosestBeersAreRankedFirst() {
+        List<Long> ids = beerSearchIndex.search("heinekn", 10);
+
+        assertThat(ids, contains(1L, 2L)); // the one without extra words first
+    }
+
+    @Test
+    public void whenTheQueryMatchesTheBrandThenItsBeersAreFound() {
+        assertThat(beerSearchIndex.search("ambv", 10), containsInAnyOrder(3L, 4L));
+    }
+
+    @Test
+    public void whenTheQueryHasNoAccentsOrCaseThenAccentedNamesAreStillFound() {
+        assertThat(beerSearchIndex.search("SAO PAULO", 10), contains(6L));
+    }
+
+    @Test
+    public void whenNothingIsSimilarThenNoBeerIsFound() {
+        assertThat(beerSearchIndex.search("xyzw", 10), is(empty()));
+        assertThat(beerSearchIndex.search("  !? ", 10), is(empty()));
+    }
+
+    @Test
+    public void whenMoreBeersMatchThanTheLimitThenOnlyTheBestAreReturned() {
+        assertThat(beerSearchIndex.search("brahma", 1), contains(3L));
+    }
+
+    @Test
+    public void whenABeerIsRemovedThenItIsNoLongerFound() {
+        beerSearchIndex.remove(1L);
+
+        assertThat(beerSearchIndex.search("heineken", 10), contains(2L));
+        assertThat(beerSearchIndex.size(), is(equalTo(5)));
+    }
+
+    @Test
+    public void whenMostBeersAreRemovedThenTheRestAreStillFound() {
+        for (long id = 100; id < 3100; id++) {
+            beerSearchIndex.add(id, "Pilsen " + id, "Brand " + id);
+        }
+        for (long id = 100; id < 3000; id++) { // compacts the index on the way
+            beerSearchIndex.remove(id);
+        }
+
+        assertThat(beerSearchIndex.search("pilsen 3099", 1), contains(3099L));
+        assertThat(beerSearchIndex.search("heinekn", 10), contains(1L, 2L));
+        assertThat(beerSearchIndex.size(), is(equalTo(106)));
+    }
+
+    @Test
+    public void whenABeerIsAddedInsideATransactionThenItIsOnlyFoundAfterTheCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            beerSearchIndex.add(7L, "Xingu Black", "Kirin");
+            assertThat(beerSearchIndex.search("xingu", 10), is(empty()));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(beerSearchIndex.search("xingu", 10), contains(7L));
+    }
+}
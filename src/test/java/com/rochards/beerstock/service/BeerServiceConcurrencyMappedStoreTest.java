@@ -0,0 +1,71 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockLocking;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+// the same parallel changes on the mapped engine. It only changes the stock atomically and applies no batches, those
+// cases are overridden with what it does instead
+@SpringBootTest(properties = "beerstock.store.engine=mapped")
+public class BeerServiceConcurrencyMappedStoreTest extends BeerServiceConcurrencyTest {
+
+    @TempDir
+    private static Path directory;
+
+    @DynamicPropertySource
+    public static void storeFile(DynamicPropertyRegistry registry) {
+        registry.add("beerstock.store.file", () -> directory.resolve("beers.store").toString());
+    }
+
+    @Override
+    @ParameterizedTest
+    @EnumSource(value = StockLocking.class, names = "ATOMIC")
+    public void whenManyIncrementsRunInParallelThenNoUpdateIsLost(StockLocking locking) throws Exception {
+        super.whenManyIncrementsRunInParallelThenNoUpdateIsLost(locking);
+    }
+
+    @Test
+    @Override
+    public void whenAnAllOrNothingBatchIsRejectedThenNoMovementIsApplied() {
+        Beer beer = stockStore.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING,
+                List.of(new StockMovementDTO(beer.getId(), 5)));
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> beerService.applyStockMovements(stockMovementsDTO));
+
+        assertThat(stockStore.findById(beer.getId()).get().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    @Override
+    public void whenBatchesTouchTheSameRowsInOppositeOrderThenAllOfThemAreApplied() {
+        Beer first = stockStore.save(new Beer(0, "Brahma", "Ambev", OPERATIONS, 0, BeerType.LAGER));
+        Beer second = stockStore.save(new Beer(0, "Skol", "Ambev", OPERATIONS, 0, BeerType.LAGER));
+        StockMovementsDTO forward = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING, List.of(
+                new StockMovementDTO(first.getId(), 1), new StockMovementDTO(second.getId(), 1)));
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> beerService.applyStockMovements(forward));
+
+        assertThat(stockStore.findById(first.getId()).get().getQuantity(), equalTo(0));
+    }
+}
@@ -0,0 +1,150 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockLocking;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.StockMovementsRejectedException;
+import com.rochards.beerstock.repository.StockStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+// on the default engine, BeerServiceConcurrencyMappedStoreTest runs it on the mapped one
+@SpringBootTest
+public class BeerServiceConcurrencyTest {
+
+    protected static final int OPERATIONS = 4000;
+
+    private static final int THREADS = 16;
+
+    @Autowired
+    protected BeerService beerService;
+
+    @Autowired
+    protected StockStore stockStore;
+
+    @Autowired
+    private BeerstockProperties beerstockProperties;
+
+    @AfterEach
+    public void tearDown() {
+        stockStore.findAll().forEach(beer -> stockStore.deleteById(beer.getId()));
+        beerstockProperties.setStockUpdate(new BeerstockProperties.StockUpdate());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StockLocking.class)
+    public void whenManyIncrementsRunInParallelThenNoUpdateIsLost(StockLocking locking) throws Exception {
+        beerstockProperties.getStockUpdate().setLocking(locking);
+        beerstockProperties.getStockUpdate().setMaxAttempts(Integer.MAX_VALUE); // conflicts only slow it down here
+        Beer beer = stockStore.save(new Beer(0, "Brahma", "Ambev", OPERATIONS, 0, BeerType.LAGER));
+
+        int succeeded = runInParallel(() -> beerService.incrementStock(beer.getId(), 1));
+
+        assertThat(succeeded, equalTo(OPERATIONS));
+        assertThat(stockStore.findById(beer.getId()).get().getQuantity(), equalTo(OPERATIONS));
+    }
+
+    @Test
+    public void whenParallelIncrementsExceedMaxThenOnlyTheAllowedOnesAreApplied() throws Exception {
+        int max = OPERATIONS / 2;
+        Beer beer = stockStore.save(new Beer(0, "Brahma", "Ambev", max, 0, BeerType.LAGER));
+
+        int succeeded = runInParallel(() -> beerService.incrementStock(beer.getId(), 1));
+
+        assertThat(succeeded, equalTo(max));
+        assertThat(stockStore.findById(beer.getId()).get().getQuantity(), equalTo(max));
+    }
+
+    @Test
+    public void whenParallelDecrementsExceedStockThenQuantityNeverGoesBelowZero() throws Exception {
+        int quantity = OPERATIONS / 2;
+        Beer beer = stockStore.save(new Beer(0, "Brahma", "Ambev", quantity, quantity, BeerType.LAGER));
+
+        int succeeded = runInParallel(() -> beerService.decrementStock(beer.getId(), 1));
+
+        assertThat(succeeded, equalTo(quantity));
+        assertThat(stockStore.findById(beer.getId()).get().getQuantity(), equalTo(0));
+    }
+
+    @Test
+    public void whenAnAllOrNothingBatchIsRejectedThenNoMovementIsApplied() {
+        Beer first = stockStore.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Beer second = stockStore.save(new Beer(0, "Skol", "Ambev", 50, 10, BeerType.LAGER));
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING, List.of(
+                new StockMovementDTO(first.getId(), 5), new StockMovementDTO(second.getId(), -20)));
+
+        Assertions.assertThrows(StockMovementsRejectedException.class,
+                () -> beerService.applyStockMovements(stockMovementsDTO));
+
+        assertThat(stockStore.findById(first.getId()).get().getQuantity(), equalTo(10));
+        assertThat(stockStore.findById(second.getId()).get().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    public void whenBatchesTouchTheSameRowsInOppositeOrderThenAllOfThemAreApplied() throws Exception {
+        Beer first = stockStore.save(new Beer(0, "Brahma", "Ambev", OPERATIONS, 0, BeerType.LAGER));
+        Beer second = stockStore.save(new Beer(0, "Skol", "Ambev", OPERATIONS, 0, BeerType.LAGER));
+        StockMovementsDTO forward = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING, List.of(
+                new StockMovementDTO(first.getId(), 1), new StockMovementDTO(second.getId(), 1)));
+        StockMovementsDTO backward = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING, List.of(
+                new StockMovementDTO(second.getId(), 1), new StockMovementDTO(first.getId(), 1)));
+        AtomicInteger calls = new AtomicInteger();
+
+        int succeeded = runInParallel(() -> beerService.applyStockMovements(
+                calls.getAndIncrement() % 2 == 0 ? forward : backward));
+
+        assertThat(succeeded, equalTo(OPERATIONS));
+        assertThat(stockStore.findById(first.getId()).get().getQuantity(), equalTo(OPERATIONS));
+        assertThat(stockStore.findById(second.getId()).get().getQuantity(), equalTo(OPERATIONS));
+    }
+
+    // returns how many operations were applied, rejections by stock limits are expected and not counted
+    private int runInParallel(Callable<?> operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < OPERATIONS; i++) {
+                futures.add(executor.submit(operation));
+            }
+
+            int succeeded = 0;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                    succeeded++;
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof BeerStockExceededException)) {
+                        throw ex;
+                    }
+                }
+            }
+            return succeeded;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
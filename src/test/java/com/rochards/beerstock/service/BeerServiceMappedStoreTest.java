@@ -0,0 +1,99 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.MappedStockStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+// the service on the mapped engine, the beer table is left empty. The contract gaps of StockStore are the overridden
+// tests, each operation fails with an UnsupportedByStoreEngineException and changes nothing
+@SpringBootTest(properties = "beerstock.store.engine=mapped")
+public class BeerServiceMappedStoreTest extends BeerServiceStoreTest {
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Test
+    public void whenABeerIsCreatedThenItIsKeptInTheMappedFile() {
+        BeerDTO beerDTO = beerService.create(newBeer("Mapped Lager"));
+
+        assertThat(stockStore, instanceOf(MappedStockStore.class));
+        assertThat(stockStore.findById(beerDTO.getId()).isPresent(), equalTo(true));
+        assertThat(beerRepository.count(), equalTo(0L));
+    }
+
+    @Test
+    public void whenTheTransactionRollsBackThenTheUndoIsAChangeOfItsOwn() {
+        BeerDTO beerDTO = beerService.create(newBeer("Mapped Kolsch"));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            beerService.incrementStock(beerDTO.getId(), 5);
+            status.setRollbackOnly();
+        });
+
+        BeerDTO found = beerService.findById(beerDTO.getId()).orElseThrow();
+        assertThat(found.getQuantity(), equalTo(10));
+        assertThat(found.getVersion(), equalTo(2L));
+    }
+
+    @Test
+    @Override
+    public void whenStockMovementsAreAppliedThenEveryBeerChanges() {
+        BeerDTO beerDTO = beerService.create(newBeer("Mapped Saison"));
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> beerService.applyStockMovements(new StockMovementsDTO(StockMovementMode.BEST_EFFORT,
+                        List.of(new StockMovementDTO(beerDTO.getId(), 1)))));
+        assertThat(beerService.findById(beerDTO.getId()).get().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    @Override
+    public void whenBeersAreImportedThenTheyAreCreated() {
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> beerImportService.importBeers(List.of(newBeer("Mapped Imported"))));
+        assertThat(beerService.findByName("Mapped Imported").isPresent(), equalTo(false));
+    }
+
+    @Test
+    @Override
+    public void whenStockIsKeptInAWarehouseThenItIsLocated() {
+        BeerDTO beerDTO = beerService.create(newBeer("Mapped Dunkel"));
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> warehouseStockService.incrementStock(beerDTO.getId(), "north", 1));
+        assertThat(beerService.findById(beerDTO.getId()).get().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    @Override
+    public void whenStockIsReservedAndConfirmedThenItLeavesTheStock() {
+        BeerDTO beerDTO = beerService.create(newBeer("Mapped Rauchbier"));
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> stockReservationService.reserve(beerDTO.getId(), ReservationDTO.builder().quantity(1).build()));
+        assertThat(beerService.findById(beerDTO.getId()).get().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    @Override
+    public void whenASnapshotIsTakenThenItHasEveryBeer() {
+        beerService.create(newBeer("Mapped Altbier"));
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class, () -> stockSnapshots.snapshot());
+    }
+}
@@ -0,0 +1,262 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerImportResultDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.ExportFormat;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.enums.ImportStatus;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.enums.StockMovementStatus;
+import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.repository.StockStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+
+// the service through the whole context on the default engine, BeerServiceMappedStoreTest runs it on the mapped one.
+// The operations only the beer table serves are overridden there with the failure they get on it
+@SpringBootTest
+public class BeerServiceStoreTest {
+
+    @TempDir
+    private static Path directory;
+
+    @Autowired
+    protected BeerService beerService;
+
+    @Autowired
+    protected BeerExportService beerExportService;
+
+    @Autowired
+    protected BeerImportService beerImportService;
+
+    @Autowired
+    protected WarehouseStockService warehouseStockService;
+
+    @Autowired
+    protected StockReservationService stockReservationService;
+
+    @Autowired
+    protected StockSnapshots stockSnapshots;
+
+    @Autowired
+    protected StockHistory stockHistory;
+
+    @Autowired
+    protected StockStore stockStore;
+
+    @Autowired
+    protected BeerstockProperties beerstockProperties;
+
+    @Autowired
+    protected TransactionTemplate transactionTemplate;
+
+    @DynamicPropertySource
+    public static void files(DynamicPropertyRegistry registry) {
+        registry.add("beerstock.store.file", () -> directory.resolve("beers.store").toString());
+        registry.add("beerstock.snapshot.directory", () -> directory.resolve("snapshots").toString());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        stockStore.findAll().forEach(beer -> beerService.delete(beer.getId()));
+    }
+
+    @Test
+    public void whenABeerIsCreatedThenItIsFoundByItsIdAndName() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Lager"));
+
+        assertThat(beerService.findByName("Store Lager").get().getId(), equalTo(beerDTO.getId()));
+        assertThat(beerService.findById(beerDTO.getId()).get().getName(), equalTo("Store Lager"));
+        Assertions.assertThrows(BeerAlreadyExistException.class,
+                () -> beerService.create(newBeer("Store Lager")));
+    }
+
+    @Test
+    public void whenNoBeerHasTheNameOrIdThenNothingIsFound() {
+        assertThat(beerService.findByName("Store Nothing").isPresent(), equalTo(false));
+        assertThat(beerService.findById(Long.MAX_VALUE).isPresent(), equalTo(false));
+        assertThat(beerService.listAll(), hasSize(0));
+    }
+
+    @Test
+    public void whenTheStockChangesThenTheBoundsAndVersionsAreKept() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Ale"));
+
+        BeerDTO incremented = beerService.incrementStock(beerDTO.getId(), 5, beerDTO.getVersion());
+        assertThat(incremented.getQuantity(), equalTo(15));
+        assertThat(beerService.decrementStock(beerDTO.getId(), 15).getQuantity(), equalTo(0));
+        Assertions.assertThrows(BeerVersionMismatchException.class,
+                () -> beerService.incrementStock(beerDTO.getId(), 5, beerDTO.getVersion()));
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> beerService.decrementStock(beerDTO.getId(), 1));
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> beerService.incrementStock(beerDTO.getId(), 51));
+        // the history is kept in the database whichever engine holds the beer
+        assertThat(stockHistory.history(beerDTO.getId(), null, null, HistoryBucket.DAY), hasSize(1));
+    }
+
+    @Test
+    public void whenABeerIsDeletedThenItIsNotFound() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Stout"));
+
+        beerService.delete(beerDTO.getId());
+
+        assertThat(beerService.findById(beerDTO.getId()).isPresent(), equalTo(false));
+        Assertions.assertThrows(BeerNotFoundException.class, () -> beerService.incrementStock(beerDTO.getId(), 1));
+        Assertions.assertThrows(BeerNotFoundException.class, () -> beerService.delete(beerDTO.getId()));
+    }
+
+    @Test
+    public void whenPagesAreListedThenTheCursorWalksTheBeersInIdOrder() {
+        BeerDTO first = beerService.create(newBeer("Store Pilsner"));
+        BeerDTO second = beerService.create(newBeer("Store Porter"));
+        BeerDTO third = beerService.create(newBeer("Store Weiss"));
+
+        BeerPageDTO page = beerService.listPage(null, 2);
+        assertThat(ids(page.getBeers()), contains(first.getId(), second.getId()));
+
+        BeerPageDTO last = beerService.listPage(page.getNextCursor(), 2);
+        assertThat(ids(last.getBeers()), contains(third.getId()));
+        assertThat(last.getNextCursor(), nullValue());
+        assertThat(beerService.listPage(null, Integer.MAX_VALUE).getBeers(), hasSize(3));
+    }
+
+    @Test
+    public void whenSearchIsCalledThenEveryInformedFilterIsMatched() {
+        BeerDTO lager = beerService.create(newBeer("Store Helles"));
+        beerService.create(BeerDTOBuilder.builder().id(null).name("Store Dubbel").brand("Westmalle")
+                .type(BeerType.ALE).build().toBeerDTO());
+        BeerDTO low = beerService.create(BeerDTOBuilder.builder().id(null).name("store helles dunkel")
+                .quantity(2).build().toBeerDTO());
+
+        BeerPageDTO byName = beerService.search(BeerSearchDTO.builder().name("STORE HELLES").build(), null, 1);
+        assertThat(ids(byName.getBeers()), contains(lager.getId()));
+        assertThat(ids(beerService.search(BeerSearchDTO.builder().name("STORE HELLES").build(),
+                byName.getNextCursor(), 1).getBeers()), contains(low.getId()));
+        assertThat(beerService.search(BeerSearchDTO.builder().brand("West").type(BeerType.ALE).build(), null, 10)
+                .getBeers(), hasSize(1));
+        assertThat(ids(beerService.search(BeerSearchDTO.builder().lowStock(0.1).build(), null, 10).getBeers()),
+                contains(low.getId()));
+    }
+
+    @Test
+    public void whenTheIndexIsLoadedAgainThenTheStoredBeersAreSearchable() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Tripel"));
+
+        BeerSearchIndex reloaded = new BeerSearchIndex(stockStore, beerstockProperties); // as on a restart
+        reloaded.load();
+
+        assertThat(reloaded.search("tripel", 10), contains(beerDTO.getId()));
+        assertThat(ids(beerService.fuzzySearch("tripel", 10)), contains(beerDTO.getId()));
+    }
+
+    @Test
+    public void whenTheBeersAreExportedThenTheStoredOnesAreWritten() throws Exception {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Bock"));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        beerExportService.export(ExportFormat.CSV, outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length, equalTo(2));
+        assertThat(lines[1], equalTo(beerDTO.getId() + ",Store Bock,Ambev,50,10,LAGER"));
+    }
+
+    @Test
+    public void whenTheTransactionRollsBackThenTheChangesAreUndone() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Kolsch"));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            beerService.create(newBeer("Store Gose"));
+            beerService.incrementStock(beerDTO.getId(), 5);
+            beerService.delete(beerDTO.getId());
+            status.setRollbackOnly();
+        });
+
+        assertThat(beerService.findByName("Store Gose").isPresent(), equalTo(false));
+        assertThat(beerService.findById(beerDTO.getId()).orElseThrow().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    public void whenStockMovementsAreAppliedThenEveryBeerChanges() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Saison"));
+
+        assertThat(beerService.applyStockMovements(new StockMovementsDTO(StockMovementMode.BEST_EFFORT,
+                List.of(new StockMovementDTO(beerDTO.getId(), 1)))).get(0).getStatus(),
+                equalTo(StockMovementStatus.APPLIED));
+        assertThat(beerService.findById(beerDTO.getId()).get().getQuantity(), equalTo(11));
+    }
+
+    @Test
+    public void whenBeersAreImportedThenTheyAreCreated() {
+        List<BeerImportResultDTO> results = beerImportService.importBeers(List.of(newBeer("Store Imported")));
+
+        assertThat(results.get(0).getStatus(), equalTo(ImportStatus.CREATED));
+        assertThat(beerService.findByName("Store Imported").isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void whenStockIsKeptInAWarehouseThenItIsLocated() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Dunkel"));
+
+        BeerDTO stocked = warehouseStockService.incrementStock(beerDTO.getId(), "north", 1);
+
+        assertThat(stocked.getQuantity(), equalTo(11));
+        assertThat(stocked.getLocated(), equalTo(1));
+    }
+
+    @Test
+    public void whenStockIsReservedAndConfirmedThenItLeavesTheStock() {
+        BeerDTO beerDTO = beerService.create(newBeer("Store Rauchbier"));
+
+        ReservationDTO reservation = stockReservationService.reserve(beerDTO.getId(),
+                ReservationDTO.builder().quantity(1).build());
+
+        assertThat(stockReservationService.confirm(reservation.getId()).getQuantity(), equalTo(9));
+    }
+
+    @Test
+    public void whenASnapshotIsTakenThenItHasEveryBeer() throws Exception {
+        beerService.create(newBeer("Store Altbier"));
+
+        assertThat(stockSnapshots.snapshot().getBeers(), equalTo(1L));
+    }
+
+    protected static List<Long> ids(List<BeerDTO> beerDTOs) {
+        return beerDTOs.stream().map(BeerDTO::getId).toList();
+    }
+
+    // without an id, the store assigns one
+    protected static BeerDTO newBeer(String name) {
+        return BeerDTOBuilder.builder().id(null).name(name).build().toBeerDTO();
+    }
+}
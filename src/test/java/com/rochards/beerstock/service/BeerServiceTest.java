@@ -1,24 +1,51 @@
 package com.rochards.beerstock.service;
 
 import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.config.BeerstockProperties;
 import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.BeerPageDTO;
+import com.rochards.beerstock.dto.BeerSearchDTO;
+import com.rochards.beerstock.dto.StockMovementDTO;
+import com.rochards.beerstock.dto.StockMovementResultDTO;
+import com.rochards.beerstock.dto.StockMovementsDTO;
 import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.StockLocking;
+import com.rochards.beerstock.enums.StockMovementMode;
+import com.rochards.beerstock.enums.StockMovementStatus;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
 import com.rochards.beerstock.exception.type.BeerAlreadyExistException;
 import com.rochards.beerstock.exception.type.BeerNotFoundException;
 import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.exception.type.InvalidCursorException;
+import com.rochards.beerstock.exception.type.StockMovementsRejectedException;
 import com.rochards.beerstock.mapper.BeerMapper;
 import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.JpaStockStore;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import com.rochards.beerstock.utils.CursorUtils;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
@@ -31,9 +58,40 @@ public class BeerServiceTest {
     @Mock
     private BeerRepository beerRepository;
 
-    @InjectMocks
+    @Mock
+    private WarehouseStockRepository warehouseStockRepository;
+
+    @Spy
+    private BeerstockProperties beerstockProperties = new BeerstockProperties();
+
+    @Spy
+    private BeerCache beerCache = new BeerCache(new NoOpCacheManager()); // always loads from the repository
+
+    @Mock
+    private BeerSearchIndex beerSearchIndex;
+
+    @Mock
+    private HotStockLedger hotStockLedger;
+
+    @Mock
+    private BeerMetrics beerMetrics;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy // runs the callback right away, as there is no database behind the mocks
+    private TransactionTemplate transactionTemplate =
+            new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+
     private BeerService beerService;
 
+    @BeforeEach
+    public void setUp() { // the store goes through the mocked repository, as the default engine does
+        beerService = new BeerService(beerRepository, new JpaStockStore(beerRepository), warehouseStockRepository,
+                beerstockProperties, beerCache, beerSearchIndex, hotStockLedger, beerMetrics, eventPublisher,
+                transactionTemplate);
+    }
+
     @Test
     public void whenBeerInformedThenItShouldBeCreated() {
         // given
@@ -77,7 +135,9 @@ public class BeerServiceTest {
         Beer expectedFoundBeer = beerMapper.toModel(expectedFoundBeerDTO);
 
         // when
-        Mockito.when(beerRepository.findByName(expectedFoundBeer.getName())).thenReturn(Optional.of(expectedFoundBeer));
+        Mockito.when(beerRepository.findIdByName(expectedFoundBeer.getName()))
+                .thenReturn(Optional.of(expectedFoundBeer.getId()));
+        Mockito.when(beerRepository.findById(expectedFoundBeer.getId())).thenReturn(Optional.of(expectedFoundBeer));
 
         //then
         Optional<BeerDTO> foundBeerDTO = beerService.findByName(expectedFoundBeer.getName());
@@ -89,7 +149,7 @@ public class BeerServiceTest {
     public void whenNoRegisteredBeerNameIsInformedThenShouldReturnNothing() {
         BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
 
-        Mockito.when(beerRepository.findByName(beerDTO.getName())).thenReturn(Optional.empty());
+        Mockito.when(beerRepository.findIdByName(beerDTO.getName())).thenReturn(Optional.empty());
 
         Optional<BeerDTO> foundBeerDTO = beerService.findByName(beerDTO.getName());
 
@@ -117,6 +177,7 @@ public class BeerServiceTest {
         Optional<BeerDTO> foundBeerDTO = beerService.findById(beerDTO.getId());
 
         assertThat(foundBeerDTO.isEmpty(), is(equalTo(true)));
+        Mockito.verify(beerMetrics).notFound("id");
     }
 
     @Test
@@ -141,18 +202,94 @@ public class BeerServiceTest {
         assertThat(foundBeersDTO, is(empty()));
     }
 
+    @Test
+    public void whenListPageIsCalledAndThereAreMoreBeersThenANextCursorIsReturned() {
+        Beer firstBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(1L).name("Brahma").build().toBeerDTO());
+        Beer secondBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(2L).name("Skol").build().toBeerDTO());
+
+        Mockito.when(beerRepository.findByIdGreaterThanOrderByIdAsc(0L, PageRequest.of(0, 2)))
+                .thenReturn(List.of(firstBeer, secondBeer));
+
+        BeerPageDTO page = beerService.listPage(null, 1);
+
+        assertThat(page.getBeers(), hasSize(1));
+        assertThat(page.getBeers().get(0).getId(), is(equalTo(firstBeer.getId())));
+        assertThat(CursorUtils.decode(page.getNextCursor()), is(equalTo(firstBeer.getId())));
+    }
+
+    @Test
+    public void whenListPageIsCalledWithTheLastCursorThenNoNextCursorIsReturned() {
+        Beer secondBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(2L).name("Skol").build().toBeerDTO());
+        String cursor = CursorUtils.encode(1L);
+
+        Mockito.when(beerRepository.findByIdGreaterThanOrderByIdAsc(1L, PageRequest.of(0, 2)))
+                .thenReturn(List.of(secondBeer));
+
+        BeerPageDTO page = beerService.listPage(cursor, 1);
+
+        assertThat(page.getBeers(), hasSize(1));
+        assertThat(page.getNextCursor(), is(nullValue()));
+    }
+
+    @Test
+    public void whenListPageIsCalledWithASizeAboveTheMaximumThenItShouldBeCapped() {
+        int maxSize = beerstockProperties.getPagination().getMaxSize();
+
+        Mockito.when(beerRepository.findByIdGreaterThanOrderByIdAsc(0L, PageRequest.of(0, maxSize + 1)))
+                .thenReturn(Collections.emptyList());
+
+        BeerPageDTO page = beerService.listPage(null, maxSize * 10);
+
+        assertThat(page.getBeers(), is(empty()));
+    }
+
+    @Test
+    public void whenSearchIsCalledThenTheMatchingBeersArePaged() {
+        Beer firstBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(1L).name("Brahma").build().toBeerDTO());
+        Beer secondBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(2L).name("Brahma Duplo Malte").build()
+                .toBeerDTO());
+        BeerSearchDTO criteria = BeerSearchDTO.builder().name("brahma").build();
+
+        Mockito.when(beerRepository.search(criteria, 0L, 2)).thenReturn(List.of(firstBeer, secondBeer));
+
+        BeerPageDTO page = beerService.search(criteria, null, 1);
+
+        assertThat(page.getBeers(), hasSize(1));
+        assertThat(page.getBeers().get(0).getId(), is(equalTo(firstBeer.getId())));
+        assertThat(CursorUtils.decode(page.getNextCursor()), is(equalTo(firstBeer.getId())));
+    }
+
+    @Test
+    public void whenFuzzySearchIsCalledThenTheRankedBeersThatStillExistAreReturned() {
+        Beer beer = beerMapper.toModel(BeerDTOBuilder.builder().id(2L).name("Brahma").build().toBeerDTO());
+
+        Mockito.when(beerSearchIndex.search("brama", 20)).thenReturn(List.of(2L, 1L));
+        Mockito.when(beerRepository.findById(2L)).thenReturn(Optional.of(beer));
+        Mockito.when(beerRepository.findById(1L)).thenReturn(Optional.empty()); // deleted since it was indexed
+
+        List<BeerDTO> beers = beerService.fuzzySearch("brama", null);
+
+        assertThat(beers, hasSize(1));
+        assertThat(beers.get(0).getName(), is(equalTo("Brahma")));
+    }
+
+    @Test
+    public void whenListPageIsCalledWithAnInvalidCursorThenAnExceptionShouldBeThrown() {
+        Assertions.assertThrows(InvalidCursorException.class, () -> beerService.listPage("not-a-cursor", null));
+    }
+
     @Test
     public void whenExclusionIsCalledWithRegisteredBeerIdThenItShouldBeDeleted() {
         BeerDTO expectedDeletedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         Beer expectedDeletedBeer = beerMapper.toModel(expectedDeletedBeerDTO);
 
-        Mockito.when(beerRepository.existsById(expectedDeletedBeer.getId())).thenReturn(true);
+        Mockito.when(beerRepository.findById(expectedDeletedBeer.getId())).thenReturn(Optional.of(expectedDeletedBeer));
         Mockito.doNothing().when(beerRepository).deleteById(expectedDeletedBeer.getId());
 
         beerService.delete(expectedDeletedBeerDTO.getId());
 
         // como beerService.delete retorna nada, preciso confirmar se os metodos abaixo foram chamados
-        Mockito.verify(beerRepository, Mockito.times(1)).existsById(expectedDeletedBeer.getId());
+        Mockito.verify(beerRepository, Mockito.times(1)).findById(expectedDeletedBeer.getId());
         Mockito.verify(beerRepository, Mockito.times(1)).deleteById(expectedDeletedBeer.getId());
     }
 
@@ -160,7 +297,7 @@ public class BeerServiceTest {
     public void whenExclusionIsCalledWithNoRegisteredBeerIdThenAnExceptionShouldBeThrown() {
         long noExistentId = 1L;
 
-        Mockito.when(beerRepository.existsById(noExistentId)).thenReturn(false);
+        Mockito.when(beerRepository.findById(noExistentId)).thenReturn(Optional.empty());
 
         Assertions.assertThrows(BeerNotFoundException.class, () -> beerService.delete(noExistentId));
     }
@@ -170,15 +307,35 @@ public class BeerServiceTest {
         BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
 
-        Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
-        Mockito.when(beerRepository.save(expectedBeer)).thenReturn(expectedBeer);
-
         int quantityToIncrement = 10;
         int expectedQuantityAfterIncrement = expectedBeerDTO.getQuantity() + quantityToIncrement;
+        expectedBeer.setQuantity(expectedQuantityAfterIncrement);
+
+        Mockito.when(beerRepository.incrementStock(expectedBeer.getId(), quantityToIncrement)).thenReturn(1);
+        Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
+
         BeerDTO incrementedBeerDTO = beerService.incrementStock(expectedBeerDTO.getId(), quantityToIncrement);
 
         assertThat(expectedQuantityAfterIncrement, equalTo(incrementedBeerDTO.getQuantity()));
         assertThat(expectedQuantityAfterIncrement, lessThanOrEqualTo(expectedBeerDTO.getMax()));
+        Mockito.verify(beerRepository, Mockito.never()).save(Mockito.any(Beer.class));
+        Mockito.verify(eventPublisher).publishEvent(Mockito.any(BeerStockChangedEvent.class));
+    }
+
+    @Test
+    public void whenIncrementIsCalledForAHotBeerThenTheLedgerIsUsedInsteadOfTheDatabase() {
+        BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        BeerDTO hotBeerDTO = BeerDTOBuilder.builder().quantity(beerDTO.getQuantity() + 10).build().toBeerDTO();
+
+        Mockito.when(hotStockLedger.isHot(beerDTO.getId())).thenReturn(true);
+        Mockito.when(beerRepository.findById(beerDTO.getId())).thenReturn(Optional.of(beerMapper.toModel(beerDTO)));
+        Mockito.when(hotStockLedger.withHotStock(beerDTO)).thenReturn(hotBeerDTO);
+
+        BeerDTO incrementedBeerDTO = beerService.incrementStock(beerDTO.getId(), 10);
+
+        assertThat(incrementedBeerDTO.getQuantity(), equalTo(hotBeerDTO.getQuantity()));
+        Mockito.verify(hotStockLedger).add(beerDTO.getId(), 10, null);
+        Mockito.verify(beerRepository, Mockito.never()).incrementStock(Mockito.anyLong(), Mockito.anyInt());
     }
 
     @Test
@@ -186,27 +343,102 @@ public class BeerServiceTest {
         BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
 
+        int quantityToIncrement = 45;
+        Mockito.when(beerRepository.incrementStock(expectedBeer.getId(), quantityToIncrement)).thenReturn(0);
         Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
 
-        int quantityToIncrement = 45;
         Assertions.assertThrows(BeerStockExceededException.class, () -> beerService.incrementStock(expectedBeerDTO.getId()
-                , quantityToIncrement));
+                , quantityToIncrement));        Mockito.verify(beerMetrics).stockRejected(quantityToIncrement);
     }
 
     @Test
-    public void whenDecrementIsCalledThenDecrementBeerStock() {
+    public void whenIncrementIsCalledWithAStaleVersionThenAnExceptionShouldBeThrown() {
         BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
+        expectedBeer.setVersion(6);
 
+        Mockito.when(beerRepository.addStockIfVersion(expectedBeer.getId(), 10, 5L)).thenReturn(0);
         Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
-        Mockito.when(beerRepository.save(expectedBeer)).thenReturn(expectedBeer);
+
+        Assertions.assertThrows(BeerVersionMismatchException.class,
+                () -> beerService.incrementStock(expectedBeerDTO.getId(), 10, 5L));
+    }
+
+    @Test
+    public void whenAnOptimisticIncrementConflictsThenItIsRetried() {
+        beerstockProperties.getStockUpdate().setLocking(StockLocking.OPTIMISTIC);
+        beerstockProperties.getStockUpdate().setBackoff(Duration.ZERO);
+        BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
+
+        // every attempt reads the row again, only the second write finds it at the version it was read at
+        AtomicInteger quantity = new AtomicInteger(expectedBeerDTO.getQuantity());
+        Mockito.when(beerRepository.findById(expectedBeer.getId())).thenAnswer(invocation -> {
+            Beer beer = beerMapper.toModel(expectedBeerDTO);
+            beer.setQuantity(quantity.get());
+            return Optional.of(beer);
+        });
+        Mockito.when(beerRepository.setQuantityIfVersion(Mockito.eq(expectedBeer.getId()), Mockito.anyInt(),
+                Mockito.anyLong()))
+                .thenReturn(0)
+                .thenAnswer(invocation -> {
+                    quantity.set(invocation.getArgument(1));
+                    return 1;
+                });
+
+        BeerDTO incrementedBeerDTO = beerService.incrementStock(expectedBeerDTO.getId(), 5);
+
+        assertThat(incrementedBeerDTO.getQuantity(), equalTo(expectedBeerDTO.getQuantity() + 5));
+        Mockito.verify(beerRepository, Mockito.times(2)).setQuantityIfVersion(expectedBeer.getId(),
+                expectedBeerDTO.getQuantity() + 5, expectedBeer.getVersion());
+    }
+
+    @Test
+    public void whenAnOptimisticIncrementKeepsConflictingThenItGivesUpAfterTheMaxAttempts() {
+        beerstockProperties.getStockUpdate().setLocking(StockLocking.OPTIMISTIC);
+        beerstockProperties.getStockUpdate().setBackoff(Duration.ZERO);
+        BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
+
+        Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
+        Mockito.when(beerRepository.setQuantityIfVersion(expectedBeer.getId(), expectedBeer.getQuantity() + 5,
+                expectedBeer.getVersion())).thenReturn(0);
+
+        Assertions.assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> beerService.incrementStock(expectedBeerDTO.getId(), 5));
+        Mockito.verify(beerRepository, Mockito.times(beerstockProperties.getStockUpdate().getMaxAttempts()))
+                .setQuantityIfVersion(expectedBeer.getId(), expectedBeer.getQuantity() + 5, expectedBeer.getVersion());
+    }
+
+    @Test
+    public void whenIncrementIsCalledWithNoRegisteredBeerIdThenAnExceptionShouldBeThrown() {
+        long noExistentId = 1L;
+        int quantityToIncrement = 10;
+
+        Mockito.when(beerRepository.incrementStock(noExistentId, quantityToIncrement)).thenReturn(0);
+        Mockito.when(beerRepository.findById(noExistentId)).thenReturn(Optional.empty());
+
+        Assertions.assertThrows(BeerNotFoundException.class,
+                () -> beerService.incrementStock(noExistentId, quantityToIncrement));
+    }
+
+    @Test
+    public void whenDecrementIsCalledThenDecrementBeerStock() {
+        BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+        Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
 
         int quantityToDecrement = 10;
         int expectedQuantityAfterDecrement = expectedBeerDTO.getQuantity() - quantityToDecrement;
+        expectedBeer.setQuantity(expectedQuantityAfterDecrement);
+
+        Mockito.when(beerRepository.decrementStock(expectedBeer.getId(), quantityToDecrement)).thenReturn(1);
+        Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
+
         BeerDTO decrementedBeerDTO = beerService.decrementStock(expectedBeerDTO.getId(), quantityToDecrement);
 
         assertThat(expectedQuantityAfterDecrement, equalTo(decrementedBeerDTO.getQuantity()));
         assertThat(expectedQuantityAfterDecrement, greaterThanOrEqualTo(0));
+        Mockito.verify(beerRepository, Mockito.never()).save(Mockito.any(Beer.class));
     }
 
     @Test
@@ -214,10 +446,96 @@ public class BeerServiceTest {
         BeerDTO expectedBeerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
         Beer expectedBeer = beerMapper.toModel(expectedBeerDTO);
 
+        int quantityToDecrement = 45;
+        Mockito.when(beerRepository.decrementStock(expectedBeer.getId(), quantityToDecrement)).thenReturn(0);
         Mockito.when(beerRepository.findById(expectedBeer.getId())).thenReturn(Optional.of(expectedBeer));
 
-        int quantityToDecrement = 45;
         Assertions.assertThrows(BeerStockExceededException.class,
                 () -> beerService.decrementStock(expectedBeerDTO.getId(), quantityToDecrement));
     }
+
+    @Test
+    public void whenDecrementIsCalledWithNoRegisteredBeerIdThenAnExceptionShouldBeThrown() {
+        long noExistentId = 1L;
+        int quantityToDecrement = 10;
+
+        Mockito.when(beerRepository.decrementStock(noExistentId, quantityToDecrement)).thenReturn(0);
+        Mockito.when(beerRepository.findById(noExistentId)).thenReturn(Optional.empty());
+
+        Assertions.assertThrows(BeerNotFoundException.class,
+                () -> beerService.decrementStock(noExistentId, quantityToDecrement));
+    }
+
+    @Test
+    public void whenStockMovementsAreAppliedThenResultsAreReturnedInRequestOrder() {
+        Beer firstBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(1L).name("Brahma").build().toBeerDTO());
+        Beer secondBeer = beerMapper.toModel(BeerDTOBuilder.builder().id(2L).name("Skol").build().toBeerDTO());
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING, List.of(
+                new StockMovementDTO(secondBeer.getId(), 5), new StockMovementDTO(firstBeer.getId(), -5)));
+
+        Mockito.when(beerRepository.batchAddQuantity(List.of(1L, 2L), List.of(-5, 5))).thenReturn(new int[]{1, 1});
+        Mockito.when(beerRepository.findAllById(List.of(1L, 2L))).thenReturn(List.of(firstBeer, secondBeer));
+
+        List<StockMovementResultDTO> results = beerService.applyStockMovements(stockMovementsDTO);
+
+        assertThat(results.get(0).getId(), is(equalTo(secondBeer.getId())));
+        assertThat(results.get(0).getStatus(), is(equalTo(StockMovementStatus.APPLIED)));
+        assertThat(results.get(1).getId(), is(equalTo(firstBeer.getId())));
+        assertThat(results.get(1).getStatus(), is(equalTo(StockMovementStatus.APPLIED)));
+    }
+
+    @Test
+    public void whenAnAllOrNothingStockMovementIsRejectedThenAnExceptionShouldBeThrown() {
+        Beer beer = beerMapper.toModel(BeerDTOBuilder.builder().build().toBeerDTO());
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.ALL_OR_NOTHING,
+                List.of(new StockMovementDTO(beer.getId(), 100)));
+
+        Mockito.when(beerRepository.batchAddQuantity(List.of(beer.getId()), List.of(100))).thenReturn(new int[]{0});
+        Mockito.when(beerRepository.findAllById(List.of(beer.getId()))).thenReturn(List.of(beer));
+
+        Assertions.assertThrows(StockMovementsRejectedException.class,
+                () -> beerService.applyStockMovements(stockMovementsDTO));
+    }
+
+    @Test
+    public void whenABestEffortStockMovementIsRejectedThenTheOthersAreStillReported() {
+        Beer beer = beerMapper.toModel(BeerDTOBuilder.builder().build().toBeerDTO());
+        long noExistentId = 2L;
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.BEST_EFFORT, List.of(
+                new StockMovementDTO(beer.getId(), 100), new StockMovementDTO(noExistentId, 1),
+                new StockMovementDTO(beer.getId(), -5)));
+
+        Mockito.when(beerRepository.batchAddQuantity(List.of(beer.getId(), beer.getId(), noExistentId),
+                List.of(100, -5, 1))).thenReturn(new int[]{0, 1, 0});
+        Mockito.when(beerRepository.findAllById(List.of(beer.getId(), beer.getId(), noExistentId)))
+                .thenReturn(List.of(beer));
+
+        List<StockMovementResultDTO> results = beerService.applyStockMovements(stockMovementsDTO);
+
+        assertThat(results.get(0).getStatus(), is(equalTo(StockMovementStatus.REJECTED)));
+        assertThat(results.get(1).getStatus(), is(equalTo(StockMovementStatus.NOT_FOUND)));
+        assertThat(results.get(2).getStatus(), is(equalTo(StockMovementStatus.APPLIED)));
+    }
+
+    @Test
+    public void whenABeerIsMovedMoreThanOnceThenEachMovementReportsTheQuantityItLeft() {
+        Beer beer = beerMapper.toModel(BeerDTOBuilder.builder().quantity(20).build().toBeerDTO());
+        StockMovementsDTO stockMovementsDTO = new StockMovementsDTO(StockMovementMode.BEST_EFFORT, List.of(
+                new StockMovementDTO(beer.getId(), 5), new StockMovementDTO(beer.getId(), -3),
+                new StockMovementDTO(beer.getId(), 100), new StockMovementDTO(beer.getId(), -2)));
+        List<Long> ids = List.of(beer.getId(), beer.getId(), beer.getId(), beer.getId());
+
+        Mockito.when(beerRepository.batchAddQuantity(ids, List.of(5, -3, 100, -2))).thenReturn(new int[]{1, 1, 0, 1});
+        Mockito.when(beerRepository.findAllById(ids)).thenReturn(List.of(beer)); // read back after all of them
+
+        List<StockMovementResultDTO> results = beerService.applyStockMovements(stockMovementsDTO);
+
+        assertThat(results.stream().map(StockMovementResultDTO::getQuantity).collect(Collectors.toList()),
+                contains(25, 22, 22, 20));
+        assertThat(results.get(2).getStatus(), is(equalTo(StockMovementStatus.REJECTED)));
+        ArgumentCaptor<BeerStockChangedEvent> events = ArgumentCaptor.forClass(BeerStockChangedEvent.class);
+        Mockito.verify(eventPublisher, Mockito.times(3)).publishEvent(events.capture());
+        assertThat(events.getAllValues().stream().map(BeerStockChangedEvent::getQuantity).collect(Collectors.toList()),
+                contains(25, 22, 20));
+    }
 }
@@ -0,0 +1,366 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.BeerVersionMismatchException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.HotStockCheckpointRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.StockStore;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+@SpringBootTest
+public class HotStockLedgerTest {
+
+    private static final int THREADS = 16;
+    private static final int OPERATIONS = 4000;
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private HotStockCheckpointRepository hotStockCheckpointRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private StockHistory stockHistory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private BeerCache beerCache;
+
+    @Autowired
+    private StockStore stockStore;
+
+    @Autowired
+    private WarehouseStockRepository warehouseStockRepository;
+
+    @Autowired
+    private BeerMetrics beerMetrics;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path journalDirectory;
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAll();
+        hotStockCheckpointRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+    }
+
+    @Test
+    public void whenAChangeLeavesTheBoundsThenAnExceptionShouldBeThrown() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger ledger = startLedger(beer.getId(), true);
+
+        assertThat(ledger.add(beer.getId(), 40), equalTo(50L));
+        Assertions.assertThrows(BeerStockExceededException.class, () -> ledger.add(beer.getId(), 1));
+        Assertions.assertThrows(BeerStockExceededException.class, () -> ledger.add(beer.getId(), -51));
+
+        ledger.stop();
+    }
+
+    @Test
+    public void whenParallelDecrementsExceedStockThenQuantityNeverGoesBelowZero() throws Exception {
+        int quantity = OPERATIONS / 2;
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", quantity, quantity, BeerType.LAGER));
+        HotStockLedger ledger = startLedger(beer.getId(), false);
+
+        int succeeded = runInParallel(() -> ledger.add(beer.getId(), -1));
+        ledger.stop();
+
+        assertThat(succeeded, equalTo(quantity));
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(0));
+    }
+
+    @Test
+    public void whenParallelChangesAreForcedTogetherThenEveryAcknowledgedOneIsReplayed() throws Exception {
+        int quantity = OPERATIONS / 2;
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", quantity, quantity, BeerType.LAGER));
+        HotStockLedger crashed = startLedger(beer.getId(), true);
+
+        int succeeded = runInParallel(() -> crashed.add(beer.getId(), -1)); // never flushed, only in the journal
+        HotStockLedger restarted = startLedger(beer.getId(), true);
+
+        assertThat(succeeded, equalTo(quantity));
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(0));
+        restarted.stop();
+    }
+
+    @Test
+    public void whenChangesAreForcedOnVirtualThreadsThenNoneOfThemPinsItsCarrier() throws Exception {
+        int quantity = OPERATIONS / 2;
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", quantity, quantity, BeerType.LAGER));
+        HotStockLedger ledger = startLedger(beer.getId(), true);
+        List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+
+        int succeeded;
+        try (RecordingStream recording = new RecordingStream()) {
+            // a virtual thread parking while it holds a monitor, as one waiting for the force of another one would
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            recording.onEvent(PINNED_EVENT, pinned::add);
+            recording.startAsync();
+            succeeded = runInParallel(Executors.newVirtualThreadPerTaskExecutor(),
+                    () -> ledger.add(beer.getId(), -1));
+            recording.stop(); // once the events recorded until now were handed over
+        }
+        ledger.stop();
+
+        assertThat(succeeded, equalTo(quantity));
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(0));
+        assertThat(pinned, empty());
+    }
+
+    @Test
+    public void whenParallelChangesSpreadOverManyHotBeersThenEachOneIsReplayed() throws Exception {
+        int beers = 8;
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < beers; i++) {
+            ids.add(beerRepository.save(new Beer(0, "Brahma " + i, "Ambev", OPERATIONS, 0, BeerType.LAGER)).getId());
+        }
+        HotStockLedger crashed = startLedger(Set.copyOf(ids), true);
+        AtomicInteger calls = new AtomicInteger();
+
+        int succeeded = runInParallel(() -> crashed.add(ids.get(calls.getAndIncrement() % beers), 1));
+        HotStockLedger restarted = startLedger(Set.copyOf(ids), true);
+
+        assertThat(succeeded, equalTo(OPERATIONS));
+        for (Long id : ids) {
+            assertThat(beerRepository.findById(id).get().getQuantity(), equalTo(OPERATIONS / beers));
+        }
+        restarted.stop();
+    }
+
+    @Test
+    public void whenTheLedgerIsFlushedThenTheDatabaseHoldsTheNetChange() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger ledger = startLedger(beer.getId(), true);
+
+        ledger.add(beer.getId(), 15);
+        ledger.add(beer.getId(), -5);
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(10));
+
+        ledger.flush();
+
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(20));
+        List<StockChange> changes = stockChangeRepository.findAll();
+        assertThat(changes.size(), equalTo(1));
+        assertThat(changes.get(0).getChangeType(), equalTo(StockChangeType.INCREMENT));
+        assertThat(changes.get(0).getDelta(), equalTo(10));
+        assertThat(changes.get(0).getQuantity(), equalTo(20));
+        ledger.stop();
+    }
+
+    @Test
+    public void whenTheLedgerStopsWithoutFlushingThenTheJournalIsReplayedOnTheNextStart() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger crashed = startLedger(beer.getId(), true);
+        crashed.add(beer.getId(), 5);
+        crashed.flush();
+        crashed.add(beer.getId(), 7);
+        crashed.add(beer.getId(), -2); // never flushed, only in the journal
+
+        HotStockLedger restarted = startLedger(beer.getId(), true);
+
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(20));
+        BeerDTO hotBeerDTO = restarted.withHotStock(BeerDTO.builder().id(beer.getId()).build());
+        assertThat(hotBeerDTO.getQuantity(), equalTo(20));
+        restarted.stop();
+    }
+
+    @Test
+    public void whenTheFirstRecordOfASegmentIsTornThenTheChangesAfterTheRestartAreReplayedOnTheNextOne()
+            throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger crashed = startLedger(beer.getId(), true);
+        crashed.add(beer.getId(), 5);
+        crashed.flush(); // the next record starts a new segment
+        crashed.add(beer.getId(), 3);
+        Path segment;
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            segment = files.max(Comparator.naturalOrder()).orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(10); // torn halfway through the record, it was never acknowledged
+        }
+
+        HotStockLedger restarted = startLedger(beer.getId(), true);
+        restarted.add(beer.getId(), 4);
+        restarted.add(beer.getId(), 6); // acknowledged, only in the journal
+        HotStockLedger restartedAgain = startLedger(beer.getId(), true);
+
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(25));
+        restartedAgain.stop();
+    }
+
+    @Test
+    public void whenTheDeletionOfAHotBeerRollsBackThenItKeepsItsCounterAndPendingDelta() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger ledger = startLedger(beer.getId(), true);
+        ledger.add(beer.getId(), 5);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            ledger.remove(beer.getId());
+            status.setRollbackOnly();
+        });
+        assertThat(ledger.isHot(beer.getId()), equalTo(true));
+        ledger.flush();
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(15));
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> ledger.remove(beer.getId()));
+        assertThat(ledger.isHot(beer.getId()), equalTo(false));
+        ledger.stop();
+    }
+
+    @Test
+    public void whenAHotBeerIsUpdatedConditionallyThenItsRowVersionShouldBeMatched() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        jdbcTemplate.update("update beer set version = 4 where id = ?", beer.getId());
+        HotStockLedger ledger = startLedger(beer.getId(), true);
+        BeerService beerService = new BeerService(beerRepository, stockStore, warehouseStockRepository,
+                new BeerstockProperties(), beerCache, Mockito.mock(BeerSearchIndex.class), ledger, beerMetrics,
+                Mockito.mock(ApplicationEventPublisher.class), new TransactionTemplate(transactionManager));
+        beerCache.evict(beer.getId());
+
+        BeerDTO hotBeerDTO = beerService.incrementStock(beer.getId(), 5, 4L);
+        assertThat(hotBeerDTO.getQuantity(), equalTo(15));
+        assertThat(hotBeerDTO.getVersion(), equalTo(4L));
+        Assertions.assertThrows(BeerVersionMismatchException.class,
+                () -> beerService.incrementStock(beer.getId(), 5, 0L));
+
+        ledger.flush(); // bumps the row version, the cached one goes with it
+        Assertions.assertThrows(BeerVersionMismatchException.class,
+                () -> beerService.decrementStock(beer.getId(), 5, 4L));
+        assertThat(beerService.decrementStock(beer.getId(), 5, 5L).getQuantity(), equalTo(10));
+
+        beerCache.evict(beer.getId());
+        ledger.stop();
+    }
+
+    @Test
+    public void whenAFlushMovesTheVersionThenTheLedgerRejectsChangesExpectingThePreviousOne() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        HotStockLedger ledger = startLedger(beer.getId(), false);
+        BeerDTO beerDTO = new BeerDTO(beer.getId(), "Brahma", "Ambev", 50, 10, BeerType.LAGER, beer.getVersion());
+
+        long version = ledger.withHotStock(beerDTO).getVersion();
+        ledger.add(beer.getId(), 5, version);
+        ledger.flush(); // between the version being read and the next change
+        Assertions.assertThrows(BeerVersionMismatchException.class, () -> ledger.add(beer.getId(), 5, version));
+
+        assertThat(ledger.withHotStock(beerDTO).getVersion(), equalTo(version + 1));
+        assertThat(beerRepository.findById(beer.getId()).get().getVersion(), equalTo(version + 1));
+        assertThat(ledger.add(beer.getId(), 5, version + 1), equalTo(20L));
+        ledger.flush();
+        assertThat(beerRepository.findById(beer.getId()).get().getVersion(), equalTo(version + 2));
+        ledger.stop();
+    }
+
+    @Test
+    public void whenAHotBeerHasReservedOrLocatedUnitsThenItsStockShouldStayInTheDatabase() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        jdbcTemplate.update("update beer set reserved = 3, located = 2 where id = ?", beer.getId());
+        HotStockLedger ledger = startLedger(beer.getId(), true);
+
+        assertThat(ledger.isHot(beer.getId()), equalTo(false));
+        ledger.stop();
+    }
+
+    private HotStockLedger startLedger(long beerId, boolean fsync) throws Exception {
+        return startLedger(Set.of(beerId), fsync);
+    }
+
+    private HotStockLedger startLedger(Set<Long> beerIds, boolean fsync) throws Exception {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        BeerstockProperties.HotStock hotStock = beerstockProperties.getHotStock();
+        hotStock.setEnabled(true);
+        hotStock.setBeerIds(beerIds);
+        hotStock.setJournalDirectory(journalDirectory.toString());
+        hotStock.setFsync(fsync);
+        hotStock.setFlushInterval(Duration.ofHours(1)); // flushes only when the test asks for it
+        hotStock.setFlushThreshold(Integer.MAX_VALUE);
+
+        HotStockLedger ledger = new HotStockLedger(beerRepository, hotStockCheckpointRepository,
+                stockHistory, new CatalogVersion(), beerCache, transactionManager, beerstockProperties);
+        ledger.start();
+        return ledger;
+    }
+
+    private int runInParallel(Runnable operation) throws Exception {
+        return runInParallel(Executors.newFixedThreadPool(THREADS), operation);
+    }
+
+    // returns how many operations were applied, rejections by stock limits are expected and not counted
+    private int runInParallel(ExecutorService executor, Runnable operation) throws Exception {
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < OPERATIONS; i++) {
+                futures.add(executor.submit(operation));
+            }
+
+            int succeeded = 0;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                    succeeded++;
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof BeerStockExceededException)) {
+                        throw ex;
+                    }
+                }
+            }
+            return succeeded;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
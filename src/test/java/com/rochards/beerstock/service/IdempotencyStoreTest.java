@@ -0,0 +1,208 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.entity.IdempotentResponse;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.IdempotencyKeyReusedException;
+import com.rochards.beerstock.exception.type.InvalidIdempotencyKeyException;
+import com.rochards.beerstock.repository.IdempotentResponseRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class IdempotencyStoreTest {
+
+    private static final String KEY = "5b8f0c1e-retry";
+    private static final int THREADS = 8;
+
+    @Mock
+    private IdempotentResponseRepository idempotentResponseRepository;
+
+    @Mock
+    private BeerMetrics beerMetrics;
+
+    private final BeerDTO beerDTO = BeerDTOBuilder.builder().build().toBeerDTO();
+    private final AtomicInteger changes = new AtomicInteger();
+
+    @Test
+    public void whenAKeyIsRepeatedThenTheFirstResponseIsReplayedWithoutChangingAgain() {
+        IdempotencyStore store = store(new BeerstockProperties());
+
+        BeerDTO first = store.execute(KEY, "increment 1 5 null", this::change);
+        BeerDTO replayed = store.execute(KEY, "increment 1 5 null", this::change);
+
+        assertThat(changes.get(), equalTo(1));
+        assertThat(replayed, sameInstance(first));
+        verify(beerMetrics).idempotentReplay();
+        verifyNoInteractions(idempotentResponseRepository);
+    }
+
+    @Test
+    public void whenAKeyIsRepeatedWithAnotherRequestThenItIsRejected() {
+        IdempotencyStore store = store(new BeerstockProperties());
+        store.execute(KEY, "increment 1 5 null", this::change);
+
+        Assertions.assertThrows(IdempotencyKeyReusedException.class,
+                () -> store.execute(KEY, "decrement 1 5 null", this::change));
+        assertThat(changes.get(), equalTo(1));
+    }
+
+    @Test
+    public void whenAChangeFailsThenTheKeyCanBeRetried() {
+        IdempotencyStore store = store(new BeerstockProperties());
+
+        Assertions.assertThrows(BeerStockExceededException.class, () -> store.execute(KEY, "decrement 1 5 null",
+                () -> {
+                    throw BeerStockExceededException.onDecrement(1L, 5, 0);
+                }));
+        store.execute(KEY, "decrement 1 5 null", this::change);
+
+        assertThat(changes.get(), equalTo(1));
+    }
+
+    @Test
+    public void whenAKeyIsTooLongThenItIsRejected() {
+        IdempotencyStore store = store(new BeerstockProperties());
+
+        Assertions.assertThrows(InvalidIdempotencyKeyException.class,
+                () -> store.execute("k".repeat(IdempotencyStore.MAX_KEY_LENGTH + 1), "increment 1 5 null",
+                        this::change));
+        assertThat(changes.get(), equalTo(0));
+    }
+
+    @Test
+    public void whenAKeyIsRepeatedWhileInProgressThenTheRetriesWaitForTheFirstResponse() throws Exception {
+        IdempotencyStore store = store(new BeerstockProperties());
+        CountDownLatch changing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        Future<BeerDTO> first = executor.submit(() -> store.execute(KEY, "increment 1 5 null", () -> {
+            changing.countDown();
+            await(release);
+            return change();
+        }));
+        changing.await();
+        List<Future<BeerDTO>> retries = new ArrayList<>();
+        for (int i = 1; i < THREADS; i++) {
+            retries.add(executor.submit(() -> store.execute(KEY, "increment 1 5 null", this::change)));
+        }
+        release.countDown();
+
+        for (Future<BeerDTO> retry : retries) {
+            assertThat(retry.get(), sameInstance(first.get()));
+        }
+        executor.shutdown();
+        assertThat(changes.get(), equalTo(1));
+    }
+
+    @Test
+    public void whenTheStoreRestartsThenTheResponsesSavedBeforeAreReplayedFromTheDatabase() throws Exception {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getIdempotency().setPersistent(true);
+        beerDTO.setVersion(3);
+        store(beerstockProperties).execute(KEY, "increment 1 5 null", this::change);
+        ArgumentCaptor<IdempotentResponse> saved = ArgumentCaptor.forClass(IdempotentResponse.class);
+        verify(idempotentResponseRepository).save(saved.capture());
+
+        IdempotencyStore restarted = store(beerstockProperties);
+        when(idempotentResponseRepository.existsByCreatedAtAfter(any(Instant.class))).thenReturn(true);
+        when(idempotentResponseRepository.findById(KEY)).thenReturn(Optional.of(saved.getValue()));
+        restarted.start();
+        BeerDTO replayed = restarted.execute(KEY, "increment 1 5 null", this::change);
+        restarted.execute(KEY, "increment 1 5 null", this::change);
+        restarted.stop();
+
+        assertThat(changes.get(), equalTo(1));
+        assertThat(replayed, equalTo(beerDTO));
+        assertThat(replayed.getVersion(), equalTo(3L));
+        verify(idempotentResponseRepository).findById(KEY); // the second retry is answered from memory
+    }
+
+    @Test
+    public void whenTheMemoryTierEvictsALiveKeyThenItIsLookedUpInTheDatabase() {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getIdempotency().setPersistent(true);
+        beerstockProperties.getIdempotency().setMaximumSize(1);
+        IdempotencyStore store = store(beerstockProperties);
+        store.execute(KEY, "increment 1 5 null", this::change);
+        ArgumentCaptor<IdempotentResponse> saved = ArgumentCaptor.forClass(IdempotentResponse.class);
+        verify(idempotentResponseRepository).save(saved.capture());
+
+        when(idempotentResponseRepository.findById(KEY)).thenReturn(Optional.of(saved.getValue()));
+        when(idempotentResponseRepository.findById(KEY + "-2")).thenReturn(Optional.empty());
+        store.execute(KEY + "-2", "increment 1 5 null", this::change); // the oldest key makes room for it
+        store.execute(KEY, "increment 1 5 null", this::change);
+
+        assertThat(changes.get(), equalTo(2));
+        verify(idempotentResponseRepository).findById(KEY);
+    }
+
+    @Test
+    public void whenTheMemoryTierHoldsEveryKeyThenMissesDontReachTheDatabase() throws Exception {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getIdempotency().setPersistent(true);
+        IdempotencyStore store = store(beerstockProperties);
+        when(idempotentResponseRepository.existsByCreatedAtAfter(any(Instant.class))).thenReturn(false);
+        store.start();
+
+        store.execute(KEY, "increment 1 5 null", this::change);
+        store.execute(KEY + "-2", "increment 1 5 null", this::change);
+        store.stop();
+
+        verify(idempotentResponseRepository, never()).findById(any());
+        verify(idempotentResponseRepository, times(2)).save(any(IdempotentResponse.class));
+    }
+
+    @Test
+    public void whenAKeyIsRepeatedOnTheReactiveStackThenTheChangeIsSubscribedOnce() {
+        IdempotencyStore store = store(new BeerstockProperties());
+        Mono<BeerDTO> change = Mono.fromSupplier(this::change);
+
+        StepVerifier.create(store.executeReactive(KEY, "increment 1 5 null", () -> change)
+                        .then(store.executeReactive(KEY, "increment 1 5 null", () -> change)))
+                .expectNext(beerDTO)
+                .verifyComplete();
+        assertThat(changes.get(), equalTo(1));
+    }
+
+    private IdempotencyStore store(BeerstockProperties beerstockProperties) {
+        return new IdempotencyStore(idempotentResponseRepository, beerMetrics, beerstockProperties);
+    }
+
+    private BeerDTO change() {
+        changes.incrementAndGet();
+        return beerDTO;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
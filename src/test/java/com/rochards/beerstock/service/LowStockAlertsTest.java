@@ -0,0 +1,170 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.LowStockAlertDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.LowStockAlertStatus;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.event.BeerStockChangedEvent;
+import com.rochards.beerstock.repository.StockStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LowStockAlertsTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Mock
+    private StockStore stockStore;
+
+    @Mock
+    private HotStockLedger hotStockLedger;
+
+    @Mock
+    private BeerMetrics beerMetrics;
+
+    private final Map<Long, Beer> beers = new ConcurrentHashMap<>(); // what the store holds
+
+    private LowStockAlerts lowStockAlerts;
+
+    @BeforeEach
+    public void setUp() {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getLowStock().getThresholdsByType().put(BeerType.LAGER, 10);
+        beerstockProperties.getLowStock().getThresholdsByBeer().put(2L, 3);
+        beerstockProperties.getLowStock().setHysteresis(5);
+        when(stockStore.findById(anyLong())).thenAnswer(invocation ->
+                Optional.ofNullable(beers.get(invocation.<Long>getArgument(0))));
+        lowStockAlerts = new LowStockAlerts(beerstockProperties, stockStore, hotStockLedger, beerMetrics);
+        lowStockAlerts.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        lowStockAlerts.stop();
+    }
+
+    @Test
+    public void whenABeerHoversAroundItsThresholdThenItAlertsOnceUntilRestocked() {
+        StepVerifier.create(lowStockAlerts.alerts())
+                .then(() -> {
+                    decrement(1L, BeerType.LAGER, 11);
+                    decrement(1L, BeerType.LAGER, 10);
+                })
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.LOW, 10, 10))
+                .then(() -> {
+                    increment(1L, BeerType.LAGER, 12);
+                    decrement(1L, BeerType.LAGER, 9);
+                    increment(1L, BeerType.LAGER, 15);
+                })
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.RESTOCKED, 15, 10))
+                .then(() -> decrement(1L, BeerType.LAGER, 8))
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.LOW, 8, 10))
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    public void whenABeerHasItsOwnThresholdThenItTakesPrecedenceOverTheTypeOne() {
+        StepVerifier.create(lowStockAlerts.alerts())
+                .then(() -> {
+                    decrement(2L, BeerType.LAGER, 5);
+                    decrement(2L, BeerType.LAGER, 3);
+                })
+                .assertNext(alert -> {
+                    assertAlert(alert, LowStockAlertStatus.LOW, 3, 3);
+                    assertThat(alert.getBeerId(), equalTo(2L));
+                })
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    public void whenABeerHasNoThresholdThenItNeverAlerts() {
+        StepVerifier.create(lowStockAlerts.alerts())
+                .then(() -> {
+                    decrement(3L, BeerType.IPA, 0);
+                    decrement(1L, BeerType.LAGER, 1);
+                })
+                .assertNext(alert -> assertThat(alert.getBeerId(), equalTo(1L)))
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    public void whenALowBeerIsDeletedAndCreatedAgainLowThenItAlertsAgain() {
+        StepVerifier.create(lowStockAlerts.alerts())
+                .then(() -> decrement(1L, BeerType.LAGER, 2))
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.LOW, 2, 10))
+                .then(() -> {
+                    beers.remove(1L);
+                    lowStockAlerts.onStockChanged(new BeerStockChangedEvent(1L, BeerType.LAGER,
+                            StockChangeType.DELETED, -2, 0));
+                    verify(stockStore, timeout(TIMEOUT.toMillis()).times(2)).findById(1L);
+                    beers.put(1L, beer(1L, BeerType.LAGER, 4));
+                    lowStockAlerts.onStockChanged(new BeerStockChangedEvent(1L, BeerType.LAGER,
+                            StockChangeType.CREATED, 4, 4));
+                })
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.LOW, 4, 10))
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    public void whenTheEventsOfABeerArriveOutOfOrderThenItsCurrentQuantityIsChecked() {
+        StepVerifier.create(lowStockAlerts.alerts())
+                .then(() -> decrement(1L, BeerType.LAGER, 2))
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.LOW, 2, 10))
+                .then(() -> {
+                    // restocked to 20 and then sold down to 12, the events of the two arrive the other way around
+                    beers.put(1L, beer(1L, BeerType.LAGER, 12));
+                    lowStockAlerts.onStockChanged(new BeerStockChangedEvent(1L, BeerType.LAGER,
+                            StockChangeType.DECREMENT, -8, 12));
+                    lowStockAlerts.onStockChanged(new BeerStockChangedEvent(1L, BeerType.LAGER,
+                            StockChangeType.INCREMENT, 18, 20));
+                    increment(1L, BeerType.LAGER, 16);
+                })
+                .assertNext(alert -> assertAlert(alert, LowStockAlertStatus.RESTOCKED, 16, 10))
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    private void increment(Long id, BeerType type, int quantity) {
+        beers.put(id, beer(id, type, quantity));
+        lowStockAlerts.onStockChanged(new BeerStockChangedEvent(id, type, StockChangeType.INCREMENT, 1, quantity));
+    }
+
+    private void decrement(Long id, BeerType type, int quantity) {
+        beers.put(id, beer(id, type, quantity));
+        lowStockAlerts.onStockChanged(new BeerStockChangedEvent(id, type, StockChangeType.DECREMENT, -1, quantity));
+    }
+
+    private static Beer beer(Long id, BeerType type, int quantity) {
+        return new Beer(id, "Beer " + id, "Ambev", 50, quantity, type);
+    }
+
+    private void assertAlert(LowStockAlertDTO alert, LowStockAlertStatus status, int quantity, int threshold) {
+        assertThat(alert.getStatus(), equalTo(status));
+        assertThat(alert.getQuantity(), equalTo(quantity));
+        assertThat(alert.getThreshold(), equalTo(threshold));
+    }
+}
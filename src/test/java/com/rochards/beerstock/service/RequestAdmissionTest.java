@@ -0,0 +1,134 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.enums.RequestKind;
+import com.rochards.beerstock.exception.type.RateLimitExceededException;
+import com.rochards.beerstock.exception.type.ServiceOverloadedException;
+import com.rochards.beerstock.exception.type.StockRestoreInProgressException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class RequestAdmissionTest {
+
+    private static final String CLIENT = "key:key-1";
+    private static final String OTHER_CLIENT = "address:10.0.0.2";
+
+    @Mock
+    private BeerMetrics beerMetrics;
+
+    @Test
+    public void whenAClientExceedsItsBurstThenItIsRejectedUntilItsNextToken() {
+        RequestAdmission admission = admission(new BeerstockProperties.Limits(1, 3, 100),
+                new BeerstockProperties.Limits(1, 1, 100));
+
+        admitAndRelease(admission, CLIENT, RequestKind.READ, 3);
+        RateLimitExceededException ex = Assertions.assertThrows(RateLimitExceededException.class,
+                () -> admission.admit(CLIENT, RequestKind.READ));
+
+        assertThat(ex.getRetryAfter(), greaterThan(Duration.ZERO));
+        assertThat(ex.getRetryAfter(), lessThanOrEqualTo(Duration.ofSeconds(1)));
+        verify(beerMetrics).requestRejected("rate_limit", RequestKind.READ);
+    }
+
+    @Test
+    public void whenAClientIsRateLimitedThenOtherClientsAndKindsAreStillAdmitted() {
+        RequestAdmission admission = admission(new BeerstockProperties.Limits(1, 1, 100),
+                new BeerstockProperties.Limits(1, 1, 100));
+        admitAndRelease(admission, CLIENT, RequestKind.READ, 1);
+
+        Assertions.assertThrows(RateLimitExceededException.class, () -> admission.admit(CLIENT, RequestKind.READ));
+        admitAndRelease(admission, OTHER_CLIENT, RequestKind.READ, 1);
+        admitAndRelease(admission, CLIENT, RequestKind.MUTATION, 1);
+    }
+
+    @Test
+    public void whenTheConcurrencyLimitIsReachedThenRequestsAreShedUntilOneIsReleased() {
+        RequestAdmission admission = admission(new BeerstockProperties.Limits(1000, 1000, 2),
+                new BeerstockProperties.Limits(1, 1, 1));
+        admission.admit(CLIENT, RequestKind.READ);
+        admission.admit(OTHER_CLIENT, RequestKind.READ);
+
+        Assertions.assertThrows(ServiceOverloadedException.class, () -> admission.admit(CLIENT, RequestKind.READ));
+        verify(beerMetrics).requestRejected("overload", RequestKind.READ);
+
+        admission.release(RequestKind.READ);
+        admission.admit(CLIENT, RequestKind.READ);
+    }
+
+    @Test
+    public void whenAKeyWasNotIssuedThenTheClientIsToldApartByItsAddress() {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getAdmission().getClientKeys().add("key-1");
+        RequestAdmission admission = new RequestAdmission(beerstockProperties, beerMetrics,
+                new CatalogWriteGate(beerstockProperties));
+
+        assertThat(admission.client("key-1", "10.0.0.1"), equalTo(CLIENT));
+        assertThat(admission.client("made-up", "10.0.0.2"), equalTo(OTHER_CLIENT));
+        assertThat(admission.client(null, "10.0.0.2"), equalTo(OTHER_CLIENT));
+    }
+
+    @Test
+    public void whenThereAreMoreClientsThanBucketsThenTheOnesBeyondShareABucket() {
+        RequestAdmission admission = admission(new BeerstockProperties.Limits(1, 1, 100),
+                new BeerstockProperties.Limits(1, 1, 100), 1);
+        admitAndRelease(admission, CLIENT, RequestKind.READ, 1);
+        admitAndRelease(admission, OTHER_CLIENT, RequestKind.READ, 1);
+
+        Assertions.assertThrows(RateLimitExceededException.class,
+                () -> admission.admit("address:10.0.0.3", RequestKind.READ));
+    }
+
+    @Test
+    public void whenARestoreClosesTheGateThenItWaitsForTheMutationsInProgressAndRejectsNewOnes() throws Exception {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        CatalogWriteGate gate = new CatalogWriteGate(beerstockProperties);
+        RequestAdmission admission = new RequestAdmission(beerstockProperties, beerMetrics, gate);
+        admission.admit(CLIENT, RequestKind.MUTATION);
+
+        Thread restore = new Thread(gate::close);
+        restore.start();
+        restore.join(200);
+        assertThat(restore.isAlive(), equalTo(true));
+        admission.release(RequestKind.MUTATION);
+        restore.join();
+
+        Assertions.assertThrows(StockRestoreInProgressException.class,
+                () -> admission.admit(OTHER_CLIENT, RequestKind.MUTATION));
+        admitAndRelease(admission, OTHER_CLIENT, RequestKind.READ, 1);
+        gate.open();
+        admitAndRelease(admission, OTHER_CLIENT, RequestKind.MUTATION, 1);
+    }
+
+    private RequestAdmission admission(BeerstockProperties.Limits reads, BeerstockProperties.Limits mutations) {
+        return admission(reads, mutations, 100_000);
+    }
+
+    private RequestAdmission admission(BeerstockProperties.Limits reads, BeerstockProperties.Limits mutations,
+                                       int maxClients) {
+        BeerstockProperties beerstockProperties = new BeerstockProperties();
+        beerstockProperties.getAdmission().setEnabled(true);
+        beerstockProperties.getAdmission().setReads(reads);
+        beerstockProperties.getAdmission().setMutations(mutations);
+        beerstockProperties.getAdmission().setMaxClients(maxClients);
+        return new RequestAdmission(beerstockProperties, beerMetrics, new CatalogWriteGate(beerstockProperties));
+    }
+
+    private static void admitAndRelease(RequestAdmission admission, String client, RequestKind kind, int times) {
+        for (int i = 0; i < times; i++) {
+            admission.admit(client, kind);
+            admission.release(kind);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.builder.BeerDTOBuilder;
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.StockChangeDTO;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+// the application relay is left idle, each test publishes with a relay of its own into a sink it can read
+@SpringBootTest(properties = "beerstock.outbox.relay-interval=1h")
+public class StockChangeOutboxTest {
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private StockChangeOutbox stockChangeOutbox;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final List<StockChangeDTO> published = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+    }
+
+    @Test
+    public void whenStockChangesThenTheyArePublishedInOrderAndCanBeResumedFromAnOffset() throws Exception {
+        BeerDTO beerDTO = beerService.create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        beerService.incrementStock(beerDTO.getId(), 5);
+        beerService.decrementStock(beerDTO.getId(), 3);
+        beerService.delete(beerDTO.getId());
+
+        assertThat(relay(published::addAll), equalTo(4));
+
+        assertThat(published.stream().map(StockChangeDTO::getChangeType).collect(Collectors.toList()),
+                contains(StockChangeType.CREATED, StockChangeType.INCREMENT, StockChangeType.DECREMENT,
+                        StockChangeType.DELETED));
+        long first = published.get(0).getOffset();
+        assertThat(published.stream().map(StockChangeDTO::getOffset).collect(Collectors.toList()),
+                contains(first, first + 1, first + 2, first + 3));
+        assertThat(published.get(1).getQuantity(), equalTo(beerDTO.getQuantity() + 5));
+
+        List<StockChangeDTO> resumed = stockChangeOutbox.changesSince(first + 1, null);
+        assertThat(resumed, equalTo(published.subList(2, 4)));
+    }
+
+    @Test
+    public void whenAStockChangeIsRejectedThenItIsNotRecorded() throws Exception {
+        BeerDTO beerDTO = beerService.create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> beerService.decrementStock(beerDTO.getId(), beerDTO.getQuantity() + 1));
+
+        relay(published::addAll);
+
+        assertThat(published, hasSize(1));
+        assertThat(published.get(0).getChangeType(), equalTo(StockChangeType.CREATED));
+    }
+
+    @Test
+    public void whenTheSinkFailsThenTheSameChangesArePublishedOnTheNextRun() throws Exception {
+        BeerDTO beerDTO = beerService.create(BeerDTOBuilder.builder().id(null).build().toBeerDTO());
+        beerService.incrementStock(beerDTO.getId(), 1);
+
+        Assertions.assertThrows(ExecutionException.class, () -> relay(changes -> {
+            published.addAll(changes);
+            throw new IllegalStateException("sink unavailable");
+        }));
+        List<StockChangeDTO> failed = new ArrayList<>(published);
+        published.clear();
+
+        assertThat(relay(published::addAll), equalTo(2));
+        assertThat(published, equalTo(failed));
+        assertThat(stockChangeOutbox.changesSince(0, null), equalTo(published));
+    }
+
+    private int relay(StockChangeSink sink) throws Exception {
+        StockChangeRelay relay = new StockChangeRelay(stockChangeRepository, sink, transactionManager,
+                new BeerstockProperties());
+        relay.start();
+        try {
+            return relay.relay();
+        } finally {
+            relay.stop();
+        }
+    }
+}
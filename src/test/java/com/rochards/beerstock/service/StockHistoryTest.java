@@ -0,0 +1,148 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.StockHistoryDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.HistoryBucket;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.exception.type.BeerNotFoundException;
+import com.rochards.beerstock.exception.type.InvalidHistoryRangeException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.StockRollupRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+@SpringBootTest
+public class StockHistoryTest {
+
+    @Autowired
+    private StockHistory stockHistory;
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private StockRollupRepository stockRollupRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        beerRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+        stockRollupRepository.deleteAll();
+    }
+
+    @Test
+    public void whenTheStockChangesThenEveryBucketAddsUpTheUnitsInAndOut() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        beerService.incrementStock(beer.getId(), 5);
+        beerService.decrementStock(beer.getId(), 3);
+        beerService.decrementStock(beer.getId(), 4);
+
+        Instant now = Instant.now();
+        for (HistoryBucket bucket : HistoryBucket.values()) {
+            List<StockHistoryDTO> history = stockHistory.history(beer.getId(), null, now.plusSeconds(1), bucket);
+            long unitsIn = history.stream().mapToLong(StockHistoryDTO::getUnitsIn).sum();
+            long unitsOut = history.stream().mapToLong(StockHistoryDTO::getUnitsOut).sum();
+            long movements = history.stream().mapToLong(StockHistoryDTO::getMovements).sum();
+            assertThat(unitsIn, equalTo(5L));
+            assertThat(unitsOut, equalTo(7L));
+            assertThat(movements, equalTo(3L));
+        }
+        assertThat(stockChangeRepository.count(), equalTo(3L)); // the movements themselves are kept as well
+    }
+
+    @Test
+    public void whenTheFirstChangesOfABucketAreRecordedConcurrentlyThenBothAreAddedUp() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Instant occurredAt = Instant.now();
+        CountDownLatch recorded = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the first change inserts the rollups and stays uncommitted while the second one misses them
+            Future<?> first = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                stockHistory.record(new StockChange(0, null, beer.getId(), BeerType.LAGER, StockChangeType.INCREMENT,
+                        5, 15, occurredAt));
+                recorded.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            recorded.await();
+            transactionTemplate.executeWithoutResult(status -> stockHistory.record(new StockChange(0, null,
+                    beer.getId(), BeerType.LAGER, StockChangeType.DECREMENT, -3, 12, occurredAt)));
+            first.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        for (HistoryBucket bucket : HistoryBucket.values()) {
+            List<StockHistoryDTO> history = stockHistory.history(beer.getId(), occurredAt, occurredAt.plusSeconds(1),
+                    bucket);
+            assertThat(history, hasSize(1));
+            assertThat(history.get(0).getUnitsIn(), equalTo(5L));
+            assertThat(history.get(0).getUnitsOut(), equalTo(3L));
+            assertThat(history.get(0).getMovements(), equalTo(2L));
+        }
+    }
+
+    @Test
+    public void whenTheRangeIsBeforeTheChangesThenItIsEmpty() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        beerService.incrementStock(beer.getId(), 5);
+
+        Instant dayBefore = HistoryBucket.DAY.start(Instant.now()).minus(Duration.ofDays(1));
+        assertThat(stockHistory.history(beer.getId(), dayBefore.minus(Duration.ofDays(1)), dayBefore,
+                HistoryBucket.HOUR), empty());
+        assertThat(stockHistory.history(beer.getId(), dayBefore, null, HistoryBucket.DAY), hasSize(1));
+    }
+
+    @Test
+    public void whenTheRangeHasTooManyBucketsThenItIsRejected() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Instant to = Instant.now();
+
+        Assertions.assertThrows(InvalidHistoryRangeException.class,
+                () -> stockHistory.history(beer.getId(), to.minus(Duration.ofDays(2)), to, HistoryBucket.MINUTE));
+        Assertions.assertThrows(InvalidHistoryRangeException.class,
+                () -> stockHistory.history(beer.getId(), to, to.minusSeconds(60), HistoryBucket.MINUTE));
+        assertThat(stockHistory.history(beer.getId(), to.minus(Duration.ofDays(2)), to, HistoryBucket.HOUR),
+                empty());
+    }
+
+    @Test
+    public void whenTheBeerDoesNotExistThenItIsNotFound() {
+        Assertions.assertThrows(BeerNotFoundException.class,
+                () -> stockHistory.history(Long.MAX_VALUE, null, null, HistoryBucket.HOUR));
+    }
+}
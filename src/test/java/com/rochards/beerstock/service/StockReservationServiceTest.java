@@ -0,0 +1,163 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.ReservationDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.ReservationNotFoundException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.StockReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+@SpringBootTest
+public class StockReservationServiceTest {
+
+    private static final int THREADS = 8;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private StockReservationRepository stockReservationRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @AfterEach
+    public void tearDown() {
+        stockReservationRepository.deleteAll();
+        beerRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+    }
+
+    @Test
+    public void whenUnitsAreReservedThenDecrementsCanOnlyTakeTheAvailableOnes() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        stockReservationService.reserve(beer.getId(), reservation(8, null));
+
+        Assertions.assertThrows(BeerStockExceededException.class, () -> beerService.decrementStock(beer.getId(), 3));
+        BeerDTO decremented = beerService.decrementStock(beer.getId(), 2);
+        assertThat(decremented.getQuantity(), equalTo(8));
+        assertThat(decremented.getReserved(), equalTo(8));
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> stockReservationService.reserve(beer.getId(), reservation(1, null)));
+    }
+
+    @Test
+    public void whenUnitsAreReservedOrReleasedThenTheCatalogVersionMovesOnlyOnceCommitted() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        long before = catalogVersion.current();
+
+        ReservationDTO reservation = stockReservationService.reserve(beer.getId(), reservation(4, null));
+        long reserved = catalogVersion.current();
+        stockReservationService.release(reservation.getId());
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> stockReservationService.reserve(beer.getId(), reservation(11, null)));
+
+        assertThat(reserved, greaterThan(before));
+        assertThat(catalogVersion.current(), greaterThan(reserved));
+    }
+
+    @Test
+    public void whenAReservationIsConfirmedThenItsUnitsLeaveTheStock() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        ReservationDTO reservation = stockReservationService.reserve(beer.getId(), reservation(4, null));
+
+        BeerDTO confirmed = stockReservationService.confirm(reservation.getId());
+
+        assertThat(confirmed.getQuantity(), equalTo(6));
+        assertThat(confirmed.getReserved(), equalTo(0));
+        Assertions.assertThrows(ReservationNotFoundException.class,
+                () -> stockReservationService.confirm(reservation.getId()));
+    }
+
+    @Test
+    public void whenAReservationIsReleasedThenItsUnitsAreAvailableAgain() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        ReservationDTO reservation = stockReservationService.reserve(beer.getId(), reservation(10, null));
+
+        stockReservationService.release(reservation.getId());
+
+        assertThat(beerService.decrementStock(beer.getId(), 10).getQuantity(), equalTo(0));
+    }
+
+    @Test
+    public void whenAReservationExpiresThenItsUnitsAreReleased() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        ReservationDTO reservation = stockReservationService.reserve(beer.getId(), reservation(5, 1));
+
+        for (int wait = 0; wait < 50 && beerRepository.findById(beer.getId()).get().getReserved() > 0; wait++) {
+            Thread.sleep(100);
+        }
+
+        assertThat(beerRepository.findById(beer.getId()).get().getReserved(), equalTo(0));
+        assertThat(stockReservationRepository.existsById(reservation.getId()), equalTo(false));
+        Assertions.assertThrows(ReservationNotFoundException.class,
+                () -> stockReservationService.confirm(reservation.getId()));
+    }
+
+    @Test
+    public void whenAReservationIsConfirmedConcurrentlyThenOnlyOneConfirmationTakesEffect() throws Exception {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        UUID id = stockReservationService.reserve(beer.getId(), reservation(3, null)).getId();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> confirmations = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            confirmations.add(executor.submit(() -> {
+                start.await();
+                try {
+                    stockReservationService.confirm(id);
+                    return true;
+                } catch (ReservationNotFoundException ex) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+
+        int confirmed = 0;
+        for (Future<Boolean> confirmation : confirmations) {
+            confirmed += confirmation.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+        assertThat(confirmed, equalTo(1));
+        Beer updated = beerRepository.findById(beer.getId()).get();
+        assertThat(updated.getQuantity(), equalTo(7));
+        assertThat(updated.getReserved(), equalTo(0));
+    }
+
+    private ReservationDTO reservation(int quantity, Integer ttlSeconds) {
+        return ReservationDTO.builder().quantity(quantity).ttlSeconds(ttlSeconds).build();
+    }
+}
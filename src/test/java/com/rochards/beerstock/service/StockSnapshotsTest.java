@@ -0,0 +1,326 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.config.BeerstockProperties;
+import com.rochards.beerstock.dto.SnapshotDTO;
+import com.rochards.beerstock.dto.TransferDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.entity.StockChange;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.enums.LowStockAlertStatus;
+import com.rochards.beerstock.enums.SnapshotCompression;
+import com.rochards.beerstock.enums.StockChangeType;
+import com.rochards.beerstock.enums.StoreEngine;
+import com.rochards.beerstock.exception.type.InvalidSnapshotException;
+import com.rochards.beerstock.exception.type.SnapshotNotFoundException;
+import com.rochards.beerstock.exception.type.UnsupportedByStoreEngineException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.StockRollupRepository;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+@SpringBootTest(properties = "beerstock.low-stock.thresholds-by-type.STOUT=5")
+public class StockSnapshotsTest {
+
+    @TempDir
+    private static Path directory;
+
+    @Autowired
+    private StockSnapshots stockSnapshots;
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private WarehouseStockService warehouseStockService;
+
+    @Autowired
+    private BeerSearchIndex beerSearchIndex;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private WarehouseStockRepository warehouseStockRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private StockRollupRepository stockRollupRepository;
+
+    @Autowired
+    private LowStockAlerts lowStockAlerts;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private BeerstockProperties beerstockProperties;
+
+    @DynamicPropertySource
+    public static void snapshotDirectory(DynamicPropertyRegistry registry) {
+        registry.add("beerstock.snapshot.directory", directory::toString);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        warehouseStockRepository.deleteAll();
+        beerRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+        stockRollupRepository.deleteAll();
+        BeerstockProperties.Snapshot snapshot = new BeerstockProperties.Snapshot();
+        snapshot.setDirectory(directory.toString());
+        beerstockProperties.setSnapshot(snapshot);
+        beerstockProperties.getStore().setEngine(StoreEngine.JPA);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void whenASnapshotIsRestoredThenTheBeersAreAsTheyWereWhenItWasTaken() throws IOException {
+        beerstockProperties.getSnapshot().setBlockSize(7); // several blocks
+        List<Beer> beers = saveBeers(20);
+        beerService.incrementStock(beers.get(3).getId(), 5);
+        List<Beer> expected = beerRepository.findAll();
+        SnapshotDTO snapshot = stockSnapshots.snapshot();
+
+        beerService.delete(beers.get(0).getId());
+        beerService.decrementStock(beers.get(3).getId(), 5);
+        beerRepository.save(new Beer(0, "Created After", "Brand", 50, 10, BeerType.ALE));
+
+        SnapshotDTO restored = stockSnapshots.restore(snapshot.getName());
+
+        assertThat(restored.getBeers(), equalTo(20L));
+        assertThat(beerRepository.findAll(), equalTo(expected));
+        assertThat(beerSearchIndex.search("Created After", 10).isEmpty(), equalTo(true));
+        assertThat(beerSearchIndex.search(beers.get(0).getName(), 1), contains(beers.get(0).getId()));
+        // ids handed out afterwards follow the restored ones
+        Beer created = beerRepository.save(new Beer(0, "Created After", "Brand", 50, 10, BeerType.ALE));
+        assertThat(created.getId(), greaterThan(expected.get(expected.size() - 1).getId()));
+    }
+
+    @Test
+    public void whenASnapshotIsRestoredThenTheQuantitiesItChangesAreRecordedAsStockChanges() throws IOException {
+        beerstockProperties.getSnapshot().setBlockSize(2);
+        Beer changed = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        Beer deleted = beerRepository.save(new Beer(0, "Skol", "Ambev", 50, 20, BeerType.LAGER));
+        Beer unchanged = beerRepository.save(new Beer(0, "Bohemia", "Ambev", 50, 30, BeerType.LAGER));
+        SnapshotDTO snapshot = stockSnapshots.snapshot();
+
+        beerService.incrementStock(changed.getId(), 5);
+        beerService.delete(deleted.getId());
+        Beer created = beerRepository.save(new Beer(0, "Created After", "Brand", 50, 7, BeerType.ALE));
+        stockChangeRepository.deleteAll();
+
+        stockSnapshots.restore(snapshot.getName());
+
+        Map<Long, StockChange> changes = stockChangeRepository.findAll().stream()
+                .collect(Collectors.toMap(StockChange::getBeerId, Function.identity()));
+        assertThat(changes.size(), equalTo(3));
+        assertThat(changes.get(changed.getId()).getChangeType(), equalTo(StockChangeType.DECREMENT));
+        assertThat(changes.get(changed.getId()).getDelta(), equalTo(-5));
+        assertThat(changes.get(changed.getId()).getQuantity(), equalTo(10));
+        assertThat(changes.get(deleted.getId()).getChangeType(), equalTo(StockChangeType.CREATED));
+        assertThat(changes.get(deleted.getId()).getQuantity(), equalTo(20));
+        assertThat(changes.get(created.getId()).getChangeType(), equalTo(StockChangeType.DELETED));
+        assertThat(changes.get(created.getId()).getDelta(), equalTo(-7));
+        assertThat(changes.containsKey(unchanged.getId()), equalTo(false));
+    }
+
+    @Test
+    public void whenASnapshotIsRestoredThenTheStockGaugesAndLowStockAlertsFollowIt() throws IOException {
+        Beer beer = beerRepository.save(new Beer(0, "Guinness", "Diageo", 50, 2, BeerType.STOUT));
+        SnapshotDTO snapshot = stockSnapshots.snapshot();
+        beerService.incrementStock(beer.getId(), 20);
+        beerRepository.save(new Beer(0, "Created After", "Brand", 50, 7, BeerType.STOUT));
+
+        StepVerifier.create(lowStockAlerts.alerts())
+                .then(() -> {
+                    try {
+                        stockSnapshots.restore(snapshot.getName());
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                })
+                .assertNext(alert -> {
+                    assertThat(alert.getBeerId(), equalTo(beer.getId()));
+                    assertThat(alert.getStatus(), equalTo(LowStockAlertStatus.LOW));
+                    assertThat(alert.getQuantity(), equalTo(2));
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(meterRegistry.get(BeerMetrics.STOCK_UNITS).tag("type", BeerType.STOUT.name()).gauge().value(),
+                equalTo(2.0));
+    }
+
+    @Test
+    public void whenTheStoreEngineIsMappedThenSnapshotsAreNotSupported() {
+        beerstockProperties.getStore().setEngine(StoreEngine.MAPPED);
+
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class, () -> stockSnapshots.snapshot());
+        Assertions.assertThrows(UnsupportedByStoreEngineException.class,
+                () -> stockSnapshots.restore("beers-20260101T000000000Z.snapshot"));
+    }
+
+    @Test
+    public void whenTheBlocksAreDeflatedThenTheSnapshotIsSmallerAndReadsTheSame() throws IOException {
+        saveBeers(500);
+        List<Beer> expected = beerRepository.findAll();
+        beerstockProperties.getSnapshot().setCompression(SnapshotCompression.NONE);
+        SnapshotDTO plain = stockSnapshots.snapshot();
+        beerstockProperties.getSnapshot().setCompression(SnapshotCompression.DEFLATE);
+        SnapshotDTO deflated = stockSnapshots.snapshot();
+
+        assertThat(deflated.getBytes(), lessThan(plain.getBytes()));
+        stockSnapshots.restore(plain.getName());
+        assertThat(beerRepository.findAll(), equalTo(expected));
+        stockSnapshots.restore(deflated.getName());
+        assertThat(beerRepository.findAll(), equalTo(expected));
+    }
+
+    @Test
+    public void whenASnapshotIsDamagedThenRestoringItLeavesTheBeersAlone() throws IOException {
+        beerstockProperties.getSnapshot().setBlockSize(10);
+        saveBeers(30);
+        SnapshotDTO snapshot = stockSnapshots.snapshot();
+        Path file = directory.resolve(snapshot.getName());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 40] ^= 0x55; // inside the last block, the first ones read fine
+        Files.write(file, bytes);
+        beerRepository.save(new Beer(0, "Created After", "Brand", 50, 10, BeerType.ALE));
+
+        Assertions.assertThrows(InvalidSnapshotException.class, () -> stockSnapshots.restore(snapshot.getName()));
+        assertThat(beerRepository.count(), equalTo(31L));
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        Assertions.assertThrows(InvalidSnapshotException.class, () -> stockSnapshots.restore(snapshot.getName()));
+        assertThat(beerRepository.count(), equalTo(31L));
+    }
+
+    @Test
+    public void whenABlockFailsHalfwayThroughARestoreThenTheBeersArePutBackAsTheyWere() throws IOException {
+        beerstockProperties.getSnapshot().setBlockSize(5);
+        List<Beer> beers = saveBeers(12);
+        List<Beer> expected = beerRepository.findAll();
+        stockChangeRepository.deleteAll();
+        // the file is sound, but the second block repeats a name of the first one, which is committed by then
+        String name = "beers-20260101T000000000Z.snapshot";
+        try (SnapshotFile.Writer writer = SnapshotFile.writer(directory.resolve(name), SnapshotCompression.DEFLATE, 5,
+                Instant.parse("2026-01-01T00:00:00Z"))) {
+            for (int i = 0; i < 10; i++) {
+                writer.append(new Beer(1_000 + i, "Restored " + (i == 7 ? 0 : i), "Brand", 100, 10, BeerType.ALE));
+            }
+            writer.finish();
+        }
+
+        Assertions.assertThrows(DataIntegrityViolationException.class, () -> stockSnapshots.restore(name));
+
+        assertThat(beerRepository.findAll(), equalTo(expected));
+        assertThat(stockChangeRepository.count(), equalTo(0L));
+        assertThat(beerSearchIndex.search(beers.get(0).getName(), 1), contains(beers.get(0).getId()));
+        assertThat(beerSearchIndex.search("Restored 1", 10).isEmpty(), equalTo(true));
+        // the image taken beforehand is gone once the beers are back
+        assertThat(stockSnapshots.list().stream().map(SnapshotDTO::getName).toList(), contains(name));
+    }
+
+    @Test
+    public void whenARestoreLeavesItsImageBehindThenItIsNeitherListedRetainedNorRestoredOnStartup() throws IOException {
+        saveBeers(3);
+        // what a restore interrupted by a crash leaves, the table as it was before the restore started
+        String name = "pre-restore-20260101T000000000Z.snapshot";
+        Files.move(directory.resolve(stockSnapshots.snapshot().getName()), directory.resolve(name));
+        beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        beerstockProperties.getSnapshot().setRetained(1);
+        SnapshotDTO snapshot = stockSnapshots.snapshot();
+
+        assertThat(stockSnapshots.list().stream().map(SnapshotDTO::getName).toList(), contains(snapshot.getName()));
+        assertThat(Files.exists(directory.resolve(name)), equalTo(true));
+
+        beerRepository.deleteAll();
+        beerstockProperties.getSnapshot().setRestoreOnStartup(true);
+        stockSnapshots.restoreOnStartup();
+        assertThat(beerRepository.count(), equalTo(4L));
+
+        stockSnapshots.restore(name); // by hand
+        assertThat(beerRepository.count(), equalTo(3L));
+    }
+
+    @Test
+    public void whenUnitsAreInWarehousesThenTheyAreUnassignedOnRestore() throws IOException {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        warehouseStockService.transfer(beer.getId(), new TransferDTO(null, "recife", 6));
+        SnapshotDTO snapshot = stockSnapshots.snapshot();
+
+        stockSnapshots.restore(snapshot.getName());
+
+        Beer restored = beerRepository.findById(beer.getId()).get();
+        assertThat(restored.getQuantity(), equalTo(10));
+        assertThat(restored.getLocated(), equalTo(0));
+        assertThat(warehouseStockRepository.count(), equalTo(0L));
+    }
+
+    @Test
+    public void whenMoreSnapshotsThanRetainedAreTakenThenTheOldestAreDeleted() throws IOException {
+        beerstockProperties.getSnapshot().setRetained(2);
+        saveBeers(3);
+
+        stockSnapshots.snapshot();
+        SnapshotDTO second = stockSnapshots.snapshot();
+        SnapshotDTO third = stockSnapshots.snapshot();
+
+        List<SnapshotDTO> snapshots = stockSnapshots.list();
+        assertThat(snapshots.stream().map(SnapshotDTO::getName).toList(),
+                contains(third.getName(), second.getName()));
+        assertThat(snapshots.get(0).getBeers(), equalTo(3L));
+    }
+
+    @Test
+    public void whenTheNameIsNotOfASnapshotThenItIsNotFound() {
+        Assertions.assertThrows(SnapshotNotFoundException.class,
+                () -> stockSnapshots.restore("../application.properties"));
+        Assertions.assertThrows(SnapshotNotFoundException.class,
+                () -> stockSnapshots.restore("beers-20260101T000000000Z.snapshot"));
+    }
+
+    private List<Beer> saveBeers(int count) {
+        List<Beer> beers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            beers.add(new Beer(0, "Beer " + i, "Brand " + (i % 5), 100, i % 50, BeerType.values()[i % 7]));
+        }
+        return beerRepository.saveAll(beers);
+    }
+}
@@ -0,0 +1,128 @@
+package com.rochards.beerstock.service;
+
+import com.rochards.beerstock.dto.BeerDTO;
+import com.rochards.beerstock.dto.TransferDTO;
+import com.rochards.beerstock.dto.WarehouseStockDTO;
+import com.rochards.beerstock.entity.Beer;
+import com.rochards.beerstock.enums.BeerType;
+import com.rochards.beerstock.exception.type.BeerStockExceededException;
+import com.rochards.beerstock.exception.type.InvalidWarehouseException;
+import com.rochards.beerstock.repository.BeerRepository;
+import com.rochards.beerstock.repository.StockChangeRepository;
+import com.rochards.beerstock.repository.WarehouseStockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@SpringBootTest
+public class WarehouseStockServiceTest {
+
+    @Autowired
+    private WarehouseStockService warehouseStockService;
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private WarehouseStockRepository warehouseStockRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @AfterEach
+    public void tearDown() {
+        warehouseStockRepository.deleteAll();
+        beerRepository.deleteAll();
+        stockChangeRepository.deleteAll();
+    }
+
+    @Test
+    public void whenStockIsAddedToWarehousesThenTheBeerHasTheTotalAndItsBreakdown() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        warehouseStockService.incrementStock(beer.getId(), "recife", 5);
+        BeerDTO beerDTO = warehouseStockService.incrementStock(beer.getId(), "campinas", 3);
+
+        assertThat(beerDTO.getQuantity(), equalTo(18));
+        assertThat(beerDTO.getLocated(), equalTo(8));
+        assertThat(beerDTO.getWarehouses(), equalTo(List.of(new WarehouseStockDTO("campinas", 3),
+                new WarehouseStockDTO("recife", 5))));
+        assertThat(beerService.findById(beer.getId()).get().getWarehouses().size(), equalTo(2));
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> warehouseStockService.incrementStock(beer.getId(), "recife", 33));
+    }
+
+    @Test
+    public void whenStockIsTakenFromAWarehouseThenOnlyItsUnitsCanBeTaken() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        warehouseStockService.incrementStock(beer.getId(), "recife", 5);
+
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> warehouseStockService.decrementStock(beer.getId(), "recife", 6));
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> warehouseStockService.decrementStock(beer.getId(), "campinas", 1));
+        BeerDTO beerDTO = warehouseStockService.decrementStock(beer.getId(), "recife", 5);
+
+        assertThat(beerDTO.getQuantity(), equalTo(10));
+        assertThat(beerDTO.getLocated(), equalTo(0));
+        assertThat(beerDTO.getWarehouses(), nullValue());
+        assertThat(warehouseStockRepository.count(), equalTo(0L));
+    }
+
+    @Test
+    public void whenUnitsAreTransferredThenTheTotalStaysTheSame() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        warehouseStockService.transfer(beer.getId(), new TransferDTO(null, "recife", 6));
+        BeerDTO beerDTO = warehouseStockService.transfer(beer.getId(), new TransferDTO("recife", "campinas", 4));
+
+        assertThat(beerDTO.getQuantity(), equalTo(10));
+        assertThat(beerDTO.getLocated(), equalTo(6));
+        assertThat(beerDTO.getWarehouses(), equalTo(List.of(new WarehouseStockDTO("campinas", 4),
+                new WarehouseStockDTO("recife", 2))));
+        Assertions.assertThrows(BeerStockExceededException.class,
+                () -> warehouseStockService.transfer(beer.getId(), new TransferDTO(null, "recife", 5)));
+
+        beerDTO = warehouseStockService.transfer(beer.getId(), new TransferDTO("campinas", null, 4));
+        assertThat(beerDTO.getLocated(), equalTo(2));
+    }
+
+    @Test
+    public void whenUnitsAreInWarehousesThenThePlainDecrementsLeaveThemAlone() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        warehouseStockService.transfer(beer.getId(), new TransferDTO(null, "recife", 7));
+
+        Assertions.assertThrows(BeerStockExceededException.class, () -> beerService.decrementStock(beer.getId(), 4));
+        assertThat(beerService.decrementStock(beer.getId(), 3).getQuantity(), equalTo(7));
+    }
+
+    @Test
+    public void whenAWarehouseIsNotValidThenNothingChanges() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+
+        Assertions.assertThrows(InvalidWarehouseException.class,
+                () -> warehouseStockService.incrementStock(beer.getId(), "recife/centro", 5));
+        assertThat(beerRepository.findById(beer.getId()).get().getQuantity(), equalTo(10));
+    }
+
+    @Test
+    public void whenABeerIsDeletedThenItsWarehouseStockGoesWithIt() {
+        Beer beer = beerRepository.save(new Beer(0, "Brahma", "Ambev", 50, 10, BeerType.LAGER));
+        warehouseStockService.incrementStock(beer.getId(), "recife", 5);
+
+        beerService.delete(beer.getId());
+
+        assertThat(warehouseStockRepository.count(), equalTo(0L));
+    }
+}
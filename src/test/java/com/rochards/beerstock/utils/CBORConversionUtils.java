@@ -0,0 +1,41 @@
+package com.rochards.beerstock.utils;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.util.List;
+
+public class CBORConversionUtils {
+
+    private static final ObjectMapper OBJECT_MAPPER = CBORMapper.builder()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .addModule(new JavaTimeModule())
+            .build();
+
+    public static byte[] asCBOR(Object objectDTO) {
+        try {
+            return OBJECT_MAPPER.writeValueAsBytes(objectDTO);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static <T> T fromCBOR(byte[] cbor, Class<T> type) {
+        return fromCBOR(cbor, OBJECT_MAPPER.constructType(type));
+    }
+
+    public static <T> T fromCBOR(byte[] cbor, JavaType type) {
+        try {
+            return OBJECT_MAPPER.readValue(cbor, type);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static JavaType listOf(Class<?> type) {
+        return OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, type);
+    }
+}